@@ -0,0 +1,98 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds;
+
+import cd.go.authentication.ldap.BaseIntegrationTest;
+import cd.go.authentication.ldap.cache.DirectoryChanges;
+import cd.go.authentication.ldap.mapper.UsernameResolver;
+import cd.go.authentication.ldap.model.LdapConfiguration;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.ApplyLdifFiles;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.org.webcompere.systemstubs.jupiter.SystemStub;
+import uk.org.webcompere.systemstubs.properties.SystemProperties;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static cd.go.authentication.ldap.PluginSystemProperty.CHANGE_NOTIFICATIONS;
+import static cd.go.authentication.ldap.PluginSystemProperty.USE_JNDI_LDAP_CLIENT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ApplyLdifFiles(value = "users.ldif", clazz = BaseIntegrationTest.class)
+@CreateLdapServer(transports = {
+        @CreateTransport(protocol = "LDAP")
+})
+public class DirectoryChangeListenerIntegrationTest extends BaseIntegrationTest {
+    private static final String EMPLOYEES = "ou=Employees,ou=Enterprise,ou=Principal,ou=system";
+    private static final Collection<String> ALL_USERS = Collections.singleton("<all users>");
+
+    @SystemStub
+    public final SystemProperties systemProperty = new SystemProperties()
+            .set(USE_JNDI_LDAP_CLIENT, "false")
+            .set(CHANGE_NOTIFICATIONS, "true");
+
+    private final BlockingQueue<Collection<String>> changes = new LinkedBlockingQueue<>();
+    private final DirectoryChanges.Listener listener = (configuration, usernames) -> changes.add(usernames == null ? ALL_USERS : usernames);
+    private LdapConfiguration ldapConfiguration;
+    private ApacheDsLdapClient ldap;
+
+    @BeforeEach
+    public void setUp() throws Exception {
+        DirectoryChanges.instance().addListener(listener);
+        ldapConfiguration = ldapConfiguration(new String[]{EMPLOYEES});
+        ldap = new ApacheDsLdapClient(ldapConfiguration);
+
+        assertThat(changes.poll(10, TimeUnit.SECONDS))
+                .describedAs("users cached before listening for changes are forgotten once listening")
+                .isEqualTo(ALL_USERS);
+    }
+
+    @AfterEach
+    public void tearDown() {
+        DirectoryChanges.instance().removeListener(listener);
+        ldap.close();
+    }
+
+    @Test
+    public void shouldTellAboutModifiedUserRightAway() throws Exception {
+        ldap.authenticate("pbanks", "phillip", ldapConfiguration.getUserMapper(new UsernameResolver()));
+
+        getService().getAdminSession().modify(new Dn("uid=pbanks," + EMPLOYEES),
+                new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "displayName", "Phil Banks"));
+
+        assertThat(changes.poll(10, TimeUnit.SECONDS)).containsExactly("pbanks");
+    }
+
+    @Test
+    public void shouldTellAboutDeletedUserByTheUsernameItLoggedInWith() throws Exception {
+        ldap.authenticate("bford", "bob", ldapConfiguration.getUserMapper(new UsernameResolver()));
+
+        getService().getAdminSession().delete(new Dn("uid=bob," + EMPLOYEES));
+
+        assertThat(changes.poll(10, TimeUnit.SECONDS)).contains("bford");
+    }
+}
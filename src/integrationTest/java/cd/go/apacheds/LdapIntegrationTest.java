@@ -16,22 +16,37 @@
 
 package cd.go.apacheds;
 
+import cd.go.apacheds.pool.ConnectionPoolFactory;
+import cd.go.apacheds.pool.ConnectionPools;
 import cd.go.authentication.ldap.BaseIntegrationTest;
 import cd.go.authentication.ldap.exception.LdapException;
 import cd.go.authentication.ldap.exception.MultipleUserDetectedException;
 import cd.go.authentication.ldap.mapper.UserMapper;
 import cd.go.authentication.ldap.mapper.UsernameResolver;
+import cd.go.authentication.ldap.mirror.MirroredUser;
+import cd.go.authentication.ldap.mirror.MirroredUserMapper;
 import cd.go.authentication.ldap.model.LdapConfiguration;
 import cd.go.authentication.ldap.model.User;
+import com.google.gson.Gson;
+import org.apache.directory.ldap.client.api.LdapConnectionPool;
 import org.apache.directory.ldap.client.template.exception.LdapRuntimeException;
 import org.apache.directory.server.annotations.CreateLdapServer;
 import org.apache.directory.server.annotations.CreateTransport;
 import org.apache.directory.server.core.annotations.ApplyLdifFiles;
+import org.apache.directory.server.core.api.interceptor.BaseInterceptor;
+import org.apache.directory.server.core.api.interceptor.context.BindOperationContext;
+import org.apache.directory.server.ldap.LdapSession;
 import org.junit.jupiter.api.Test;
 import uk.org.webcompere.systemstubs.jupiter.SystemStub;
 import uk.org.webcompere.systemstubs.properties.SystemProperties;
 
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static cd.go.authentication.ldap.PluginSystemProperty.USE_JNDI_LDAP_CLIENT;
 import static java.text.MessageFormat.format;
@@ -70,6 +85,32 @@ public class LdapIntegrationTest extends BaseIntegrationTest {
                 .hasMessageContaining("Failed to authenticate user `bford` with ldap server ldap://localhost");
     }
 
+    @Test
+    public void authenticate_shouldReuseBindConnectionsAndDiscardThoseWithFailedBinds() {
+        LdapConfiguration ldapConfiguration = ldapConfiguration(new String[]{"ou=system"});
+        final ConnectionPools connectionPools = ConnectionPoolFactory.acquire(new ConnectionConfiguration(ldapConfiguration));
+        final LdapConnectionPool bindConnectionPool = connectionPools.bindConnectionPool();
+        bindConnectionPool.clear();
+        final long createdCount = bindConnectionPool.getCreatedCount();
+        final long destroyedCount = bindConnectionPool.getDestroyedCount();
+
+        ldap = new ApacheDsLdapClient(ldapConfiguration);
+
+        ldap.authenticate("bford", "bob", ldapConfiguration.getUserMapper(new UsernameResolver()));
+        ldap.authenticate("bford", "bob", ldapConfiguration.getUserMapper(new UsernameResolver()));
+
+        assertThat(bindConnectionPool.getCreatedCount() - createdCount).isEqualTo(1);
+        assertThat(bindConnectionPool.getNumIdle()).isEqualTo(1);
+
+        assertThatCode(() -> ldap.authenticate("bford", "wrong-password", ldapConfiguration.getUserMapper(new UsernameResolver())))
+                .isInstanceOf(LdapException.class);
+
+        assertThat(bindConnectionPool.getDestroyedCount() - destroyedCount).isEqualTo(1);
+        assertThat(bindConnectionPool.getNumActive()).isEqualTo(0);
+        assertThat(ldap.authenticate("bford", "bob", ldapConfiguration.getUserMapper(new UsernameResolver()))).isNotNull();
+        connectionPools.release();
+    }
+
     @Test
     public void authenticate_shouldErrorOutUserIsNotExistInLdap() {
         LdapConfiguration ldapConfiguration = ldapConfiguration(new String[]{"ou=system"});
@@ -149,6 +190,84 @@ public class LdapIntegrationTest extends BaseIntegrationTest {
         assertThat(users).hasSize(4);
     }
 
+    @Test
+    public void searchAll_shouldFetchAllUsersAcrossMultipleSearchBasesPageByPage() {
+        final LdapConfiguration ldapConfiguration = ldapConfiguration(new String[]{"ou=Employees,ou=Enterprise,ou=Principal,ou=system", "ou=Clients,ou=Enterprise,ou=Principal,ou=system", "ou=Enterprise,ou=Principal,ou=system"});
+        final MirroredUserMapper mapper = new MirroredUserMapper(ldapConfiguration.getUserMapper(new UsernameResolver()));
+
+        ldap = new ApacheDsLdapClient(ldapConfiguration);
+
+        final AtomicReference<String> answeredBy = new AtomicReference<>();
+        final List<MirroredUser> users = ldap.searchAll("(uid=*a*)", mapper, 2, answeredBy::set);
+
+        assertThat(users).hasSize(5);
+        assertThat(users).extracting(MirroredUser::getDn).doesNotHaveDuplicates().allMatch(dn -> dn.endsWith("ou=Enterprise,ou=Principal,ou=system"));
+        assertThat(answeredBy.get()).isEqualTo(ldapConfiguration.getLdapUrlAsString());
+    }
+
+    @Test
+    public void authenticate_shouldReturnBindConnectionsBoundAsManager() {
+        final LdapConfiguration ldapConfiguration = ldapConfiguration(new String[]{"ou=system"});
+        final String userDn = "uid=bob,ou=Employees,ou=Enterprise,ou=Principal,ou=system";
+        final long sessionsBoundAsUser = boundDns().stream().filter(userDn::equals).count();
+
+        ldap = new ApacheDsLdapClient(ldapConfiguration);
+
+        assertThat(ldap.authenticate("bford", "bob", ldapConfiguration.getUserMapper(new UsernameResolver()))).isNotNull();
+        assertThat(boundDns().stream().filter(userDn::equals).count()).isLessThanOrEqualTo(sessionsBoundAsUser);
+    }
+
+    @Test
+    public void authenticate_shouldGiveUpOnBindNotAnsweredWithinBindTimeout() throws Exception {
+        final CountDownLatch answerUserBinds = new CountDownLatch(1);
+        ldapServer.getDirectoryService().addFirst(new BaseInterceptor("HoldUserBinds") {
+            @Override
+            public void bind(BindOperationContext bindContext) throws org.apache.directory.api.ldap.model.exception.LdapException {
+                if (!"uid=admin,ou=system".equals(bindContext.getDn().getName())) {
+                    try {
+                        answerUserBinds.await(1, TimeUnit.MINUTES);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                next(bindContext);
+            }
+        });
+        final LdapConfiguration ldapConfiguration = ldapConfigurationWithBindTimeout("1");
+
+        ldap = new ApacheDsLdapClient(ldapConfiguration);
+
+        try {
+            final long startedAt = System.nanoTime();
+            assertThatCode(() -> ldap.authenticate("bford", "bob", ldapConfiguration.getUserMapper(new UsernameResolver())))
+                    .isInstanceOf(LdapException.class);
+            assertThat(Duration.ofNanos(System.nanoTime() - startedAt)).isLessThan(Duration.ofSeconds(10));
+        } finally {
+            answerUserBinds.countDown();
+        }
+        assertThat(ldap.authenticate("bford", "bob", ldapConfiguration.getUserMapper(new UsernameResolver()))).isNotNull();
+    }
+
+    private LdapConfiguration ldapConfigurationWithBindTimeout(String bindTimeout) {
+        return LdapConfiguration.fromJSON(new Gson().toJson(Map.of(
+                "Url", String.format("ldap://localhost:%d", ldapServer.getPort()),
+                "SearchBases", "ou=system",
+                "ManagerDN", "uid=admin,ou=system",
+                "Password", "secret",
+                "UserLoginFilter", "(uid={0})",
+                "BindTimeout", bindTimeout)));
+    }
+
+    private List<String> boundDns() {
+        final List<String> dns = new ArrayList<>();
+        for (LdapSession session : ldapServer.getLdapSessionManager().getSessions()) {
+            if (session.getCoreSession() != null && session.getCoreSession().getAuthenticatedPrincipal() != null) {
+                dns.add(session.getCoreSession().getAuthenticatedPrincipal().getDn().getName());
+            }
+        }
+        return dns;
+    }
+
     @Test
     public void validate_shouldValidateManagerDnAndPassword() {
         LdapConfiguration ldapConfiguration = ldapConfiguration("uid=admin,ou=system", "secret", "ou=system");
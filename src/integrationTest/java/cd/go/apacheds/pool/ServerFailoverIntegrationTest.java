@@ -0,0 +1,132 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import cd.go.apacheds.ApacheDsLdapClient;
+import cd.go.apacheds.ConnectionConfiguration;
+import cd.go.authentication.ldap.BaseIntegrationTest;
+import cd.go.authentication.ldap.mapper.UsernameResolver;
+import cd.go.authentication.ldap.model.LdapConfiguration;
+import cd.go.authentication.ldap.model.User;
+import com.google.gson.Gson;
+import org.apache.directory.api.ldap.model.url.LdapUrl;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.ApplyLdifFiles;
+import org.apache.directory.server.ldap.LdapServer;
+import org.apache.directory.server.protocol.shared.transport.TcpTransport;
+import org.apache.mina.util.AvailablePortFinder;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import uk.org.webcompere.systemstubs.jupiter.SystemStub;
+import uk.org.webcompere.systemstubs.properties.SystemProperties;
+
+import java.util.Map;
+
+import static cd.go.authentication.ldap.PluginSystemProperty.USE_JNDI_LDAP_CLIENT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@ApplyLdifFiles(value = "users.ldif", clazz = BaseIntegrationTest.class)
+@CreateLdapServer(transports = {
+        @CreateTransport(protocol = "LDAP")
+})
+public class ServerFailoverIntegrationTest extends BaseIntegrationTest {
+    @SystemStub
+    public final SystemProperties systemProperty = new SystemProperties().set(USE_JNDI_LDAP_CLIENT, "false");
+
+    private LdapServer replica;
+    private int replicaPort;
+    private ApacheDsLdapClient ldap;
+
+    @BeforeEach
+    void startReplica() throws Exception {
+        replicaPort = AvailablePortFinder.getNextAvailable(1024);
+        replica = startReplica(replicaPort);
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (ldap != null) {
+            ldap.close();
+        }
+        replica.stop();
+    }
+
+    @Test
+    void shouldAuthenticateUsingAnotherServerWhenFirstServerIsDown() {
+        final LdapConfiguration ldapConfiguration = configurationWithServers(replicaPort, ldapServer.getPort());
+        ldap = new ApacheDsLdapClient(ldapConfiguration);
+        replica.stop();
+
+        final User user = ldap.authenticate("bford", "bob", ldapConfiguration.getUserMapper(new UsernameResolver()));
+
+        assertThat(user).isEqualTo(new User("bford", "Bob Ford", "bford@example.com"));
+    }
+
+    @Test
+    void shouldPreferHealthyServerOverFailingOneAndProbeFailingServerUntilItRecovers() throws Exception {
+        final LdapConfiguration ldapConfiguration = configurationWithServers(replicaPort, ldapServer.getPort());
+        ldap = new ApacheDsLdapClient(ldapConfiguration);
+        final ServerHealth replicaHealth = healthOf(ldapConfiguration, ldapConfiguration.getLdapUrls().get(0));
+        final ServerHealth primaryHealth = healthOf(ldapConfiguration, ldapConfiguration.getLdapUrls().get(1));
+        replica.stop();
+
+        assertThat(ldap.search("(uid={0})", new String[]{"bford"}, 0)).hasSize(1);
+        assertThat(replicaHealth.needsProbe()).isTrue();
+        assertThat(replicaHealth.rank()).isGreaterThan(primaryHealth.rank());
+
+        assertThat(ldap.search("(uid={0})", new String[]{"bford"}, 0)).hasSize(1);
+        ConnectionPoolFactory.probeUnhealthyServers();
+        assertThat(replicaHealth.needsProbe()).isTrue();
+
+        replica = startReplica(replicaPort);
+        ConnectionPoolFactory.probeUnhealthyServers();
+
+        assertThat(replicaHealth.needsProbe()).isFalse();
+        assertThat(replicaHealth.isAvailable()).isTrue();
+    }
+
+    private LdapServer startReplica(int port) throws Exception {
+        final LdapServer server = new LdapServer();
+        server.setDirectoryService(getService());
+        server.setTransports(new TcpTransport(port));
+        server.start();
+        return server;
+    }
+
+    private ServerHealth healthOf(LdapConfiguration ldapConfiguration, LdapUrl ldapUrl) {
+        final ConnectionPools connectionPools = ConnectionPoolFactory.acquire(new ConnectionConfiguration(ldapConfiguration, ldapUrl));
+        connectionPools.release();
+        return connectionPools.health();
+    }
+
+    private LdapConfiguration configurationWithServers(int... ports) {
+        final StringBuilder urls = new StringBuilder();
+        for (int port : ports) {
+            urls.append(String.format("ldap://localhost:%d%n", port));
+        }
+
+        return LdapConfiguration.fromJSON(new Gson().toJson(Map.of(
+                "Url", urls.toString(),
+                "SearchBases", "ou=system",
+                "ManagerDN", "uid=admin,ou=system",
+                "Password", "secret",
+                "UserLoginFilter", "(uid={0})",
+                "DisplayNameAttribute", "displayName")));
+    }
+}
@@ -52,6 +52,15 @@ public abstract class BaseIntegrationTest extends AbstractLdapTestUnit {
         return LdapConfiguration.fromJSON(new Gson().toJson(configuration));
     }
 
+    protected LdapConfiguration ldapConfigurationWithUserMirrorFilter(String userMirrorFilter, String... searchBases) {
+        Map<String, String> configuration = configAsMap(
+                "uid=admin,ou=system", "secret", "(uid={0})", searchBases
+        );
+        configuration.put("UserMirrorFilter", userMirrorFilter);
+
+        return LdapConfiguration.fromJSON(new Gson().toJson(configuration));
+    }
+
     private Map<String, String> configAsMap(String managerDN, String password, String userLoginFilter, String[] searchBases) {
         Map<String, String> configuration = new HashMap<>();
         configuration.put("Url", String.format("ldap://localhost:%s", ldapServer.getPort()));
@@ -17,7 +17,11 @@
 package cd.go.authentication.ldap.executor;
 
 import cd.go.authentication.ldap.BaseIntegrationTest;
+import cd.go.authentication.ldap.LdapClient;
 import cd.go.authentication.ldap.LdapFactory;
+import cd.go.authentication.ldap.cache.UnknownUserCache;
+import cd.go.authentication.ldap.exception.CircuitBreakerOpenException;
+import cd.go.authentication.ldap.mapper.Mapper;
 import cd.go.authentication.ldap.model.AuthConfig;
 import cd.go.authentication.ldap.model.IsValidUserRequest;
 import cd.go.authentication.ldap.model.LdapConfiguration;
@@ -27,7 +31,9 @@ import org.apache.directory.server.annotations.CreateTransport;
 import org.apache.directory.server.core.annotations.ApplyLdifFiles;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
 
+import java.time.Duration;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -71,6 +77,65 @@ public class IsValidUserExecutorIntegrationTest extends BaseIntegrationTest {
         verify(ldapFactory, times(3)).ldapForConfiguration(firstLdapConfig);
     }
 
+    @Test
+    public void shouldAnswerRepeatedLookupOfUnknownUserWithoutSearching() {
+        final LdapConfiguration firstLdapConfig = ldapConfiguration(new String[]{"ou=Employees,ou=Enterprise,ou=Principal,ou=system"});
+        AuthConfig first = new AuthConfig("3", firstLdapConfig);
+        final UnknownUserCache unknownUsers = new UnknownUserCache(Duration.ofMinutes(1));
+        final IsValidUserRequestExecutor executor = new IsValidUserRequestExecutor(ldapFactory, unknownUsers);
+
+        assertThat(executor.execute(createGoPluginApiRequest("unknown", first)).responseCode()).isEqualTo(404);
+        assertThat(executor.execute(createGoPluginApiRequest(" Unknown ", first)).responseCode()).isEqualTo(404);
+        assertThat(executor.execute(createGoPluginApiRequest("user_1", first)).responseCode()).isEqualTo(200);
+
+        verify(ldapFactory, times(2)).ldapForConfiguration(firstLdapConfig);
+        assertThat(unknownUsers.hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void shouldNotRememberUserAsUnknownWhenNotAllSearchBasesCouldBeSearched() {
+        final LdapConfiguration firstLdapConfig = ldapConfiguration(new String[]{"ou=Employees,ou=Enterprise,ou=Principal,ou=system"});
+        AuthConfig first = new AuthConfig("5", firstLdapConfig);
+        final UnknownUserCache unknownUsers = new UnknownUserCache(Duration.ofMinutes(1));
+        final LdapClient ldapClient = mock(LdapClient.class);
+        doReturn(ldapClient).when(ldapFactory).ldapForConfiguration(firstLdapConfig);
+        when(ldapClient.searchCompletely(any(), any(), any(), anyInt())).thenThrow(new CircuitBreakerOpenException("open"));
+
+        assertThat(new IsValidUserRequestExecutor(ldapFactory, unknownUsers).execute(createGoPluginApiRequest("user_1", first)).responseCode()).isEqualTo(404);
+
+        assertThat(unknownUsers.isUnknown(first, "user_1")).isFalse();
+        verify(ldapClient, never()).search(any(), any(), any(), anyInt());
+    }
+
+    @Test
+    public void shouldCheckWhetherUserExistsWithoutFetchingItsAttributes() {
+        final LdapConfiguration firstLdapConfig = ldapConfiguration(new String[]{"ou=Employees,ou=Enterprise,ou=Principal,ou=system"});
+        AuthConfig first = new AuthConfig("6", firstLdapConfig);
+        final LdapClient ldapClient = spy(ldapFactory.ldapForConfiguration(firstLdapConfig));
+        doReturn(ldapClient).when(ldapFactory).ldapForConfiguration(firstLdapConfig);
+        final ArgumentCaptor<Mapper<?>> mapper = ArgumentCaptor.forClass(Mapper.class);
+
+        assertThat(new IsValidUserRequestExecutor(ldapFactory).execute(createGoPluginApiRequest("user_1", first)).responseCode()).isEqualTo(200);
+
+        verify(ldapClient).searchCompletely(any(), any(), mapper.capture(), anyInt());
+        assertThat(mapper.getValue().requiredAttributes()).containsExactly(Mapper.NO_ATTRIBUTES);
+    }
+
+    @Test
+    public void shouldCheckWhetherUserIsValidUsingValidationFilter() {
+        final LdapConfiguration ldapConfig = LdapConfiguration.fromJSON(new Gson().toJson(Map.of(
+                "Url", ldapConfiguration(new String[]{"ou=system"}).getLdapUrlAsString(),
+                "ManagerDN", "uid=admin,ou=system",
+                "Password", "secret",
+                "SearchBases", "ou=system",
+                "UserLoginFilter", "(uid={0})",
+                "UserValidationFilter", "(mail={0})")));
+        AuthConfig authConfig = new AuthConfig("4", ldapConfig);
+
+        assertThat(new IsValidUserRequestExecutor(ldapFactory).execute(createGoPluginApiRequest("bford@example.com", authConfig)).responseCode()).isEqualTo(200);
+        assertThat(new IsValidUserRequestExecutor(ldapFactory).execute(createGoPluginApiRequest("bford", authConfig)).responseCode()).isEqualTo(404);
+    }
+
     private IsValidUserRequest createGoPluginApiRequest(String username, AuthConfig authConfig) {
         final Map<String, Object> requestBodyMap = new HashMap<>();
         requestBodyMap.put("username", username);
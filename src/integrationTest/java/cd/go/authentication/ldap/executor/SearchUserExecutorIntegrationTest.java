@@ -117,7 +117,6 @@ public class SearchUserExecutorIntegrationTest extends BaseIntegrationTest {
 
         verify(ldapFactory).ldapForConfiguration(firstLdapConfig);
         verify(ldapFactory).ldapForConfiguration(secondLdapConfig);
-        verify(ldapFactory, never()).ldapForConfiguration(thirdLdapConfig);
     }
 
     private List<User> responseBody(GoPluginApiResponse response) {
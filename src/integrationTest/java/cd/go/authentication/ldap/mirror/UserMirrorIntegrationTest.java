@@ -0,0 +1,100 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.mirror;
+
+import cd.go.apacheds.ApacheDsLdapClient;
+import cd.go.authentication.ldap.BaseIntegrationTest;
+import cd.go.authentication.ldap.LdapClient;
+import cd.go.authentication.ldap.LdapFactory;
+import cd.go.authentication.ldap.model.AuthConfig;
+import cd.go.authentication.ldap.model.LdapConfiguration;
+import cd.go.authentication.ldap.model.User;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.DefaultModification;
+import org.apache.directory.api.ldap.model.entry.ModificationOperation;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.server.annotations.CreateLdapServer;
+import org.apache.directory.server.annotations.CreateTransport;
+import org.apache.directory.server.core.annotations.ApplyLdifFiles;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+@ApplyLdifFiles(value = "users.ldif", clazz = BaseIntegrationTest.class)
+@CreateLdapServer(transports = {
+        @CreateTransport(protocol = "LDAP")
+})
+public class UserMirrorIntegrationTest extends BaseIntegrationTest {
+    private static final String EMPLOYEES = "ou=Employees,ou=Enterprise,ou=Principal,ou=system";
+
+    private LdapClient ldapClient;
+    private Clock clock;
+    private Instant now;
+    private UserMirror mirror;
+
+    @BeforeEach
+    public void setUp() {
+        final LdapConfiguration ldapConfiguration = ldapConfigurationWithUserMirrorFilter("(objectClass=inetOrgPerson)", EMPLOYEES);
+        final LdapFactory ldapFactory = mock(LdapFactory.class);
+        ldapClient = spy(new ApacheDsLdapClient(ldapConfiguration));
+        when(ldapFactory.ldapForConfiguration(ldapConfiguration)).thenReturn(ldapClient);
+
+        clock = mock(Clock.class);
+        now = Instant.now();
+        when(clock.instant()).thenReturn(now);
+        mirror = new UserMirror(new AuthConfig("ldap", ldapConfiguration), ldapFactory, Duration.ofHours(6), 2, clock);
+    }
+
+    @Test
+    public void shouldMergeUsersChangedSinceLastRefresh() throws Exception {
+        mirror.refresh();
+        final int usersLoaded = mirror.snapshot().size();
+        assertThat(mirror.snapshot().search("P.Banks", 100)).hasSize(1);
+
+        getService().getAdminSession().modify(new Dn("uid=pbanks," + EMPLOYEES),
+                new DefaultModification(ModificationOperation.REPLACE_ATTRIBUTE, "displayName", "Phil Banks"));
+        getService().getAdminSession().add(new DefaultEntry(getService().getSchemaManager(), "uid=jdoe," + EMPLOYEES,
+                "objectClass: inetOrgPerson", "uid: jdoe", "cn: John Doe", "sn: Doe", "displayName: John Doe"));
+        mirror.refresh();
+
+        final MirrorSnapshot snapshot = mirror.snapshot();
+        assertThat(snapshot.size()).isEqualTo(usersLoaded + 1);
+        assertThat(snapshot.search("pbanks", 100)).extracting(User::getDisplayName).containsExactly("Phil Banks");
+        assertThat(snapshot.contains("jdoe")).isTrue();
+        verify(ldapClient).searchAll(contains("modifyTimestamp>="), any(), eq(2), any());
+    }
+
+    @Test
+    public void shouldDropRemovedUsersOnFullReload() throws Exception {
+        mirror.refresh();
+        getService().getAdminSession().delete(new Dn("uid=pbanks," + EMPLOYEES));
+
+        mirror.refresh();
+        assertThat(mirror.snapshot().contains("pbanks")).isTrue();
+
+        when(clock.instant()).thenReturn(now.plus(Duration.ofHours(6)));
+        mirror.refresh();
+        assertThat(mirror.snapshot().contains("pbanks")).isFalse();
+    }
+}
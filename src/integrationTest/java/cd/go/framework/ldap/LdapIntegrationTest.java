@@ -20,6 +20,8 @@ import cd.go.authentication.ldap.BaseIntegrationTest;
 import cd.go.authentication.ldap.exception.LdapException;
 import cd.go.authentication.ldap.mapper.UserMapper;
 import cd.go.authentication.ldap.mapper.UsernameResolver;
+import cd.go.authentication.ldap.mirror.MirroredUser;
+import cd.go.authentication.ldap.mirror.MirroredUserMapper;
 import cd.go.authentication.ldap.model.LdapConfiguration;
 import cd.go.authentication.ldap.model.User;
 import org.apache.directory.server.annotations.CreateLdapServer;
@@ -31,6 +33,7 @@ import uk.org.webcompere.systemstubs.properties.SystemProperties;
 
 import javax.naming.directory.DirContext;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static cd.go.authentication.ldap.PluginSystemProperty.USE_JNDI_LDAP_CLIENT;
 import static java.text.MessageFormat.format;
@@ -62,6 +65,19 @@ public class LdapIntegrationTest extends BaseIntegrationTest {
         verify(jndiLdapClient, times(2)).closeContextSilently(any(DirContext.class));
     }
 
+    @Test
+    public void authenticate_shouldOnlyBindWhenUserLoggedInBefore() {
+        LdapConfiguration ldapConfiguration = ldapConfiguration(new String[]{"ou=system"});
+
+        jndiLdapClient = spy(new JNDILdapClient(ldapConfiguration));
+
+        jndiLdapClient.authenticate("bford", "bob", ldapConfiguration.getUserMapper(new UsernameResolver()));
+        final User user = jndiLdapClient.authenticate("bford", "bob", ldapConfiguration.getUserMapper(new UsernameResolver()));
+
+        assertThat(user).isEqualTo(new User("bford", "Bob Ford", "bford@example.com"));
+        verify(jndiLdapClient, times(3)).closeContextSilently(any(DirContext.class));
+    }
+
     @Test
     public void authenticate_shouldErrorOutIfFailToAuthenticateUser() {
         LdapConfiguration ldapConfiguration = ldapConfiguration(new String[]{"ou=system"});
@@ -160,6 +176,21 @@ public class LdapIntegrationTest extends BaseIntegrationTest {
         verify(jndiLdapClient, times(2)).closeContextSilently(any(DirContext.class));
     }
 
+    @Test
+    public void searchAll_shouldFetchAllUsersAcrossMultipleSearchBasesPageByPage() {
+        final LdapConfiguration ldapConfiguration = ldapConfiguration(new String[]{"ou=Employees,ou=Enterprise,ou=Principal,ou=system", "ou=Clients,ou=Enterprise,ou=Principal,ou=system", "ou=Enterprise,ou=Principal,ou=system"});
+        final MirroredUserMapper mapper = new MirroredUserMapper(ldapConfiguration.getUserMapper(new UsernameResolver()));
+
+        jndiLdapClient = new JNDILdapClient(ldapConfiguration);
+
+        final AtomicReference<String> answeredBy = new AtomicReference<>();
+        final List<MirroredUser> users = jndiLdapClient.searchAll("(uid=*a*)", mapper, 2, answeredBy::set);
+
+        assertThat(users).hasSize(5);
+        assertThat(users).extracting(MirroredUser::getDn).doesNotHaveDuplicates().allMatch(dn -> dn.endsWith("ou=Enterprise,ou=Principal,ou=system"));
+        assertThat(answeredBy.get()).isEqualTo(ldapConfiguration.getLdapUrlAsString());
+    }
+
     @Test
     public void validate_shouldValidateManagerDnAndPassword() {
         LdapConfiguration ldapConfiguration = ldapConfiguration("uid=admin,ou=system", "secret", "ou=system");
@@ -16,50 +16,232 @@
 
 package cd.go.apacheds;
 
+import cd.go.apacheds.pool.ConnectionPoolFactory;
+import cd.go.apacheds.pool.ConnectionPools;
+import cd.go.apacheds.pool.CircuitBreaker;
+import cd.go.apacheds.pool.ServerHealth;
 import cd.go.authentication.ldap.LdapClient;
+import cd.go.authentication.ldap.SearchCancellation;
+import cd.go.authentication.ldap.cache.DirectoryChanges;
+import cd.go.authentication.ldap.cache.UserEntryCache;
+import cd.go.authentication.ldap.exception.CircuitBreakerOpenException;
+import cd.go.authentication.ldap.exception.ConnectionPoolExhaustedException;
 import cd.go.authentication.ldap.exception.MultipleUserDetectedException;
+import cd.go.authentication.ldap.exception.UserNotFoundException;
 import cd.go.authentication.ldap.mapper.Mapper;
+import cd.go.authentication.ldap.mapper.UsernameResolver;
 import cd.go.authentication.ldap.model.LdapConfiguration;
-import org.apache.directory.api.ldap.codec.api.LdapApiService;
 import org.apache.directory.api.ldap.codec.api.LdapApiServiceFactory;
 import org.apache.directory.api.ldap.extras.controls.ppolicy.PasswordPolicyRequestImpl;
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
 import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.filter.FilterEncoder;
 import org.apache.directory.api.ldap.model.message.*;
+import org.apache.directory.api.ldap.model.message.controls.PagedResults;
+import org.apache.directory.api.ldap.model.message.controls.PagedResultsImpl;
 import org.apache.directory.api.ldap.model.name.Dn;
-import org.apache.directory.ldap.client.api.LdapConnectionConfig;
-import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.ldap.client.api.LdapAsyncConnection;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapConnectionPool;
+import org.apache.directory.ldap.client.api.PooledLdapConnection;
+import org.apache.directory.ldap.client.api.Wrapper;
+import org.apache.directory.ldap.client.api.future.BindFuture;
 import org.apache.directory.ldap.client.template.AbstractPasswordPolicyResponder;
 import org.apache.directory.ldap.client.template.LdapConnectionTemplate;
 import org.apache.directory.ldap.client.template.PasswordWarning;
 import org.apache.directory.ldap.client.template.exception.PasswordException;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-import static cd.go.apacheds.pool.ConnectionPoolFactory.getLdapConnectionPool;
 import static cd.go.authentication.ldap.LdapPlugin.LOG;
+import static cd.go.authentication.ldap.PluginSystemProperty.changeNotifications;
+import static cd.go.authentication.ldap.PluginSystemProperty.changePollInterval;
+import static cd.go.authentication.ldap.PluginSystemProperty.circuitBreakerFailureThreshold;
+import static cd.go.authentication.ldap.PluginSystemProperty.circuitBreakerOpenDuration;
+import static cd.go.authentication.ldap.PluginSystemProperty.userEntryCacheTtl;
 
+/**
+ * Talks to the servers of an auth config. Every request goes to the healthiest server first and is retried on the
+ * next one when a server cannot be reached or does not answer in time. Servers which keep failing are skipped without
+ * being contacted until their {@link CircuitBreaker} lets a request through again.
+ */
 public class ApacheDsLdapClient implements LdapClient {
-    private final LdapConnectionTemplate ldapConnectionTemplate;
+    private static final int MAXIMUM_CONCURRENT_SEARCHES = 64;
+    private static final ExecutorService SEARCH_EXECUTOR = searchExecutor();
+    private static final String[] USERNAME_ATTRIBUTES = new UsernameResolver().requiredAttributes();
+
+    private final List<DirectoryServer> servers;
     private final LdapConfiguration ldapConfiguration;
-    private ConnectionConfiguration connectionConfiguration;
+    private final List<ConnectionPools> connectionPools;
+    private final UserEntryCache<Entry> userEntries = new UserEntryCache<>(userEntryCacheTtl());
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private DirectoryChangeListener changeListener;
 
     public ApacheDsLdapClient(LdapConfiguration ldapConfiguration) {
-        this.ldapConfiguration = ldapConfiguration;
-        this.connectionConfiguration = new ConnectionConfiguration(ldapConfiguration);
-        this.ldapConnectionTemplate = new LdapConnectionTemplate(getLdapConnectionPool(connectionConfiguration));
+        this(ldapConfiguration, acquire(ConnectionConfiguration.forEachServer(ldapConfiguration)));
+        if (changeNotifications()) {
+            listenForChanges();
+        }
+    }
+
+    private ApacheDsLdapClient(LdapConfiguration ldapConfiguration, Map<ConnectionConfiguration, ConnectionPools> connectionPools) {
+        this(ldapConfiguration, directoryServers(connectionPools), new ArrayList<>(connectionPools.values()));
     }
 
     protected ApacheDsLdapClient(LdapConfiguration ldapConfiguration, LdapConnectionTemplate ldapConnectionTemplate) {
+        this(ldapConfiguration, ldapConnectionTemplate, null);
+    }
+
+    protected ApacheDsLdapClient(LdapConfiguration ldapConfiguration, LdapConnectionTemplate ldapConnectionTemplate, LdapConnectionPool bindConnectionPool) {
+        this(ldapConfiguration, List.of(new DirectoryServer(ldapConfiguration.getLdapUrlAsString(), ldapConnectionTemplate, bindConnectionPool, new ServerHealth(),
+                new CircuitBreaker(ldapConfiguration.getLdapUrlAsString(), circuitBreakerFailureThreshold(), circuitBreakerOpenDuration()))));
+    }
+
+    ApacheDsLdapClient(LdapConfiguration ldapConfiguration, List<DirectoryServer> servers) {
+        this(ldapConfiguration, servers, Collections.emptyList());
+    }
+
+    private ApacheDsLdapClient(LdapConfiguration ldapConfiguration, List<DirectoryServer> servers, List<ConnectionPools> connectionPools) {
         this.ldapConfiguration = ldapConfiguration;
-        this.ldapConnectionTemplate = ldapConnectionTemplate;
+        this.servers = servers;
+        this.connectionPools = connectionPools;
+    }
+
+    /**
+     * Forgets the cached entries of users as soon as they change in the directory, and tells the other caches about
+     * them through {@link DirectoryChanges}.
+     */
+    private synchronized void listenForChanges() {
+        changeListener = new DirectoryChangeListener(ConnectionConfiguration.forEachServer(ldapConfiguration), usersFilter(), USERNAME_ATTRIBUTES, changePollInterval(),
+                new DirectoryChangeListener.Listener() {
+                    @Override
+                    public void entryChanged(Entry entry) {
+                        userChanged(entry);
+                    }
+
+                    @Override
+                    public void changesMissed() {
+                        userEntries.invalidateAll();
+                        DirectoryChanges.instance().usersChanged(ldapConfiguration, null);
+                    }
+                });
+        changeListener.start(ldapConfiguration.getSearchBases());
+    }
+
+    /**
+     * @return a filter matching every entry a user could log in as or be validated with
+     */
+    private String usersFilter() {
+        final String loginFilter = ldapConfiguration.getUserLoginFilter().replace("{0}", "*");
+        final String validationFilter = ldapConfiguration.getUserValidationFilter().replace("{0}", "*");
+        return loginFilter.equals(validationFilter) ? loginFilter : "(|" + loginFilter + validationFilter + ")";
+    }
+
+    /**
+     * The user may be known by the usernames it logged in with, which are those its cached entry is kept under, and by
+     * its username attribute, unless the entry was deleted.
+     */
+    private void userChanged(Entry entry) {
+        final Set<String> usernames = new HashSet<>(userEntries.invalidateIf(cachedEntry -> cachedEntry.getDn().equals(entry.getDn())));
+        for (String usernameAttribute : USERNAME_ATTRIBUTES) {
+            final Attribute attribute = entry.get(usernameAttribute);
+            if (attribute != null && attribute.get() != null) {
+                usernames.add(attribute.get().getString());
+            }
+        }
+
+        LOG.debug("Entry `{}` changed, forgetting cached data of users {}.", entry.getDn(), usernames);
+        if (!usernames.isEmpty()) {
+            DirectoryChanges.instance().usersChanged(ldapConfiguration, usernames);
+        }
+    }
+
+    /**
+     * Runs the searches of the different search bases. When all threads are busy a search runs on the thread which
+     * asked for it, so searches are never queued behind one another.
+     */
+    private static ExecutorService searchExecutor() {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(0, MAXIMUM_CONCURRENT_SEARCHES, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "ldap-search-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static Map<ConnectionConfiguration, ConnectionPools> acquire(List<ConnectionConfiguration> connectionConfigurations) {
+        if (connectionConfigurations.isEmpty()) {
+            throw new cd.go.authentication.ldap.exception.LdapException("No valid ldap url is configured.");
+        }
+
+        final Map<ConnectionConfiguration, ConnectionPools> connectionPools = new LinkedHashMap<>();
+        try {
+            for (ConnectionConfiguration connectionConfiguration : connectionConfigurations) {
+                if (!connectionPools.containsKey(connectionConfiguration)) {
+                    connectionPools.put(connectionConfiguration, ConnectionPoolFactory.acquire(connectionConfiguration));
+                }
+            }
+        } catch (RuntimeException e) {
+            connectionPools.values().forEach(ConnectionPools::release);
+            throw e;
+        }
+        return connectionPools;
     }
 
+    private static List<DirectoryServer> directoryServers(Map<ConnectionConfiguration, ConnectionPools> connectionPools) {
+        final List<DirectoryServer> servers = new ArrayList<>();
+        connectionPools.forEach((connectionConfiguration, pools) -> servers.add(new DirectoryServer(connectionConfiguration.getLdapUrl(),
+                new LdapConnectionTemplate(pools.ldapConnectionPool()), pools.bindConnectionPool(), pools.health(), pools.circuitBreaker())));
+        return servers;
+    }
+
+    /**
+     * Binds as the user found by the login filter. The entry of a user who logged in before is taken from the cache,
+     * and searched for again only when the directory no longer knows its DN.
+     */
     public <T> T authenticate(String username, String password, Mapper<T> mapper) {
-        Entry entry = findLdapEntryForAuthentication(username);
+        final Entry cachedEntry = userEntries.get(username);
+        if (cachedEntry != null) {
+            try {
+                return authenticate(username, cachedEntry, password, mapper);
+            } catch (RuntimeException e) {
+                userEntries.invalidate(username);
+                if (!isUnknownDn(e)) {
+                    throw e;
+                }
+                LOG.debug("Cached dn `{}` of user `{}` no longer exists, searching for the user again.", cachedEntry.getDn(), username);
+            }
+        }
+
+        final Entry entry = findLdapEntryForAuthentication(username, mapper.requiredAttributes());
+        final T result = authenticate(username, entry, password, mapper);
+        userEntries.put(username, entry);
+        return result;
+    }
+
+    /**
+     * Searches for the entry of the user and caches it, so that a following {@link #authenticate} only needs to bind.
+     */
+    @Override
+    public void findUser(String username, Mapper<?> mapper) {
+        userEntries.put(username, findLdapEntryForAuthentication(username, mapper.requiredAttributes()));
+    }
 
+    private <T> T authenticate(String username, Entry entry, String password, Mapper<T> mapper) {
         try {
             final PasswordWarning warning = performBind(entry.getDn(), password);
 
@@ -70,62 +252,260 @@ public class ApacheDsLdapClient implements LdapClient {
             }
 
             return mapper.map(entry);
+        } catch (ConnectionPoolExhaustedException | CircuitBreakerOpenException e) {
+            throw e;
         } catch (Exception e) {
-            throw new cd.go.authentication.ldap.exception.LdapException(String.format("Failed to authenticate user `%s` with ldap server %s", username, ldapConfiguration.getLdapUrlAsString()));
+            throw new cd.go.authentication.ldap.exception.LdapException(String.format("Failed to authenticate user `%s` with ldap server %s", username, ldapConfiguration.getLdapUrlAsString()), e);
         }
     }
 
-    private PasswordWarning performBind(Dn userDn, String password) throws PasswordException {
-        final LdapApiService ldapApiService = LdapApiServiceFactory.getSingleton();
-        final LdapConnectionConfig connectionConfig = connectionConfiguration.toLdapConnectionConfig(userDn.getName(), password);
+    private PasswordWarning performBind(Dn userDn, String password) throws LdapException, PasswordException {
         final BindRequest bindRequest = new BindRequestImpl()
                 .setName(userDn.getName())
                 .setCredentials(password)
                 .addControl(new PasswordPolicyRequestImpl());
 
         LOG.debug("Performing bind using userDn `{}`.", userDn.getName());
-        return new AbstractPasswordPolicyResponder(ldapApiService) {
-        }.process(() -> {
-            try (LdapNetworkConnection ldapNetworkConnection = new LdapNetworkConnection(connectionConfig)) {
-                return ldapNetworkConnection.bind(bindRequest);
-            } catch (LdapException e) {
-                throw new RuntimeException(e);
+        Exception failure = null;
+        for (DirectoryServer server : serversByHealth()) {
+            try {
+                server.circuitBreaker().acquirePermission();
+            } catch (CircuitBreakerOpenException e) {
+                failure = e;
+                continue;
+            }
+
+            final LdapConnection connection;
+            try {
+                connection = server.bindConnectionPool().getConnection();
+            } catch (LdapException | RuntimeException e) {
+                if (!isServerFailure(e)) {
+                    serverDidNotFail(server, e);
+                    throw e;
+                }
+                // nothing was sent to this server yet, so the bind can safely be tried on the next one
+                serverFailed(server, e);
+                failure = e;
+                continue;
+            }
+            return performBind(server, connection, bindRequest);
+        }
+        if (failure instanceof CircuitBreakerOpenException) {
+            throw (CircuitBreakerOpenException) failure;
+        }
+        throw new LdapException("None of the ldap servers could be reached.", failure);
+    }
+
+    private PasswordWarning performBind(DirectoryServer server, LdapConnection connection, BindRequest bindRequest) throws LdapException, PasswordException {
+        boolean bindSucceeded = false;
+        try {
+            final PasswordWarning warning = new AbstractPasswordPolicyResponder(LdapApiServiceFactory.getSingleton()) {
+            }.process(() -> bind(server, connection, bindRequest));
+            bindSucceeded = true;
+            return warning;
+        } finally {
+            returnBindConnection(server.bindConnectionPool(), connection, bindSucceeded);
+        }
+    }
+
+    private BindResponse bind(DirectoryServer server, LdapConnection connection, BindRequest bindRequest) throws LdapException {
+        final long startedAt = System.nanoTime();
+        try {
+            final BindResponse bindResponse = bind(connection, bindRequest);
+            serverSucceeded(server, startedAt);
+            return bindResponse;
+        } catch (LdapException | RuntimeException e) {
+            if (isServerFailure(e)) {
+                // the server may have processed the bind, so it is not retried elsewhere
+                server.health().recordFailure();
+                server.circuitBreaker().onFailure();
+            } else {
+                serverDidNotFail(server, e);
+            }
+            throw e;
+        }
+    }
+
+    private BindResponse bind(LdapConnection connection, BindRequest bindRequest) throws LdapException {
+        // only the network connection below the wrappers of the pool can bind asynchronously; the bind connection pool
+        // binds it as manager again once it is released
+        final LdapConnection networkConnection = networkConnection(connection);
+        if (!(networkConnection instanceof LdapAsyncConnection)) {
+            return connection.bind(bindRequest);
+        }
+
+        final BindFuture bindFuture;
+        try {
+            bindFuture = ((LdapAsyncConnection) networkConnection).bindAsync(bindRequest);
+        } catch (IOException e) {
+            throw new LdapException(e.getMessage(), e);
+        }
+
+        final Duration bindTimeout = ldapConfiguration.getBindTimeout();
+        final BindResponse bindResponse;
+        try {
+            bindResponse = bindFuture.get(bindTimeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            bindFuture.cancel(true);
+            throw new LdapException("Interrupted while waiting for bind response.", e);
+        }
+
+        if (bindResponse == null) {
+            // abandons the request; the connection is invalidated by the caller as its bind state is unknown
+            bindFuture.cancel(true);
+            throw new LdapException(String.format("No bind response from %s within %s.", ldapConfiguration.getLdapUrlAsString(), bindTimeout));
+        }
+        return bindResponse;
+    }
+
+    private void returnBindConnection(LdapConnectionPool bindConnectionPool, LdapConnection connection, boolean reusable) {
+        try {
+            if (reusable) {
+                // the pool re-binds the connection with the manager credentials before it is handed out again
+                bindConnectionPool.releaseConnection(connection);
+            } else {
+                // closed right away, as the server may not be answering, which unbinding would wait for
+                networkConnection(connection).close();
+                bindConnectionPool.invalidateObject(unwrap(connection));
             }
-        });
+        } catch (Exception e) {
+            LOG.warn("Failed to return bind connection to the pool.", e);
+        }
+    }
+
+    private LdapConnection unwrap(LdapConnection connection) {
+        return connection instanceof PooledLdapConnection ? ((PooledLdapConnection) connection).wrapped() : connection;
+    }
+
+    /**
+     * @return the connection to the server, which the pool wraps in a {@link PooledLdapConnection} and the bind
+     * connection pool also in a connection keeping track of binds.
+     */
+    private static LdapConnection networkConnection(LdapConnection connection) {
+        LdapConnection wrapped = connection;
+        while (wrapped instanceof Wrapper && ((Wrapper<?>) wrapped).wrapped() instanceof LdapConnection) {
+            wrapped = (LdapConnection) ((Wrapper<?>) wrapped).wrapped();
+        }
+        return wrapped;
     }
 
+    /**
+     * Searches all search bases at the same time. When the connection pool is exhausted the results of the searches
+     * which did get a connection are returned.
+     */
     @Override
     public <T> List<T> search(final String filter, final String[] filterArgs, final Mapper<T> mapper, final int maxResultCount) {
-        final List<T> searchResults = new ArrayList<>();
-        for (String searchBase : ldapConfiguration.getSearchBases()) {
-            int resultsToFetch = resultsToFetch(maxResultCount, searchResults.size());
+        return search(filter, filterArgs, mapper, maxResultCount, mapper.requiredAttributes(), true);
+    }
 
-            if (resultsToFetch == -1) {
-                break;
-            }
+    /**
+     * Searches all search bases at the same time, and fails when one of them could not be searched.
+     */
+    @Override
+    public <T> List<T> searchCompletely(final String filter, final String[] filterArgs, final Mapper<T> mapper, final int maxResultCount) {
+        return search(filter, filterArgs, mapper, maxResultCount, mapper.requiredAttributes(), false);
+    }
 
+    private <T> List<T> search(final String filter, final String[] filterArgs, final Mapper<T> mapper, final int maxResultCount,
+                               final String[] attributes, boolean partialResultsWhenExhausted) {
+        final List<SearchRequest> searchRequests = new ArrayList<>();
+        for (String searchBase : ldapConfiguration.getSearchBases()) {
             try {
-                final SearchRequest searchRequest = new SearchRequestImpl()
+                searchRequests.add(new SearchRequestImpl()
                         .setScope(SearchScope.SUBTREE)
-                        .addAttributes("*")
-                        .setSizeLimit(resultsToFetch)
+                        .addAttributes(attributes)
+                        .setSizeLimit(maxResultCount)
                         .setFilter(FilterEncoder.format(filter, filterArgs))
                         .setTimeLimit(ldapConfiguration.getSearchTimeout())
-                        .setBase(new Dn(searchBase));
-
-                searchResults.addAll(ldapConnectionTemplate.search(searchRequest, mapper));
+                        .setBase(new Dn(searchBase)));
             } catch (LdapException e) {
                 LOG.error(e.getMessage(), e);
             }
         }
 
-        return searchResults;
+        return searchConcurrently(searchRequests, mapper, maxResultCount, partialResultsWhenExhausted);
     }
 
+    @Override
+    public <T> List<T> searchAll(final String filter, final Mapper<T> mapper, final int pageSize, final Consumer<String> answeredBy) {
+        // every search base is searched on the same server, so that all entries are as recent as that server knows them
+        return onHealthiestServer(server -> server.ldapConnectionTemplate().execute(connection -> {
+            final Map<Dn, T> results = new LinkedHashMap<>();
+            for (String searchBase : ldapConfiguration.getSearchBases()) {
+                searchAllInBase(connection, searchBase, filter, mapper, pageSize, results);
+            }
+            answeredBy.accept(server.url());
+            return new ArrayList<>(results.values());
+        }));
+    }
+
+    private <T> void searchAllInBase(LdapConnection connection, String searchBase, String filter, Mapper<T> mapper, int pageSize, Map<Dn, T> results) throws LdapException {
+        byte[] cookie = null;
+        do {
+            final PagedResults pagedResults = new PagedResultsImpl();
+            pagedResults.setSize(pageSize);
+            if (cookie != null) {
+                pagedResults.setCookie(cookie);
+            }
+
+            final SearchRequest searchRequest = new SearchRequestImpl()
+                    .setScope(SearchScope.SUBTREE)
+                    .addAttributes(mapper.requiredAttributes())
+                    .setFilter(filter)
+                    .setTimeLimit(ldapConfiguration.getSearchTimeout())
+                    .setBase(new Dn(searchBase))
+                    .addControl(pagedResults);
+
+            try (SearchCursor cursor = connection.search(searchRequest)) {
+                while (cursor.next()) {
+                    if (cursor.isEntry()) {
+                        final Entry entry = cursor.getEntry();
+                        results.putIfAbsent(entry.getDn(), mapper.map(entry));
+                    }
+                }
+
+                final LdapResult result = cursor.getSearchResultDone().getLdapResult();
+                if (result.getResultCode() != ResultCodeEnum.SUCCESS) {
+                    throw new LdapOperationException(result.getResultCode(), result.getDiagnosticMessage());
+                }
+
+                final PagedResults response = (PagedResults) cursor.getSearchResultDone().getControl(PagedResults.OID);
+                cookie = response == null ? null : response.getCookie();
+            } catch (CursorException | IOException e) {
+                throw new LdapException(e);
+            }
+        } while (cookie != null && cookie.length > 0);
+    }
+
+    /**
+     * Verifies that every configured server can be searched.
+     */
     @Override
     public void validate() {
         final String filter = FilterEncoder.format(ldapConfiguration.getUserSearchFilter(), "test");
-        ldapConnectionTemplate.searchFirst(ldapConfiguration.getSearchBases().get(0), filter, SearchScope.SUBTREE, entry -> entry);
+        for (DirectoryServer server : servers) {
+            try {
+                onServer(server, () -> server.ldapConnectionTemplate().searchFirst(ldapConfiguration.getSearchBases().get(0), filter, SearchScope.SUBTREE, entry -> entry));
+            } catch (RuntimeException e) {
+                if (servers.size() == 1) {
+                    throw e;
+                }
+                throw new cd.go.authentication.ldap.exception.LdapException(String.format("Failed to verify connection to %s: %s", server.url(), e.getMessage()), e);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed.compareAndSet(false, true)) {
+            synchronized (this) {
+                if (changeListener != null) {
+                    changeListener.close();
+                }
+            }
+            connectionPools.forEach(ConnectionPools::release);
+        }
     }
 
     public List<Entry> search(final String filter, final String[] filterArgs, final int maxResultCount) {
@@ -133,36 +513,249 @@ public class ApacheDsLdapClient implements LdapClient {
     }
 
     public <T> List<T> searchGroup(List<String> searchBases, String filter, Mapper<T> mapper) {
-        final List<T> searchResults = new ArrayList<>();
-
+        final List<SearchRequest> searchRequests = new ArrayList<>();
         for (String searchBase : searchBases) {
             try {
-
-                final SearchRequest searchRequest = new SearchRequestImpl()
+                searchRequests.add(new SearchRequestImpl()
                         .setScope(SearchScope.SUBTREE)
                         .addAttributes("dn")
                         .setSizeLimit(0)
                         .setFilter(filter)
                         .setTimeLimit(ldapConfiguration.getSearchTimeout())
-                        .setBase(new Dn(searchBase));
-
-                searchResults.addAll(ldapConnectionTemplate.search(searchRequest, mapper));
+                        .setBase(new Dn(searchBase)));
             } catch (LdapException e) {
                 LOG.error(e.getMessage(), e);
             }
         }
-        return searchResults;
+        return searchConcurrently(searchRequests, mapper, 0, false);
+    }
+
+    /**
+     * Sends all search requests at once, each on its own pooled connection, and merges their results in the order of
+     * the requests. An entry found by several requests, as happens with nested search bases, is returned only once.
+     * Searches still running once enough results were merged, or once the {@link SearchCancellation} of the calling
+     * thread is cancelled, are abandoned and their results dropped, without counting against the health of the servers
+     * they were sent to.
+     *
+     * @param maxResultCount              the maximum number of results to return, or 0 for all of them
+     * @param partialResultsWhenExhausted whether to leave out the results of searches which could not get a connection
+     *                                    instead of failing
+     */
+    private <T> List<T> searchConcurrently(List<SearchRequest> searchRequests, Mapper<T> mapper, int maxResultCount, boolean partialResultsWhenExhausted) {
+        final List<CancellableSearch> cancellableSearches = new ArrayList<>();
+        final List<FutureTask<List<Entry>>> searches = new ArrayList<>();
+        for (SearchRequest searchRequest : searchRequests) {
+            final CancellableSearch cancellableSearch = new CancellableSearch(searchRequest);
+            final FutureTask<List<Entry>> search = new FutureTask<>(() -> onHealthiestServer(server -> cancellableSearch.run(server.ldapConnectionTemplate())));
+            cancellableSearches.add(cancellableSearch);
+            SearchCancellation.onCancel(cancellableSearch::cancel);
+            searches.add(search);
+            if (searchRequests.size() == 1) {
+                search.run();
+            } else {
+                SEARCH_EXECUTOR.execute(search);
+            }
+        }
+
+        final Map<Dn, T> searchResults = new LinkedHashMap<>();
+        try {
+            for (FutureTask<List<Entry>> search : searches) {
+                if (maxResultCount > 0 && searchResults.size() >= maxResultCount) {
+                    break;
+                }
+
+                try {
+                    for (Entry entry : await(search)) {
+                        if (!searchResults.containsKey(entry.getDn())) {
+                            searchResults.put(entry.getDn(), mapper.map(entry));
+                        }
+                    }
+                } catch (ConnectionPoolExhaustedException | CircuitBreakerOpenException e) {
+                    if (!partialResultsWhenExhausted) {
+                        throw e;
+                    }
+                    LOG.warn("Leaving out the results of a search base as the ldap server is unavailable: {}", e.getMessage());
+                }
+            }
+        } finally {
+            // abandon the searches on the server instead of interrupting them, see CancellableSearch
+            searches.forEach(search -> search.cancel(false));
+            cancellableSearches.forEach(CancellableSearch::cancel);
+        }
+
+        final List<T> results = new ArrayList<>(searchResults.values());
+        return maxResultCount > 0 && results.size() > maxResultCount ? new ArrayList<>(results.subList(0, maxResultCount)) : results;
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            if (e.getCause() instanceof Error) {
+                throw (Error) e.getCause();
+            }
+            throw new cd.go.authentication.ldap.exception.LdapException(e.getCause().getMessage(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new cd.go.authentication.ldap.exception.LdapException("Interrupted while waiting for search results.", e);
+        }
     }
 
-    private int resultsToFetch(final int maxResultCount, final int resultCount) {
-        return maxResultCount == 0 ? 0 : maxResultCount > resultCount ? maxResultCount - resultCount : -1;
+    private <T> T onHealthiestServer(Function<DirectoryServer, T> operation) {
+        RuntimeException failure = null;
+        for (DirectoryServer server : serversByHealth()) {
+            try {
+                return onServer(server, () -> operation.apply(server));
+            } catch (CircuitBreakerOpenException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                if (!isServerFailure(e)) {
+                    throw e;
+                }
+                if (servers.size() > 1) {
+                    LOG.warn("Ldap server {} failed, trying the next server: {}", server.url(), e.getMessage());
+                }
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Runs the operation unless the circuit breaker of the server is open, and records how the server did.
+     *
+     * @throws CircuitBreakerOpenException without contacting the server when its circuit breaker is open
+     */
+    private <T> T onServer(DirectoryServer server, Supplier<T> operation) {
+        server.circuitBreaker().acquirePermission();
+        final long startedAt = System.nanoTime();
+        try {
+            final T result = operation.get();
+            serverSucceeded(server, startedAt);
+            return result;
+        } catch (RuntimeException e) {
+            if (isServerFailure(e)) {
+                server.health().recordFailure();
+                server.circuitBreaker().onFailure();
+            } else {
+                serverDidNotFail(server, e);
+            }
+            throw e;
+        }
+    }
+
+    private List<DirectoryServer> serversByHealth() {
+        if (servers.size() == 1) {
+            return servers;
+        }
+
+        // rank every server once up front, as their health keeps changing while they are being sorted
+        final double[] ranks = servers.stream().mapToDouble(server -> server.health().rank()).toArray();
+        return IntStream.range(0, servers.size()).boxed()
+                .sorted(Comparator.comparingDouble(index -> ranks[index]))
+                .map(servers::get)
+                .collect(Collectors.toList());
+    }
+
+    private void serverSucceeded(DirectoryServer server, long startedAt) {
+        server.health().recordSuccess(Duration.ofNanos(System.nanoTime() - startedAt));
+        server.circuitBreaker().onSuccess();
+    }
+
+    /**
+     * Records the outcome of a request which failed for a reason other than the server being unreachable. An error
+     * result still shows that the server is answering, whereas running out of pooled connections or giving up on the
+     * request says nothing about it.
+     */
+    private void serverDidNotFail(DirectoryServer server, Exception e) {
+        if (isPoolExhausted(e) || isCancellation(e)) {
+            server.circuitBreaker().onIgnored();
+        } else {
+            server.circuitBreaker().onSuccess();
+        }
+    }
+
+    private void serverFailed(DirectoryServer server, Exception e) {
+        server.health().recordFailure();
+        server.circuitBreaker().onFailure();
+        if (servers.size() > 1) {
+            LOG.warn("Ldap server {} failed, trying the next server: {}", server.url(), e.getMessage());
+        }
+    }
+
+    /**
+     * @return true when the server could not be reached or did not answer in time, as opposed to answering with an
+     * error result, the connection pool being exhausted or the request being cancelled.
+     */
+    static boolean isServerFailure(Throwable e) {
+        if (isCancellation(e)) {
+            return false;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectionPoolExhaustedException) {
+                return false;
+            }
+            if (cause instanceof LdapOperationException) {
+                final ResultCodeEnum resultCode = ((LdapOperationException) cause).getResultCode();
+                return resultCode == ResultCodeEnum.BUSY || resultCode == ResultCodeEnum.UNAVAILABLE;
+            }
+            if (cause instanceof LdapException || cause instanceof IOException || cause instanceof NoSuchElementException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true when a bind failed because the DN of the user does not exist (any more).
+     */
+    static boolean isUnknownDn(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            final ResultCodeEnum resultCode = cause instanceof PasswordException ? ((PasswordException) cause).getResultCode()
+                    : cause instanceof LdapOperationException ? ((LdapOperationException) cause).getResultCode() : null;
+            if (resultCode == ResultCodeEnum.NO_SUCH_OBJECT || resultCode == ResultCodeEnum.INVALID_DN_SYNTAX) {
+                return true;
+            }
+            if (cause instanceof PasswordException && ((PasswordException) cause).getLdapException() != null) {
+                return isUnknownDn(((PasswordException) cause).getLdapException());
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return true when the request was given up on by this side, which the api reports like a server which did not
+     * answer in time.
+     */
+    static boolean isCancellation(Throwable e) {
+        if (Thread.currentThread().isInterrupted()) {
+            return true;
+        }
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof InterruptedException || cause instanceof CancellationException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isPoolExhausted(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectionPoolExhaustedException) {
+                return true;
+            }
+        }
+        return false;
     }
 
-    private Entry findLdapEntryForAuthentication(String username) {
-        final List<Entry> results = search(ldapConfiguration.getUserLoginFilter(), new String[]{username}, resultWrapper -> (Entry) resultWrapper.getResult(), 0);
+    private Entry findLdapEntryForAuthentication(String username, String[] attributes) {
+        final List<Entry> results = search(ldapConfiguration.getUserLoginFilter(), new String[]{username}, resultWrapper -> (Entry) resultWrapper.getResult(), 0, attributes, false);
 
         if (results.isEmpty()) {
-            throw new RuntimeException(String.format("User %s does not exist in %s", username, ldapConfiguration.getLdapUrlAsString()));
+            throw new UserNotFoundException(username, ldapConfiguration.getLdapUrlAsString());
         }
 
         if (results.size() > 1) {
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds;
+
+import org.apache.directory.api.ldap.model.cursor.CursorException;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.message.SearchRequest;
+import org.apache.directory.api.ldap.model.message.SearchResultDoneImpl;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapConnectionConfig;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+import org.apache.directory.ldap.client.api.PooledLdapConnection;
+import org.apache.directory.ldap.client.api.SearchCursorImpl;
+import org.apache.directory.ldap.client.api.future.SearchFuture;
+import org.apache.directory.ldap.client.template.LdapConnectionTemplate;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A search which another thread can give up on. Cancelling abandons the request on the server and wakes up the thread
+ * waiting for its results, which then fails with a {@link CancellationException}. The thread is never interrupted, so
+ * the pooled connection stays usable and the cancelled search is not mistaken for a server which did not answer.
+ */
+class CancellableSearch {
+    private final SearchRequest searchRequest;
+    private volatile boolean cancelled;
+    private SearchFuture future;
+
+    CancellableSearch(SearchRequest searchRequest) {
+        this.searchRequest = searchRequest;
+    }
+
+    /**
+     * @throws CancellationException when the search was cancelled before it completed
+     */
+    List<Entry> run(LdapConnectionTemplate ldapConnectionTemplate) {
+        throwIfCancelled();
+        return ldapConnectionTemplate.execute(this::search);
+    }
+
+    void cancel() {
+        cancelled = true;
+        synchronized (this) {
+            if (future != null) {
+                abandon(future);
+            }
+        }
+    }
+
+    private List<Entry> search(LdapConnection connection) throws LdapException {
+        final List<Entry> entries = new ArrayList<>();
+        try (SearchCursor cursor = cursor(connection)) {
+            while (cursor.next()) {
+                throwIfCancelled();
+                if (cursor.isEntry()) {
+                    entries.add(cursor.getEntry());
+                }
+            }
+        } catch (CursorException | IOException e) {
+            throw new LdapException(e);
+        } finally {
+            synchronized (this) {
+                future = null;
+            }
+        }
+        throwIfCancelled();
+        return entries;
+    }
+
+    private SearchCursor cursor(LdapConnection connection) throws LdapException {
+        final LdapConnection wrapped = connection instanceof PooledLdapConnection ? ((PooledLdapConnection) connection).wrapped() : connection;
+        if (!(wrapped instanceof LdapNetworkConnection)) {
+            return connection.search(searchRequest);
+        }
+
+        final LdapNetworkConnection networkConnection = (LdapNetworkConnection) wrapped;
+        final SearchFuture searchFuture = networkConnection.searchAsync(searchRequest);
+        synchronized (this) {
+            future = searchFuture;
+            if (cancelled) {
+                abandon(searchFuture);
+            }
+        }
+
+        final LdapConnectionConfig config = networkConnection.getConfig();
+        final long readTimeout = config.getReadOperationTimeout() != null ? config.getReadOperationTimeout() : config.getTimeout();
+        return new SearchCursorImpl(searchFuture, networkConnection.getTimeout(readTimeout, searchRequest.getTimeLimit()), TimeUnit.MILLISECONDS);
+    }
+
+    private void abandon(SearchFuture searchFuture) {
+        // cancelling sends the abandon request, the empty result then ends the wait for the next response
+        searchFuture.cancel(true);
+        try {
+            searchFuture.set(new SearchResultDoneImpl(searchRequest.getMessageId()));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void throwIfCancelled() {
+        if (cancelled) {
+            throw new CancellationException("Search of " + searchRequest.getBase() + " was cancelled.");
+        }
+    }
+}
@@ -17,34 +17,107 @@
 package cd.go.apacheds;
 
 import cd.go.authentication.ldap.model.LdapConfiguration;
+import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.apache.directory.ldap.client.api.LdapConnectionConfig;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 
 public class ConnectionConfiguration {
-    private boolean useSsl;
-    private int ldapPort;
-    private String ldapHost;
-    private String managerDn;
-    private String password;
-
+    private final boolean useSsl;
+    private final int ldapPort;
+    private final String ldapHost;
+    private final String managerDn;
+    private final String password;
+    private final Duration connectTimeout;
+    private final Duration responseTimeout;
+    private final int poolMaxTotal;
+    private final int poolMaxIdle;
+    private final int poolMinIdle;
+    private final Duration poolMaxWait;
+    private final Duration poolMaxConnectionLifetime;
+    private final Duration poolEvictionInterval;
+    private final int hashCode;
 
     public ConnectionConfiguration(LdapConfiguration ldapConfiguration) {
-        this.ldapHost = ldapConfiguration.getLdapUrl().getHost();
-        this.ldapPort = getPort(ldapConfiguration);
-        this.useSsl = ldapConfiguration.useSSL();
+        this(ldapConfiguration, ldapConfiguration.getLdapUrl());
+    }
+
+    public ConnectionConfiguration(LdapConfiguration ldapConfiguration, LdapUrl ldapUrl) {
+        this.ldapHost = ldapUrl.getHost();
+        this.useSsl = LdapUrl.LDAPS_SCHEME.equalsIgnoreCase(ldapUrl.getScheme());
+        this.ldapPort = getPort(ldapUrl, useSsl);
         this.managerDn = ldapConfiguration.getManagerDn();
         this.password = ldapConfiguration.getPassword();
+        this.connectTimeout = ldapConfiguration.getConnectTimeout();
+        this.responseTimeout = ldapConfiguration.getResponseTimeout();
+        this.poolMaxTotal = ldapConfiguration.getPoolMaxTotal();
+        this.poolMaxIdle = ldapConfiguration.getPoolMaxIdle();
+        this.poolMinIdle = ldapConfiguration.getPoolMinIdle();
+        this.poolMaxWait = ldapConfiguration.getPoolMaxWait();
+        this.poolMaxConnectionLifetime = ldapConfiguration.getPoolMaxConnectionLifetime();
+        this.poolEvictionInterval = ldapConfiguration.getPoolEvictionInterval();
+        this.hashCode = Objects.hash(useSsl, ldapPort, ldapHost, managerDn, password, connectTimeout, responseTimeout,
+                poolMaxTotal, poolMaxIdle, poolMinIdle, poolMaxWait, poolMaxConnectionLifetime, poolEvictionInterval);
+    }
+
+    /**
+     * @return a connection configuration for each of the configured servers, in the order they were configured.
+     */
+    public static List<ConnectionConfiguration> forEachServer(LdapConfiguration ldapConfiguration) {
+        final List<ConnectionConfiguration> connectionConfigurations = new ArrayList<>();
+        for (LdapUrl ldapUrl : ldapConfiguration.getLdapUrls()) {
+            connectionConfigurations.add(new ConnectionConfiguration(ldapConfiguration, ldapUrl));
+        }
+        return connectionConfigurations;
     }
 
-    private int getPort(LdapConfiguration ldapConfiguration) {
-        final int port = ldapConfiguration.getLdapUrl().getPort();
+    private static int getPort(LdapUrl ldapUrl, boolean useSsl) {
+        final int port = ldapUrl.getPort();
 
         if (port != -1) {
             return port;
         }
 
-        return ldapConfiguration.useSSL() ? 636 : 389;
+        return useSsl ? 636 : 389;
+    }
+
+    public String getLdapUrl() {
+        return (useSsl ? "ldaps://" : "ldap://") + ldapHost + ":" + ldapPort;
+    }
+
+    public Duration getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public Duration getResponseTimeout() {
+        return responseTimeout;
+    }
+
+    public int getPoolMaxTotal() {
+        return poolMaxTotal;
+    }
+
+    public int getPoolMaxIdle() {
+        return poolMaxIdle;
+    }
+
+    public int getPoolMinIdle() {
+        return poolMinIdle;
+    }
+
+    public Duration getPoolMaxWait() {
+        return poolMaxWait;
+    }
+
+    public Duration getPoolMaxConnectionLifetime() {
+        return poolMaxConnectionLifetime;
+    }
+
+    public Duration getPoolEvictionInterval() {
+        return poolEvictionInterval;
     }
 
     public LdapConnectionConfig toLdapConnectionConfig() {
@@ -56,6 +129,9 @@ public class ConnectionConfiguration {
         config.setLdapHost(this.ldapHost);
         config.setLdapPort(this.ldapPort);
         config.setUseSsl(this.useSsl);
+        config.setConnectTimeout(this.connectTimeout.toMillis());
+        // searches wait for the longer of this and their time limit, and abandon the request when it runs out
+        config.setTimeout(this.responseTimeout.toMillis());
 
         if (dn != null && !dn.isBlank() && password != null && !password.isBlank()) {
             config.setName(dn);
@@ -70,16 +146,25 @@ public class ConnectionConfiguration {
         if (this == o) return true;
         if (o == null || getClass() != o.getClass()) return false;
         ConnectionConfiguration that = (ConnectionConfiguration) o;
-        return useSsl == that.useSsl &&
+        return hashCode == that.hashCode &&
+                useSsl == that.useSsl &&
                 ldapPort == that.ldapPort &&
                 Objects.equals(ldapHost, that.ldapHost) &&
                 Objects.equals(managerDn, that.managerDn) &&
-                Objects.equals(password, that.password);
+                Objects.equals(password, that.password) &&
+                Objects.equals(connectTimeout, that.connectTimeout) &&
+                Objects.equals(responseTimeout, that.responseTimeout) &&
+                poolMaxTotal == that.poolMaxTotal &&
+                poolMaxIdle == that.poolMaxIdle &&
+                poolMinIdle == that.poolMinIdle &&
+                Objects.equals(poolMaxWait, that.poolMaxWait) &&
+                Objects.equals(poolMaxConnectionLifetime, that.poolMaxConnectionLifetime) &&
+                Objects.equals(poolEvictionInterval, that.poolEvictionInterval);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(useSsl, ldapPort, ldapHost, managerDn, password);
+        return hashCode;
     }
 
     @Override
@@ -89,7 +174,15 @@ public class ConnectionConfiguration {
                 ", ldapPort=" + ldapPort +
                 ", ldapHost='" + ldapHost + '\'' +
                 ", managerDn='" + managerDn + '\'' +
-                ", password='" + password + '\'' +
+                ", password='****'" +
+                ", connectTimeout=" + connectTimeout +
+                ", responseTimeout=" + responseTimeout +
+                ", poolMaxTotal=" + poolMaxTotal +
+                ", poolMaxIdle=" + poolMaxIdle +
+                ", poolMinIdle=" + poolMinIdle +
+                ", poolMaxWait=" + poolMaxWait +
+                ", poolMaxConnectionLifetime=" + poolMaxConnectionLifetime +
+                ", poolEvictionInterval=" + poolEvictionInterval +
                 '}';
     }
 }
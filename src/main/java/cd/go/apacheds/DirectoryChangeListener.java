@@ -0,0 +1,430 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds;
+
+import cd.go.authentication.ldap.exception.LdapException;
+import org.apache.directory.api.ldap.extras.controls.SynchronizationModeEnum;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncDone.SyncDoneValue;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValueImpl;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateTypeEnum;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateValue;
+import org.apache.directory.api.ldap.extras.intermediate.syncrepl.SyncInfoValue;
+import org.apache.directory.api.ldap.extras.intermediate.syncrepl.SynchronizationInfoEnum;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.Attribute;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.*;
+import org.apache.directory.api.ldap.model.message.controls.EntryChange;
+import org.apache.directory.api.ldap.model.message.controls.PersistentSearch;
+import org.apache.directory.api.ldap.model.message.controls.PersistentSearchImpl;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.api.util.GeneralizedTime;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapNetworkConnection;
+
+import java.io.Closeable;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import static cd.go.authentication.ldap.LdapPlugin.LOG;
+
+/**
+ * Listens for changes to the entries under the search bases of an auth config, each search base on a connection of
+ * its own, and tells about every entry added, modified, renamed or deleted. Content synchronization (RFC 4533) is used
+ * when the server supports it and persistent search otherwise. When the server supports neither, entries modified
+ * since are searched for every poll interval instead, which cannot tell about deleted entries.
+ * <p>
+ * A lost connection is opened again after a delay which doubles with every attempt, up to five minutes. Changes made
+ * while not listening are reported as missed, unless content synchronization can tell which entries changed.
+ * <p>
+ * Content synchronization only looks at the entries matching the filter. Its cookies outlive the listener, so that a
+ * listener started again for the same servers, search base and filter carries on from where the previous one stopped.
+ */
+class DirectoryChangeListener implements Closeable {
+    private static final Duration INITIAL_BACKOFF = Duration.ofSeconds(1);
+    private static final Duration MAXIMUM_BACKOFF = Duration.ofMinutes(5);
+    private static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+    private static final String CREATE_TIMESTAMP = "createTimestamp";
+    private static final String NO_ATTRIBUTES = "1.1";
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger();
+    private static final Map<List<Object>, byte[]> COOKIES = new ConcurrentHashMap<>();
+
+    private final List<ConnectionConfiguration> servers;
+    private final String filter;
+    private final String[] attributes;
+    private final Duration pollInterval;
+    private final Listener listener;
+    private final Function<ConnectionConfiguration, LdapConnection> connectionFactory;
+    private final Set<LdapConnection> connections = ConcurrentHashMap.newKeySet();
+    private final List<Thread> threads = new ArrayList<>();
+    private volatile boolean closed;
+
+    interface Listener {
+        void entryChanged(Entry entry);
+
+        /**
+         * Called when entries may have changed without being told about, before listening for changes again.
+         */
+        void changesMissed();
+    }
+
+    DirectoryChangeListener(List<ConnectionConfiguration> servers, String filter, String[] attributes, Duration pollInterval, Listener listener) {
+        this(servers, filter, attributes, pollInterval, listener, DirectoryChangeListener::connect);
+    }
+
+    DirectoryChangeListener(List<ConnectionConfiguration> servers, String filter, String[] attributes, Duration pollInterval, Listener listener,
+                            Function<ConnectionConfiguration, LdapConnection> connectionFactory) {
+        this.servers = servers;
+        this.filter = filter;
+        this.attributes = attributes;
+        this.pollInterval = pollInterval.compareTo(INITIAL_BACKOFF) < 0 ? INITIAL_BACKOFF : pollInterval;
+        this.listener = listener;
+        this.connectionFactory = connectionFactory;
+    }
+
+    synchronized void start(List<String> searchBases) {
+        for (String searchBase : searchBases) {
+            final Thread thread = new Thread(new SearchBaseListener(searchBase), "ldap-change-listener-" + THREAD_NUMBER.incrementAndGet());
+            thread.setDaemon(true);
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        closed = true;
+        threads.forEach(Thread::interrupt);
+        connections.forEach(DirectoryChangeListener::closeSilently);
+    }
+
+    private static LdapConnection connect(ConnectionConfiguration server) {
+        final LdapNetworkConnection connection = new LdapNetworkConnection(server.toLdapConnectionConfig());
+        try {
+            connection.bind();
+            // the searches listening for changes never end, so they must not time out
+            connection.setTimeOut(0);
+            return connection;
+        } catch (org.apache.directory.api.ldap.model.exception.LdapException | RuntimeException e) {
+            closeSilently(connection);
+            throw new LdapException(String.format("Failed to connect to ldap server %s.", server.getLdapUrl()), e);
+        }
+    }
+
+    private static void closeSilently(LdapConnection connection) {
+        try {
+            connection.close();
+        } catch (Exception e) {
+            LOG.debug("Failed to close connection listening for changes.", e);
+        }
+    }
+
+    private class SearchBaseListener implements Runnable {
+        private final String searchBase;
+        private final List<Object> cookieKey;
+        private byte[] cookie;
+        private boolean contentSynchronizationRefused;
+        private boolean persistentSearchRefused;
+
+        private SearchBaseListener(String searchBase) {
+            this.searchBase = searchBase;
+            this.cookieKey = List.of(servers, searchBase, filter);
+            this.cookie = COOKIES.get(cookieKey);
+        }
+
+        @Override
+        public void run() {
+            Duration backoff = INITIAL_BACKOFF;
+            while (!closed) {
+                final Instant startedAt = Instant.now();
+                LdapConnection connection = null;
+                try {
+                    connection = openConnection();
+                    listen(connection);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    if (closed) {
+                        return;
+                    }
+                    LOG.warn(String.format("Stopped listening for changes under `%s`, listening again in %d seconds. %s", searchBase, backoff.getSeconds(), e.getMessage()));
+                    LOG.debug("Exception: ", e);
+                } finally {
+                    if (connection != null) {
+                        connections.remove(connection);
+                        closeSilently(connection);
+                    }
+                }
+
+                if (Duration.between(startedAt, Instant.now()).compareTo(MAXIMUM_BACKOFF) > 0) {
+                    backoff = INITIAL_BACKOFF;
+                }
+                try {
+                    Thread.sleep(backoff.toMillis());
+                } catch (InterruptedException e) {
+                    return;
+                }
+                backoff = backoff.multipliedBy(2).compareTo(MAXIMUM_BACKOFF) > 0 ? MAXIMUM_BACKOFF : backoff.multipliedBy(2);
+            }
+        }
+
+        private LdapConnection openConnection() {
+            RuntimeException failure = null;
+            for (ConnectionConfiguration server : servers) {
+                try {
+                    final LdapConnection connection = connectionFactory.apply(server);
+                    connections.add(connection);
+                    if (closed) {
+                        throw new LdapException("Stopped listening for changes.");
+                    }
+                    return connection;
+                } catch (RuntimeException e) {
+                    failure = e;
+                }
+            }
+            throw new LdapException("None of the ldap servers could be reached.", failure);
+        }
+
+        /**
+         * Servers may advertise a control and still refuse it, for example content synchronization where replication
+         * is not allowed, in which case the next way of listening is used from then on.
+         */
+        private void listen(LdapConnection connection) throws Exception {
+            if (!contentSynchronizationRefused && connection.isControlSupported(SyncRequestValue.OID)) {
+                final LdapResult result = synchronize(connection);
+                if (isRefused(result)) {
+                    contentSynchronizationRefused = true;
+                    LOG.info(String.format("Server refused content synchronization under `%s`. %s", searchBase, result.getDiagnosticMessage()));
+                } else {
+                    return;
+                }
+            }
+
+            if (!persistentSearchRefused && connection.isControlSupported(PersistentSearch.OID)) {
+                final LdapResult result = persistentSearch(connection);
+                if (isRefused(result)) {
+                    persistentSearchRefused = true;
+                    LOG.info(String.format("Server refused persistent search under `%s`. %s", searchBase, result.getDiagnosticMessage()));
+                } else {
+                    return;
+                }
+            }
+
+            poll(connection);
+        }
+
+        private boolean isRefused(LdapResult result) {
+            return result != null && result.getResultCode() != ResultCodeEnum.SUCCESS && result.getResultCode() != ResultCodeEnum.E_SYNC_REFRESH_REQUIRED;
+        }
+
+        /**
+         * Asks for the entries changed since the cookie, then for changes as they happen. Without a cookie, one is asked
+         * for first, and all entries are reported as missed instead.
+         *
+         * @return the result the server ended the search with, if any
+         */
+        private LdapResult synchronize(LdapConnection connection) throws Exception {
+            if (cookie == null) {
+                final LdapResult result = startSynchronizing(connection);
+                if (cookie == null) {
+                    return result;
+                }
+                listener.changesMissed();
+            }
+
+            LOG.info("Listening for changes under `{}` using content synchronization.", searchBase);
+            try (SearchCursor cursor = connection.search(searchRequest(filter, attributes).addControl(syncRequest(SynchronizationModeEnum.REFRESH_AND_PERSIST)))) {
+                while (cursor.next()) {
+                    final Response response = cursor.get();
+                    if (response instanceof SearchResultEntry) {
+                        final SyncStateValue syncState = (SyncStateValue) ((SearchResultEntry) response).getControl(SyncStateValue.OID);
+                        if (syncState == null || syncState.getSyncStateType() != SyncStateTypeEnum.PRESENT) {
+                            listener.entryChanged(((SearchResultEntry) response).getEntry());
+                        }
+                        if (syncState != null && syncState.getCookie() != null) {
+                            updateCookie(syncState.getCookie());
+                        }
+                    } else if (response instanceof SyncInfoValue && ((SyncInfoValue) response).getCookie() != null) {
+                        updateCookie(((SyncInfoValue) response).getCookie());
+                    }
+                }
+                return syncDone(cursor.getSearchResultDone());
+            }
+        }
+
+        /**
+         * Gets a cookie to synchronize from with a refresh which asks for no attributes, so that the server only sends
+         * the dn of each entry, and they are skipped.
+         *
+         * @return the result the server ended the search with, if any
+         */
+        private LdapResult startSynchronizing(LdapConnection connection) throws Exception {
+            final long started = System.nanoTime();
+            try (SearchCursor cursor = connection.search(searchRequest(filter, NO_ATTRIBUTES).addControl(syncRequest(SynchronizationModeEnum.REFRESH_ONLY)))) {
+                while (cursor.next()) {
+                    final Response response = cursor.get();
+                    if (response instanceof SyncInfoValue && ((SyncInfoValue) response).getCookie() != null) {
+                        updateCookie(((SyncInfoValue) response).getCookie());
+                    }
+                }
+                final LdapResult result = syncDone(cursor.getSearchResultDone());
+                LOG.debug("Got a cookie to synchronize changes under `{}` from in {} ms.", searchBase, (System.nanoTime() - started) / 1_000_000);
+                return result;
+            }
+        }
+
+        private SyncRequestValue syncRequest(SynchronizationModeEnum mode) {
+            final SyncRequestValue syncRequest = new SyncRequestValueImpl();
+            syncRequest.setMode(mode);
+            syncRequest.setCookie(cookie);
+            syncRequest.setCritical(true);
+            return syncRequest;
+        }
+
+        private LdapResult syncDone(SearchResultDone done) {
+            if (done == null) {
+                return null;
+            }
+
+            final SyncDoneValue syncDone = (SyncDoneValue) done.getControl(SyncDoneValue.OID);
+            if (syncDone != null && syncDone.getCookie() != null) {
+                updateCookie(syncDone.getCookie());
+            }
+            if (done.getLdapResult().getResultCode() == ResultCodeEnum.E_SYNC_REFRESH_REQUIRED) {
+                updateCookie(null);
+            }
+            return done.getLdapResult();
+        }
+
+        private void updateCookie(byte[] cookie) {
+            this.cookie = cookie;
+            if (cookie == null) {
+                COOKIES.remove(cookieKey);
+            } else {
+                COOKIES.put(cookieKey, cookie);
+            }
+        }
+
+        /**
+         * @return the result the server ended the search with, if any
+         */
+        private LdapResult persistentSearch(LdapConnection connection) throws Exception {
+            final PersistentSearch persistentSearch = new PersistentSearchImpl();
+            persistentSearch.setChangesOnly(true);
+            persistentSearch.setReturnECs(true);
+            persistentSearch.setChangeTypes(PersistentSearch.CHANGE_TYPES_MAX);
+            persistentSearch.setCritical(true);
+
+            LOG.info("Listening for changes under `{}` using persistent search.", searchBase);
+            try (SearchCursor cursor = connection.search(searchRequest("(objectClass=*)", attributes).addControl(persistentSearch))) {
+                listener.changesMissed();
+                while (cursor.next()) {
+                    final Response response = cursor.get();
+                    if (response instanceof SearchResultEntry) {
+                        final EntryChange entryChange = (EntryChange) ((SearchResultEntry) response).getControl(EntryChange.OID);
+                        if (entryChange != null && entryChange.getPreviousDn() != null) {
+                            listener.entryChanged(new DefaultEntry(entryChange.getPreviousDn()));
+                        }
+                        listener.entryChanged(((SearchResultEntry) response).getEntry());
+                    }
+                }
+                final SearchResultDone done = cursor.getSearchResultDone();
+                return done == null ? null : done.getLdapResult();
+            }
+        }
+
+        /**
+         * Searches for the entries modified or created at or after the latest change seen, leaving out those already
+         * reported. Until a change is seen, changes are looked for from a minute before listening started, to allow
+         * for the clock of the server being behind.
+         */
+        private void poll(LdapConnection connection) throws Exception {
+            final String[] attributesAndTimestamps = Arrays.copyOf(attributes, attributes.length + 2);
+            attributesAndTimestamps[attributes.length] = MODIFY_TIMESTAMP;
+            attributesAndTimestamps[attributes.length + 1] = CREATE_TIMESTAMP;
+
+            GeneralizedTime since = new GeneralizedTime(Date.from(Instant.now().minus(Duration.ofMinutes(1))));
+            Set<Dn> reportedAtSince = new HashSet<>();
+
+            LOG.info("Listening for changes under `{}` by searching for them every {} seconds.", searchBase, pollInterval.getSeconds());
+            listener.changesMissed();
+            while (!closed) {
+                Thread.sleep(pollInterval.toMillis());
+
+                final String time = since.toGeneralizedTimeWithoutFraction();
+                final String changedSinceFilter = String.format("(|(%s>=%s)(%s>=%s))", MODIFY_TIMESTAMP, time, CREATE_TIMESTAMP, time);
+                try (SearchCursor cursor = connection.search(searchRequest(changedSinceFilter, attributesAndTimestamps))) {
+                    GeneralizedTime latest = since;
+                    final Set<Dn> reportedAtLatest = new HashSet<>(reportedAtSince);
+                    while (cursor.next()) {
+                        if (!cursor.isEntry()) {
+                            continue;
+                        }
+
+                        final Entry entry = cursor.getEntry();
+                        final GeneralizedTime changedAt = changedAt(entry);
+                        if (changedAt != null && changedAt.compareTo(since) <= 0 && reportedAtSince.contains(entry.getDn())) {
+                            continue;
+                        }
+
+                        listener.entryChanged(entry);
+                        if (changedAt != null && changedAt.compareTo(latest) > 0) {
+                            latest = changedAt;
+                            reportedAtLatest.clear();
+                        }
+                        if (changedAt != null && changedAt.compareTo(latest) == 0) {
+                            reportedAtLatest.add(entry.getDn());
+                        }
+                    }
+                    since = latest;
+                    reportedAtSince = reportedAtLatest;
+                }
+            }
+        }
+
+        private SearchRequest searchRequest(String filter, String... attributes) throws Exception {
+            return new SearchRequestImpl()
+                    .setBase(new Dn(searchBase))
+                    .setScope(SearchScope.SUBTREE)
+                    .setFilter(filter)
+                    .addAttributes(attributes);
+        }
+
+        private GeneralizedTime changedAt(Entry entry) {
+            GeneralizedTime changedAt = null;
+            for (String attributeName : new String[]{MODIFY_TIMESTAMP, CREATE_TIMESTAMP}) {
+                final Attribute attribute = entry.get(attributeName);
+                try {
+                    final GeneralizedTime time = attribute == null ? null : new GeneralizedTime(attribute.getString());
+                    if (time != null && (changedAt == null || time.compareTo(changedAt) > 0)) {
+                        changedAt = time;
+                    }
+                } catch (ParseException | org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException e) {
+                    LOG.debug("Ignoring unexpected `{}` of entry `{}`.", attributeName, entry.getDn());
+                }
+            }
+            return changedAt;
+        }
+    }
+}
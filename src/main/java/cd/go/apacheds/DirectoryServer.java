@@ -0,0 +1,61 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds;
+
+import cd.go.apacheds.pool.CircuitBreaker;
+import cd.go.apacheds.pool.ServerHealth;
+import org.apache.directory.ldap.client.api.LdapConnectionPool;
+import org.apache.directory.ldap.client.template.LdapConnectionTemplate;
+
+/**
+ * One of the servers of an auth config, with the means to search and bind against it and its recent health.
+ */
+class DirectoryServer {
+    private final String url;
+    private final LdapConnectionTemplate ldapConnectionTemplate;
+    private final LdapConnectionPool bindConnectionPool;
+    private final ServerHealth health;
+    private final CircuitBreaker circuitBreaker;
+
+    DirectoryServer(String url, LdapConnectionTemplate ldapConnectionTemplate, LdapConnectionPool bindConnectionPool, ServerHealth health, CircuitBreaker circuitBreaker) {
+        this.url = url;
+        this.ldapConnectionTemplate = ldapConnectionTemplate;
+        this.bindConnectionPool = bindConnectionPool;
+        this.health = health;
+        this.circuitBreaker = circuitBreaker;
+    }
+
+    String url() {
+        return url;
+    }
+
+    LdapConnectionTemplate ldapConnectionTemplate() {
+        return ldapConnectionTemplate;
+    }
+
+    LdapConnectionPool bindConnectionPool() {
+        return bindConnectionPool;
+    }
+
+    ServerHealth health() {
+        return health;
+    }
+
+    CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+}
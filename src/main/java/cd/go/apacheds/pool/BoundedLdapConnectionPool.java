@@ -0,0 +1,64 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import cd.go.authentication.ldap.exception.ConnectionPoolExhaustedException;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapConnectionPool;
+
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link LdapConnectionPool} which reports running out of connections as a {@link ConnectionPoolExhaustedException}
+ * and counts how often that happened.
+ */
+public class BoundedLdapConnectionPool extends LdapConnectionPool {
+    private final String ldapUrl;
+    private final AtomicLong exhaustedCount = new AtomicLong();
+
+    BoundedLdapConnectionPool(String ldapUrl, PooledObjectFactory<LdapConnection> factory, GenericObjectPoolConfig<LdapConnection> poolConfig) {
+        super(factory, poolConfig);
+        this.ldapUrl = ldapUrl;
+    }
+
+    @Override
+    public LdapConnection getConnection() throws LdapException {
+        try {
+            return super.getConnection();
+        } catch (RuntimeException e) {
+            // the pool gives up with a NoSuchElementException both when exhausted and when it cannot create a connection
+            if (isNoSuchElement(e) && getNumActive() >= getMaxTotal()) {
+                final long count = exhaustedCount.incrementAndGet();
+                throw new ConnectionPoolExhaustedException(String.format("All %d connections to %s are in use and none became available within %s (exhausted %d times so far).",
+                        getMaxTotal(), ldapUrl, getBlockWhenExhausted() ? getMaxWaitDuration() : "0s", count));
+            }
+            throw e;
+        }
+    }
+
+    private static boolean isNoSuchElement(RuntimeException e) {
+        return e instanceof NoSuchElementException || e.getCause() instanceof NoSuchElementException;
+    }
+
+    public long getExhaustedCount() {
+        return exhaustedCount.get();
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import cd.go.authentication.ldap.exception.CircuitBreakerOpenException;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+
+import static cd.go.authentication.ldap.LdapPlugin.LOG;
+
+/**
+ * Stops sending requests to an LDAP server which failed several times in a row, so that callers fail right away
+ * instead of each waiting for the server to time out. Once the server has been left alone for a while a single
+ * request is let through to find out whether it recovered.
+ */
+public class CircuitBreaker {
+    public enum State {CLOSED, OPEN, HALF_OPEN}
+
+    private final String ldapUrl;
+    private final int failureThreshold;
+    private final Duration openDuration;
+    private final Clock clock;
+    private final Map<State, Long> transitions = new EnumMap<>(State.class);
+
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probeInFlight;
+    private long rejectedCount;
+
+    /**
+     * @param failureThreshold number of consecutive failures after which the breaker opens, zero or less to never open
+     * @param openDuration     how long the breaker stays open before letting a request through
+     */
+    public CircuitBreaker(String ldapUrl, int failureThreshold, Duration openDuration) {
+        this(ldapUrl, failureThreshold, openDuration, Clock.systemUTC());
+    }
+
+    CircuitBreaker(String ldapUrl, int failureThreshold, Duration openDuration, Clock clock) {
+        this.ldapUrl = ldapUrl;
+        this.failureThreshold = failureThreshold;
+        this.openDuration = openDuration;
+        this.clock = clock;
+    }
+
+    /**
+     * Must be called before sending a request to the server. Every call which does not throw must be followed by
+     * exactly one call to {@link #onSuccess()}, {@link #onFailure()} or {@link #onIgnored()}.
+     *
+     * @throws CircuitBreakerOpenException when the request must not be sent
+     */
+    public synchronized void acquirePermission() {
+        if (state == State.OPEN && clock.millis() - openedAt >= openDuration.toMillis()) {
+            transitionTo(State.HALF_OPEN);
+        }
+
+        if (state == State.CLOSED) {
+            return;
+        }
+
+        if (state == State.HALF_OPEN && !probeInFlight) {
+            probeInFlight = true;
+            return;
+        }
+
+        rejectedCount++;
+        throw new CircuitBreakerOpenException(String.format("Not sending request to %s as it failed %d times in a row. It will be tried again %s after it last failed.",
+                ldapUrl, consecutiveFailures, openDuration));
+    }
+
+    /**
+     * The server answered the request, even if only with an error result.
+     */
+    public synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        probeInFlight = false;
+        if (state != State.CLOSED) {
+            transitionTo(State.CLOSED);
+        }
+    }
+
+    /**
+     * The server could not be reached or did not answer in time.
+     */
+    public synchronized void onFailure() {
+        consecutiveFailures++;
+        probeInFlight = false;
+        if (state == State.HALF_OPEN || (state == State.CLOSED && failureThreshold > 0 && consecutiveFailures >= failureThreshold)) {
+            openedAt = clock.millis();
+            transitionTo(State.OPEN);
+        }
+    }
+
+    /**
+     * The request was given up on without learning anything about the server, for example because no pooled
+     * connection became available.
+     */
+    public synchronized void onIgnored() {
+        probeInFlight = false;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    /**
+     * @return how often the breaker changed into the given state.
+     */
+    public synchronized long getTransitionCount(State state) {
+        return transitions.getOrDefault(state, 0L);
+    }
+
+    /**
+     * @return how many requests were turned down without contacting the server.
+     */
+    public synchronized long getRejectedCount() {
+        return rejectedCount;
+    }
+
+    private void transitionTo(State newState) {
+        final State oldState = state;
+        state = newState;
+        transitions.merge(newState, 1L, Long::sum);
+        if (newState == State.OPEN) {
+            LOG.warn("Circuit breaker for {} changed from {} to {} after {} consecutive failures (opened {} times so far).",
+                    ldapUrl, oldState, newState, consecutiveFailures, getTransitionCount(State.OPEN));
+        } else {
+            LOG.info("Circuit breaker for {} changed from {} to {}.", ldapUrl, oldState, newState);
+        }
+    }
+}
@@ -20,65 +20,183 @@ import cd.go.apacheds.ConnectionConfiguration;
 import cd.go.authentication.ldap.exception.LdapException;
 import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
 import org.apache.directory.ldap.client.api.DefaultLdapConnectionFactory;
-import org.apache.directory.ldap.client.api.DefaultPoolableLdapConnectionFactory;
 import org.apache.directory.ldap.client.api.LdapConnection;
 import org.apache.directory.ldap.client.api.LdapConnectionPool;
+import org.apache.directory.ldap.client.api.PooledLdapConnection;
 
 import java.time.Duration;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static cd.go.authentication.ldap.LdapPlugin.LOG;
+import static cd.go.authentication.ldap.PluginSystemProperty.circuitBreakerFailureThreshold;
+import static cd.go.authentication.ldap.PluginSystemProperty.circuitBreakerOpenDuration;
 
 public class ConnectionPoolFactory {
-    private final static Map<ConnectionConfiguration, LdapConnectionPool> ldapConnectionPoolMap = new HashMap<>();
-    private static final GenericObjectPoolConfig<LdapConnection> CONNECTION_POOL_CONFIGURATION = createConfig();
+    private static final Duration MAXIMUM_UNREFERENCED_IDLE_TIME = Duration.ofMinutes(10);
+    private static final ConcurrentMap<ConnectionConfiguration, ConnectionPools> connectionPoolsMap = new ConcurrentHashMap<>();
+    private static final Duration DEFAULT_EVICTION_INTERVAL = Duration.ofMinutes(1);
+    private static final Duration DEFAULT_MAX_WAIT = Duration.ofSeconds(10);
+    private static final Duration MAINTENANCE_INTERVAL = Duration.ofSeconds(30);
+    private static final AtomicBoolean maintenanceScheduled = new AtomicBoolean();
+    private static final RootDseConnectionValidator HEALTH_PROBE = new RootDseConnectionValidator();
 
-    private static <T> GenericObjectPoolConfig<T> createConfig() {
-        GenericObjectPoolConfig<T> poolConfig = new GenericObjectPoolConfig<>();
+    private static GenericObjectPoolConfig<LdapConnection> createConfig(ConnectionConfiguration configuration) {
+        GenericObjectPoolConfig<LdapConnection> poolConfig = new GenericObjectPoolConfig<>();
         poolConfig.setLifo(true);
-        poolConfig.setMaxTotal(250);
-        poolConfig.setMaxIdle(50);
-        poolConfig.setMinIdle(0);
-        poolConfig.setNumTestsPerEvictionRun(3);
+        poolConfig.setMaxTotal(configuration.getPoolMaxTotal());
+        poolConfig.setMaxIdle(configuration.getPoolMaxIdle());
+        poolConfig.setMinIdle(configuration.getPoolMinIdle());
+        // every eviction run validates all idle connections and tops the pool back up to min idle
+        poolConfig.setTimeBetweenEvictionRuns(configuration.getPoolEvictionInterval() == null ? DEFAULT_EVICTION_INTERVAL : configuration.getPoolEvictionInterval());
+        poolConfig.setNumTestsPerEvictionRun(-1);
+        poolConfig.setSoftMinEvictableIdleDuration(Duration.ofMinutes(10));
         poolConfig.setMinEvictableIdleDuration(Duration.ofMinutes(30));
-        poolConfig.setTestOnBorrow(false);
+        poolConfig.setTestOnBorrow(true);
         poolConfig.setTestOnReturn(false);
-        poolConfig.setTestWhileIdle(false);
-        poolConfig.setBlockWhenExhausted(true);
+        poolConfig.setTestWhileIdle(true);
+        final Duration maxWait = configuration.getPoolMaxWait() == null ? DEFAULT_MAX_WAIT : configuration.getPoolMaxWait();
+        // the pool waits forever for a max wait of zero, so fail right away instead
+        poolConfig.setBlockWhenExhausted(!maxWait.isZero());
+        poolConfig.setMaxWait(maxWait);
+
         return poolConfig;
     }
 
     private ConnectionPoolFactory() {
     }
 
-    public static LdapConnectionPool getLdapConnectionPool(ConnectionConfiguration configuration) {
+    /**
+     * Only for tests, as the pool is not retained and can be closed once idle. Use {@link #acquire} instead.
+     */
+    static LdapConnectionPool getLdapConnectionPool(ConnectionConfiguration configuration) {
+        return connectionPools(configuration).ldapConnectionPool();
+    }
+
+    /**
+     * Only for tests, as the pool is not retained and can be closed once idle. Use {@link #acquire} and
+     * {@link ConnectionPools#bindConnectionPool()} instead.
+     */
+    static LdapConnectionPool getBindConnectionPool(ConnectionConfiguration configuration) {
+        return connectionPools(configuration).bindConnectionPool();
+    }
+
+    /**
+     * Returns the pools for the given configuration and records that the caller uses them until it calls
+     * {@link ConnectionPools#release()}. Pools nobody holds a reference to are closed after being idle for a while,
+     * which takes care of pools of edited auth configs and of configurations only ever used to verify a connection.
+     */
+    public static ConnectionPools acquire(ConnectionConfiguration configuration) {
+        scheduleMaintenance();
+        while (true) {
+            final ConnectionPools connectionPools = connectionPools(configuration);
+            if (connectionPools.retain()) {
+                return connectionPools;
+            }
+        }
+    }
+
+    private static ConnectionPools connectionPools(ConnectionConfiguration configuration) {
+        ConnectionPools connectionPools = connectionPoolsMap.get(configuration);
+        while (connectionPools == null || connectionPools.isClosed()) {
+            if (connectionPools != null) {
+                connectionPoolsMap.remove(configuration, connectionPools);
+            }
+            connectionPools = connectionPoolsMap.computeIfAbsent(configuration, ConnectionPoolFactory::createConnectionPools);
+        }
+        return connectionPools;
+    }
+
+    static void evictIdleConnectionPools(Duration maximumIdleTime) {
+        final long idleSince = System.currentTimeMillis() - maximumIdleTime.toMillis();
+        connectionPoolsMap.forEach((configuration, connectionPools) -> {
+            if (connectionPools.closeIfUnreferencedSince(idleSince)) {
+                connectionPoolsMap.remove(configuration, connectionPools);
+                LOG.debug("Closed idle connection pools for {}.", configuration.getLdapUrl());
+            }
+        });
+    }
+
+    /**
+     * Probes the failing servers and closes the idle unreferenced pools on a background thread, as clients are cached
+     * and pools are rarely acquired once all auth configs are in use.
+     */
+    private static void scheduleMaintenance() {
+        if (maintenanceScheduled.compareAndSet(false, true)) {
+            final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                final Thread thread = new Thread(runnable, "ldap-server-health-probe");
+                thread.setDaemon(true);
+                return thread;
+            });
+            executor.scheduleWithFixedDelay(ConnectionPoolFactory::maintainConnectionPools,
+                    MAINTENANCE_INTERVAL.toMillis(), MAINTENANCE_INTERVAL.toMillis(), TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private static void maintainConnectionPools() {
+        // an exception would cancel all later runs
         try {
-            return ldapConnectionPool(configuration);
-        } catch (Exception e) {
-            throw new LdapException(e);
+            probeUnhealthyServers();
+            evictIdleConnectionPools(MAXIMUM_UNREFERENCED_IDLE_TIME);
+        } catch (RuntimeException e) {
+            LOG.error("Failed to maintain the ldap connection pools.", e);
         }
     }
 
-    private static LdapConnectionPool ldapConnectionPool(ConnectionConfiguration configuration) {
-        LdapConnectionPool ldapConnectionPool = ldapConnectionPoolMap.get(configuration);
-        if (ldapConnectionPool == null) {
-            synchronized (configuration.toString().intern()) {
-                ldapConnectionPool = ldapConnectionPoolMap.get(configuration);
-                if (ldapConnectionPool == null) {
-                    ldapConnectionPool = createLdapConnectionPool(configuration);
-                    register(configuration, ldapConnectionPool);
-                }
+    /**
+     * Checks on the servers which have been failing, so that a server taken out of rotation is used again as soon as
+     * it has recovered.
+     */
+    static void probeUnhealthyServers() {
+        connectionPoolsMap.forEach((configuration, connectionPools) -> {
+            if (!connectionPools.isClosed() && connectionPools.health().needsProbe()) {
+                probe(configuration, connectionPools);
+            }
+        });
+    }
+
+    private static void probe(ConnectionConfiguration configuration, ConnectionPools connectionPools) {
+        final LdapConnectionPool pool = connectionPools.ldapConnectionPool();
+        final boolean wasAvailable = connectionPools.health().isAvailable();
+        final long startedAt = System.nanoTime();
+        try {
+            final LdapConnection connection = pool.getConnection();
+            if (!HEALTH_PROBE.validate(connection)) {
+                pool.invalidateObject(((PooledLdapConnection) connection).wrapped());
+                LOG.debug("Ldap server {} is still not answering.", configuration.getLdapUrl());
+                return;
+            }
+
+            pool.releaseConnection(connection);
+            connectionPools.health().recordSuccess(Duration.ofNanos(System.nanoTime() - startedAt));
+            if (!wasAvailable) {
+                LOG.info("Ldap server {} is answering again.", configuration.getLdapUrl());
             }
+        } catch (Exception e) {
+            LOG.debug("Ldap server {} is still not answering: {}", configuration.getLdapUrl(), e.getMessage());
         }
+    }
 
-        return ldapConnectionPool;
+    private static ConnectionPools createConnectionPools(ConnectionConfiguration configuration) {
+        try {
+            return new ConnectionPools(createLdapConnectionPool(configuration), createBindConnectionPool(configuration),
+                    new CircuitBreaker(configuration.getLdapUrl(), circuitBreakerFailureThreshold(), circuitBreakerOpenDuration()));
+        } catch (Exception e) {
+            throw new LdapException(e);
+        }
+    }
+
+    private static BoundedLdapConnectionPool createLdapConnectionPool(ConnectionConfiguration configuration) {
+        final DefaultLdapConnectionFactory factory = new DefaultLdapConnectionFactory(configuration.toLdapConnectionConfig());
+        return new BoundedLdapConnectionPool(configuration.getLdapUrl(), new RecyclingPoolableLdapConnectionFactory(factory, recyclingPolicy(configuration)), createConfig(configuration));
     }
 
-    private static LdapConnectionPool createLdapConnectionPool(ConnectionConfiguration configuration) {
+    private static BoundedLdapConnectionPool createBindConnectionPool(ConnectionConfiguration configuration) {
         final DefaultLdapConnectionFactory factory = new DefaultLdapConnectionFactory(configuration.toLdapConnectionConfig());
-        return new LdapConnectionPool(new DefaultPoolableLdapConnectionFactory(factory), CONNECTION_POOL_CONFIGURATION);
+        return new BoundedLdapConnectionPool(configuration.getLdapUrl(), new RecyclingValidatingPoolableLdapConnectionFactory(factory, recyclingPolicy(configuration)), createConfig(configuration));
     }
 
-    private static void register(ConnectionConfiguration configuration, LdapConnectionPool ldapConnectionFactory) {
-        ldapConnectionPoolMap.put(configuration, ldapConnectionFactory);
+    private static ConnectionRecyclingPolicy recyclingPolicy(ConnectionConfiguration configuration) {
+        return new ConnectionRecyclingPolicy(configuration.getPoolMaxConnectionLifetime());
     }
 }
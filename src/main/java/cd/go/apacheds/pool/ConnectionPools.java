@@ -0,0 +1,117 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import org.apache.directory.ldap.client.api.LdapConnectionPool;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static cd.go.authentication.ldap.LdapPlugin.LOG;
+
+/**
+ * The search and bind connection pools of one connection configuration, along with the number of clients using them
+ * and the health of the server they connect to.
+ * Pools which are no longer referenced by any client are closed by {@link ConnectionPoolFactory} once they have been
+ * idle for a while.
+ */
+public class ConnectionPools {
+    private static final int CLOSED = -1;
+
+    private final LdapConnectionPool ldapConnectionPool;
+    private final LdapConnectionPool bindConnectionPool;
+    private final ServerHealth health = new ServerHealth();
+    private final CircuitBreaker circuitBreaker;
+    private final AtomicInteger references = new AtomicInteger();
+    private volatile long unreferencedSince;
+
+    ConnectionPools(LdapConnectionPool ldapConnectionPool, LdapConnectionPool bindConnectionPool, CircuitBreaker circuitBreaker) {
+        this.ldapConnectionPool = ldapConnectionPool;
+        this.bindConnectionPool = bindConnectionPool;
+        this.circuitBreaker = circuitBreaker;
+        this.unreferencedSince = System.currentTimeMillis();
+    }
+
+    public LdapConnectionPool ldapConnectionPool() {
+        return ldapConnectionPool;
+    }
+
+    /**
+     * Returns a pool of connections dedicated to binding as end users. Connections borrowed from this pool are
+     * re-bound using the manager credentials when they are released, so a connection never carries a user
+     * identity back into the pool. Connections on which a user bind failed should be invalidated, not released.
+     */
+    public LdapConnectionPool bindConnectionPool() {
+        return bindConnectionPool;
+    }
+
+    public ServerHealth health() {
+        return health;
+    }
+
+    public CircuitBreaker circuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Gives up the reference taken by {@link ConnectionPoolFactory#acquire}. Must be called exactly once per acquire.
+     */
+    public void release() {
+        if (references.decrementAndGet() == 0) {
+            unreferencedSince = System.currentTimeMillis();
+        }
+    }
+
+    int references() {
+        return Math.max(references.get(), 0);
+    }
+
+    boolean isClosed() {
+        return references.get() == CLOSED;
+    }
+
+    /**
+     * @return false when these pools have already been closed and must not be used any more.
+     */
+    boolean retain() {
+        int current;
+        do {
+            current = references.get();
+            if (current == CLOSED) {
+                return false;
+            }
+        } while (!references.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    boolean closeIfUnreferencedSince(long idleSince) {
+        if (unreferencedSince > idleSince || !references.compareAndSet(0, CLOSED)) {
+            return false;
+        }
+
+        close(ldapConnectionPool);
+        close(bindConnectionPool);
+        return true;
+    }
+
+    private static void close(LdapConnectionPool pool) {
+        try {
+            pool.close();
+        } catch (Exception e) {
+            LOG.warn("Failed to close ldap connection pool.", e);
+        }
+    }
+}
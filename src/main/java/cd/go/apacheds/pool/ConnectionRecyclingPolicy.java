@@ -0,0 +1,57 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectState;
+import org.apache.directory.ldap.client.api.LdapConnection;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Predicate;
+
+/**
+ * Decides whether a pooled connection may still be used. Connections older than the maximum lifetime are always
+ * recycled. Connections about to be handed out are only validated against the server when they have been idle long
+ * enough to have been dropped by the server or a load balancer in the meantime, otherwise it is enough that the
+ * socket is still open. The evictor validates all idle connections against the server.
+ */
+class ConnectionRecyclingPolicy {
+    static final Duration VALIDATE_ON_BORROW_AFTER_IDLE = Duration.ofSeconds(30);
+
+    private final Duration maxLifetime;
+
+    ConnectionRecyclingPolicy(Duration maxLifetime) {
+        this.maxLifetime = maxLifetime;
+    }
+
+    boolean isUsable(PooledObject<LdapConnection> pooledObject, Predicate<PooledObject<LdapConnection>> validation) {
+        if (isExpired(pooledObject)) {
+            return false;
+        }
+
+        if (pooledObject.getState() == PooledObjectState.ALLOCATED && pooledObject.getIdleDuration().compareTo(VALIDATE_ON_BORROW_AFTER_IDLE) < 0) {
+            return pooledObject.getObject().isConnected();
+        }
+
+        return validation.test(pooledObject);
+    }
+
+    private boolean isExpired(PooledObject<LdapConnection> pooledObject) {
+        return maxLifetime != null && !pooledObject.getCreateInstant().plus(maxLifetime).isAfter(Instant.now());
+    }
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.directory.ldap.client.api.DefaultPoolableLdapConnectionFactory;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapConnectionFactory;
+
+/**
+ * A {@link DefaultPoolableLdapConnectionFactory} for search connections which validates connections according to a {@link ConnectionRecyclingPolicy}.
+ */
+class RecyclingPoolableLdapConnectionFactory extends DefaultPoolableLdapConnectionFactory {
+    private final ConnectionRecyclingPolicy recyclingPolicy;
+
+    RecyclingPoolableLdapConnectionFactory(LdapConnectionFactory connectionFactory, ConnectionRecyclingPolicy recyclingPolicy) {
+        super(connectionFactory);
+        this.recyclingPolicy = recyclingPolicy;
+        setValidator(new RootDseConnectionValidator());
+    }
+
+    @Override
+    public boolean validateObject(PooledObject<LdapConnection> pooledObject) {
+        return recyclingPolicy.isUsable(pooledObject, super::validateObject);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.ldap.client.api.ValidatingPoolableLdapConnectionFactory;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapConnectionFactory;
+import org.apache.directory.ldap.client.api.MonitoringLdapConnection;
+
+/**
+ * A {@link ValidatingPoolableLdapConnectionFactory} for bind connections which validates connections according to a {@link ConnectionRecyclingPolicy}.
+ */
+class RecyclingValidatingPoolableLdapConnectionFactory extends ValidatingPoolableLdapConnectionFactory {
+    private final ConnectionRecyclingPolicy recyclingPolicy;
+
+    RecyclingValidatingPoolableLdapConnectionFactory(LdapConnectionFactory connectionFactory, ConnectionRecyclingPolicy recyclingPolicy) {
+        super(connectionFactory);
+        this.recyclingPolicy = recyclingPolicy;
+        setValidator(new RootDseConnectionValidator());
+    }
+
+    @Override
+    public boolean validateObject(PooledObject<LdapConnection> pooledObject) {
+        return recyclingPolicy.isUsable(pooledObject, super::validateObject);
+    }
+
+    /**
+     * Binds the connection as manager again before it goes back to the pool. User binds are sent on the network
+     * connection itself to bound them by the bind timeout, so the connection the pool hands out does not know about
+     * them and would otherwise go back to the pool bound as the user.
+     */
+    @Override
+    public void passivateObject(PooledObject<LdapConnection> pooledObject) throws LdapException {
+        final LdapConnection connection = pooledObject.getObject();
+        if (connection instanceof MonitoringLdapConnection && !((MonitoringLdapConnection) connection).bindCalled()) {
+            // bound on the network connection, so that the monitoring connection does not bind a second time
+            connectionFactory.bindConnection(((MonitoringLdapConnection) connection).wrapped());
+        }
+        super.passivateObject(pooledObject);
+    }
+
+    /**
+     * Only unbinds connections which are still connected. A connection on which a user bind went unanswered is closed
+     * before it is invalidated, as unbinding would wait for the server which is not answering.
+     */
+    @Override
+    public void destroyObject(PooledObject<LdapConnection> pooledObject) throws LdapException {
+        if (pooledObject.getObject().isConnected()) {
+            super.destroyObject(pooledObject);
+        }
+    }
+}
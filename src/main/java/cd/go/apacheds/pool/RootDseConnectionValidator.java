@@ -0,0 +1,42 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapConnectionValidator;
+
+import static cd.go.authentication.ldap.LdapPlugin.LOG;
+
+/**
+ * Checks a pooled connection is still alive by reading the root DSE without requesting any attribute, which every
+ * server answers cheaply. Unlike the validator shipped with the ldap client it does not require the connection to
+ * be authenticated, so it also works for anonymous connections.
+ */
+class RootDseConnectionValidator implements LdapConnectionValidator {
+    private static final String NO_ATTRIBUTES = "1.1";
+
+    @Override
+    public boolean validate(LdapConnection connection) {
+        try {
+            return connection.isConnected() && connection.lookup(Dn.ROOT_DSE, NO_ATTRIBUTES) != null;
+        } catch (Exception e) {
+            LOG.debug("Discarding pooled connection which failed validation: {}", e.getMessage());
+            return false;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import java.time.Duration;
+
+/**
+ * Keeps track of how well an LDAP server has been answering recently, using exponentially weighted averages of its
+ * error rate and latency. A server which fails a few times in a row is taken out of rotation until a probe finds it
+ * answering again.
+ */
+public class ServerHealth {
+    static final int FAILURES_BEFORE_DOWN = 3;
+    private static final double WEIGHT = 0.2;
+    private static final double ERROR_PENALTY_MILLIS = 1000;
+    private static final double DOWN_PENALTY_MILLIS = 1_000_000_000;
+
+    private double errorRate;
+    private double latencyMillis;
+    private int consecutiveFailures;
+    private boolean down;
+
+    public synchronized void recordSuccess(Duration latency) {
+        errorRate = average(errorRate, 0);
+        latencyMillis = average(latencyMillis, latency.toNanos() / 1_000_000d);
+        consecutiveFailures = 0;
+        down = false;
+    }
+
+    public synchronized void recordFailure() {
+        errorRate = average(errorRate, 1);
+        consecutiveFailures++;
+        if (consecutiveFailures >= FAILURES_BEFORE_DOWN) {
+            down = true;
+        }
+    }
+
+    public synchronized boolean isAvailable() {
+        return !down;
+    }
+
+    /**
+     * @return true when the server is down or has been failing, and a probe should check on it.
+     */
+    public synchronized boolean needsProbe() {
+        return down || consecutiveFailures > 0;
+    }
+
+    /**
+     * @return the expected cost of sending a request to the server, lower is better.
+     */
+    public synchronized double score() {
+        return latencyMillis + errorRate * ERROR_PENALTY_MILLIS;
+    }
+
+    /**
+     * @return the score of the server, pushed behind all available servers when it is down. Requests go to the server
+     * with the lowest rank first.
+     */
+    public synchronized double rank() {
+        return down ? DOWN_PENALTY_MILLIS + score() : score();
+    }
+
+    private static double average(double average, double sample) {
+        return average + WEIGHT * (sample - average);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("ServerHealth{available=%s, errorRate=%.2f, latencyMillis=%.1f}", !down, errorRate, latencyMillis);
+    }
+}
@@ -16,50 +16,233 @@
 
 package cd.go.authentication.ldap;
 
+import cd.go.authentication.ldap.cache.AuthConfigAffinity;
+import cd.go.authentication.ldap.cache.CredentialCache;
+import cd.go.authentication.ldap.cache.DirectoryChanges;
+import cd.go.authentication.ldap.cache.UnknownUserCache;
+import cd.go.authentication.ldap.exception.CircuitBreakerOpenException;
+import cd.go.authentication.ldap.exception.ConnectionPoolExhaustedException;
+import cd.go.authentication.ldap.exception.UserNotFoundException;
 import cd.go.authentication.ldap.mapper.LdapMapperFactory;
 import cd.go.authentication.ldap.mapper.ResultWrapper;
+import cd.go.authentication.ldap.mapper.UserMapper;
 import cd.go.authentication.ldap.mapper.UsernameResolver;
 import cd.go.authentication.ldap.model.*;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static cd.go.authentication.ldap.LdapPlugin.LOG;
+import static cd.go.authentication.ldap.PluginSystemProperty.authConfigAffinityTtl;
+import static cd.go.authentication.ldap.PluginSystemProperty.authenticationCacheTtl;
+import static cd.go.authentication.ldap.PluginSystemProperty.parallelUserLookup;
+import static cd.go.authentication.ldap.PluginSystemProperty.unknownUserCacheTtl;
 
 public class LdapAuthenticator {
+    private static final int MAXIMUM_CONCURRENT_LOOKUPS = 32;
+    private static final ExecutorService LOOKUP_EXECUTOR = lookupExecutor();
     private final LdapFactory ldapFactory;
     private final LdapMapperFactory ldapMapperFactory;
+    private final CredentialCache credentialCache;
+    private final UnknownUserCache unknownUsers;
+    private final AuthConfigAffinity affinity;
+    private final boolean parallelLookup;
 
     public LdapAuthenticator() {
-        this(new LdapFactory(), new LdapMapperFactory());
+        this(new LdapFactory(), new LdapMapperFactory(), new CredentialCache(authenticationCacheTtl()), new UnknownUserCache(unknownUserCacheTtl()),
+                new AuthConfigAffinity(authConfigAffinityTtl()), parallelUserLookup());
+        DirectoryChanges.instance().addListener((configuration, usernames) -> {
+            credentialCache.invalidate(configuration, usernames);
+            unknownUsers.invalidate(configuration, usernames);
+        });
     }
 
     LdapAuthenticator(LdapFactory ldapFactory, LdapMapperFactory ldapMapperFactory) {
+        this(ldapFactory, ldapMapperFactory, CredentialCache.disabled());
+    }
+
+    LdapAuthenticator(LdapFactory ldapFactory, LdapMapperFactory ldapMapperFactory, CredentialCache credentialCache) {
+        this(ldapFactory, ldapMapperFactory, credentialCache, UnknownUserCache.disabled());
+    }
+
+    LdapAuthenticator(LdapFactory ldapFactory, LdapMapperFactory ldapMapperFactory, CredentialCache credentialCache, UnknownUserCache unknownUsers) {
+        this(ldapFactory, ldapMapperFactory, credentialCache, unknownUsers, AuthConfigAffinity.disabled(), false);
+    }
+
+    LdapAuthenticator(LdapFactory ldapFactory, LdapMapperFactory ldapMapperFactory, CredentialCache credentialCache, UnknownUserCache unknownUsers,
+                      AuthConfigAffinity affinity, boolean parallelLookup) {
         this.ldapFactory = ldapFactory;
         this.ldapMapperFactory = ldapMapperFactory;
+        this.credentialCache = credentialCache;
+        this.unknownUsers = unknownUsers;
+        this.affinity = affinity;
+        this.parallelLookup = parallelLookup;
     }
 
+    private static ExecutorService lookupExecutor() {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(0, MAXIMUM_CONCURRENT_LOOKUPS, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "ldap-user-lookup-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Tries the auth configs in order. An auth config which authenticated the user before is tried first when all auth
+     * configs before it answered that there is no such user at the time, and the usual order is followed when it fails.
+     */
     public AuthenticationResponse authenticate(Credentials credentials, List<AuthConfig> authConfigs) {
+        final Set<AuthConfig> authConfigsWithoutUser = new HashSet<>();
+        final AuthConfig preferredAuthConfig = affinity.preferredAuthConfig(credentials.getUsername(), authConfigs);
+        if (preferredAuthConfig != null) {
+            LOG.debug(String.format("[Authenticate] Trying auth_config: %s first, which authenticated user `%s` before (hits: %d, misses: %d)",
+                    preferredAuthConfig.getId(), credentials.getUsername(), affinity.hitCount(), affinity.missCount()));
+            final AuthenticationResponse authenticationResponse = authenticateWithAuthConfig(credentials, preferredAuthConfig, null, authConfigsWithoutUser);
+            if (authenticationResponse != null) {
+                return authenticationResponse;
+            }
+            affinity.invalidate(credentials.getUsername());
+        }
+
+        final List<AuthConfig> remainingAuthConfigs = new ArrayList<>(authConfigs);
+        remainingAuthConfigs.remove(preferredAuthConfig);
+        final AuthenticationResponse authenticationResponse = parallelLookup && remainingAuthConfigs.size() > 1
+                ? authenticateWithUserLookedUpInParallel(credentials, remainingAuthConfigs, authConfigsWithoutUser)
+                : authenticateInOrder(credentials, remainingAuthConfigs, authConfigsWithoutUser);
+
+        if (authenticationResponse != null) {
+            final int index = authConfigs.indexOf(authenticationResponse.getConfigUsedForAuthentication());
+            if (index > 0 && authConfigsWithoutUser.containsAll(authConfigs.subList(0, index))) {
+                affinity.put(credentials.getUsername(), authConfigs, index);
+            }
+        }
+        return authenticationResponse;
+    }
+
+    private AuthenticationResponse authenticateInOrder(Credentials credentials, List<AuthConfig> authConfigs, Set<AuthConfig> authConfigsWithoutUser) {
         for (AuthConfig authConfig : authConfigs) {
-            AuthenticationResponse authenticationResponse = authenticateWithAuthConfig(credentials, authConfig);
+            AuthenticationResponse authenticationResponse = authenticateWithAuthConfig(credentials, authConfig, null, authConfigsWithoutUser);
             if (authenticationResponse != null)
                 return authenticationResponse;
         }
         return null;
     }
 
-    private AuthenticationResponse authenticateWithAuthConfig(Credentials credentials, AuthConfig authConfig) {
+    /**
+     * Looks the user up with all auth configs at the same time, then goes through the auth configs in order as usual.
+     * An auth config whose lookup found no such user is skipped without binding, and one whose lookup found the user
+     * only needs to bind, as the entry found is in the user entry cache of its client. The first auth config to
+     * authenticate the user still wins. Auth configs whose lookup could not start because too many lookups are running
+     * are not looked up on the calling thread, their bind searches for the user as usual.
+     */
+    private AuthenticationResponse authenticateWithUserLookedUpInParallel(Credentials credentials, List<AuthConfig> authConfigs, Set<AuthConfig> authConfigsWithoutUser) {
+        final List<Future<?>> lookups = new ArrayList<>();
+        try {
+            for (AuthConfig authConfig : authConfigs) {
+                lookups.add(submitLookUp(credentials, authConfig));
+            }
+
+            for (int i = 0; i < authConfigs.size(); i++) {
+                AuthenticationResponse authenticationResponse = authenticateWithAuthConfig(credentials, authConfigs.get(i), lookups.get(i), authConfigsWithoutUser);
+                if (authenticationResponse != null)
+                    return authenticationResponse;
+            }
+            return null;
+        } finally {
+            // lookups which already started are left to finish, as interrupting them would count against the server
+            lookups.stream().filter(Objects::nonNull).forEach(lookup -> lookup.cancel(false));
+        }
+    }
+
+    private Future<?> submitLookUp(Credentials credentials, AuthConfig authConfig) {
+        try {
+            return LOOKUP_EXECUTOR.submit(() -> lookUpUser(credentials, authConfig));
+        } catch (RejectedExecutionException e) {
+            LOG.debug(String.format("[Authenticate] Not looking up user %s using auth_config: %s ahead of the bind as %d lookups are already running",
+                    credentials.getUsername(), authConfig.getId(), MAXIMUM_CONCURRENT_LOOKUPS));
+            return null;
+        }
+    }
+
+    private void lookUpUser(Credentials credentials, AuthConfig authConfig) {
+        if (unknownUsers.isUnknown(authConfig, credentials.getUsername())) {
+            return;
+        }
+
+        final LdapConfiguration configuration = authConfig.getConfiguration();
+        final UserMapper userMapper = configuration.getUserMapper(new UsernameResolver(credentials.getUsername()));
+        ldapFactory.ldapForConfiguration(configuration).findUser(credentials.getUsername(), ldapMapperFactory.attributeOrEntryMapper(userMapper.requiredAttributes()));
+    }
+
+    /**
+     * @return true only when the lookup definitely found no such user; any other outcome leaves it to the bind.
+     */
+    private static boolean userNotFound(Future<?> lookup) {
+        try {
+            lookup.get();
+            return false;
+        } catch (ExecutionException e) {
+            return e.getCause() instanceof UserNotFoundException;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (CancellationException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @param authConfigsWithoutUser collects the auth configs which answered that there is no such user
+     */
+    private AuthenticationResponse authenticateWithAuthConfig(Credentials credentials, AuthConfig authConfig, Future<?> lookup, Set<AuthConfig> authConfigsWithoutUser) {
         final LdapConfiguration configuration = authConfig.getConfiguration();
         final String authConfigId = authConfig.getId();
+
+        final User cachedUser = credentialCache.verify(authConfig, credentials);
+        if (cachedUser != null) {
+            LOG.debug(String.format("[Authenticate] User `%s` authenticated from cache using auth_config: %s (cache hits: %d, misses: %d)",
+                    cachedUser.getUsername(), authConfigId, credentialCache.hitCount(), credentialCache.missCount()));
+            return new AuthenticationResponse(cachedUser, authConfig);
+        }
+
+        if (unknownUsers.isUnknown(authConfig, credentials.getUsername())) {
+            LOG.debug(String.format("[Authenticate] User `%s` is known not to exist using auth_config: %s (cache hits: %d, misses: %d, evictions: %d)",
+                    credentials.getUsername(), authConfigId, unknownUsers.hitCount(), unknownUsers.missCount(), unknownUsers.evictionCount()));
+            authConfigsWithoutUser.add(authConfig);
+            return null;
+        }
+
+        if (lookup != null && userNotFound(lookup)) {
+            unknownUsers.put(authConfig, credentials.getUsername());
+            authConfigsWithoutUser.add(authConfig);
+            LOG.info(String.format("[Authenticate] User %s does not exist using auth_config: %s", credentials.getUsername(), authConfigId));
+            return null;
+        }
+
         final LdapClient ldap = ldapFactory.ldapForConfiguration(configuration);
 
         try {
             LOG.debug(String.format("[Authenticate] Authenticating User: %s using auth_config: %s", credentials.getUsername(), authConfigId));
-            Object attributesOrEntry = ldap.authenticate(credentials.getUsername(), credentials.getPassword(), ldapMapperFactory.attributeOrEntryMapper());
-            User user = configuration.getUserMapper(new UsernameResolver(credentials.getUsername())).mapObject(new ResultWrapper(attributesOrEntry));
+            final UserMapper userMapper = configuration.getUserMapper(new UsernameResolver(credentials.getUsername()));
+            Object attributesOrEntry = ldap.authenticate(credentials.getUsername(), credentials.getPassword(), ldapMapperFactory.attributeOrEntryMapper(userMapper.requiredAttributes()));
+            User user = userMapper.mapObject(new ResultWrapper(attributesOrEntry));
             if (user != null) {
+                credentialCache.put(authConfig, credentials, user);
                 LOG.info(String.format("[Authenticate] User `%s` successfully authenticated using auth_config: %s", user.getUsername(), authConfigId));
                 return new AuthenticationResponse(user, authConfig);
             }
+        } catch (ConnectionPoolExhaustedException | CircuitBreakerOpenException e) {
+            LOG.warn(String.format("[Authenticate] Skipping auth_config: %s for user %s. %s", authConfigId, credentials.getUsername(), e.getMessage()));
+        } catch (UserNotFoundException e) {
+            unknownUsers.put(authConfig, credentials.getUsername());
+            authConfigsWithoutUser.add(authConfig);
+            LOG.info(String.format("[Authenticate] Failed to authenticate user %s using auth_config: %s. %s", credentials.getUsername(), authConfigId, e.getMessage()));
         } catch (Exception e) {
             LOG.info("[Authenticate] Failed to authenticate user " + credentials.getUsername() + " on " + configuration.getLdapUrlAsString() + ". ");
             LOG.debug("Exception: ", e);
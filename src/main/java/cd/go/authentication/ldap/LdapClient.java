@@ -20,11 +20,40 @@ import cd.go.authentication.ldap.mapper.Mapper;
 
 import javax.naming.NamingException;
 import java.util.List;
+import java.util.function.Consumer;
 
 public interface LdapClient {
     <T> T authenticate(String username, String password, Mapper<T> mapper);
 
+    /**
+     * Looks up the entry {@link #authenticate} would bind as, without binding, and remembers it for as long as the user
+     * entry cache keeps entries.
+     *
+     * @throws cd.go.authentication.ldap.exception.UserNotFoundException when no entry matches the username
+     */
+    void findUser(String username, Mapper<?> mapper);
+
     <T> List<T> search(String userSearchFilter, String[] filterArgs, Mapper<T> mapper, int maxResult);
 
+    /**
+     * Like {@link #search}, but fails instead of leaving out a search base which could not be searched, so that no
+     * results really means that no entry matches.
+     */
+    <T> List<T> searchCompletely(String userSearchFilter, String[] filterArgs, Mapper<T> mapper, int maxResult);
+
+    /**
+     * Finds all entries matching the filter in all search bases, asking the server for at most a page of entries at a
+     * time, so that servers limiting the size of a search still return every entry. An entry found under several search
+     * bases is returned once.
+     *
+     * @param answeredBy told the url of the server which returned the entries
+     */
+    <T> List<T> searchAll(String filter, Mapper<T> mapper, int pageSize, Consumer<String> answeredBy);
+
     void validate() throws NamingException;
+
+    /**
+     * Releases resources held by this client. Called once the client is no longer handed out by {@link LdapFactory}.
+     */
+    void close();
 }
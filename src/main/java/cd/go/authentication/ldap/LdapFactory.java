@@ -17,23 +17,46 @@
 package cd.go.authentication.ldap;
 
 import cd.go.apacheds.ApacheDsLdapClient;
+import cd.go.authentication.ldap.cache.LdapClientCache;
 import cd.go.authentication.ldap.model.LdapConfiguration;
 import cd.go.framework.ldap.JNDILdapClient;
 
+import java.time.Duration;
+
 import static cd.go.authentication.ldap.LdapPlugin.LOG;
 import static cd.go.authentication.ldap.PluginSystemProperty.useJNDIClient;
 
 public class LdapFactory {
+    private static final int MAXIMUM_CACHED_CLIENTS = 64;
+    private static final Duration MAXIMUM_CLIENT_IDLE_TIME = Duration.ofMinutes(30);
+    private static final LdapClientCache APACHE_DS_CLIENTS = new LdapClientCache(MAXIMUM_CACHED_CLIENTS, MAXIMUM_CLIENT_IDLE_TIME);
+    private static final LdapClientCache JNDI_CLIENTS = new LdapClientCache(MAXIMUM_CACHED_CLIENTS, MAXIMUM_CLIENT_IDLE_TIME);
+
+    private final LdapClientCache apacheDsClients;
+    private final LdapClientCache jndiClients;
+
+    public LdapFactory() {
+        this(APACHE_DS_CLIENTS, JNDI_CLIENTS);
+    }
+
+    LdapFactory(LdapClientCache apacheDsClients, LdapClientCache jndiClients) {
+        this.apacheDsClients = apacheDsClients;
+        this.jndiClients = jndiClients;
+    }
 
     public LdapClient ldapForConfiguration(LdapConfiguration configuration) {
         boolean useJndiClient = useJNDIClient();
 
         if (useJndiClient) {
-            LOG.debug("Using JDNI based ldap client as user has specified system property 'use.jndi.ldap.client=true'");
-            return new JNDILdapClient(configuration);
+            return jndiClients.get(configuration, c -> {
+                LOG.debug("Using JDNI based ldap client as user has specified system property 'use.jndi.ldap.client=true'");
+                return new JNDILdapClient(c);
+            });
         }
 
-        LOG.debug("Using apache ds ldap client.");
-        return new ApacheDsLdapClient(configuration);
+        return apacheDsClients.get(configuration, c -> {
+            LOG.debug("Using apache ds ldap client.");
+            return new ApacheDsLdapClient(c);
+        });
     }
 }
@@ -19,7 +19,9 @@ package cd.go.authentication.ldap;
 import cd.go.authentication.ldap.executor.*;
 import cd.go.authentication.ldap.model.LdapConfiguration;
 import cd.go.authentication.ldap.utils.Util;
+import cd.go.authentication.ldap.validators.ConnectionPoolValidator;
 import cd.go.authentication.ldap.validators.ManagerCredentialValidator;
+import cd.go.authentication.ldap.validators.TimeoutValidator;
 import cd.go.plugin.base.dispatcher.BaseBuilder;
 import cd.go.plugin.base.dispatcher.RequestDispatcher;
 import com.thoughtworks.go.plugin.api.GoApplicationAccessor;
@@ -50,7 +52,7 @@ public class LdapPlugin implements GoPlugin {
                 .authConfigMetadata(LdapConfiguration.class)
                 .authConfigView("/auth_config.template.html")
                 .verifyConnection(new VerifyConnectionRequestExecutor())
-                .validateAuthConfig(new ManagerCredentialValidator())
+                .validateAuthConfig(new ManagerCredentialValidator(), new TimeoutValidator(), new ConnectionPoolValidator())
                 .authenticateUser(new UserAuthenticationExecutor())
                 .searchUser(new SearchUserExecutor())
                 .isValidUser(new IsValidUserRequestExecutor())
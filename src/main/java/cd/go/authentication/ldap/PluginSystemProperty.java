@@ -16,10 +16,109 @@
 
 package cd.go.authentication.ldap;
 
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+
+import static cd.go.authentication.ldap.LdapPlugin.LOG;
+
 public class PluginSystemProperty {
     public static final String USE_JNDI_LDAP_CLIENT = "use.jndi.ldap.client";
+    public static final String AUTHENTICATION_CACHE_TTL = "ldap.authentication.cache.ttl.seconds";
+    public static final String USER_ENTRY_CACHE_TTL = "ldap.user.entry.cache.ttl.seconds";
+    public static final String UNKNOWN_USER_CACHE_TTL = "ldap.unknown.user.cache.ttl.seconds";
+    public static final String CIRCUIT_BREAKER_FAILURE_THRESHOLD = "ldap.circuit.breaker.failure.threshold";
+    public static final String CIRCUIT_BREAKER_OPEN_DURATION = "ldap.circuit.breaker.open.seconds";
+    public static final String AUTH_CONFIG_AFFINITY_TTL = "ldap.auth.config.affinity.ttl.seconds";
+    public static final String PARALLEL_USER_LOOKUP = "ldap.authentication.parallel.lookup";
+    public static final String USER_MIRROR_REFRESH_INTERVAL = "ldap.user.mirror.refresh.seconds";
+    public static final String USER_MIRROR_FULL_RELOAD_INTERVAL = "ldap.user.mirror.full.reload.seconds";
+    public static final String USER_MIRROR_SNAPSHOT_DIRECTORY = "ldap.user.mirror.snapshot.dir";
+    public static final String USER_MIRROR_PAGE_SIZE = "ldap.user.mirror.page.size";
+    public static final String USER_SEARCH_DEADLINE = "ldap.user.search.deadline.seconds";
+    public static final String CHANGE_NOTIFICATIONS = "ldap.change.notifications";
+    public static final String CHANGE_POLL_INTERVAL = "ldap.change.poll.seconds";
 
     public static boolean useJNDIClient() {
         return Boolean.parseBoolean(System.getProperty(USE_JNDI_LDAP_CLIENT));
     }
+
+    /**
+     * Off while the user entry cache is turned off, as the bind could not reuse the entries the lookups found and would
+     * search for the user a second time.
+     */
+    public static boolean parallelUserLookup() {
+        return Boolean.parseBoolean(System.getProperty(PARALLEL_USER_LOOKUP)) && !userEntryCacheTtl().isZero();
+    }
+
+    public static boolean changeNotifications() {
+        return Boolean.parseBoolean(System.getProperty(CHANGE_NOTIFICATIONS));
+    }
+
+    public static Duration changePollInterval() {
+        return Duration.ofSeconds(longProperty(CHANGE_POLL_INTERVAL, 60));
+    }
+
+    public static Duration authenticationCacheTtl() {
+        return Duration.ofSeconds(longProperty(AUTHENTICATION_CACHE_TTL, 0));
+    }
+
+    public static Duration userEntryCacheTtl() {
+        return Duration.ofSeconds(longProperty(USER_ENTRY_CACHE_TTL, 300));
+    }
+
+    public static Duration unknownUserCacheTtl() {
+        return Duration.ofSeconds(longProperty(UNKNOWN_USER_CACHE_TTL, 30));
+    }
+
+    public static Duration authConfigAffinityTtl() {
+        return Duration.ofSeconds(longProperty(AUTH_CONFIG_AFFINITY_TTL, 300));
+    }
+
+    public static int circuitBreakerFailureThreshold() {
+        return (int) longProperty(CIRCUIT_BREAKER_FAILURE_THRESHOLD, 5);
+    }
+
+    public static Duration circuitBreakerOpenDuration() {
+        return Duration.ofSeconds(longProperty(CIRCUIT_BREAKER_OPEN_DURATION, 30));
+    }
+
+    public static Duration userSearchDeadline() {
+        return Duration.ofSeconds(longProperty(USER_SEARCH_DEADLINE, 10));
+    }
+
+    public static Duration userMirrorRefreshInterval() {
+        return Duration.ofSeconds(longProperty(USER_MIRROR_REFRESH_INTERVAL, 900));
+    }
+
+    public static Duration userMirrorFullReloadInterval() {
+        return Duration.ofSeconds(longProperty(USER_MIRROR_FULL_RELOAD_INTERVAL, 21600));
+    }
+
+    public static int userMirrorPageSize() {
+        return (int) longProperty(USER_MIRROR_PAGE_SIZE, 500);
+    }
+
+    /**
+     * @return the directory the users of user mirrors are written to, relative to the working directory of the server
+     * unless absolute, or null when they should not be written to disk.
+     */
+    public static Path userMirrorSnapshotDirectory() {
+        final String value = System.getProperty(USER_MIRROR_SNAPSHOT_DIRECTORY, "ldap-user-mirror");
+        return value.isBlank() ? null : Paths.get(value.trim());
+    }
+
+    private static long longProperty(String name, long defaultValue) {
+        final String value = System.getProperty(name);
+        if (value == null || value.isBlank()) {
+            return defaultValue;
+        }
+
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid value `" + value + "` for system property '" + name + "'.");
+            return defaultValue;
+        }
+    }
 }
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Lets a request give up on the ldap searches it started without interrupting the thread running them. While an
+ * operation runs with a cancellation, the client registers how to abandon each search it sends from that thread, and
+ * cancelling abandons all of them, including those registered afterwards.
+ */
+public class SearchCancellation {
+    private static final ThreadLocal<SearchCancellation> CURRENT = new ThreadLocal<>();
+    private final List<Runnable> abandonActions = new ArrayList<>();
+    private boolean cancelled;
+
+    /**
+     * Runs the operation on the current thread, so that the searches it sends can be abandoned by {@link #cancel()}.
+     */
+    public <T> T run(Callable<T> operation) throws Exception {
+        final SearchCancellation previous = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            return operation.call();
+        } finally {
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * Registers how to abandon a search sent from the current thread, if it runs with a cancellation. The search is
+     * abandoned right away when the cancellation was already cancelled.
+     */
+    public static void onCancel(Runnable abandon) {
+        final SearchCancellation cancellation = CURRENT.get();
+        if (cancellation != null) {
+            cancellation.register(abandon);
+        }
+    }
+
+    public void cancel() {
+        final List<Runnable> actions;
+        synchronized (this) {
+            cancelled = true;
+            actions = new ArrayList<>(abandonActions);
+            abandonActions.clear();
+        }
+        actions.forEach(Runnable::run);
+    }
+
+    private void register(Runnable abandon) {
+        synchronized (this) {
+            if (!cancelled) {
+                abandonActions.add(abandon);
+                return;
+            }
+        }
+        abandon.run();
+    }
+}
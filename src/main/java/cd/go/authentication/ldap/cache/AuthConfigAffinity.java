@@ -0,0 +1,110 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cd.go.authentication.ldap.cache;
+
+import cd.go.authentication.ldap.model.AuthConfig;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Remembers which auth config last authenticated a user, together with the auth configs before it which answered that
+ * there is no such user. On the next login that auth config may be tried first, as long as the auth configs before it
+ * are still the same ones; the order of auth configs keeps deciding which one a user is authenticated with. Usernames
+ * are compared ignoring case and surrounding white space. A disabled cache (time to live of zero) never remembers
+ * anything.
+ */
+public class AuthConfigAffinity {
+    private static final int MAXIMUM_SIZE = 10_000;
+
+    private final ExpiringCache<String, Affinity> cache;
+    private final boolean enabled;
+
+    public AuthConfigAffinity(Duration timeToLive) {
+        this(timeToLive, Clock.systemUTC());
+    }
+
+    AuthConfigAffinity(Duration timeToLive, Clock clock) {
+        this.enabled = !timeToLive.isNegative() && !timeToLive.isZero();
+        this.cache = new ExpiringCache<>(MAXIMUM_SIZE, timeToLive, clock);
+    }
+
+    public static AuthConfigAffinity disabled() {
+        return new AuthConfigAffinity(Duration.ZERO);
+    }
+
+    /**
+     * @return the auth config which last authenticated the user, provided the auth configs before it are unchanged,
+     * otherwise null.
+     */
+    public AuthConfig preferredAuthConfig(String username, List<AuthConfig> authConfigs) {
+        if (!enabled || username == null) {
+            return null;
+        }
+
+        final Affinity affinity = cache.get(key(username));
+        if (affinity == null) {
+            return null;
+        }
+
+        final int index = authConfigs.indexOf(affinity.authConfig);
+        if (index <= 0 || !authConfigs.subList(0, index).equals(affinity.authConfigsWithoutUser)) {
+            return null;
+        }
+        return authConfigs.get(index);
+    }
+
+    /**
+     * Remembers that the user was authenticated with the auth config at the given index, after all auth configs before
+     * it answered that there is no such user.
+     */
+    public void put(String username, List<AuthConfig> authConfigs, int index) {
+        if (enabled && username != null && index > 0) {
+            cache.put(key(username), new Affinity(authConfigs.get(index), new ArrayList<>(authConfigs.subList(0, index))));
+        }
+    }
+
+    public void invalidate(String username) {
+        if (username != null) {
+            cache.invalidate(key(username));
+        }
+    }
+
+    public long hitCount() {
+        return cache.hitCount();
+    }
+
+    public long missCount() {
+        return cache.missCount();
+    }
+
+    private static String key(String username) {
+        return username.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static class Affinity {
+        private final AuthConfig authConfig;
+        private final List<AuthConfig> authConfigsWithoutUser;
+
+        private Affinity(AuthConfig authConfig, List<AuthConfig> authConfigsWithoutUser) {
+            this.authConfig = authConfig;
+            this.authConfigsWithoutUser = authConfigsWithoutUser;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.cache;
+
+import cd.go.authentication.ldap.model.AuthConfig;
+import cd.go.authentication.ldap.model.Credentials;
+import cd.go.authentication.ldap.model.LdapConfiguration;
+import cd.go.authentication.ldap.model.User;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Objects;
+
+import static cd.go.authentication.ldap.LdapPlugin.LOG;
+import static cd.go.authentication.ldap.utils.Util.isBlank;
+
+/**
+ * Remembers the last password successfully verified against LDAP for a user of an auth config, so that clients
+ * re-authenticating with the same credentials do not need a search and a bind every time. Passwords are never
+ * kept in memory, only a salted PBKDF2 hash of them. A disabled cache (time to live of zero) never remembers anything.
+ */
+public class CredentialCache {
+    private static final int MAXIMUM_SIZE = 10_000;
+    private static final String HASH_ALGORITHM = "PBKDF2WithHmacSHA256";
+    private static final int HASH_ITERATIONS = 10_000;
+    private static final int HASH_LENGTH = 256;
+    private static final int SALT_LENGTH = 16;
+
+    private final SecureRandom random = new SecureRandom();
+    private final ExpiringCache<Key, VerifiedCredential> cache;
+    private final boolean enabled;
+
+    public CredentialCache(Duration timeToLive) {
+        this(timeToLive, Clock.systemUTC());
+    }
+
+    CredentialCache(Duration timeToLive, Clock clock) {
+        this.enabled = !timeToLive.isNegative() && !timeToLive.isZero();
+        this.cache = new ExpiringCache<>(MAXIMUM_SIZE, timeToLive, clock);
+    }
+
+    public static CredentialCache disabled() {
+        return new CredentialCache(Duration.ZERO);
+    }
+
+    /**
+     * @return the user cached for the given credentials, or null when nothing is cached or the cached entry does not
+     * match the credentials. A mismatching entry is evicted so the caller verifies against LDAP again.
+     */
+    public User verify(AuthConfig authConfig, Credentials credentials) {
+        if (!enabled || isBlank(credentials.getPassword())) {
+            return null;
+        }
+
+        final Key key = new Key(authConfig.getId(), credentials.getUsername());
+        final VerifiedCredential verifiedCredential = cache.get(key);
+        if (verifiedCredential == null) {
+            return null;
+        }
+
+        if (verifiedCredential.matches(authConfig.getConfiguration(), credentials.getPassword())) {
+            return verifiedCredential.user;
+        }
+
+        cache.invalidate(key);
+        return null;
+    }
+
+    public void put(AuthConfig authConfig, Credentials credentials, User user) {
+        if (!enabled || isBlank(credentials.getPassword())) {
+            return;
+        }
+
+        final byte[] salt = new byte[SALT_LENGTH];
+        random.nextBytes(salt);
+        cache.put(new Key(authConfig.getId(), credentials.getUsername()),
+                new VerifiedCredential(authConfig.getConfiguration(), salt, hash(credentials.getPassword(), salt), user));
+    }
+
+    public void invalidate(AuthConfig authConfig, String username) {
+        cache.invalidate(new Key(authConfig.getId(), username));
+    }
+
+    /**
+     * Forgets the credentials of the users of every auth config with the given configuration, or of all its users
+     * when no usernames are given. Usernames are compared ignoring case.
+     */
+    public void invalidate(LdapConfiguration configuration, Collection<String> usernames) {
+        cache.invalidateIf((key, verifiedCredential) -> Objects.equals(verifiedCredential.configuration, configuration) &&
+                (usernames == null || usernames.stream().anyMatch(username -> normalize(username).equals(normalize(key.username)))));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public long hitCount() {
+        return cache.hitCount();
+    }
+
+    public long missCount() {
+        return cache.missCount();
+    }
+
+    private static String normalize(String username) {
+        return username == null ? "" : username.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static byte[] hash(String password, byte[] salt) {
+        final PBEKeySpec keySpec = new PBEKeySpec(password.toCharArray(), salt, HASH_ITERATIONS, HASH_LENGTH);
+        try {
+            return SecretKeyFactory.getInstance(HASH_ALGORITHM).generateSecret(keySpec).getEncoded();
+        } catch (GeneralSecurityException e) {
+            LOG.error("Failed to hash credentials for the authentication cache.", e);
+            throw new IllegalStateException(e);
+        } finally {
+            keySpec.clearPassword();
+        }
+    }
+
+    private static class VerifiedCredential {
+        private final LdapConfiguration configuration;
+        private final byte[] salt;
+        private final byte[] hash;
+        private final User user;
+
+        private VerifiedCredential(LdapConfiguration configuration, byte[] salt, byte[] hash, User user) {
+            this.configuration = configuration;
+            this.salt = salt;
+            this.hash = hash;
+            this.user = user;
+        }
+
+        private boolean matches(LdapConfiguration configuration, String password) {
+            return Objects.equals(this.configuration, configuration) && MessageDigest.isEqual(hash, hash(password, salt));
+        }
+    }
+
+    private static class Key {
+        private final String authConfigId;
+        private final String username;
+
+        private Key(String authConfigId, String username) {
+            this.authConfigId = authConfigId;
+            this.username = username;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Objects.equals(authConfigId, key.authConfigId) &&
+                    Objects.equals(username, key.username);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(authConfigId, username);
+        }
+    }
+}
@@ -0,0 +1,65 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.cache;
+
+import cd.go.authentication.ldap.model.LdapConfiguration;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static cd.go.authentication.ldap.LdapPlugin.LOG;
+
+/**
+ * Tells the caches about users which were changed in or removed from a directory, so that they forget what they
+ * remember about them right away instead of when it expires. Changes are only announced by clients listening for
+ * them, see {@link cd.go.authentication.ldap.PluginSystemProperty#CHANGE_NOTIFICATIONS}.
+ */
+public class DirectoryChanges {
+    private static final DirectoryChanges INSTANCE = new DirectoryChanges();
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    public static DirectoryChanges instance() {
+        return INSTANCE;
+    }
+
+    public void addListener(Listener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * @param usernames the usernames the changed users log in with, or null when it is not known which users changed
+     */
+    public void usersChanged(LdapConfiguration configuration, Collection<String> usernames) {
+        for (Listener listener : listeners) {
+            try {
+                listener.usersChanged(configuration, usernames);
+            } catch (RuntimeException e) {
+                LOG.warn("Failed to forget changed users of ldap server " + configuration.getLdapUrlAsString() + ".", e);
+            }
+        }
+    }
+
+    public interface Listener {
+        void usersChanged(LdapConfiguration configuration, Collection<String> usernames);
+    }
+}
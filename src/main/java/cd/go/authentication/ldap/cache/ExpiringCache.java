@@ -0,0 +1,142 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.cache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiPredicate;
+
+/**
+ * A small size bounded, least recently used cache whose entries expire a fixed duration after they were written.
+ */
+public class ExpiringCache<K, V> {
+    private final Map<K, Expiring<V>> entries;
+    private final Duration timeToLive;
+    private final Clock clock;
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+
+    public ExpiringCache(int maximumSize, Duration timeToLive) {
+        this(maximumSize, timeToLive, Clock.systemUTC());
+    }
+
+    public ExpiringCache(int maximumSize, Duration timeToLive, Clock clock) {
+        this.timeToLive = timeToLive;
+        this.clock = clock;
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Expiring<V>> eldest) {
+                if (size() > maximumSize) {
+                    evictionCount.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    public V get(K key) {
+        final Instant now = clock.instant();
+        synchronized (entries) {
+            final Expiring<V> expiring = entries.get(key);
+            if (expiring != null && expiring.expiresAt.isAfter(now)) {
+                hitCount.incrementAndGet();
+                return expiring.value;
+            }
+
+            if (expiring != null) {
+                entries.remove(key);
+                evictionCount.incrementAndGet();
+            }
+        }
+
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    public void put(K key, V value) {
+        final Expiring<V> expiring = new Expiring<>(value, clock.instant().plus(timeToLive));
+        synchronized (entries) {
+            entries.put(key, expiring);
+        }
+    }
+
+    public void invalidate(K key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * @return the keys of the entries which matched and were removed.
+     */
+    public List<K> invalidateIf(BiPredicate<K, V> predicate) {
+        final List<K> invalidated = new ArrayList<>();
+        synchronized (entries) {
+            final Iterator<Map.Entry<K, Expiring<V>>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                final Map.Entry<K, Expiring<V>> entry = iterator.next();
+                if (predicate.test(entry.getKey(), entry.getValue().value)) {
+                    iterator.remove();
+                    invalidated.add(entry.getKey());
+                }
+            }
+        }
+        return invalidated;
+    }
+
+    public void invalidateAll() {
+        synchronized (entries) {
+            entries.clear();
+        }
+    }
+
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public long hitCount() {
+        return hitCount.get();
+    }
+
+    public long missCount() {
+        return missCount.get();
+    }
+
+    /**
+     * @return how many entries were dropped because they expired or to make room for newer ones.
+     */
+    public long evictionCount() {
+        return evictionCount.get();
+    }
+
+    private static class Expiring<V> {
+        private final V value;
+        private final Instant expiresAt;
+
+        private Expiring(V value, Instant expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.cache;
+
+import cd.go.authentication.ldap.LdapClient;
+import cd.go.authentication.ldap.model.LdapConfiguration;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static cd.go.authentication.ldap.LdapPlugin.LOG;
+
+/**
+ * Keeps ready to use {@link LdapClient}s keyed by {@link LdapConfiguration} equality. Clients which have not been used
+ * for a while, typically those of an auth config which has since been edited or deleted, are evicted and closed, as is
+ * the least recently used client once the cache is full.
+ */
+public class LdapClientCache {
+    private final ConcurrentMap<LdapConfiguration, CachedClient> clients = new ConcurrentHashMap<>();
+    private final int maximumSize;
+    private final long maximumIdleMillis;
+    private final Clock clock;
+    private final AtomicLong nextIdleSweepAt = new AtomicLong();
+
+    public LdapClientCache(int maximumSize, Duration maximumIdleTime) {
+        this(maximumSize, maximumIdleTime, Clock.systemUTC());
+    }
+
+    LdapClientCache(int maximumSize, Duration maximumIdleTime, Clock clock) {
+        this.maximumSize = maximumSize;
+        this.maximumIdleMillis = maximumIdleTime.toMillis();
+        this.clock = clock;
+    }
+
+    public LdapClient get(LdapConfiguration configuration, Function<LdapConfiguration, LdapClient> clientFactory) {
+        if (configuration == null) {
+            return clientFactory.apply(null);
+        }
+
+        final long now = clock.millis();
+        CachedClient cachedClient = clients.get(configuration);
+        if (cachedClient == null) {
+            cachedClient = clients.computeIfAbsent(configuration, c -> new CachedClient(clientFactory.apply(c)));
+            cachedClient.lastUsedAt = now;
+            evictLeastRecentlyUsedIfFull(configuration);
+        } else {
+            cachedClient.lastUsedAt = now;
+        }
+
+        evictIdleClients(now);
+        return cachedClient.client;
+    }
+
+    public int size() {
+        return clients.size();
+    }
+
+    public void invalidateAll() {
+        clients.forEach(this::evict);
+    }
+
+    private void evictIdleClients(long now) {
+        final long sweepAt = nextIdleSweepAt.get();
+        if (now < sweepAt || !nextIdleSweepAt.compareAndSet(sweepAt, now + Math.min(maximumIdleMillis, 60_000))) {
+            return;
+        }
+
+        clients.forEach((configuration, cachedClient) -> {
+            if (now - cachedClient.lastUsedAt >= maximumIdleMillis) {
+                evict(configuration, cachedClient);
+            }
+        });
+    }
+
+    private void evictLeastRecentlyUsedIfFull(LdapConfiguration justAdded) {
+        while (clients.size() > maximumSize) {
+            final Optional<Map.Entry<LdapConfiguration, CachedClient>> eldest = clients.entrySet().stream()
+                    .filter(entry -> !entry.getKey().equals(justAdded))
+                    .min(Comparator.comparingLong(entry -> entry.getValue().lastUsedAt));
+
+            if (eldest.isEmpty()) {
+                return;
+            }
+            evict(eldest.get().getKey(), eldest.get().getValue());
+        }
+    }
+
+    private void evict(LdapConfiguration configuration, CachedClient cachedClient) {
+        if (clients.remove(configuration, cachedClient)) {
+            LOG.debug("Closing ldap client for {}.", configuration.getLdapUrlAsString());
+            try {
+                cachedClient.client.close();
+            } catch (Exception e) {
+                LOG.warn("Failed to close ldap client for " + configuration.getLdapUrlAsString() + ".", e);
+            }
+        }
+    }
+
+    private static class CachedClient {
+        private final LdapClient client;
+        private volatile long lastUsedAt;
+
+        private CachedClient(LdapClient client) {
+            this.client = client;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cd.go.authentication.ldap.cache;
+
+import cd.go.authentication.ldap.exception.LdapException;
+import cd.go.authentication.ldap.model.AuthConfig;
+
+import java.util.Locale;
+import java.util.Objects;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Lets identical lookups which run at the same time share one ldap search: the first caller searches and the callers
+ * arriving while it does wait for its result. Lookups are identical when they are the same operation using the same
+ * auth config for the same argument, compared ignoring case and surrounding white space. Nothing is kept once the
+ * search is done, and as callers share results it must never be used for anything depending on a password.
+ */
+public class LookupCoalescer<V> {
+    private final ConcurrentMap<Key, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    public V lookup(String operation, AuthConfig authConfig, String argument, Supplier<V> search) {
+        final Key key = new Key(operation, authConfig, argument);
+        while (true) {
+            final CompletableFuture<V> result = new CompletableFuture<>();
+            final CompletableFuture<V> running = inFlight.putIfAbsent(key, result);
+            if (running == null) {
+                return search(key, result, search);
+            }
+
+            coalescedCount.incrementAndGet();
+            try {
+                return running.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof LeaderCancelledException) {
+                    continue;
+                }
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new LdapException(e.getCause().getMessage(), e.getCause());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LdapException("Interrupted while waiting for the same lookup of another request.", e);
+            }
+        }
+    }
+
+    /**
+     * A search given up because its caller was interrupted or cancelled is retried by the callers waiting for it, as
+     * their requests still want the result.
+     */
+    private V search(Key key, CompletableFuture<V> result, Supplier<V> search) {
+        try {
+            final V value = search.get();
+            result.complete(value);
+            return value;
+        } catch (RuntimeException | Error e) {
+            result.completeExceptionally(Thread.currentThread().isInterrupted() || e instanceof CancellationException ? new LeaderCancelledException() : e);
+            throw e;
+        } finally {
+            inFlight.remove(key, result);
+        }
+    }
+
+    /**
+     * @return the number of lookups which waited for the search of another caller.
+     */
+    public long coalescedCount() {
+        return coalescedCount.get();
+    }
+
+    private static class LeaderCancelledException extends RuntimeException {
+    }
+
+    private static class Key {
+        private final String operation;
+        private final AuthConfig authConfig;
+        private final String argument;
+
+        private Key(String operation, AuthConfig authConfig, String argument) {
+            this.operation = operation;
+            this.authConfig = authConfig;
+            this.argument = argument == null ? null : argument.trim().toLowerCase(Locale.ROOT);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Objects.equals(operation, key.operation) &&
+                    Objects.equals(authConfig, key.authConfig) &&
+                    Objects.equals(argument, key.argument);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(operation, authConfig, argument);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.cache;
+
+import cd.go.authentication.ldap.model.AuthConfig;
+import cd.go.authentication.ldap.model.LdapConfiguration;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Objects;
+
+/**
+ * Remembers for a short while that a username could not be found using an auth config, so that typos, scanners and
+ * stale scripts asking for the same unknown user again are answered without any ldap traffic. Usernames are compared
+ * ignoring case and surrounding white space, and editing an auth config forgets everything remembered for it. A
+ * disabled cache (time to live of zero) never remembers anything.
+ */
+public class UnknownUserCache {
+    private static final int MAXIMUM_SIZE = 10_000;
+
+    private final ExpiringCache<Key, Boolean> cache;
+    private final boolean enabled;
+
+    public UnknownUserCache(Duration timeToLive) {
+        this(timeToLive, Clock.systemUTC());
+    }
+
+    UnknownUserCache(Duration timeToLive, Clock clock) {
+        this.enabled = !timeToLive.isNegative() && !timeToLive.isZero();
+        this.cache = new ExpiringCache<>(MAXIMUM_SIZE, timeToLive, clock);
+    }
+
+    public static UnknownUserCache disabled() {
+        return new UnknownUserCache(Duration.ZERO);
+    }
+
+    /**
+     * @return true when the username was recently found not to exist using the auth config.
+     */
+    public boolean isUnknown(AuthConfig authConfig, String username) {
+        return enabled && username != null && cache.get(new Key(authConfig, username)) != null;
+    }
+
+    public void put(AuthConfig authConfig, String username) {
+        if (enabled && username != null) {
+            cache.put(new Key(authConfig, username), Boolean.TRUE);
+        }
+    }
+
+    public void invalidate(AuthConfig authConfig, String username) {
+        if (username != null) {
+            cache.invalidate(new Key(authConfig, username));
+        }
+    }
+
+    /**
+     * Forgets the given usernames for every auth config with the given configuration, or all usernames when none are
+     * given.
+     */
+    public void invalidate(LdapConfiguration configuration, Collection<String> usernames) {
+        cache.invalidateIf((key, unknown) -> Objects.equals(key.configuration, configuration) &&
+                (usernames == null || usernames.stream().anyMatch(username -> username != null && username.trim().toLowerCase(Locale.ROOT).equals(key.username))));
+    }
+
+    public long hitCount() {
+        return cache.hitCount();
+    }
+
+    public long missCount() {
+        return cache.missCount();
+    }
+
+    public long evictionCount() {
+        return cache.evictionCount();
+    }
+
+    private static class Key {
+        private final String authConfigId;
+        private final LdapConfiguration configuration;
+        private final String username;
+
+        private Key(AuthConfig authConfig, String username) {
+            this.authConfigId = authConfig.getId();
+            this.configuration = authConfig.getConfiguration();
+            this.username = username.trim().toLowerCase(Locale.ROOT);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            Key key = (Key) o;
+            return Objects.equals(authConfigId, key.authConfigId) &&
+                    Objects.equals(configuration, key.configuration) &&
+                    Objects.equals(username, key.username);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(authConfigId, configuration, username);
+        }
+    }
+}
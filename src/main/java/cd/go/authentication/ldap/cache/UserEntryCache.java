@@ -0,0 +1,85 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.cache;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * Remembers the entry found for a username, so that a repeated login only needs a bind instead of a search of every
+ * search base followed by a bind. Each {@link cd.go.authentication.ldap.LdapClient} keeps its own cache, so entries
+ * are never shared between auth configs. A disabled cache (time to live of zero) never remembers anything.
+ *
+ * @param <E> the client specific type of entry, holding both the DN and the attributes of the user
+ */
+public class UserEntryCache<E> {
+    private static final int MAXIMUM_SIZE = 10_000;
+
+    private final ExpiringCache<String, E> cache;
+    private final boolean enabled;
+
+    public UserEntryCache(Duration timeToLive) {
+        this(timeToLive, Clock.systemUTC());
+    }
+
+    UserEntryCache(Duration timeToLive, Clock clock) {
+        this.enabled = !timeToLive.isNegative() && !timeToLive.isZero();
+        this.cache = new ExpiringCache<>(MAXIMUM_SIZE, timeToLive, clock);
+    }
+
+    public static <E> UserEntryCache<E> disabled() {
+        return new UserEntryCache<>(Duration.ZERO);
+    }
+
+    /**
+     * @return the entry cached for the username, or null when it has to be searched for.
+     */
+    public E get(String username) {
+        return enabled ? cache.get(username) : null;
+    }
+
+    public void put(String username, E entry) {
+        if (enabled) {
+            cache.put(username, entry);
+        }
+    }
+
+    public void invalidate(String username) {
+        cache.invalidate(username);
+    }
+
+    /**
+     * @return the usernames whose entries matched and were forgotten.
+     */
+    public List<String> invalidateIf(Predicate<E> predicate) {
+        return cache.invalidateIf((username, entry) -> predicate.test(entry));
+    }
+
+    public void invalidateAll() {
+        cache.invalidateAll();
+    }
+
+    public long hitCount() {
+        return cache.hitCount();
+    }
+
+    public long missCount() {
+        return cache.missCount();
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.exception;
+
+/**
+ * Thrown when no pooled connection to the ldap server became available within the configured max wait. It usually
+ * means the server is slow or unresponsive, so callers should give up on that server rather than retry.
+ */
+public class ConnectionPoolExhaustedException extends LdapException {
+    public ConnectionPoolExhaustedException(String message) {
+        super(message);
+    }
+}
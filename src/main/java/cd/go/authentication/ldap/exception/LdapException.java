@@ -21,6 +21,10 @@ public class LdapException extends RuntimeException {
         super(message);
     }
 
+    public LdapException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
     public LdapException(Throwable cause) {
         super(cause);
     }
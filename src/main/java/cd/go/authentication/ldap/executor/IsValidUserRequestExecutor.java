@@ -18,38 +18,72 @@ package cd.go.authentication.ldap.executor;
 
 import cd.go.authentication.ldap.LdapClient;
 import cd.go.authentication.ldap.LdapFactory;
-import cd.go.authentication.ldap.mapper.UsernameResolver;
+import cd.go.authentication.ldap.cache.DirectoryChanges;
+import cd.go.authentication.ldap.cache.LookupCoalescer;
+import cd.go.authentication.ldap.cache.UnknownUserCache;
+import cd.go.authentication.ldap.mapper.Mapper;
+import cd.go.authentication.ldap.mapper.ResultWrapper;
+import cd.go.authentication.ldap.mirror.MirrorSnapshot;
+import cd.go.authentication.ldap.mirror.UserMirrors;
 import cd.go.authentication.ldap.model.AuthConfig;
 import cd.go.authentication.ldap.model.IsValidUserRequest;
 import cd.go.authentication.ldap.model.LdapConfiguration;
-import cd.go.authentication.ldap.model.User;
 import cd.go.plugin.base.GsonTransformer;
 import cd.go.plugin.base.executors.AbstractExecutor;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
 import java.util.List;
-import java.util.stream.Collectors;
 
 import static cd.go.authentication.ldap.LdapPlugin.LOG;
+import static cd.go.authentication.ldap.PluginSystemProperty.unknownUserCacheTtl;
 
 public class IsValidUserRequestExecutor extends AbstractExecutor<IsValidUserRequest> {
-    private static final int MAX_SEARCH_RESULT = Integer.MAX_VALUE;
+    /**
+     * A second match only tells that the validation filter is ambiguous, so there is no point in looking further.
+     */
+    private static final int MAX_SEARCH_RESULT = 2;
+    /**
+     * Only the number of matches counts, so the entries are fetched without any of their attributes.
+     */
+    private static final Mapper<Object> EXISTENCE_MAPPER = new Mapper<Object>() {
+        @Override
+        public Object mapObject(ResultWrapper resultWrapper) {
+            return resultWrapper.getResult();
+        }
+
+        @Override
+        public String[] requiredAttributes() {
+            return new String[]{NO_ATTRIBUTES};
+        }
+    };
     private final LdapFactory ldapFactory;
+    private final UnknownUserCache unknownUsers;
+    private final LookupCoalescer<List<Object>> lookups = new LookupCoalescer<>();
+    private final UserMirrors userMirrors;
 
     public IsValidUserRequestExecutor() {
-        this(new LdapFactory());
+        this(new LdapFactory(), new UnknownUserCache(unknownUserCacheTtl()), UserMirrors.instance());
+        DirectoryChanges.instance().addListener(unknownUsers::invalidate);
     }
 
     IsValidUserRequestExecutor(LdapFactory ldapFactory) {
+        this(ldapFactory, UnknownUserCache.disabled());
+    }
+
+    IsValidUserRequestExecutor(LdapFactory ldapFactory, UnknownUserCache unknownUsers) {
+        this(ldapFactory, unknownUsers, UserMirrors.disabled());
+    }
+
+    IsValidUserRequestExecutor(LdapFactory ldapFactory, UnknownUserCache unknownUsers, UserMirrors userMirrors) {
         this.ldapFactory = ldapFactory;
+        this.unknownUsers = unknownUsers;
+        this.userMirrors = userMirrors;
     }
 
     @Override
     protected GoPluginApiResponse execute(IsValidUserRequest isValidUserRequest) {
-        final User found = findUser(isValidUserRequest.getUsername(), isValidUserRequest.getAuthConfig());
-
-        if (found != null) {
+        if (userExists(isValidUserRequest.getUsername(), isValidUserRequest.getAuthConfig())) {
             return new DefaultGoPluginApiResponse(200);
         }
 
@@ -61,21 +95,44 @@ public class IsValidUserRequestExecutor extends AbstractExecutor<IsValidUserRequ
         return GsonTransformer.fromJson(requestBody, IsValidUserRequest.class);
     }
 
-    private User findUser(String usernameToCheck, AuthConfig authConfig) {
+    private boolean userExists(String usernameToCheck, AuthConfig authConfig) {
+        if (unknownUsers.isUnknown(authConfig, usernameToCheck)) {
+            LOG.debug(String.format("[Is User Valid] User with name `%s` is known not to exist using auth_config: `%s` (cache hits: %d, misses: %d, evictions: %d)",
+                    usernameToCheck, authConfig.getId(), unknownUsers.hitCount(), unknownUsers.missCount(), unknownUsers.evictionCount()));
+            return false;
+        }
+
         try {
+            final MirrorSnapshot mirror = userMirrors.snapshotFor(authConfig);
+            if (mirror != null) {
+                LOG.debug(String.format("[Is User Valid] Looking up for user with name: `%s` in the %d users of auth_config: `%s` in memory", usernameToCheck, mirror.size(), authConfig.getId()));
+                return mirror.contains(usernameToCheck);
+            }
+
             final LdapConfiguration configuration = authConfig.getConfiguration();
             final LdapClient ldap = ldapFactory.ldapForConfiguration(configuration);
-            String userSearchFilter = configuration.getUserSearchFilter();
+            String userValidationFilter = configuration.getUserValidationFilter();
 
             LOG.debug(String.format("[Is User Valid] Looking up for user with name: `%s`" +
-                    " using the search_filter: `%s` and auth_config: `%s`", usernameToCheck, userSearchFilter, authConfig.getId()));
+                    " using the validation_filter: `%s` and auth_config: `%s`", usernameToCheck, userValidationFilter, authConfig.getId()));
+
+            final List<Object> matches = lookups.lookup("is-valid-user", authConfig, usernameToCheck,
+                    () -> ldap.searchCompletely(userValidationFilter, new String[]{usernameToCheck}, EXISTENCE_MAPPER, MAX_SEARCH_RESULT));
+            if (matches.isEmpty()) {
+                unknownUsers.put(authConfig, usernameToCheck);
+                LOG.debug(String.format("[Is User Valid] User with name `%s` does not exist using auth_config: `%s`", usernameToCheck, authConfig.getId()));
+                return false;
+            }
 
-            final List<User> users = ldap.search(userSearchFilter, new String[]{usernameToCheck}, configuration.getUserMapper(new UsernameResolver()), MAX_SEARCH_RESULT);
-            return users.stream().filter(user -> user.getUsername().equalsIgnoreCase(usernameToCheck)).collect(Collectors.toList()).get(0);
+            if (matches.size() > 1) {
+                LOG.warn(String.format("[Is User Valid] Found multiple users with name `%s` using the validation_filter: `%s` and auth_config: `%s`. The user will not be able to log in unless the `UserLoginFilter` matches only one of them.",
+                        usernameToCheck, userValidationFilter, authConfig.getId()));
+            }
+            return true;
         } catch (Exception e) {
             LOG.error(String.format("[Is User Valid] Failed to find user with name `%s` using auth_config: `%s`", usernameToCheck, authConfig.getId()), e);
         }
 
-        return null;
+        return false;
     }
 }
@@ -18,7 +18,13 @@ package cd.go.authentication.ldap.executor;
 
 import cd.go.authentication.ldap.LdapClient;
 import cd.go.authentication.ldap.LdapFactory;
+import cd.go.authentication.ldap.SearchCancellation;
+import cd.go.authentication.ldap.cache.LookupCoalescer;
+import cd.go.authentication.ldap.exception.CircuitBreakerOpenException;
+import cd.go.authentication.ldap.exception.ConnectionPoolExhaustedException;
 import cd.go.authentication.ldap.mapper.UsernameResolver;
+import cd.go.authentication.ldap.mirror.MirrorSnapshot;
+import cd.go.authentication.ldap.mirror.UserMirrors;
 import cd.go.authentication.ldap.model.AuthConfig;
 import cd.go.authentication.ldap.model.LdapConfiguration;
 import cd.go.authentication.ldap.model.SearchUserRequest;
@@ -28,23 +34,49 @@ import cd.go.plugin.base.executors.AbstractExecutor;
 import com.thoughtworks.go.plugin.api.response.DefaultGoPluginApiResponse;
 import com.thoughtworks.go.plugin.api.response.GoPluginApiResponse;
 
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static cd.go.authentication.ldap.LdapPlugin.LOG;
+import static cd.go.authentication.ldap.PluginSystemProperty.userSearchDeadline;
 
 public class SearchUserExecutor extends AbstractExecutor<SearchUserRequest> {
     public static final String SEARCH_TERM = "search_term";
     private static final int MAX_SEARCH_RESULT = 100;
+    private static final int MAXIMUM_CONCURRENT_SEARCHES = 32;
+    private static final ExecutorService SEARCH_EXECUTOR = searchExecutor();
     private final LdapFactory ldapFactory;
+    private final Duration searchDeadline;
+    private final LookupCoalescer<List<User>> lookups = new LookupCoalescer<>();
+    private final UserMirrors userMirrors;
 
     public SearchUserExecutor() {
-        this(new LdapFactory());
+        this(new LdapFactory(), userSearchDeadline(), UserMirrors.instance());
     }
 
     SearchUserExecutor(LdapFactory ldapFactory) {
+        this(ldapFactory, userSearchDeadline());
+    }
+
+    SearchUserExecutor(LdapFactory ldapFactory, Duration searchDeadline) {
+        this(ldapFactory, searchDeadline, UserMirrors.disabled());
+    }
+
+    SearchUserExecutor(LdapFactory ldapFactory, Duration searchDeadline, UserMirrors userMirrors) {
         this.ldapFactory = ldapFactory;
+        this.searchDeadline = searchDeadline;
+        this.userMirrors = userMirrors;
+    }
+
+    private static ExecutorService searchExecutor() {
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return new ThreadPoolExecutor(0, MAXIMUM_CONCURRENT_SEARCHES, 60, TimeUnit.SECONDS, new SynchronousQueue<>(), runnable -> {
+            final Thread thread = new Thread(runnable, "ldap-user-search-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }, new ThreadPoolExecutor.AbortPolicy());
     }
 
     @Override
@@ -58,29 +90,85 @@ public class SearchUserExecutor extends AbstractExecutor<SearchUserRequest> {
         return GsonTransformer.fromJson(requestBody, SearchUserRequest.class);
     }
 
+    /**
+     * Searches all auth configs at the same time and collects the users in the order the searches finish. Searches
+     * still running once enough users were found, or once the search deadline has passed, are abandoned and the users
+     * found so far are returned. Auth configs which cannot be searched because too many searches are already running
+     * are skipped rather than searched on the calling thread, so the deadline always holds.
+     */
     Set<User> searchUsers(String searchTerm, List<AuthConfig> authConfigs) {
-        final Set<User> allUsers = new HashSet<>();
+        final long deadline = System.nanoTime() + searchDeadline.toNanos();
+        final CompletionService<List<User>> completionService = new ExecutorCompletionService<>(SEARCH_EXECUTOR);
+        final List<Future<List<User>>> searches = new ArrayList<>();
+        final List<SearchCancellation> cancellations = new ArrayList<>();
         for (AuthConfig authConfig : authConfigs) {
-            final int remainingResultCount = MAX_SEARCH_RESULT - allUsers.size();
+            final SearchCancellation cancellation = new SearchCancellation();
             try {
-                final LdapConfiguration configuration = authConfig.getConfiguration();
-                final LdapClient ldap = ldapFactory.ldapForConfiguration(configuration);
-                String userSearchFilter = configuration.getUserSearchFilter();
-
-                LOG.info(String.format("[User Search] Looking up for users matching search_term: `%s`" +
-                        " using the search_filter: `%s` and auth_config: `%s`", searchTerm, userSearchFilter, authConfig.getId()));
-
-                final List<User> users = ldap.search(userSearchFilter, new String[]{searchTerm}, configuration.getUserMapper(new UsernameResolver()), remainingResultCount);
-                allUsers.addAll(users);
+                searches.add(completionService.submit(() -> cancellation.run(() -> searchUsers(searchTerm, authConfig))));
+                cancellations.add(cancellation);
+            } catch (RejectedExecutionException e) {
+                LOG.warn(String.format("[User Search] Skipping auth_config: `%s` as %d searches are already running.", authConfig.getId(), MAXIMUM_CONCURRENT_SEARCHES));
+            }
+        }
 
-                if (allUsers.size() >= MAX_SEARCH_RESULT) {
+        final Set<User> allUsers = new HashSet<>();
+        try {
+            for (int finished = 0; finished < searches.size() && allUsers.size() < MAX_SEARCH_RESULT; finished++) {
+                final Future<List<User>> search = searchDeadline.isZero() ? completionService.take() : completionService.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+                if (search == null) {
+                    LOG.warn(String.format("[User Search] Returning %d users found for search_term: `%s` as %d of %d auth_configs did not answer within %d seconds.",
+                            allUsers.size(), searchTerm, searches.size() - finished, searches.size(), searchDeadline.getSeconds()));
                     break;
                 }
 
-            } catch (Exception e) {
-                LOG.error(String.format("[User Search] Failed to search user using auth_config: `%s`", authConfig.getId()), e);
+                for (User user : search.get()) {
+                    if (allUsers.size() >= MAX_SEARCH_RESULT) {
+                        break;
+                    }
+                    allUsers.add(user);
+                }
             }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.error(String.format("[User Search] Failed to search users matching search_term: `%s`", searchTerm), e.getCause());
+        } finally {
+            // searches which already started are abandoned rather than interrupted, as interrupting them would count
+            // against the server and close their pooled connections
+            searches.forEach(search -> search.cancel(false));
+            cancellations.forEach(SearchCancellation::cancel);
         }
         return allUsers;
     }
+
+    private List<User> searchUsers(String searchTerm, AuthConfig authConfig) {
+        try {
+            final MirrorSnapshot mirror = userMirrors.snapshotFor(authConfig);
+            if (mirror != null) {
+                LOG.debug(String.format("[User Search] Looking up for users matching search_term: `%s` in the %d users of auth_config: `%s` in memory", searchTerm, mirror.size(), authConfig.getId()));
+                return mirror.search(searchTerm, MAX_SEARCH_RESULT);
+            }
+
+            final LdapConfiguration configuration = authConfig.getConfiguration();
+            final LdapClient ldap = ldapFactory.ldapForConfiguration(configuration);
+            String userSearchFilter = configuration.getUserSearchFilter();
+
+            LOG.info(String.format("[User Search] Looking up for users matching search_term: `%s`" +
+                    " using the search_filter: `%s` and auth_config: `%s`", searchTerm, userSearchFilter, authConfig.getId()));
+
+            return lookups.lookup("search-users", authConfig, searchTerm,
+                    () -> ldap.search(userSearchFilter, new String[]{searchTerm}, configuration.getUserMapper(new UsernameResolver()), MAX_SEARCH_RESULT));
+        } catch (ConnectionPoolExhaustedException | CircuitBreakerOpenException e) {
+            LOG.warn(String.format("[User Search] Skipping auth_config: `%s`. %s", authConfig.getId(), e.getMessage()));
+        } catch (CancellationException e) {
+            LOG.debug(String.format("[User Search] Cancelled search using auth_config: `%s`", authConfig.getId()));
+        } catch (Exception e) {
+            if (Thread.currentThread().isInterrupted()) {
+                LOG.debug(String.format("[User Search] Cancelled search using auth_config: `%s`", authConfig.getId()));
+            } else {
+                LOG.error(String.format("[User Search] Failed to search user using auth_config: `%s`", authConfig.getId()), e);
+            }
+        }
+        return Collections.emptyList();
+    }
 }
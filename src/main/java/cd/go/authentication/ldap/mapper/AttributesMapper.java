@@ -19,9 +19,19 @@ package cd.go.authentication.ldap.mapper;
 import javax.naming.directory.Attributes;
 
 public class AttributesMapper implements Mapper<Attributes> {
+    private final String[] requiredAttributes;
+
+    public AttributesMapper(String... requiredAttributes) {
+        this.requiredAttributes = requiredAttributes;
+    }
 
     @Override
     public Attributes mapObject(ResultWrapper resultWrapper) {
         return (Attributes) resultWrapper.getResult();
     }
+
+    @Override
+    public String[] requiredAttributes() {
+        return requiredAttributes;
+    }
 }
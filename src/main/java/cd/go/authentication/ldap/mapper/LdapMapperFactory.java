@@ -23,13 +23,31 @@ import static cd.go.authentication.ldap.PluginSystemProperty.useJNDIClient;
 
 public class LdapMapperFactory {
 
-    public Mapper attributeOrEntryMapper() {
+    public Mapper<?> attributeOrEntryMapper() {
+        return attributeOrEntryMapper(Mapper.ALL_ATTRIBUTES);
+    }
+
+    /**
+     * @param requiredAttributes the attributes to request from the server, typically those of the {@link UserMapper}
+     *                           the result is eventually mapped with
+     */
+    public Mapper<?> attributeOrEntryMapper(String... requiredAttributes) {
         if (useJNDIClient()) {
             LOG.debug("Using attributes mapper as user has specified system property 'use.jndi.ldap.client=true'");
-            return new AttributesMapper();
+            return new AttributesMapper(requiredAttributes);
         }
 
         LOG.debug("Using entry mapper.");
-        return (Mapper<Entry>) resultWrapper -> (Entry) resultWrapper.getResult();
+        return new Mapper<Entry>() {
+            @Override
+            public Entry mapObject(ResultWrapper resultWrapper) {
+                return (Entry) resultWrapper.getResult();
+            }
+
+            @Override
+            public String[] requiredAttributes() {
+                return requiredAttributes;
+            }
+        };
     }
 }
@@ -20,9 +20,19 @@ import org.apache.directory.api.ldap.model.entry.Entry;
 import org.apache.directory.ldap.client.template.EntryMapper;
 
 public interface Mapper<T> extends EntryMapper {
+    String ALL_ATTRIBUTES = "*";
+    String NO_ATTRIBUTES = "1.1";
+
     default T map(Entry entry) {
         return mapObject(new ResultWrapper(entry));
     }
 
     T mapObject(ResultWrapper resultWrapper);
+
+    /**
+     * @return the attributes to request from the server for this mapper, all user attributes by default.
+     */
+    default String[] requiredAttributes() {
+        return new String[]{ALL_ATTRIBUTES};
+    }
 }
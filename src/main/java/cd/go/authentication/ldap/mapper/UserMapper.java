@@ -24,6 +24,9 @@ import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueEx
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 import static cd.go.authentication.ldap.LdapPlugin.LOG;
 import static java.lang.String.format;
@@ -53,6 +56,14 @@ public class UserMapper implements Mapper<User> {
         throw new LdapException(format("Failed to map '%s' to %s", resultWrapper.getResult().getClass().getName(), User.class.getName()));
     }
 
+    @Override
+    public String[] requiredAttributes() {
+        final Set<String> attributes = new LinkedHashSet<>(Arrays.asList(usernameResolver.requiredAttributes()));
+        attributes.add(displayNameAttribute);
+        attributes.add(emailAttribute);
+        return attributes.toArray(new String[0]);
+    }
+
     private User mapEntryToUser(ResultWrapper resultWrapper) {
         Entry entry = (Entry) resultWrapper.getResult();
         return new User(usernameResolver.getUsername(entry),
@@ -37,6 +37,13 @@ public class UsernameResolver {
         this.username = username;
     }
 
+    /**
+     * @return the attributes the username is read from, none when the username is already known.
+     */
+    public String[] requiredAttributes() {
+        return isNotBlank(this.username) ? new String[0] : new String[]{"sAMAccountName", "uid"};
+    }
+
     public String getUsername(Attributes attributes) throws NamingException {
         if (isNotBlank(this.username)) {
             return this.username;
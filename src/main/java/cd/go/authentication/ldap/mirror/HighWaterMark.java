@@ -0,0 +1,97 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.mirror;
+
+import org.apache.directory.api.util.GeneralizedTime;
+
+import java.text.ParseException;
+import java.util.Collection;
+
+import static cd.go.authentication.ldap.mirror.MirroredUserMapper.*;
+
+/**
+ * The latest change among a set of users, used to ask only for users changed since. Active Directory tells the update
+ * sequence number of each change, which is used when present; other servers only tell the time of the change, which
+ * has a resolution of a second at best. Both are compared inclusively, so that changes made within the same second or
+ * while the users were loaded are not missed, at the cost of loading the latest users again.
+ */
+class HighWaterMark {
+    private final Long usnChanged;
+    private final String modifyTimestamp;
+    private final String server;
+
+    private HighWaterMark(Long usnChanged, String modifyTimestamp, String server) {
+        this.usnChanged = usnChanged;
+        this.modifyTimestamp = modifyTimestamp;
+        this.server = server;
+    }
+
+    static HighWaterMark of(Collection<MirroredUser> users, String server) {
+        Long usnChanged = null;
+        String modifyTimestamp = null;
+        GeneralizedTime latest = null;
+        for (MirroredUser user : users) {
+            if (user.getUsnChanged() != null && (usnChanged == null || user.getUsnChanged() > usnChanged)) {
+                usnChanged = user.getUsnChanged();
+            }
+
+            final GeneralizedTime time = parse(user.getModifyTimestamp());
+            if (time != null && (latest == null || time.compareTo(latest) > 0)) {
+                latest = time;
+                modifyTimestamp = user.getModifyTimestamp();
+            }
+        }
+        return new HighWaterMark(usnChanged, modifyTimestamp, server);
+    }
+
+    /**
+     * @return a filter matching entries changed at or after this mark, or null when the users do not tell when they
+     * were changed.
+     */
+    String changedSinceFilter() {
+        if (usnChanged != null) {
+            return String.format("(%s>=%d)", USN_CHANGED, usnChanged);
+        }
+
+        if (modifyTimestamp != null) {
+            return String.format("(|(%s>=%s)(%s>=%s))", MODIFY_TIMESTAMP, modifyTimestamp, CREATE_TIMESTAMP, modifyTimestamp);
+        }
+        return null;
+    }
+
+    /**
+     * @return whether the changes the server returned for {@link #changedSinceFilter()} are all changes since this
+     * mark. Every server counts uSNChanged on its own, so a mark of uSNChanged only holds on the server the users were
+     * loaded from, while a modifyTimestamp holds on every server.
+     */
+    boolean holdsOn(String server) {
+        return usnChanged == null || (this.server != null && this.server.equals(server));
+    }
+
+    @Override
+    public String toString() {
+        return usnChanged != null ? USN_CHANGED + " " + usnChanged + " on " + server : MODIFY_TIMESTAMP + " " + modifyTimestamp;
+    }
+
+    private static GeneralizedTime parse(String value) {
+        try {
+            return value == null ? null : new GeneralizedTime(value);
+        } catch (ParseException | IllegalArgumentException e) {
+            return null;
+        }
+    }
+}
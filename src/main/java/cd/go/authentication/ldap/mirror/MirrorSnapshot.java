@@ -0,0 +1,144 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cd.go.authentication.ldap.mirror;
+
+import cd.go.authentication.ldap.model.User;
+
+import java.time.Instant;
+import java.util.*;
+
+/**
+ * The users of an auth config as loaded at one point in time. A snapshot never changes; a newer one replaces it.
+ * Usernames, display names and email addresses are compared ignoring case. Searches for terms of three or more
+ * characters only look at the users found in a trigram index of these values, which is built along with the snapshot
+ * and so replaced together with it.
+ */
+public class MirrorSnapshot {
+    private final List<MirroredUser> users;
+    private final Map<String, MirroredUser> usersByUsername;
+    private final Instant loadedAt;
+    private final String server;
+    private final HighWaterMark highWaterMark;
+    private final TrigramIndex searchIndex;
+
+    public MirrorSnapshot(Collection<MirroredUser> users, Instant loadedAt) {
+        this(users, loadedAt, null);
+    }
+
+    /**
+     * @param server the url of the server the users were loaded from
+     */
+    public MirrorSnapshot(Collection<MirroredUser> users, Instant loadedAt, String server) {
+        final List<MirroredUser> usersWithUsername = new ArrayList<>();
+        final Map<String, MirroredUser> usersByUsername = new HashMap<>();
+        for (MirroredUser user : users) {
+            if (user.getUser() != null && user.getUser().getUsername() != null) {
+                usersWithUsername.add(user);
+                usersByUsername.putIfAbsent(normalize(user.getUser().getUsername()), user);
+            }
+        }
+        this.users = Collections.unmodifiableList(usersWithUsername);
+        this.usersByUsername = Collections.unmodifiableMap(usersByUsername);
+        this.loadedAt = loadedAt;
+        this.server = server;
+        this.highWaterMark = HighWaterMark.of(users, server);
+        this.searchIndex = TrigramIndex.of(searchableValues(this.users));
+    }
+
+    /**
+     * @return a snapshot in which the changed users replace the users with the same dn and the other users are kept.
+     */
+    public MirrorSnapshot merge(Collection<MirroredUser> changedUsers, Instant loadedAt) {
+        final Map<String, MirroredUser> usersByDn = new LinkedHashMap<>();
+        for (MirroredUser user : users) {
+            usersByDn.put(user.getDn(), user);
+        }
+        for (MirroredUser user : changedUsers) {
+            usersByDn.put(user.getDn(), user);
+        }
+        return new MirrorSnapshot(usersByDn.values(), loadedAt, server);
+    }
+
+    /**
+     * @return the users whose username, display name or email address contains the search term.
+     */
+    public List<User> search(String searchTerm, int maxResultCount) {
+        final String term = normalize(searchTerm);
+        final List<User> results = new ArrayList<>();
+        final PrimitiveIterator.OfInt candidates = searchIndex.candidates(term);
+        if (candidates == null) {
+            for (MirroredUser mirroredUser : users) {
+                if (results.size() >= maxResultCount) {
+                    break;
+                }
+                addIfMatches(results, mirroredUser.getUser(), term);
+            }
+            return results;
+        }
+
+        while (results.size() < maxResultCount && candidates.hasNext()) {
+            addIfMatches(results, users.get(candidates.nextInt()).getUser(), term);
+        }
+        return results;
+    }
+
+    public boolean contains(String username) {
+        return username != null && usersByUsername.containsKey(normalize(username));
+    }
+
+    public List<MirroredUser> getUsers() {
+        return users;
+    }
+
+    public int size() {
+        return users.size();
+    }
+
+    public Instant getLoadedAt() {
+        return loadedAt;
+    }
+
+    public String getServer() {
+        return server;
+    }
+
+    HighWaterMark getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    private static void addIfMatches(List<User> results, User user, String term) {
+        if (contains(user.getUsername(), term) || contains(user.getDisplayName(), term) || contains(user.getEmailId(), term)) {
+            results.add(user);
+        }
+    }
+
+    private static List<String[]> searchableValues(List<MirroredUser> users) {
+        final List<String[]> values = new ArrayList<>(users.size());
+        for (MirroredUser mirroredUser : users) {
+            final User user = mirroredUser.getUser();
+            values.add(new String[]{normalize(user.getUsername()), normalize(user.getDisplayName()), normalize(user.getEmailId())});
+        }
+        return values;
+    }
+
+    private static boolean contains(String value, String term) {
+        return value != null && normalize(value).contains(term);
+    }
+
+    private static String normalize(String value) {
+        return value == null ? "" : value.trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.mirror;
+
+import cd.go.authentication.ldap.model.AuthConfig;
+import cd.go.authentication.ldap.model.LdapConfiguration;
+import cd.go.authentication.ldap.model.User;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static cd.go.authentication.ldap.LdapPlugin.LOG;
+
+/**
+ * The users of a mirror written to disk, so that a restarted server can answer from them right away instead of waiting
+ * for all users to be loaded again. Only what the mirror keeps in memory is written, the dn, username, display name and
+ * email address of each user along with when it changed; the password and manager dn of the auth config never are.
+ * <p>
+ * The file starts with a header of a magic number, the format version, when the users were loaded, when all users were
+ * last loaded, the number of users and the length of what follows: the url of the server the users were loaded from and
+ * the users. A CRC32 of everything before it ends the file. Files of another version or whose checksum does not match
+ * are discarded.
+ */
+class MirrorSnapshotFile {
+    static final int MAGIC = 0x4c444d53;
+    static final int VERSION = 2;
+    private static final int HEADER_LENGTH = 4 + 4 + 8 + 8 + 4 + 4;
+    private static final int CHECKSUM_LENGTH = 8;
+
+    private final Path file;
+
+    MirrorSnapshotFile(Path file) {
+        this.file = file;
+    }
+
+    /**
+     * @return the file for the users of the auth config in the directory. The name of the file depends on the id of the
+     * auth config and every setting which decides which users are mirrored, so that the users of an edited auth config
+     * are loaded from the server again.
+     */
+    static MirrorSnapshotFile of(Path directory, AuthConfig authConfig) {
+        final LdapConfiguration configuration = authConfig.getConfiguration();
+        final String key = String.join("\n", authConfig.getId(), configuration.getLdapUrlAsString(), String.valueOf(configuration.getSearchBases()),
+                String.valueOf(configuration.getManagerDn()), configuration.getUserMirrorFilter(), String.valueOf(configuration.getDisplayNameAttribute()),
+                String.valueOf(configuration.getEmailAttribute()));
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-256").digest(key.getBytes(StandardCharsets.UTF_8));
+            return new MirrorSnapshotFile(directory.resolve("users-" + HexFormat.of().formatHex(digest) + ".bin"));
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    Path getPath() {
+        return file;
+    }
+
+    /**
+     * @return the users written last, or null when there is no usable file. A corrupt file is deleted.
+     */
+    Contents read() {
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+
+        try {
+            // read rather than mapped, as a mapped file cannot be replaced on Windows and every user is decoded anyway
+            return decode(ByteBuffer.wrap(Files.readAllBytes(file)));
+        } catch (CorruptFileException | BufferUnderflowException | IllegalArgumentException e) {
+            LOG.warn(String.format("[User Mirror] Discarding corrupt snapshot file `%s`: %s", file, e.getMessage()));
+            delete();
+        } catch (UnsupportedVersionException e) {
+            LOG.info(String.format("[User Mirror] Ignoring snapshot file `%s` written by another version of the plugin", file));
+        } catch (IOException e) {
+            LOG.warn(String.format("[User Mirror] Failed to read snapshot file `%s`", file), e);
+        }
+        return null;
+    }
+
+    /**
+     * Replaces the file with the users of the snapshot. The users are written to a temporary file first, which then
+     * takes the place of the file, so that the file is never left half written.
+     */
+    void write(MirrorSnapshot snapshot, Instant lastFullReload) throws IOException {
+        final byte[] contents = encode(snapshot, lastFullReload);
+
+        Files.createDirectories(file.getParent());
+        final Path temporaryFile = createOwnerOnlyFile(file.getParent(), file.getFileName() + ".");
+        try {
+            Files.write(temporaryFile, contents);
+            try {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(temporaryFile, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } finally {
+            Files.deleteIfExists(temporaryFile);
+        }
+    }
+
+    void delete() {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn(String.format("[User Mirror] Failed to delete snapshot file `%s`", file), e);
+        }
+    }
+
+    static byte[] encode(MirrorSnapshot snapshot, Instant lastFullReload) throws IOException {
+        final ByteArrayOutputStream users = new ByteArrayOutputStream();
+        final DataOutputStream usersOut = new DataOutputStream(users);
+        writeString(usersOut, snapshot.getServer());
+        for (MirroredUser mirroredUser : snapshot.getUsers()) {
+            final User user = mirroredUser.getUser();
+            writeString(usersOut, mirroredUser.getDn());
+            writeString(usersOut, user.getUsername());
+            writeString(usersOut, user.getDisplayName());
+            writeString(usersOut, user.getEmailId());
+            usersOut.writeBoolean(mirroredUser.getUsnChanged() != null);
+            usersOut.writeLong(mirroredUser.getUsnChanged() == null ? 0 : mirroredUser.getUsnChanged());
+            writeString(usersOut, mirroredUser.getModifyTimestamp());
+        }
+        usersOut.flush();
+
+        final ByteArrayOutputStream contents = new ByteArrayOutputStream(HEADER_LENGTH + users.size() + CHECKSUM_LENGTH);
+        final DataOutputStream out = new DataOutputStream(contents);
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(snapshot.getLoadedAt().toEpochMilli());
+        out.writeLong(lastFullReload == null ? snapshot.getLoadedAt().toEpochMilli() : lastFullReload.toEpochMilli());
+        out.writeInt(snapshot.size());
+        out.writeInt(users.size());
+        users.writeTo(out);
+
+        final CRC32 checksum = new CRC32();
+        checksum.update(contents.toByteArray());
+        out.writeLong(checksum.getValue());
+        out.flush();
+        return contents.toByteArray();
+    }
+
+    static Contents decode(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_LENGTH + CHECKSUM_LENGTH || buffer.getInt(0) != MAGIC) {
+            throw new CorruptFileException("not a snapshot file");
+        }
+        if (buffer.getInt(4) != VERSION) {
+            throw new UnsupportedVersionException();
+        }
+
+        final int usersLength = buffer.getInt(HEADER_LENGTH - 4);
+        if (usersLength < 0 || buffer.remaining() != HEADER_LENGTH + usersLength + CHECKSUM_LENGTH) {
+            throw new CorruptFileException("unexpected length");
+        }
+        final CRC32 checksum = new CRC32();
+        checksum.update(buffer.slice(0, HEADER_LENGTH + usersLength));
+        if (checksum.getValue() != buffer.getLong(HEADER_LENGTH + usersLength)) {
+            throw new CorruptFileException("checksum mismatch");
+        }
+
+        buffer.position(8);
+        final Instant loadedAt = Instant.ofEpochMilli(buffer.getLong());
+        final Instant lastFullReload = Instant.ofEpochMilli(buffer.getLong());
+        final int count = buffer.getInt();
+        buffer.getInt();
+        final String server = readString(buffer);
+
+        final List<MirroredUser> users = new ArrayList<>(Math.min(count, usersLength));
+        for (int i = 0; i < count; i++) {
+            final String dn = readString(buffer);
+            final User user = new User(readString(buffer), readString(buffer), readString(buffer));
+            final boolean hasUsnChanged = buffer.get() != 0;
+            final long usnChanged = buffer.getLong();
+            users.add(new MirroredUser(dn, user, hasUsnChanged ? usnChanged : null, readString(buffer)));
+        }
+        if (buffer.position() != HEADER_LENGTH + usersLength) {
+            throw new CorruptFileException("unexpected number of users");
+        }
+        return new Contents(new MirrorSnapshot(users, loadedAt, server), lastFullReload);
+    }
+
+    private static Path createOwnerOnlyFile(Path directory, String prefix) throws IOException {
+        if (FileSystems.getDefault().supportedFileAttributeViews().contains("posix")) {
+            return Files.createTempFile(directory, prefix, ".tmp", PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        }
+        return Files.createTempFile(directory, prefix, ".tmp");
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        final byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new CorruptFileException("unexpected length of value");
+        }
+        final byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    static class Contents {
+        private final MirrorSnapshot snapshot;
+        private final Instant lastFullReload;
+
+        Contents(MirrorSnapshot snapshot, Instant lastFullReload) {
+            this.snapshot = snapshot;
+            this.lastFullReload = lastFullReload;
+        }
+
+        MirrorSnapshot getSnapshot() {
+            return snapshot;
+        }
+
+        Instant getLastFullReload() {
+            return lastFullReload;
+        }
+    }
+
+    private static class CorruptFileException extends RuntimeException {
+        CorruptFileException(String message) {
+            super(message);
+        }
+    }
+
+    private static class UnsupportedVersionException extends RuntimeException {
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cd.go.authentication.ldap.mirror;
+
+import cd.go.authentication.ldap.model.User;
+
+import java.util.Objects;
+
+/**
+ * A user kept in memory together with the dn of its entry and when the entry was last changed, as far as the server
+ * tells.
+ */
+public class MirroredUser {
+    private final String dn;
+    private final User user;
+    private final Long usnChanged;
+    private final String modifyTimestamp;
+
+    public MirroredUser(String dn, User user) {
+        this(dn, user, null, null);
+    }
+
+    /**
+     * @param usnChanged      the update sequence number of the entry on Active Directory, or null
+     * @param modifyTimestamp the time the entry was last modified or created as an LDAP generalized time, or null
+     */
+    public MirroredUser(String dn, User user, Long usnChanged, String modifyTimestamp) {
+        this.dn = dn;
+        this.user = user;
+        this.usnChanged = usnChanged;
+        this.modifyTimestamp = modifyTimestamp;
+    }
+
+    public String getDn() {
+        return dn;
+    }
+
+    public User getUser() {
+        return user;
+    }
+
+    public Long getUsnChanged() {
+        return usnChanged;
+    }
+
+    public String getModifyTimestamp() {
+        return modifyTimestamp;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        MirroredUser that = (MirroredUser) o;
+        return Objects.equals(dn, that.dn) && Objects.equals(user, that.user) &&
+                Objects.equals(usnChanged, that.usnChanged) && Objects.equals(modifyTimestamp, that.modifyTimestamp);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(dn, user, usnChanged, modifyTimestamp);
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cd.go.authentication.ldap.mirror;
+
+import cd.go.authentication.ldap.exception.LdapException;
+import cd.go.authentication.ldap.mapper.Mapper;
+import cd.go.authentication.ldap.mapper.ResultWrapper;
+import cd.go.authentication.ldap.mapper.UserMapper;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapInvalidAttributeValueException;
+
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import javax.naming.directory.Attributes;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Maps an entry to a user along with its dn and the attributes telling when it was last changed, which are asked for
+ * in addition to the attributes of the user.
+ */
+public class MirroredUserMapper implements Mapper<MirroredUser> {
+    static final String USN_CHANGED = "uSNChanged";
+    static final String MODIFY_TIMESTAMP = "modifyTimestamp";
+    static final String CREATE_TIMESTAMP = "createTimestamp";
+
+    private final UserMapper userMapper;
+
+    public MirroredUserMapper(UserMapper userMapper) {
+        this.userMapper = userMapper;
+    }
+
+    @Override
+    public MirroredUser mapObject(ResultWrapper resultWrapper) {
+        final Object result = resultWrapper.getResult();
+        final String modifyTimestamp = attribute(result, MODIFY_TIMESTAMP);
+        return new MirroredUser(dn(result), userMapper.mapObject(resultWrapper), usnChanged(attribute(result, USN_CHANGED)),
+                modifyTimestamp != null ? modifyTimestamp : attribute(result, CREATE_TIMESTAMP));
+    }
+
+    @Override
+    public String[] requiredAttributes() {
+        final Set<String> attributes = new LinkedHashSet<>(Arrays.asList(userMapper.requiredAttributes()));
+        attributes.addAll(Arrays.asList(USN_CHANGED, MODIFY_TIMESTAMP, CREATE_TIMESTAMP));
+        return attributes.toArray(new String[0]);
+    }
+
+    private static String dn(Object result) {
+        if (result instanceof Entry) {
+            return ((Entry) result).getDn().getName();
+        }
+        return attribute(result, "dn");
+    }
+
+    private static String attribute(Object result, String name) {
+        try {
+            if (result instanceof Entry) {
+                final org.apache.directory.api.ldap.model.entry.Attribute attribute = ((Entry) result).get(name);
+                return attribute == null ? null : attribute.getString();
+            }
+
+            final Attribute attribute = ((Attributes) result).get(name);
+            return attribute == null ? null : String.valueOf(attribute.get());
+        } catch (NamingException | LdapInvalidAttributeValueException e) {
+            throw new LdapException(e);
+        }
+    }
+
+    private static Long usnChanged(String value) {
+        try {
+            return value == null ? null : Long.valueOf(value.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+}
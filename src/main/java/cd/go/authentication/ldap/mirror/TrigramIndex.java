@@ -0,0 +1,262 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.mirror;
+
+import java.util.*;
+
+/**
+ * An index of the three character sequences of the values of each document, to find the documents with a value which
+ * contains a term without looking at every document. Each trigram is numbered through an open addressing hash table,
+ * and the documents containing each trigram are kept in ascending order in one shared array, so that the index takes a
+ * few bytes per trigram of a document and no objects per document or trigram.
+ * <p>
+ * A document contains all trigrams of the term if one of its values contains the term, but not the other way around,
+ * so callers need to check the documents found.
+ */
+class TrigramIndex {
+    static final int GRAM_LENGTH = 3;
+
+    private final TrigramIds trigramIds;
+    private final int[] offsets;
+    private final int[] documents;
+
+    private TrigramIndex(TrigramIds trigramIds, int[] offsets, int[] documents) {
+        this.trigramIds = trigramIds;
+        this.offsets = offsets;
+        this.documents = documents;
+    }
+
+    /**
+     * @param values the values of each document, already normalized the same way as the terms which will be looked up.
+     */
+    static TrigramIndex of(List<String[]> values) {
+        final TrigramIds trigramIds = new TrigramIds();
+        int[] counts = new int[1024];
+        int[] lastDocument = new int[1024];
+        for (int document = 0; document < values.size(); document++) {
+            for (String value : values.get(document)) {
+                for (int i = 0; value != null && i + GRAM_LENGTH <= value.length(); i++) {
+                    final int id = trigramIds.add(trigram(value, i));
+                    if (id == counts.length) {
+                        counts = Arrays.copyOf(counts, counts.length * 2);
+                        lastDocument = Arrays.copyOf(lastDocument, lastDocument.length * 2);
+                    }
+                    if (counts[id] == 0 || lastDocument[id] != document) {
+                        counts[id]++;
+                        lastDocument[id] = document;
+                    }
+                }
+            }
+        }
+
+        final int[] offsets = new int[trigramIds.size() + 1];
+        for (int id = 0; id < trigramIds.size(); id++) {
+            offsets[id + 1] = offsets[id] + counts[id];
+        }
+
+        final int[] documents = new int[offsets[trigramIds.size()]];
+        final int[] next = Arrays.copyOf(offsets, trigramIds.size());
+        for (int document = 0; document < values.size(); document++) {
+            for (String value : values.get(document)) {
+                for (int i = 0; value != null && i + GRAM_LENGTH <= value.length(); i++) {
+                    final int id = trigramIds.find(trigram(value, i));
+                    if (next[id] == offsets[id] || documents[next[id] - 1] != document) {
+                        documents[next[id]++] = document;
+                    }
+                }
+            }
+        }
+        return new TrigramIndex(trigramIds, offsets, documents);
+    }
+
+    /**
+     * @return the documents, in ascending order, which contain every trigram of the term, or null when the term is too
+     * short to have any and every document is a candidate. The documents are found as they are asked for, so that
+     * callers which need only a few of them do not pay for all of them.
+     */
+    PrimitiveIterator.OfInt candidates(String term) {
+        final long[] termTrigrams = trigramsOf(term);
+        if (termTrigrams.length == 0) {
+            return null;
+        }
+
+        final int[] from = new int[termTrigrams.length];
+        final int[] to = new int[termTrigrams.length];
+        for (int i = 0; i < termTrigrams.length; i++) {
+            final int t = trigramIds.find(termTrigrams[i]);
+            if (t < 0) {
+                return new Candidates(new int[]{0}, new int[]{0});
+            }
+            from[i] = offsets[t];
+            to[i] = offsets[t + 1];
+        }
+        return new Candidates(from, to);
+    }
+
+    int trigramCount() {
+        return trigramIds.size();
+    }
+
+    int postingCount() {
+        return documents.length;
+    }
+
+    /**
+     * Walks the documents of the trigram with the fewest documents and looks each of them up in the documents of the
+     * other trigrams, continuing every lookup from where the previous one ended.
+     */
+    private class Candidates implements PrimitiveIterator.OfInt {
+        private final int[] position;
+        private final int[] end;
+        private final int shortest;
+        private int next = -1;
+
+        Candidates(int[] from, int[] to) {
+            this.position = from;
+            this.end = to;
+            int shortest = 0;
+            for (int i = 1; i < from.length; i++) {
+                if (to[i] - from[i] < to[shortest] - from[shortest]) {
+                    shortest = i;
+                }
+            }
+            this.shortest = shortest;
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (next < 0 && position[shortest] < end[shortest]) {
+                final int document = documents[position[shortest]++];
+                if (inAllPostings(document)) {
+                    next = document;
+                }
+            }
+            return next >= 0;
+        }
+
+        @Override
+        public int nextInt() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            final int document = next;
+            next = -1;
+            return document;
+        }
+
+        private boolean inAllPostings(int document) {
+            for (int i = 0; i < position.length; i++) {
+                if (i == shortest) {
+                    continue;
+                }
+                final int found = Arrays.binarySearch(documents, position[i], end[i], document);
+                position[i] = found >= 0 ? found + 1 : -found - 1;
+                if (found < 0) {
+                    if (position[i] >= end[i]) {
+                        position[shortest] = end[shortest];
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return the distinct trigrams of the term.
+     */
+    private static long[] trigramsOf(String term) {
+        if (term.length() < GRAM_LENGTH) {
+            return new long[0];
+        }
+
+        final long[] trigrams = new long[term.length() - GRAM_LENGTH + 1];
+        for (int i = 0; i < trigrams.length; i++) {
+            trigrams[i] = trigram(term, i);
+        }
+        return Arrays.stream(trigrams).distinct().toArray();
+    }
+
+    /**
+     * @return the three characters starting at the index packed into the lower 48 bits of a long.
+     */
+    private static long trigram(String value, int index) {
+        return ((long) value.charAt(index) << 32) | ((long) value.charAt(index + 1) << 16) | value.charAt(index + 2);
+    }
+
+    /**
+     * Numbers trigrams in the order they are added.
+     */
+    private static class TrigramIds {
+        private static final long EMPTY = -1;
+        private long[] trigrams = newSlots(1024);
+        private int[] ids = new int[1024];
+        private int size;
+
+        int add(long trigram) {
+            int slot = slotOf(trigram);
+            if (trigrams[slot] == trigram) {
+                return ids[slot];
+            }
+            if (size * 2 >= trigrams.length) {
+                grow();
+                slot = slotOf(trigram);
+            }
+            trigrams[slot] = trigram;
+            ids[slot] = size;
+            return size++;
+        }
+
+        int find(long trigram) {
+            final int slot = slotOf(trigram);
+            return trigrams[slot] == trigram ? ids[slot] : -1;
+        }
+
+        int size() {
+            return size;
+        }
+
+        private int slotOf(long trigram) {
+            final int mask = trigrams.length - 1;
+            int slot = Long.hashCode(trigram * 0x9E3779B97F4A7C15L) & mask;
+            while (trigrams[slot] != EMPTY && trigrams[slot] != trigram) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        private void grow() {
+            final long[] oldTrigrams = trigrams;
+            final int[] oldIds = ids;
+            trigrams = newSlots(oldTrigrams.length * 2);
+            ids = new int[oldTrigrams.length * 2];
+            for (int i = 0; i < oldTrigrams.length; i++) {
+                if (oldTrigrams[i] != EMPTY) {
+                    final int slot = slotOf(oldTrigrams[i]);
+                    trigrams[slot] = oldTrigrams[i];
+                    ids[slot] = oldIds[i];
+                }
+            }
+        }
+
+        private static long[] newSlots(int length) {
+            final long[] slots = new long[length];
+            Arrays.fill(slots, EMPTY);
+            return slots;
+        }
+    }
+}
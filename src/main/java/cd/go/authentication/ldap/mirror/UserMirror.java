@@ -0,0 +1,179 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cd.go.authentication.ldap.mirror;
+
+import cd.go.authentication.ldap.LdapFactory;
+import cd.go.authentication.ldap.mapper.UsernameResolver;
+import cd.go.authentication.ldap.model.AuthConfig;
+import cd.go.authentication.ldap.model.LdapConfiguration;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static cd.go.authentication.ldap.LdapPlugin.LOG;
+
+/**
+ * Keeps the users of an auth config matching its user mirror filter in memory. Only the username, display name, email
+ * address and dn of each user are kept.
+ * <p>
+ * After the users are loaded, a refresh only loads the users changed since the latest change seen and merges them in.
+ * When that change is known by its uSNChanged, which every server counts on its own, and another server answers, all
+ * users are loaded again instead.
+ * As removed users and users which no longer match the filter do not show up that way, all users are loaded again
+ * every full reload interval. With a snapshot file the users are written to disk after every refresh and read from
+ * there when the mirror is restored, so that they can be used before they are loaded from the server again.
+ */
+public class UserMirror {
+    private final AuthConfig authConfig;
+    private final LdapFactory ldapFactory;
+    private final Duration fullReloadInterval;
+    private final int pageSize;
+    private final Clock clock;
+    private final MirrorSnapshotFile snapshotFile;
+    private final AtomicBoolean started = new AtomicBoolean();
+    private volatile MirrorSnapshot snapshot;
+    private volatile Instant lastUsed;
+    private Instant lastFullReload;
+
+    public UserMirror(AuthConfig authConfig, LdapFactory ldapFactory, Duration fullReloadInterval, int pageSize, Clock clock) {
+        this(authConfig, ldapFactory, fullReloadInterval, pageSize, clock, null);
+    }
+
+    UserMirror(AuthConfig authConfig, LdapFactory ldapFactory, Duration fullReloadInterval, int pageSize, Clock clock, MirrorSnapshotFile snapshotFile) {
+        this.authConfig = authConfig;
+        this.ldapFactory = ldapFactory;
+        this.fullReloadInterval = fullReloadInterval;
+        this.pageSize = pageSize;
+        this.clock = clock;
+        this.snapshotFile = snapshotFile;
+        this.lastUsed = clock.instant();
+    }
+
+    /**
+     * @return the users loaded last, or null when they have not been loaded yet.
+     */
+    public MirrorSnapshot snapshot() {
+        lastUsed = clock.instant();
+        return snapshot;
+    }
+
+    /**
+     * @return true for the one caller which is to start the mirror, and false for everyone else.
+     */
+    boolean markStarted() {
+        return started.compareAndSet(false, true);
+    }
+
+    /**
+     * Uses the users written to the snapshot file, if any, until they are refreshed.
+     */
+    synchronized void restore() {
+        if (snapshotFile == null || snapshot != null) {
+            return;
+        }
+
+        final long started = System.nanoTime();
+        final MirrorSnapshotFile.Contents contents = snapshotFile.read();
+        if (contents != null) {
+            snapshot = contents.getSnapshot();
+            lastFullReload = contents.getLastFullReload();
+            LOG.info(String.format("[User Mirror] Restored %d users of auth_config: `%s` loaded at %s from `%s` in %d ms", snapshot.size(),
+                    authConfig.getId(), snapshot.getLoadedAt(), snapshotFile.getPath(), (System.nanoTime() - started) / 1_000_000));
+        }
+    }
+
+    /**
+     * Loads the users changed since the last refresh, or all users when a full reload is due, and replaces the snapshot
+     * with them. The previous snapshot stays in use when loading fails.
+     */
+    public synchronized void refresh() {
+        final MirrorSnapshot current = snapshot;
+        final String changedSinceFilter = current == null ? null : current.getHighWaterMark().changedSinceFilter();
+        if (changedSinceFilter == null || isFullReloadDue()) {
+            reloadAll();
+        } else {
+            loadChanges(current, changedSinceFilter);
+        }
+        save();
+    }
+
+    private boolean isFullReloadDue() {
+        return fullReloadInterval.isZero() || fullReloadInterval.isNegative() || !lastFullReload.plus(fullReloadInterval).isAfter(clock.instant());
+    }
+
+    private void reloadAll() {
+        final Instant startedAt = clock.instant();
+        final long started = System.nanoTime();
+        final AtomicReference<String> server = new AtomicReference<>();
+        final List<MirroredUser> users = searchAll(authConfig.getConfiguration().getUserMirrorFilter(), server::set);
+
+        snapshot = new MirrorSnapshot(users, clock.instant(), server.get());
+        lastFullReload = startedAt;
+        LOG.info(String.format("[User Mirror] Loaded %d users of auth_config: `%s` in %d ms", snapshot.size(), authConfig.getId(), (System.nanoTime() - started) / 1_000_000));
+    }
+
+    private void loadChanges(MirrorSnapshot current, String changedSinceFilter) {
+        final long started = System.nanoTime();
+        final AtomicReference<String> server = new AtomicReference<>();
+        final List<MirroredUser> changedUsers = searchAll("(&" + authConfig.getConfiguration().getUserMirrorFilter() + changedSinceFilter + ")", server::set);
+        if (!current.getHighWaterMark().holdsOn(server.get())) {
+            LOG.info(String.format("[User Mirror] Loading all users of auth_config: `%s` again, as the changes since %s were loaded from %s",
+                    authConfig.getId(), current.getHighWaterMark(), server.get()));
+            reloadAll();
+            return;
+        }
+
+        snapshot = current.merge(changedUsers, clock.instant());
+        LOG.debug(String.format("[User Mirror] Loaded %d users of auth_config: `%s` changed since %s in %d ms, %d users in memory",
+                changedUsers.size(), authConfig.getId(), current.getHighWaterMark(), (System.nanoTime() - started) / 1_000_000, snapshot.size()));
+    }
+
+    private void save() {
+        if (snapshotFile == null) {
+            return;
+        }
+
+        try {
+            snapshotFile.write(snapshot, lastFullReload);
+        } catch (Exception e) {
+            LOG.warn(String.format("[User Mirror] Failed to write users of auth_config: `%s` to `%s`", authConfig.getId(), snapshotFile.getPath()), e);
+        }
+    }
+
+    /**
+     * Deletes the users written to disk, which would be too old to be used by the time the mirror is started again.
+     */
+    void deleteSnapshotFile() {
+        if (snapshotFile != null) {
+            snapshotFile.delete();
+        }
+    }
+
+    private List<MirroredUser> searchAll(String filter, Consumer<String> answeredBy) {
+        final LdapConfiguration configuration = authConfig.getConfiguration();
+        return ldapFactory.ldapForConfiguration(configuration)
+                .searchAll(filter, new MirroredUserMapper(configuration.getUserMapper(new UsernameResolver())), pageSize, answeredBy);
+    }
+
+    Instant lastUsed() {
+        return lastUsed;
+    }
+}
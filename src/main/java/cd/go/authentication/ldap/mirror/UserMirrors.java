@@ -0,0 +1,141 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cd.go.authentication.ldap.mirror;
+
+import cd.go.authentication.ldap.LdapFactory;
+import cd.go.authentication.ldap.model.AuthConfig;
+
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.concurrent.*;
+
+import static cd.go.authentication.ldap.LdapPlugin.LOG;
+import static cd.go.authentication.ldap.PluginSystemProperty.userMirrorFullReloadInterval;
+import static cd.go.authentication.ldap.PluginSystemProperty.userMirrorPageSize;
+import static cd.go.authentication.ldap.PluginSystemProperty.userMirrorRefreshInterval;
+import static cd.go.authentication.ldap.PluginSystemProperty.userMirrorSnapshotDirectory;
+
+/**
+ * The user mirrors of all auth configs which have a user mirror filter. A mirror is started the first time its auth
+ * config is asked for and refreshed in the background every refresh interval. Until its users are loaded, and whenever
+ * they could not be reloaded for three refresh intervals, no snapshot is returned so that callers ask the server
+ * instead. Mirrors which are not asked for during two refresh intervals are stopped, which also takes care of the
+ * mirrors of edited or removed auth configs.
+ * <p>
+ * With a snapshot directory the users of each mirror are also written to disk, and a started mirror answers from the
+ * users written there while they are refreshed, as long as they are not older than three refresh intervals.
+ */
+public class UserMirrors {
+    private static final UserMirrors INSTANCE = new UserMirrors(new LdapFactory(), userMirrorRefreshInterval(), userMirrorFullReloadInterval(),
+            userMirrorPageSize(), userMirrorSnapshotDirectory(), null, Clock.systemUTC());
+
+    private final ConcurrentMap<AuthConfig, UserMirror> mirrors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<UserMirror, Future<?>> refreshes = new ConcurrentHashMap<>();
+    private final LdapFactory ldapFactory;
+    private final Duration refreshInterval;
+    private final Duration fullReloadInterval;
+    private final int pageSize;
+    private final Path snapshotDirectory;
+    private final Clock clock;
+    private ScheduledExecutorService scheduler;
+
+    UserMirrors(LdapFactory ldapFactory, Duration refreshInterval, Duration fullReloadInterval, int pageSize, ScheduledExecutorService scheduler, Clock clock) {
+        this(ldapFactory, refreshInterval, fullReloadInterval, pageSize, null, scheduler, clock);
+    }
+
+    UserMirrors(LdapFactory ldapFactory, Duration refreshInterval, Duration fullReloadInterval, int pageSize, Path snapshotDirectory,
+                ScheduledExecutorService scheduler, Clock clock) {
+        this.ldapFactory = ldapFactory;
+        this.refreshInterval = refreshInterval;
+        this.fullReloadInterval = fullReloadInterval;
+        this.pageSize = pageSize;
+        this.snapshotDirectory = snapshotDirectory;
+        this.scheduler = scheduler;
+        this.clock = clock;
+    }
+
+    public static UserMirrors instance() {
+        return INSTANCE;
+    }
+
+    public static UserMirrors disabled() {
+        return new UserMirrors(null, Duration.ZERO, Duration.ZERO, 0, null, Clock.systemUTC());
+    }
+
+    /**
+     * @return the users of the auth config in memory, or null when the auth config has no user mirror filter or its
+     * users are not available in memory.
+     */
+    public MirrorSnapshot snapshotFor(AuthConfig authConfig) {
+        if (refreshInterval.isZero() || refreshInterval.isNegative() || authConfig.getConfiguration().getUserMirrorFilter() == null) {
+            return null;
+        }
+
+        // the mirror is only created while the map is locked, reading its snapshot file could hold up other auth configs
+        final UserMirror mirror = mirrors.computeIfAbsent(authConfig, this::create);
+        if (mirror.markStarted()) {
+            start(authConfig, mirror);
+        }
+
+        final MirrorSnapshot snapshot = mirror.snapshot();
+        if (snapshot == null || snapshot.getLoadedAt().plus(refreshInterval.multipliedBy(3)).isBefore(clock.instant())) {
+            return null;
+        }
+        return snapshot;
+    }
+
+    private UserMirror create(AuthConfig authConfig) {
+        final MirrorSnapshotFile snapshotFile = snapshotDirectory == null ? null : MirrorSnapshotFile.of(snapshotDirectory, authConfig);
+        return new UserMirror(authConfig, ldapFactory, fullReloadInterval, pageSize, clock, snapshotFile);
+    }
+
+    private void start(AuthConfig authConfig, UserMirror mirror) {
+        LOG.info(String.format("[User Mirror] Starting to keep users of auth_config: `%s` in memory", authConfig.getId()));
+        mirror.restore();
+        refreshes.put(mirror, scheduler().scheduleWithFixedDelay(() -> refresh(authConfig, mirror), 0, refreshInterval.toMillis(), TimeUnit.MILLISECONDS));
+    }
+
+    private void refresh(AuthConfig authConfig, UserMirror mirror) {
+        if (mirror.lastUsed().plus(refreshInterval.multipliedBy(2)).isBefore(clock.instant())) {
+            LOG.info(String.format("[User Mirror] Stopping to keep users of auth_config: `%s` in memory as they were not used for a while", authConfig.getId()));
+            mirrors.remove(authConfig, mirror);
+            final Future<?> refresh = refreshes.remove(mirror);
+            if (refresh != null) {
+                refresh.cancel(false);
+            }
+            mirror.deleteSnapshotFile();
+            return;
+        }
+
+        try {
+            mirror.refresh();
+        } catch (Exception e) {
+            LOG.error(String.format("[User Mirror] Failed to load users of auth_config: `%s`, keeping the users loaded before", authConfig.getId()), e);
+        }
+    }
+
+    private synchronized ScheduledExecutorService scheduler() {
+        if (scheduler == null) {
+            scheduler = Executors.newScheduledThreadPool(2, runnable -> {
+                final Thread thread = new Thread(runnable, "ldap-user-mirror");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        return scheduler;
+    }
+}
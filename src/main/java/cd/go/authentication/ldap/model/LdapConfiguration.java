@@ -24,6 +24,10 @@ import com.google.gson.annotations.Expose;
 import com.google.gson.annotations.SerializedName;
 import org.apache.directory.api.ldap.model.url.LdapUrl;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import java.util.Objects;
 
@@ -33,6 +37,12 @@ import static cd.go.authentication.ldap.utils.Util.isBlank;
 
 public class LdapConfiguration {
     private static final String DEFAULT_USER_SEARCH_FILTER = "(|(sAMAccountName=*{0}*)(uid=*{0}*)(cn=*{0}*)(mail=*{0}*)(otherMailbox=*{0}*))";
+    public static final int DEFAULT_POOL_MAX_TOTAL = 250;
+    public static final int DEFAULT_POOL_MAX_IDLE = 50;
+    public static final int DEFAULT_POOL_MIN_IDLE = 0;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10;
+    public static final int DEFAULT_RESPONSE_TIMEOUT = 30;
+    public static final int DEFAULT_BIND_TIMEOUT = 10;
 
     @Expose
     @SerializedName("Url")
@@ -64,6 +74,16 @@ public class LdapConfiguration {
     @Property(name = "UserLoginFilter", required = true, secure = false)
     private String userLoginFilter;
 
+    @Expose
+    @SerializedName("UserValidationFilter")
+    @Property(name = "UserValidationFilter", required = false, secure = false)
+    private String userValidationFilter;
+
+    @Expose
+    @SerializedName("UserMirrorFilter")
+    @Property(name = "UserMirrorFilter", required = false, secure = false)
+    private String userMirrorFilter;
+
     @Expose
     @SerializedName("DisplayNameAttribute")
     @Property(name = "DisplayNameAttribute", required = false, secure = false)
@@ -79,17 +99,93 @@ public class LdapConfiguration {
     @Property(name = "SearchTimeout", required = false, secure = false)
     private String searchTimeout = "5";
 
+    @Expose
+    @SerializedName("ConnectTimeout")
+    @Property(name = "ConnectTimeout", required = false, secure = false)
+    private String connectTimeout;
+
+    @Expose
+    @SerializedName("ResponseTimeout")
+    @Property(name = "ResponseTimeout", required = false, secure = false)
+    private String responseTimeout;
+
+    @Expose
+    @SerializedName("BindTimeout")
+    @Property(name = "BindTimeout", required = false, secure = false)
+    private String bindTimeout;
+
+    @Expose
+    @SerializedName("PoolMaxTotal")
+    @Property(name = "PoolMaxTotal", required = false, secure = false)
+    private String poolMaxTotal;
+
+    @Expose
+    @SerializedName("PoolMaxIdle")
+    @Property(name = "PoolMaxIdle", required = false, secure = false)
+    private String poolMaxIdle;
+
+    @Expose
+    @SerializedName("PoolMinIdle")
+    @Property(name = "PoolMinIdle", required = false, secure = false)
+    private String poolMinIdle;
+
+    @Expose
+    @SerializedName("PoolMaxWait")
+    @Property(name = "PoolMaxWait", required = false, secure = false)
+    private String poolMaxWait;
+
+    @Expose
+    @SerializedName("PoolMaxConnectionLifetime")
+    @Property(name = "PoolMaxConnectionLifetime", required = false, secure = false)
+    private String poolMaxConnectionLifetime;
+
+    @Expose
+    @SerializedName("PoolEvictionInterval")
+    @Property(name = "PoolEvictionInterval", required = false, secure = false)
+    private String poolEvictionInterval;
+
+    // the configuration is a key of several maps looked up on every request, and never changes once read
+    private transient int hashCode;
+
     public static LdapConfiguration fromJSON(String json) {
         return GSON.fromJson(json, LdapConfiguration.class);
     }
 
+    /**
+     * @return the configured urls separated by a space, which is also how JNDI expects a list of urls.
+     */
     public String getLdapUrlAsString() {
-        return ldapUrl;
+        return isBlank(ldapUrl) ? ldapUrl : String.join(" ", ldapUrls());
     }
 
+    /**
+     * @return the first configured url.
+     */
     public LdapUrl getLdapUrl() {
+        return ldapUrls().isEmpty() ? null : parse(ldapUrls().get(0));
+    }
+
+    /**
+     * @return the configured urls in the order they were configured, leaving out the ones which cannot be parsed.
+     */
+    public List<LdapUrl> getLdapUrls() {
+        final List<LdapUrl> ldapUrls = new ArrayList<>();
+        for (String url : ldapUrls()) {
+            final LdapUrl ldapUrl = parse(url);
+            if (ldapUrl != null) {
+                ldapUrls.add(ldapUrl);
+            }
+        }
+        return ldapUrls;
+    }
+
+    private List<String> ldapUrls() {
+        return isBlank(ldapUrl) ? Collections.emptyList() : Arrays.asList(ldapUrl.trim().split("\\s+"));
+    }
+
+    private static LdapUrl parse(String url) {
         try {
-            return new LdapUrl(ldapUrl);
+            return new LdapUrl(url);
         } catch (Exception e) {
             LOG.error("Error while parsing url", e);
         }
@@ -116,6 +212,22 @@ public class LdapConfiguration {
         return Util.encloseParentheses(this.userLoginFilter);
     }
 
+    /**
+     * @return the filter used to check that a user exists, which should match the username exactly. Defaults to the
+     * {@link #getUserLoginFilter() login filter}, so that every user who can log in is found.
+     */
+    public String getUserValidationFilter() {
+        return isBlank(this.userValidationFilter) ? getUserLoginFilter() : Util.encloseParentheses(this.userValidationFilter);
+    }
+
+    /**
+     * @return the filter selecting the users to keep in memory to answer user searches and checks without asking the
+     * server, or null when no users are kept in memory.
+     */
+    public String getUserMirrorFilter() {
+        return isBlank(this.userMirrorFilter) ? null : Util.encloseParentheses(this.userMirrorFilter);
+    }
+
     public String getUserSearchFilter() {
         return isBlank(this.userSearchFilter) ? DEFAULT_USER_SEARCH_FILTER : Util.encloseParentheses(this.userSearchFilter);
     }
@@ -139,6 +251,79 @@ public class LdapConfiguration {
         return Integer.parseInt(searchTimeout.trim());
     }
 
+    /**
+     * @return how long to wait for a connection to the server to be established.
+     */
+    public Duration getConnectTimeout() {
+        return Duration.ofSeconds(intValue("ConnectTimeout", connectTimeout, DEFAULT_CONNECT_TIMEOUT));
+    }
+
+    /**
+     * @return how long to wait for the server to answer a search before abandoning it. Searches are never abandoned
+     * before the server side {@link #getSearchTimeout() search timeout} has passed.
+     */
+    public Duration getResponseTimeout() {
+        return Duration.ofSeconds(intValue("ResponseTimeout", responseTimeout, DEFAULT_RESPONSE_TIMEOUT));
+    }
+
+    /**
+     * @return how long to wait for the server to answer a user bind before giving up on it.
+     */
+    public Duration getBindTimeout() {
+        return Duration.ofSeconds(intValue("BindTimeout", bindTimeout, DEFAULT_BIND_TIMEOUT));
+    }
+
+    public int getPoolMaxTotal() {
+        return intValue("PoolMaxTotal", poolMaxTotal, DEFAULT_POOL_MAX_TOTAL);
+    }
+
+    public int getPoolMaxIdle() {
+        return intValue("PoolMaxIdle", poolMaxIdle, Math.min(DEFAULT_POOL_MAX_IDLE, getPoolMaxTotal()));
+    }
+
+    public int getPoolMinIdle() {
+        return intValue("PoolMinIdle", poolMinIdle, DEFAULT_POOL_MIN_IDLE);
+    }
+
+    /**
+     * @return how long to wait for a pooled connection when all connections are in use, or null for the default.
+     */
+    public Duration getPoolMaxWait() {
+        return seconds("PoolMaxWait", poolMaxWait);
+    }
+
+    /**
+     * @return how long a pooled connection may be kept open in total, or null when connections may live forever.
+     */
+    public Duration getPoolMaxConnectionLifetime() {
+        return seconds("PoolMaxConnectionLifetime", poolMaxConnectionLifetime);
+    }
+
+    /**
+     * @return how often idle pooled connections are checked for eviction, or null when they are never checked.
+     */
+    public Duration getPoolEvictionInterval() {
+        return seconds("PoolEvictionInterval", poolEvictionInterval);
+    }
+
+    private static Duration seconds(String name, String value) {
+        final int seconds = intValue(name, value, -1);
+        return seconds < 0 ? null : Duration.ofSeconds(seconds);
+    }
+
+    private static int intValue(String name, String value, int defaultValue) {
+        if (isBlank(value)) {
+            return defaultValue;
+        }
+
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("Ignoring invalid value `" + value + "` for " + name + ", using the default instead.");
+            return defaultValue;
+        }
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -150,13 +335,31 @@ public class LdapConfiguration {
                 Objects.equals(password, that.password) &&
                 Objects.equals(userSearchFilter, that.userSearchFilter) &&
                 Objects.equals(userLoginFilter, that.userLoginFilter) &&
+                Objects.equals(userValidationFilter, that.userValidationFilter) &&
+                Objects.equals(userMirrorFilter, that.userMirrorFilter) &&
                 Objects.equals(displayNameAttribute, that.displayNameAttribute) &&
                 Objects.equals(emailAttribute, that.emailAttribute) &&
-                Objects.equals(searchTimeout, that.searchTimeout);
+                Objects.equals(searchTimeout, that.searchTimeout) &&
+                Objects.equals(connectTimeout, that.connectTimeout) &&
+                Objects.equals(responseTimeout, that.responseTimeout) &&
+                Objects.equals(bindTimeout, that.bindTimeout) &&
+                Objects.equals(poolMaxTotal, that.poolMaxTotal) &&
+                Objects.equals(poolMaxIdle, that.poolMaxIdle) &&
+                Objects.equals(poolMinIdle, that.poolMinIdle) &&
+                Objects.equals(poolMaxWait, that.poolMaxWait) &&
+                Objects.equals(poolMaxConnectionLifetime, that.poolMaxConnectionLifetime) &&
+                Objects.equals(poolEvictionInterval, that.poolEvictionInterval);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hash(ldapUrl, searchBases, managerDn, password, userSearchFilter, userLoginFilter, displayNameAttribute, emailAttribute, searchTimeout);
+        int hashCode = this.hashCode;
+        if (hashCode == 0) {
+            hashCode = Objects.hash(ldapUrl, searchBases, managerDn, password, userSearchFilter, userLoginFilter, userValidationFilter, userMirrorFilter, displayNameAttribute, emailAttribute, searchTimeout,
+                    connectTimeout, responseTimeout, bindTimeout,
+                    poolMaxTotal, poolMaxIdle, poolMinIdle, poolMaxWait, poolMaxConnectionLifetime, poolEvictionInterval);
+            this.hashCode = hashCode;
+        }
+        return hashCode;
     }
 }
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.validators;
+
+import cd.go.plugin.base.validation.ValidationResult;
+import cd.go.plugin.base.validation.Validator;
+
+import java.util.Map;
+
+import static cd.go.authentication.ldap.model.LdapConfiguration.DEFAULT_POOL_MAX_IDLE;
+import static cd.go.authentication.ldap.model.LdapConfiguration.DEFAULT_POOL_MAX_TOTAL;
+import static cd.go.authentication.ldap.model.LdapConfiguration.DEFAULT_POOL_MIN_IDLE;
+import static cd.go.authentication.ldap.utils.Util.isBlank;
+
+public class ConnectionPoolValidator implements Validator {
+    @Override
+    public ValidationResult validate(Map<String, String> authConfigAsMap) {
+        ValidationResult validationResult = new ValidationResult();
+
+        final Integer maxTotal = validateNumber(authConfigAsMap, "PoolMaxTotal", 1, DEFAULT_POOL_MAX_TOTAL, validationResult);
+        final Integer maxIdle = validateNumber(authConfigAsMap, "PoolMaxIdle", 0, maxTotal == null ? DEFAULT_POOL_MAX_IDLE : Math.min(DEFAULT_POOL_MAX_IDLE, maxTotal), validationResult);
+        final Integer minIdle = validateNumber(authConfigAsMap, "PoolMinIdle", 0, DEFAULT_POOL_MIN_IDLE, validationResult);
+        validateNumber(authConfigAsMap, "PoolMaxWait", 0, 0, validationResult);
+        validateNumber(authConfigAsMap, "PoolMaxConnectionLifetime", 1, 1, validationResult);
+        validateNumber(authConfigAsMap, "PoolEvictionInterval", 1, 1, validationResult);
+
+        if (maxTotal != null && maxIdle != null && maxIdle > maxTotal) {
+            validationResult.add("PoolMaxIdle", "PoolMaxIdle cannot be greater than PoolMaxTotal.");
+        }
+
+        if (maxIdle != null && minIdle != null && minIdle > maxIdle) {
+            validationResult.add("PoolMinIdle", "PoolMinIdle cannot be greater than PoolMaxIdle.");
+        }
+
+        return validationResult;
+    }
+
+    private static Integer validateNumber(Map<String, String> authConfigAsMap, String key, int minimum, int defaultValue, ValidationResult validationResult) {
+        final String value = authConfigAsMap.get(key);
+        if (isBlank(value)) {
+            return defaultValue;
+        }
+
+        try {
+            final int number = Integer.parseInt(value.trim());
+            if (number >= minimum) {
+                return number;
+            }
+        } catch (NumberFormatException ignored) {
+        }
+
+        validationResult.add(key, key + " must be a whole number greater than or equal to " + minimum + ".");
+        return null;
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.validators;
+
+import cd.go.plugin.base.validation.ValidationResult;
+import cd.go.plugin.base.validation.Validator;
+
+import java.util.Map;
+
+import static cd.go.authentication.ldap.utils.Util.isBlank;
+
+public class TimeoutValidator implements Validator {
+    private static final String[] TIMEOUTS = {"ConnectTimeout", "ResponseTimeout", "BindTimeout"};
+
+    @Override
+    public ValidationResult validate(Map<String, String> authConfigAsMap) {
+        ValidationResult validationResult = new ValidationResult();
+
+        for (String key : TIMEOUTS) {
+            final String value = authConfigAsMap.get(key);
+            if (!isBlank(value) && !isPositiveNumber(value)) {
+                validationResult.add(key, key + " must be a whole number of seconds greater than 0.");
+            }
+        }
+
+        return validationResult;
+    }
+
+    private static boolean isPositiveNumber(String value) {
+        try {
+            return Integer.parseInt(value.trim()) > 0;
+        } catch (NumberFormatException e) {
+            return false;
+        }
+    }
+}
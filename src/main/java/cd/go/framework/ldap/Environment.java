@@ -25,6 +25,8 @@ public class Environment {
 
     private static final String AUTHENTICATION_TYPE = "simple";
     private static final String LDAP_LDAP_CTX_FACTORY = "com.sun.jndi.ldap.LdapCtxFactory";
+    static final String CONNECT_TIMEOUT = "com.sun.jndi.ldap.connect.timeout";
+    static final String READ_TIMEOUT = "com.sun.jndi.ldap.read.timeout";
 
     private LdapConfiguration ldapConfiguration;
 
@@ -32,11 +34,20 @@ public class Environment {
         this.ldapConfiguration = ldapConfiguration;
     }
 
-    public Hashtable getEnvironments() {
+    public Hashtable<String, Object> getEnvironments() {
         Hashtable<String, Object> environments = new Hashtable<>(10);
         environments.put(Context.INITIAL_CONTEXT_FACTORY, LDAP_LDAP_CTX_FACTORY);
         environments.put(Context.PROVIDER_URL, ldapConfiguration.getLdapUrlAsString());
         environments.put(Context.SECURITY_AUTHENTICATION, AUTHENTICATION_TYPE);
+        environments.put(CONNECT_TIMEOUT, String.valueOf(ldapConfiguration.getConnectTimeout().toMillis()));
+        // JNDI abandons a request whose response does not arrive in time, but never before the search time limit passed
+        environments.put(READ_TIMEOUT, String.valueOf(Math.max(ldapConfiguration.getResponseTimeout().toMillis(), ldapConfiguration.getSearchTimeout() * 1000L)));
+        return environments;
+    }
+
+    public Hashtable<String, Object> getBindEnvironments() {
+        final Hashtable<String, Object> environments = getEnvironments();
+        environments.put(READ_TIMEOUT, String.valueOf(ldapConfiguration.getBindTimeout().toMillis()));
         return environments;
     }
 }
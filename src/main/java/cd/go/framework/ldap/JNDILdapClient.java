@@ -17,20 +17,26 @@
 package cd.go.framework.ldap;
 
 import cd.go.authentication.ldap.LdapClient;
+import cd.go.authentication.ldap.cache.UserEntryCache;
 import cd.go.authentication.ldap.exception.LdapException;
 import cd.go.authentication.ldap.exception.MultipleUserDetectedException;
+import cd.go.authentication.ldap.exception.UserNotFoundException;
 import cd.go.authentication.ldap.mapper.Mapper;
 import cd.go.authentication.ldap.mapper.ResultWrapper;
 import cd.go.authentication.ldap.model.LdapConfiguration;
 
+import javax.naming.InvalidNameException;
+import javax.naming.NameNotFoundException;
 import javax.naming.NamingEnumeration;
 import javax.naming.NamingException;
 import javax.naming.directory.*;
-import java.util.ArrayList;
-import java.util.Hashtable;
-import java.util.List;
+import javax.naming.ldap.*;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Consumer;
 
 import static cd.go.authentication.ldap.LdapPlugin.LOG;
+import static cd.go.authentication.ldap.PluginSystemProperty.userEntryCacheTtl;
 import static cd.go.authentication.ldap.utils.Util.isNotBlank;
 import static java.text.MessageFormat.format;
 import static javax.naming.Context.SECURITY_CREDENTIALS;
@@ -39,6 +45,7 @@ import static javax.naming.Context.SECURITY_PRINCIPAL;
 public class JNDILdapClient implements LdapClient {
     private LdapConfiguration ldapConfiguration;
     private final int MAX_AUTHENTICATION_RESULT = 1;
+    private final UserEntryCache<Attributes> userEntries = new UserEntryCache<>(userEntryCacheTtl());
 
     public JNDILdapClient(LdapConfiguration ldapConfiguration) {
         this.ldapConfiguration = ldapConfiguration;
@@ -46,22 +53,49 @@ public class JNDILdapClient implements LdapClient {
 
     @Override
     public <T> T authenticate(String username, String password, Mapper<T> mapper) {
+        final Attributes cachedAttributes = userEntries.get(username);
+        if (cachedAttributes != null) {
+            try {
+                authenticate(ldapConfiguration, userDn(cachedAttributes), password);
+                return mapper.mapObject(new ResultWrapper(cachedAttributes));
+            } catch (NamingException | RuntimeException e) {
+                userEntries.invalidate(username);
+                if (!isUnknownDn(e)) {
+                    throw e instanceof NamingException ? new LdapException(e) : (RuntimeException) e;
+                }
+                LOG.debug(format("Cached dn `{0}` of user `{1}` no longer exists, searching for the user again.", userDn(cachedAttributes), username));
+            }
+        }
+
+        final Attributes attributes = findUserAttributes(username, mapper);
+        try {
+            authenticate(ldapConfiguration, userDn(attributes), password);
+        } catch (NamingException e) {
+            throw new LdapException(e);
+        }
+        userEntries.put(username, attributes);
+        return mapper.mapObject(new ResultWrapper(attributes));
+    }
+
+    @Override
+    public void findUser(String username, Mapper<?> mapper) {
+        userEntries.put(username, findUserAttributes(username, mapper));
+    }
+
+    private Attributes findUserAttributes(String username, Mapper<?> mapper) {
         DirContext dirContext = getDirContext(ldapConfiguration, ldapConfiguration.getManagerDn(), ldapConfiguration.getPassword());
 
         try {
-            List<SearchResult> results = search(dirContext, ldapConfiguration.getUserLoginFilter(), new String[]{username}, MAX_AUTHENTICATION_RESULT, true);
+            List<SearchResult> results = search(dirContext, ldapConfiguration.getUserLoginFilter(), new String[]{username}, MAX_AUTHENTICATION_RESULT, mapper.requiredAttributes(), true);
 
             if (results.isEmpty()) {
-                throw new RuntimeException(format("User {0} does not exist in {1}", username, ldapConfiguration.getLdapUrlAsString()));
+                throw new UserNotFoundException(username, ldapConfiguration.getLdapUrlAsString());
             }
 
             SearchResult searchResult = results.get(0);
             Attributes attributes = searchResult.getAttributes();
-            String userDn = searchResult.getNameInNamespace();
-            attributes.put(new BasicAttribute("dn", userDn));
-            authenticate(ldapConfiguration, userDn, password);
-            return mapper.mapObject(new ResultWrapper(attributes));
-
+            attributes.put(new BasicAttribute("dn", searchResult.getNameInNamespace()));
+            return attributes;
         } catch (SearchResultLimitExceededException e) {
             throw new MultipleUserDetectedException(username, e.getSearchBase(), ldapConfiguration.getUserLoginFilter());
         } catch (NamingException e) {
@@ -71,12 +105,32 @@ public class JNDILdapClient implements LdapClient {
         }
     }
 
+    private static String userDn(Attributes attributes) {
+        try {
+            return (String) attributes.get("dn").get();
+        } catch (NamingException e) {
+            throw new LdapException(e);
+        }
+    }
+
+    /**
+     * @return true when a bind failed because the DN of the user does not exist (any more).
+     */
+    static boolean isUnknownDn(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof NameNotFoundException || cause instanceof InvalidNameException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     public <T> List<T> search(String filter, String[] filterArgs, Mapper<T> mapper, int maxResult) {
         List<T> results = new ArrayList<>();
         DirContext dirContext = getDirContext(ldapConfiguration, ldapConfiguration.getManagerDn(), ldapConfiguration.getPassword());
 
         try {
-            List<SearchResult> searchResults = search(dirContext, filter, filterArgs, maxResult, false);
+            List<SearchResult> searchResults = search(dirContext, filter, filterArgs, maxResult, mapper.requiredAttributes(), false);
 
             for (SearchResult result : searchResults) {
                 results.add(mapper.mapObject(new ResultWrapper(result.getAttributes())));
@@ -90,8 +144,72 @@ public class JNDILdapClient implements LdapClient {
         return results;
     }
 
+    /**
+     * Same as {@link #search}, which already fails when a search base could not be searched.
+     */
+    @Override
+    public <T> List<T> searchCompletely(String filter, String[] filterArgs, Mapper<T> mapper, int maxResult) {
+        return search(filter, filterArgs, mapper, maxResult);
+    }
+
+    @Override
+    public <T> List<T> searchAll(String filter, Mapper<T> mapper, int pageSize, Consumer<String> answeredBy) {
+        final Map<String, T> results = new LinkedHashMap<>();
+        final Hashtable<String, Object> environments = new Environment(ldapConfiguration).getEnvironments();
+        if (isNotBlank(ldapConfiguration.getManagerDn())) {
+            environments.put(SECURITY_PRINCIPAL, ldapConfiguration.getManagerDn());
+            environments.put(SECURITY_CREDENTIALS, ldapConfiguration.getPassword());
+        }
+
+        LdapContext context = null;
+        try {
+            context = new InitialLdapContext(environments, null);
+            for (String base : ldapConfiguration.getSearchBases()) {
+                byte[] cookie = null;
+                do {
+                    context.setRequestControls(new Control[]{new PagedResultsControl(pageSize, cookie, Control.CRITICAL)});
+                    NamingEnumeration<SearchResult> searchResults = null;
+                    try {
+                        searchResults = context.search(base, filter, getSimpleSearchControls(0, ldapConfiguration.getSearchTimeout(), mapper.requiredAttributes()));
+                        while (searchResults.hasMore()) {
+                            final SearchResult searchResult = searchResults.next();
+                            final Attributes attributes = searchResult.getAttributes();
+                            attributes.put(new BasicAttribute("dn", searchResult.getNameInNamespace()));
+                            results.putIfAbsent(searchResult.getNameInNamespace(), mapper.mapObject(new ResultWrapper(attributes)));
+                        }
+                        cookie = pagedResultsCookie(context.getResponseControls());
+                    } finally {
+                        closeNamingEnumerationSilently(searchResults);
+                    }
+                } while (cookie != null && cookie.length > 0);
+            }
+        } catch (NamingException | IOException e) {
+            throw new LdapException(e);
+        } finally {
+            closeContextSilently(context);
+        }
+
+        // JNDI does not tell which of the urls it connected to
+        answeredBy.accept(ldapConfiguration.getLdapUrlAsString());
+        return new ArrayList<>(results.values());
+    }
+
+    private static byte[] pagedResultsCookie(Control[] responseControls) {
+        if (responseControls != null) {
+            for (Control control : responseControls) {
+                if (control instanceof PagedResultsResponseControl) {
+                    return ((PagedResultsResponseControl) control).getCookie();
+                }
+            }
+        }
+        return null;
+    }
+
     private final DirContext getDirContext(LdapConfiguration ldapConfiguration, String username, String password) {
-        Hashtable<String, Object> environments = new Environment(ldapConfiguration).getEnvironments();
+        return getDirContext(new Environment(ldapConfiguration).getEnvironments(), username, password);
+    }
+
+    private DirContext getDirContext(Hashtable<String, Object> environments, String username, String password) {
         if (isNotBlank(username)) {
             environments.put(SECURITY_PRINCIPAL, username);
             environments.put(SECURITY_CREDENTIALS, password);
@@ -109,7 +227,7 @@ public class JNDILdapClient implements LdapClient {
         return context;
     }
 
-    private List<SearchResult> search(DirContext context, String filter, Object[] filterArgs, int maxResult, boolean isHardLimitOnMaxResult) throws NamingException {
+    private List<SearchResult> search(DirContext context, String filter, Object[] filterArgs, int maxResult, String[] attributes, boolean isHardLimitOnMaxResult) throws NamingException {
         final List<SearchResult> results = new ArrayList<>();
 
         if (maxResult == 0) {
@@ -119,7 +237,7 @@ public class JNDILdapClient implements LdapClient {
         for (String base : ldapConfiguration.getSearchBases()) {
             final int remainingResultCount = maxResult - results.size();
 
-            final List<SearchResult> searchResultsFromSearchBase = searchInBase(context, base, filter, filterArgs, remainingResultCount, isHardLimitOnMaxResult);
+            final List<SearchResult> searchResultsFromSearchBase = searchInBase(context, base, filter, filterArgs, remainingResultCount, attributes, isHardLimitOnMaxResult);
             results.addAll(searchResultsFromSearchBase);
 
             if (results.size() >= maxResult) {
@@ -130,7 +248,7 @@ public class JNDILdapClient implements LdapClient {
         return results;
     }
 
-    private List<SearchResult> searchInBase(DirContext context, String base, String filter, Object[] filterArgs, int maxResult, boolean isHardLimitOnMaxResult) throws NamingException {
+    private List<SearchResult> searchInBase(DirContext context, String base, String filter, Object[] filterArgs, int maxResult, String[] attributes, boolean isHardLimitOnMaxResult) throws NamingException {
         final List<SearchResult> results = new ArrayList<>();
 
         if (maxResult == 0) {
@@ -140,7 +258,7 @@ public class JNDILdapClient implements LdapClient {
         NamingEnumeration<SearchResult> searchResults = null;
         try {
             LOG.debug(format("Searching user in search base {0} using search filter {1}.", base, filter));
-            searchResults = context.search(base, filter, filterArgs, getSimpleSearchControls(maxResult));
+            searchResults = context.search(base, filter, filterArgs, getSimpleSearchControls(maxResult, ldapConfiguration.getSearchTimeout(), attributes));
             while (searchResults.hasMoreElements() && results.size() < maxResult) {
                 results.add(searchResults.next());
             }
@@ -155,17 +273,25 @@ public class JNDILdapClient implements LdapClient {
     }
 
     private void authenticate(LdapConfiguration ldapConfiguration, String username, String password) throws NamingException {
-        closeContextSilently(getDirContext(ldapConfiguration, username, password));
+        closeContextSilently(getDirContext(new Environment(ldapConfiguration).getBindEnvironments(), username, password));
     }
 
     public void validate() throws NamingException {
-        authenticate(ldapConfiguration, ldapConfiguration.getManagerDn(), ldapConfiguration.getPassword());
+        closeContextSilently(getDirContext(ldapConfiguration, ldapConfiguration.getManagerDn(), ldapConfiguration.getPassword()));
+    }
+
+    @Override
+    public void close() {
+        // every operation opens and closes its own context, so there is nothing to release
     }
 
-    private static SearchControls getSimpleSearchControls(int maxResult) {
+    private static SearchControls getSimpleSearchControls(int maxResult, int searchTimeoutInSeconds, String[] attributes) {
         SearchControls searchControls = new SearchControls();
+        if (!Arrays.asList(attributes).contains(Mapper.ALL_ATTRIBUTES)) {
+            searchControls.setReturningAttributes(attributes);
+        }
         searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
-        searchControls.setTimeLimit(5000);
+        searchControls.setTimeLimit(searchTimeoutInSeconds * 1000);
         if (maxResult != 0) {
             searchControls.setCountLimit(maxResult);
         }
@@ -16,25 +16,47 @@
 
 package cd.go.apacheds;
 
+import cd.go.apacheds.pool.CircuitBreaker;
+import cd.go.apacheds.pool.ServerHealth;
+import cd.go.authentication.ldap.exception.CircuitBreakerOpenException;
+import cd.go.authentication.ldap.exception.ConnectionPoolExhaustedException;
+import cd.go.authentication.ldap.exception.LdapException;
+import cd.go.authentication.ldap.mapper.UserMapper;
+import cd.go.authentication.ldap.mapper.UsernameResolver;
 import cd.go.authentication.ldap.model.LdapConfiguration;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
 import org.apache.directory.api.ldap.model.entry.DefaultEntry;
 import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.exception.LdapNoSuchObjectException;
+import org.apache.directory.api.ldap.model.exception.LdapOperationException;
 import org.apache.directory.api.ldap.model.filter.FilterParser;
-import org.apache.directory.api.ldap.model.message.SearchRequest;
-import org.apache.directory.api.ldap.model.message.SearchRequestImpl;
-import org.apache.directory.api.ldap.model.message.SearchScope;
+import org.apache.directory.api.ldap.model.message.*;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapAsyncConnection;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.apache.directory.ldap.client.api.LdapConnectionPool;
+import org.apache.directory.ldap.client.api.future.BindFuture;
+import org.apache.directory.ldap.client.template.ConnectionCallback;
 import org.apache.directory.ldap.client.template.EntryMapper;
 import org.apache.directory.ldap.client.template.LdapConnectionTemplate;
+import org.apache.directory.ldap.client.template.exception.LdapRuntimeException;
 import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.mockito.ArgumentMatchers;
+import org.mockito.stubbing.Answer;
 
 import java.text.ParseException;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
@@ -47,7 +69,7 @@ class ApacheDsLdapClientTest {
                 .withSearchBases("ou=foo,dc=bar")
                 .build();
 
-        final LdapConnectionTemplate ldapConnectionTemplate = mock(LdapConnectionTemplate.class);
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
         final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate);
         final ArgumentCaptor<SearchRequest> argumentCaptor = ArgumentCaptor.forClass(SearchRequestImpl.class);
 
@@ -65,6 +87,38 @@ class ApacheDsLdapClientTest {
         assertThat(searchRequest.getTimeLimit()).isEqualTo(10);
     }
 
+    @Test
+    void shouldRequestOnlyTheAttributesTheMapperNeeds() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate);
+        final ArgumentCaptor<SearchRequest> argumentCaptor = ArgumentCaptor.forClass(SearchRequestImpl.class);
+
+        when(ldapConnectionTemplate.search(argumentCaptor.capture(), ArgumentMatchers.<EntryMapper<Entry>>any())).thenReturn(Collections.emptyList());
+
+        ldap.search("(uid={0})", new String[]{"foo"}, new UserMapper(new UsernameResolver(), "displayName", "mail"), 1);
+
+        assertThat(argumentCaptor.getValue().getAttributes()).containsExactly("sAMAccountName", "uid", "displayName", "mail");
+    }
+
+    @Test
+    void authenticate_shouldRequestOnlyTheAttributesTheMapperNeeds() throws Exception {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final LdapConnectionPool bindConnectionPool = mock(LdapConnectionPool.class);
+        final LdapConnection connection = mock(LdapConnection.class);
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate, bindConnectionPool);
+        final ArgumentCaptor<SearchRequest> argumentCaptor = ArgumentCaptor.forClass(SearchRequestImpl.class);
+
+        when(ldapConnectionTemplate.search(argumentCaptor.capture(), ArgumentMatchers.<EntryMapper<Entry>>any())).thenReturn(Collections.singletonList(new DefaultEntry("uid=bford,ou=system")));
+        when(bindConnectionPool.getConnection()).thenReturn(connection);
+        when(connection.bind(any(BindRequest.class))).thenReturn(bindResponse(ResultCodeEnum.SUCCESS));
+
+        ldap.authenticate("bford", "bob", new UserMapper(new UsernameResolver("bford"), "cn", "mail"));
+
+        assertThat(argumentCaptor.getValue().getAttributes()).containsExactly("cn", "mail");
+    }
+
     @Test
     void shouldEscapeSearchFilterValues() throws ParseException {
         final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
@@ -72,7 +126,7 @@ class ApacheDsLdapClientTest {
                 .withSearchBases("ou=foo,dc=bar")
                 .build();
 
-        final LdapConnectionTemplate ldapConnectionTemplate = mock(LdapConnectionTemplate.class);
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
         final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate);
         final ArgumentCaptor<SearchRequest> argumentCaptor = ArgumentCaptor.forClass(SearchRequestImpl.class);
 
@@ -91,22 +145,17 @@ class ApacheDsLdapClientTest {
                 .withSearchBases("ou=foo,dc=bar", "ou=baz,dc=bar")
                 .build();
 
-        final LdapConnectionTemplate ldapConnectionTemplate = mock(LdapConnectionTemplate.class);
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
         final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate);
         final ArgumentCaptor<SearchRequest> argumentCaptor = ArgumentCaptor.forClass(SearchRequestImpl.class);
 
-        when(ldapConnectionTemplate.search(argumentCaptor.capture(), ArgumentMatchers.<EntryMapper<Entry>>any()))
-                .thenReturn(Collections.singletonList(new DefaultEntry()))
-                .thenReturn(Collections.singletonList(new DefaultEntry()));
-
+        when(ldapConnectionTemplate.search(argumentCaptor.capture(), ArgumentMatchers.<EntryMapper<Entry>>any())).thenAnswer(entryUnderSearchBase("uid=foo"));
 
         final List<Entry> entries = ldap.search("(uid={0})", new String[]{"foo"}, 0);
 
-        final List<SearchRequest> searchRequests = argumentCaptor.getAllValues();
-
-        assertThat(entries).hasSize(2);
-        assertThat(searchRequests.get(0).getBase()).isEqualTo("ou=foo,dc=bar");
-        assertThat(searchRequests.get(1).getBase()).isEqualTo("ou=baz,dc=bar");
+        assertThat(entries).extracting(entry -> entry.getDn().getName()).containsExactly("uid=foo,ou=foo,dc=bar", "uid=foo,ou=baz,dc=bar");
+        assertThat(argumentCaptor.getAllValues()).extracting(SearchRequest::getBase).extracting(Dn::getName)
+                .containsExactlyInAnyOrder("ou=foo,dc=bar", "ou=baz,dc=bar");
     }
 
     @Test
@@ -115,20 +164,55 @@ class ApacheDsLdapClientTest {
                 .withSearchBases("ou=foo,dc=bar", "ou=baz,dc=bar")
                 .build();
 
-        final LdapConnectionTemplate ldapConnectionTemplate = mock(LdapConnectionTemplate.class);
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
         final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate);
         final ArgumentCaptor<SearchRequest> argumentCaptor = ArgumentCaptor.forClass(SearchRequestImpl.class);
 
-        when(ldapConnectionTemplate.search(argumentCaptor.capture(), ArgumentMatchers.<EntryMapper<Entry>>any()))
-                .thenReturn(Arrays.asList(new DefaultEntry()));
+        when(ldapConnectionTemplate.search(argumentCaptor.capture(), ArgumentMatchers.<EntryMapper<Entry>>any())).thenAnswer(entryUnderSearchBase("uid=foo"));
 
         final List<Entry> entries = ldap.search("(uid={0})", new String[]{"foo"}, 1);
 
-        final List<SearchRequest> searchRequests = argumentCaptor.getAllValues();
+        assertThat(entries).extracting(entry -> entry.getDn().getName()).containsExactly("uid=foo,ou=foo,dc=bar");
+        assertThat(argumentCaptor.getAllValues()).allSatisfy(searchRequest -> assertThat(searchRequest.getSizeLimit()).isEqualTo(1L));
+    }
+
+    @Test
+    void shouldReturnEntryFoundUnderOverlappingSearchBasesOnlyOnce() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withSearchBases("dc=bar", "ou=foo,dc=bar")
+                .build();
+
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate);
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any()))
+                .thenAnswer(invocation -> Collections.singletonList(new DefaultEntry("uid=bford,ou=foo,dc=bar")));
+
+        final List<Entry> entries = ldap.search("(uid={0})", new String[]{"bford"}, 0);
+
+        assertThat(entries).extracting(entry -> entry.getDn().getName()).containsExactly("uid=bford,ou=foo,dc=bar");
+        verify(ldapConnectionTemplate, times(2)).search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any());
+    }
+
+    @Test
+    void shouldSearchAllSearchBasesAtTheSameTime() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withSearchBases("ou=foo,dc=bar", "ou=baz,dc=bar")
+                .build();
+
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate);
+        final CountDownLatch bothSearchesStarted = new CountDownLatch(2);
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenAnswer(invocation -> {
+            bothSearchesStarted.countDown();
+            assertThat(bothSearchesStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            return entryUnderSearchBase("uid=foo").answer(invocation);
+        });
 
-        assertThat(entries).hasSize(1);
-        assertThat(searchRequests).hasSize(1);
-        assertThat(searchRequests.get(0).getBase()).isEqualTo("ou=foo,dc=bar");
+        final List<Entry> entries = ldap.search("(uid={0})", new String[]{"foo"}, 0);
+
+        assertThat(entries).hasSize(2);
     }
 
     @Test
@@ -136,7 +220,7 @@ class ApacheDsLdapClientTest {
         final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
                 .build();
 
-        final LdapConnectionTemplate ldapConnectionTemplate = mock(LdapConnectionTemplate.class);
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
         final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate);
         final ArgumentCaptor<SearchRequest> argumentCaptor = ArgumentCaptor.forClass(SearchRequestImpl.class);
 
@@ -157,22 +241,17 @@ class ApacheDsLdapClientTest {
     void searchGroups_shouldAbleToFetchResultsFromMultipleSearchBase() {
         final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
 
-        final LdapConnectionTemplate ldapConnectionTemplate = mock(LdapConnectionTemplate.class);
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
         final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate);
         final ArgumentCaptor<SearchRequest> argumentCaptor = ArgumentCaptor.forClass(SearchRequestImpl.class);
 
-        when(ldapConnectionTemplate.search(argumentCaptor.capture(), ArgumentMatchers.<EntryMapper<Entry>>any()))
-                .thenReturn(Collections.singletonList(new DefaultEntry()))
-                .thenReturn(Collections.singletonList(new DefaultEntry()));
-
+        when(ldapConnectionTemplate.search(argumentCaptor.capture(), ArgumentMatchers.<EntryMapper<Entry>>any())).thenAnswer(entryUnderSearchBase("cn=admins"));
 
         final List<Entry> entries = ldap.searchGroup(Arrays.asList("ou=foo,dc=bar", "ou=baz,dc=bar"), "(member=admin)", resultWrapper -> (Entry) resultWrapper.getResult());
 
-        final List<SearchRequest> searchRequests = argumentCaptor.getAllValues();
-
-        assertThat(entries).hasSize(2);
-        assertThat(searchRequests.get(0).getBase()).isEqualTo("ou=foo,dc=bar");
-        assertThat(searchRequests.get(1).getBase()).isEqualTo("ou=baz,dc=bar");
+        assertThat(entries).extracting(entry -> entry.getDn().getName()).containsExactly("cn=admins,ou=foo,dc=bar", "cn=admins,ou=baz,dc=bar");
+        assertThat(argumentCaptor.getAllValues()).extracting(SearchRequest::getBase).extracting(Dn::getName)
+                .containsExactlyInAnyOrder("ou=foo,dc=bar", "ou=baz,dc=bar");
     }
 
     @Test
@@ -180,7 +259,7 @@ class ApacheDsLdapClientTest {
         final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
                 .withSearchBases("ou=foo,dc=bar").build();
 
-        final LdapConnectionTemplate ldapConnectionTemplate = mock(LdapConnectionTemplate.class);
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
         final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate);
 
         ldap.validate();
@@ -192,4 +271,434 @@ class ApacheDsLdapClientTest {
                 ArgumentMatchers.<EntryMapper<Entry>>any()
         );
     }
-}
\ No newline at end of file
+
+    @Test
+    void authenticate_shouldBindUsingPooledConnectionAndReleaseItOnSuccess() throws Exception {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final LdapConnectionPool bindConnectionPool = mock(LdapConnectionPool.class);
+        final LdapConnection connection = mock(LdapConnection.class);
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate, bindConnectionPool);
+        final Entry entry = new DefaultEntry("uid=bford,ou=system");
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenReturn(Collections.singletonList(entry));
+        when(bindConnectionPool.getConnection()).thenReturn(connection);
+        when(connection.bind(any(BindRequest.class))).thenReturn(bindResponse(ResultCodeEnum.SUCCESS));
+
+        final Entry authenticated = ldap.authenticate("bford", "bob", resultWrapper -> (Entry) resultWrapper.getResult());
+
+        assertThat(authenticated).isEqualTo(entry);
+        final ArgumentCaptor<BindRequest> bindRequestCaptor = ArgumentCaptor.forClass(BindRequest.class);
+        verify(connection).bind(bindRequestCaptor.capture());
+        assertThat(bindRequestCaptor.getValue().getName()).isEqualTo("uid=bford,ou=system");
+        verify(bindConnectionPool).releaseConnection(connection);
+        verify(bindConnectionPool, never()).invalidateObject(connection);
+    }
+
+    @Test
+    void authenticate_shouldInvalidatePooledConnectionWhenBindFails() throws Exception {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final LdapConnectionPool bindConnectionPool = mock(LdapConnectionPool.class);
+        final LdapConnection connection = mock(LdapConnection.class);
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate, bindConnectionPool);
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenReturn(Collections.singletonList(new DefaultEntry("uid=bford,ou=system")));
+        when(bindConnectionPool.getConnection()).thenReturn(connection);
+        when(connection.bind(any(BindRequest.class))).thenReturn(bindResponse(ResultCodeEnum.INVALID_CREDENTIALS));
+
+        assertThatCode(() -> ldap.authenticate("bford", "wrong-password", resultWrapper -> resultWrapper.getResult()))
+                .isInstanceOf(LdapException.class)
+                .hasMessageContaining("Failed to authenticate user `bford`");
+
+        verify(bindConnectionPool).invalidateObject(connection);
+        verify(bindConnectionPool, never()).releaseConnection(connection);
+    }
+
+    @Test
+    void search_shouldReturnResultsFoundSoFarWhenConnectionPoolIsExhausted() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withSearchBases("ou=foo,dc=bar", "ou=baz,dc=bar", "ou=qux,dc=bar")
+                .build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate);
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenAnswer(invocation -> {
+            if (invocation.<SearchRequest>getArgument(0).getBase().getName().equals("ou=baz,dc=bar")) {
+                throw new ConnectionPoolExhaustedException("exhausted");
+            }
+            return entryUnderSearchBase("uid=foo").answer(invocation);
+        });
+
+        final List<Entry> entries = ldap.search("(uid={0})", new String[]{"foo"}, 0);
+
+        assertThat(entries).extracting(entry -> entry.getDn().getName()).containsExactly("uid=foo,ou=foo,dc=bar", "uid=foo,ou=qux,dc=bar");
+        verify(ldapConnectionTemplate, times(3)).search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any());
+    }
+
+    @Test
+    void searchCompletely_shouldFailWhenConnectionPoolIsExhausted() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withSearchBases("ou=foo,dc=bar", "ou=baz,dc=bar")
+                .build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate);
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenAnswer(invocation -> {
+            if (invocation.<SearchRequest>getArgument(0).getBase().getName().equals("ou=baz,dc=bar")) {
+                throw new ConnectionPoolExhaustedException("exhausted");
+            }
+            return Collections.emptyList();
+        });
+
+        assertThatCode(() -> ldap.searchCompletely("(uid={0})", new String[]{"foo"}, resultWrapper -> resultWrapper.getResult(), 2))
+                .isInstanceOf(ConnectionPoolExhaustedException.class);
+    }
+
+    @Test
+    void authenticate_shouldNotTreatUserAsMissingWhenConnectionPoolIsExhausted() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withSearchBases("ou=foo,dc=bar", "ou=baz,dc=bar")
+                .build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate, mock(LdapConnectionPool.class));
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any()))
+                .thenReturn(Collections.emptyList())
+                .thenThrow(new ConnectionPoolExhaustedException("exhausted"));
+
+        assertThatCode(() -> ldap.authenticate("bford", "bob", resultWrapper -> resultWrapper.getResult()))
+                .isInstanceOf(ConnectionPoolExhaustedException.class);
+    }
+
+    @Test
+    void authenticate_shouldPropagateExhaustionOfBindConnectionPool() throws Exception {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final LdapConnectionPool bindConnectionPool = mock(LdapConnectionPool.class);
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate, bindConnectionPool);
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenReturn(Collections.singletonList(new DefaultEntry("uid=bford,ou=system")));
+        when(bindConnectionPool.getConnection()).thenThrow(new ConnectionPoolExhaustedException("exhausted"));
+
+        assertThatCode(() -> ldap.authenticate("bford", "bob", resultWrapper -> resultWrapper.getResult()))
+                .isInstanceOf(ConnectionPoolExhaustedException.class);
+    }
+
+    @Test
+    void authenticate_shouldAbandonBindAndInvalidateConnectionWhenServerDoesNotRespondInTime() throws Exception {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().withBindTimeout("1").build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final LdapConnectionPool bindConnectionPool = mock(LdapConnectionPool.class);
+        final LdapAsyncConnection connection = mock(LdapAsyncConnection.class);
+        final BindFuture bindFuture = mock(BindFuture.class);
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate, bindConnectionPool);
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenReturn(Collections.singletonList(new DefaultEntry("uid=bford,ou=system")));
+        when(bindConnectionPool.getConnection()).thenReturn(connection);
+        when(connection.bindAsync(any(BindRequest.class))).thenReturn(bindFuture);
+        when(bindFuture.get(1000L, TimeUnit.MILLISECONDS)).thenReturn(null);
+
+        assertThatCode(() -> ldap.authenticate("bford", "bob", resultWrapper -> resultWrapper.getResult()))
+                .isInstanceOf(LdapException.class);
+
+        verify(bindFuture).cancel(true);
+        verify(connection, never()).bind(any(BindRequest.class));
+        verify(bindConnectionPool).invalidateObject(connection);
+        verify(bindConnectionPool, never()).releaseConnection(connection);
+    }
+
+    @Test
+    void authenticate_shouldWaitForBindResponseUpToBindTimeout() throws Exception {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final LdapConnectionPool bindConnectionPool = mock(LdapConnectionPool.class);
+        final LdapAsyncConnection connection = mock(LdapAsyncConnection.class);
+        final BindFuture bindFuture = mock(BindFuture.class);
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate, bindConnectionPool);
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenReturn(Collections.singletonList(new DefaultEntry("uid=bford,ou=system")));
+        when(bindConnectionPool.getConnection()).thenReturn(connection);
+        when(connection.bindAsync(any(BindRequest.class))).thenReturn(bindFuture);
+        when(bindFuture.get(10_000L, TimeUnit.MILLISECONDS)).thenReturn(bindResponse(ResultCodeEnum.SUCCESS));
+
+        ldap.authenticate("bford", "bob", resultWrapper -> resultWrapper.getResult());
+
+        verify(bindFuture, never()).cancel(true);
+        verify(bindConnectionPool).releaseConnection(connection);
+    }
+
+    @Test
+    void search_shouldRetryOnNextServerWhenServerCannotBeReached() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate unreachable = connectionTemplate();
+        final LdapConnectionTemplate reachable = connectionTemplate();
+        final ServerHealth unreachableHealth = new ServerHealth();
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, List.of(
+                directoryServer("ldap://first", unreachable, null, unreachableHealth),
+                directoryServer("ldap://second", reachable, null, new ServerHealth())));
+
+        when(unreachable.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any()))
+                .thenThrow(new LdapRuntimeException(new org.apache.directory.api.ldap.model.exception.LdapException("Connection refused")));
+        when(reachable.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenReturn(Collections.singletonList(new DefaultEntry()));
+
+        assertThat(ldap.search("(uid={0})", new String[]{"foo"}, 0)).hasSize(1);
+        assertThat(unreachableHealth.needsProbe()).isTrue();
+    }
+
+    @Test
+    void search_shouldPreferHealthierServer() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate down = connectionTemplate();
+        final LdapConnectionTemplate up = connectionTemplate();
+        final ServerHealth downHealth = new ServerHealth();
+        for (int i = 0; i < 3; i++) {
+            downHealth.recordFailure();
+        }
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, List.of(
+                directoryServer("ldap://first", down, null, downHealth),
+                directoryServer("ldap://second", up, null, new ServerHealth())));
+
+        when(up.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenReturn(Collections.singletonList(new DefaultEntry()));
+
+        assertThat(ldap.search("(uid={0})", new String[]{"foo"}, 0)).hasSize(1);
+        verifyNoInteractions(down);
+    }
+
+    @Test
+    void search_shouldNotCountCancelledSearchAgainstServer() throws Exception {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withSearchBases("ou=foo,dc=bar", "ou=baz,dc=bar")
+                .build();
+        final LdapConnectionTemplate first = connectionTemplate();
+        final LdapConnectionTemplate second = connectionTemplate();
+        final ServerHealth health = spy(new ServerHealth());
+        final CircuitBreaker circuitBreaker = spy(new CircuitBreaker("ldap://first", 5, Duration.ofSeconds(30)));
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, List.of(
+                new DirectoryServer("ldap://first", first, null, health, circuitBreaker),
+                directoryServer("ldap://second", second, null, new ServerHealth())));
+        final CountDownLatch slowSearchStarted = new CountDownLatch(1);
+        final CountDownLatch searchReturned = new CountDownLatch(1);
+        final CountDownLatch slowSearchGivenUp = new CountDownLatch(1);
+
+        doAnswer(invocation -> {
+            invocation.callRealMethod();
+            slowSearchGivenUp.countDown();
+            return null;
+        }).when(circuitBreaker).onIgnored();
+        when(first.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenAnswer(invocation -> {
+            if (invocation.<SearchRequest>getArgument(0).getBase().getName().equals("ou=baz,dc=bar")) {
+                slowSearchStarted.countDown();
+                assertThat(searchReturned.await(5, TimeUnit.SECONDS)).isTrue();
+            } else {
+                assertThat(slowSearchStarted.await(5, TimeUnit.SECONDS)).isTrue();
+            }
+            return entryUnderSearchBase("uid=foo").answer(invocation);
+        });
+
+        final List<Entry> entries = ldap.search("(uid={0})", new String[]{"foo"}, 1);
+        searchReturned.countDown();
+
+        assertThat(entries).extracting(entry -> entry.getDn().getName()).containsExactly("uid=foo,ou=foo,dc=bar");
+        assertThat(slowSearchGivenUp.await(5, TimeUnit.SECONDS)).isTrue();
+        verify(circuitBreaker).onSuccess();
+        verify(circuitBreaker, never()).onFailure();
+        verify(health, never()).recordFailure();
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        verifyNoInteractions(second);
+    }
+
+    @Test
+    void search_shouldNotRetryOnNextServerWhenServerAnswersWithAnError() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate first = connectionTemplate();
+        final LdapConnectionTemplate second = connectionTemplate();
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, List.of(
+                directoryServer("ldap://first", first, null, new ServerHealth()),
+                directoryServer("ldap://second", second, null, new ServerHealth())));
+
+        when(first.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any()))
+                .thenThrow(new LdapRuntimeException(new LdapNoSuchObjectException("No such object")));
+
+        assertThatCode(() -> ldap.search("(uid={0})", new String[]{"foo"}, 0)).isInstanceOf(LdapRuntimeException.class);
+        verifyNoInteractions(second);
+    }
+
+    @Test
+    void authenticate_shouldBindOnNextServerWhenNoConnectionCanBeMade() throws Exception {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final LdapConnectionPool unreachablePool = mock(LdapConnectionPool.class);
+        final LdapConnectionPool reachablePool = mock(LdapConnectionPool.class);
+        final LdapConnection connection = mock(LdapConnection.class);
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, List.of(
+                directoryServer("ldap://first", ldapConnectionTemplate, unreachablePool, new ServerHealth()),
+                directoryServer("ldap://second", ldapConnectionTemplate, reachablePool, new ServerHealth())));
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenReturn(Collections.singletonList(new DefaultEntry("uid=bford,ou=system")));
+        when(unreachablePool.getConnection()).thenThrow(new org.apache.directory.api.ldap.model.exception.LdapException("Connection refused"));
+        when(reachablePool.getConnection()).thenReturn(connection);
+        when(connection.bind(any(BindRequest.class))).thenReturn(bindResponse(ResultCodeEnum.SUCCESS));
+
+        assertThat((Entry) ldap.authenticate("bford", "bob", resultWrapper -> resultWrapper.getResult())).isNotNull();
+        verify(reachablePool).releaseConnection(connection);
+    }
+
+    @Test
+    void search_shouldNotContactServerWhileItsCircuitBreakerIsOpen() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate unreachable = connectionTemplate();
+        final CircuitBreaker circuitBreaker = new CircuitBreaker("ldap://first", 2, Duration.ofMinutes(1));
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, List.of(
+                new DirectoryServer("ldap://first", unreachable, null, new ServerHealth(), circuitBreaker)));
+
+        when(unreachable.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any()))
+                .thenThrow(new LdapRuntimeException(new org.apache.directory.api.ldap.model.exception.LdapException("Connection refused")));
+
+        for (int i = 0; i < 2; i++) {
+            assertThatCode(() -> ldap.search("(uid={0})", new String[]{"foo"}, 0)).isInstanceOf(LdapRuntimeException.class);
+        }
+        assertThat(ldap.search("(uid={0})", new String[]{"foo"}, 0)).isEmpty();
+        assertThatCode(() -> ldap.authenticate("bford", "bob", resultWrapper -> resultWrapper.getResult())).isInstanceOf(CircuitBreakerOpenException.class);
+
+        verify(unreachable, times(2)).search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any());
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.getRejectedCount()).isEqualTo(2);
+    }
+
+    @Test
+    void search_shouldNotOpenCircuitBreakerWhenServerAnswersWithAnError() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final CircuitBreaker circuitBreaker = new CircuitBreaker("ldap://first", 1, Duration.ofMinutes(1));
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, List.of(
+                new DirectoryServer("ldap://first", ldapConnectionTemplate, null, new ServerHealth(), circuitBreaker)));
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any()))
+                .thenThrow(new LdapRuntimeException(new LdapNoSuchObjectException("No such object")));
+
+        assertThatCode(() -> ldap.search("(uid={0})", new String[]{"foo"}, 0)).isInstanceOf(LdapRuntimeException.class);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void authenticate_shouldOnlyBindWhenUserLoggedInBefore() throws Exception {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final LdapConnectionPool bindConnectionPool = mock(LdapConnectionPool.class);
+        final LdapConnection connection = mock(LdapConnection.class);
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate, bindConnectionPool);
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenReturn(Collections.singletonList(new DefaultEntry("uid=bford,ou=system")));
+        when(bindConnectionPool.getConnection()).thenReturn(connection);
+        when(connection.bind(any(BindRequest.class))).thenReturn(bindResponse(ResultCodeEnum.SUCCESS));
+
+        ldap.authenticate("bford", "bob", resultWrapper -> resultWrapper.getResult());
+        final Entry entry = ldap.authenticate("bford", "bob", resultWrapper -> (Entry) resultWrapper.getResult());
+
+        assertThat(entry.getDn().getName()).isEqualTo("uid=bford,ou=system");
+        verify(ldapConnectionTemplate, times(1)).search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any());
+        verify(connection, times(2)).bind(any(BindRequest.class));
+    }
+
+    @Test
+    void authenticate_shouldSearchAgainWhenCachedDnNoLongerExists() throws Exception {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final LdapConnectionPool bindConnectionPool = mock(LdapConnectionPool.class);
+        final LdapConnection connection = mock(LdapConnection.class);
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate, bindConnectionPool);
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any()))
+                .thenReturn(Collections.singletonList(new DefaultEntry("uid=bford,ou=system")))
+                .thenReturn(Collections.singletonList(new DefaultEntry("uid=bford,ou=moved")));
+        when(bindConnectionPool.getConnection()).thenReturn(connection);
+        when(connection.bind(any(BindRequest.class)))
+                .thenReturn(bindResponse(ResultCodeEnum.SUCCESS))
+                .thenReturn(bindResponse(ResultCodeEnum.NO_SUCH_OBJECT))
+                .thenReturn(bindResponse(ResultCodeEnum.SUCCESS));
+
+        ldap.authenticate("bford", "bob", resultWrapper -> resultWrapper.getResult());
+        final Entry entry = ldap.authenticate("bford", "bob", resultWrapper -> (Entry) resultWrapper.getResult());
+
+        assertThat(entry.getDn().getName()).isEqualTo("uid=bford,ou=moved");
+        verify(ldapConnectionTemplate, times(2)).search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any());
+    }
+
+    @Test
+    void authenticate_shouldForgetCachedEntryWithoutBindingAgainWhenPasswordIsWrong() throws Exception {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+        final LdapConnectionTemplate ldapConnectionTemplate = connectionTemplate();
+        final LdapConnectionPool bindConnectionPool = mock(LdapConnectionPool.class);
+        final LdapConnection connection = mock(LdapConnection.class);
+        final ApacheDsLdapClient ldap = new ApacheDsLdapClient(ldapConfiguration, ldapConnectionTemplate, bindConnectionPool);
+
+        when(ldapConnectionTemplate.search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any())).thenReturn(Collections.singletonList(new DefaultEntry("uid=bford,ou=system")));
+        when(bindConnectionPool.getConnection()).thenReturn(connection);
+        when(connection.bind(any(BindRequest.class)))
+                .thenReturn(bindResponse(ResultCodeEnum.SUCCESS))
+                .thenReturn(bindResponse(ResultCodeEnum.INVALID_CREDENTIALS))
+                .thenReturn(bindResponse(ResultCodeEnum.SUCCESS));
+
+        ldap.authenticate("bford", "bob", resultWrapper -> resultWrapper.getResult());
+        assertThatCode(() -> ldap.authenticate("bford", "wrong-password", resultWrapper -> resultWrapper.getResult())).isInstanceOf(LdapException.class);
+        verify(connection, times(2)).bind(any(BindRequest.class));
+
+        ldap.authenticate("bford", "bob", resultWrapper -> resultWrapper.getResult());
+        verify(ldapConnectionTemplate, times(2)).search(any(SearchRequest.class), ArgumentMatchers.<EntryMapper<Entry>>any());
+    }
+
+    @Test
+    void shouldTellServerFailuresFromErrorResults() {
+        assertThat(ApacheDsLdapClient.isServerFailure(new LdapRuntimeException(new org.apache.directory.api.ldap.model.exception.LdapException("timeout")))).isTrue();
+        assertThat(ApacheDsLdapClient.isServerFailure(new RuntimeException(new java.util.NoSuchElementException("Unable to validate object")))).isTrue();
+        assertThat(ApacheDsLdapClient.isServerFailure(new LdapRuntimeException(new LdapOperationException(ResultCodeEnum.UNAVAILABLE, "unavailable")))).isTrue();
+        assertThat(ApacheDsLdapClient.isServerFailure(new LdapRuntimeException(new LdapNoSuchObjectException("No such object")))).isFalse();
+        assertThat(ApacheDsLdapClient.isServerFailure(new ConnectionPoolExhaustedException("exhausted"))).isFalse();
+        assertThat(ApacheDsLdapClient.isServerFailure(new IllegalStateException())).isFalse();
+    }
+
+    private BindResponse bindResponse(ResultCodeEnum resultCode) {
+        final BindResponse bindResponse = new BindResponseImpl();
+        bindResponse.getLdapResult().setResultCode(resultCode);
+        return bindResponse;
+    }
+
+    private DirectoryServer directoryServer(String url, LdapConnectionTemplate ldapConnectionTemplate, LdapConnectionPool bindConnectionPool, ServerHealth health) {
+        return new DirectoryServer(url, ldapConnectionTemplate, bindConnectionPool, health, new CircuitBreaker(url, 5, Duration.ofSeconds(30)));
+    }
+
+    /**
+     * A template which runs searches on a connection answering with the entries stubbed for
+     * {@link LdapConnectionTemplate#search(SearchRequest, EntryMapper)}.
+     */
+    private static LdapConnectionTemplate connectionTemplate() {
+        final LdapConnectionTemplate ldapConnectionTemplate = mock(LdapConnectionTemplate.class);
+        final LdapConnection connection = mock(LdapConnection.class);
+        when(ldapConnectionTemplate.execute(any())).thenAnswer(invocation -> invocation.<ConnectionCallback<?>>getArgument(0).doWithConnection(connection));
+        try {
+            when(connection.search(any(SearchRequest.class))).thenAnswer(invocation ->
+                    searchCursor(ldapConnectionTemplate.search(invocation.<SearchRequest>getArgument(0), entry -> entry)));
+        } catch (org.apache.directory.api.ldap.model.exception.LdapException e) {
+            throw new IllegalStateException(e);
+        }
+        return ldapConnectionTemplate;
+    }
+
+    private static SearchCursor searchCursor(List<Entry> entries) throws Exception {
+        final Iterator<Entry> iterator = entries.iterator();
+        final Entry[] current = new Entry[1];
+        final SearchCursor cursor = mock(SearchCursor.class);
+        when(cursor.next()).thenAnswer(invocation -> {
+            current[0] = iterator.hasNext() ? iterator.next() : null;
+            return current[0] != null;
+        });
+        when(cursor.isEntry()).thenReturn(true);
+        when(cursor.getEntry()).thenAnswer(invocation -> current[0]);
+        return cursor;
+    }
+
+    private static Answer<List<Entry>> entryUnderSearchBase(String rdn) {
+        return invocation -> Collections.singletonList(new DefaultEntry(rdn + "," + invocation.<SearchRequest>getArgument(0).getBase().getName()));
+    }
+}
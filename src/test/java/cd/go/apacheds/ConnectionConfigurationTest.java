@@ -20,6 +20,8 @@ import cd.go.authentication.ldap.model.LdapConfiguration;
 import org.apache.directory.ldap.client.api.LdapConnectionConfig;
 import org.junit.jupiter.api.Test;
 
+import java.util.List;
+
 import static org.assertj.core.api.Assertions.assertThat;
 
 
@@ -41,9 +43,39 @@ class ConnectionConfigurationTest {
         assertThat(ldapConnectionConfig.getName()).isEqualTo("uid=admin,ou=system");
         assertThat(ldapConnectionConfig.getCredentials()).isEqualTo("secret");
         assertThat(ldapConnectionConfig.getTrustManagers().length).isEqualTo(1);
+        assertThat(ldapConnectionConfig.getConnectTimeout()).isEqualTo(10_000L);
+        assertThat(ldapConnectionConfig.getTimeout()).isEqualTo(30_000L);
+    }
+
+    @Test
+    void shouldApplyConfiguredTimeoutsToLdapConnectionConfig() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withConnectTimeout("3")
+                .withResponseTimeout("7")
+                .build();
+
+        final ConnectionConfiguration connectionConfiguration = new ConnectionConfiguration(ldapConfiguration);
+        final LdapConnectionConfig ldapConnectionConfig = connectionConfiguration.toLdapConnectionConfig();
+
+        assertThat(ldapConnectionConfig.getConnectTimeout()).isEqualTo(3_000L);
+        assertThat(ldapConnectionConfig.getTimeout()).isEqualTo(7_000L);
+        assertThat(connectionConfiguration).isNotEqualTo(new ConnectionConfiguration(new LdapConfigurationBuilder().build()));
     }
 
 
+    @Test
+    void shouldCreateConnectionConfigurationForEachServer() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withURL("ldap://primary\nldaps://replica")
+                .build();
+
+        final List<ConnectionConfiguration> connectionConfigurations = ConnectionConfiguration.forEachServer(ldapConfiguration);
+
+        assertThat(connectionConfigurations).extracting(ConnectionConfiguration::getLdapUrl)
+                .containsExactly("ldap://primary:389", "ldaps://replica:636");
+        assertThat(connectionConfigurations.get(0)).isEqualTo(new ConnectionConfiguration(ldapConfiguration));
+    }
+
     @Test
     void shouldCheckEquality() {
         assertThat(new ConnectionConfiguration(new LdapConfigurationBuilder().build()))
@@ -53,4 +85,14 @@ class ConnectionConfigurationTest {
                 .equals(new ConnectionConfiguration(new LdapConfigurationBuilder().withURL("ldaps://foo").build()))
         ).isFalse();
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldNotExposeManagerPasswordInToString() {
+        final ConnectionConfiguration connectionConfiguration = new ConnectionConfiguration(new LdapConfigurationBuilder()
+                .withManagerDN("uid=admin,ou=system")
+                .withPassword("secret")
+                .build());
+
+        assertThat(connectionConfiguration.toString()).doesNotContain("secret");
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds;
+
+import org.apache.directory.api.ldap.extras.controls.SynchronizationModeEnum;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncDone.SyncDoneValue;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncDone.SyncDoneValueImpl;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncRequest.SyncRequestValue;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateTypeEnum;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateValue;
+import org.apache.directory.api.ldap.extras.controls.syncrepl.syncState.SyncStateValueImpl;
+import org.apache.directory.api.ldap.model.cursor.SearchCursor;
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.entry.Entry;
+import org.apache.directory.api.ldap.model.message.*;
+import org.apache.directory.api.util.GeneralizedTime;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.*;
+
+class DirectoryChangeListenerTest {
+    private final BlockingQueue<Entry> changedEntries = new LinkedBlockingQueue<>();
+    private final AtomicInteger changesMissed = new AtomicInteger();
+    private final LdapConnection connection = mock(LdapConnection.class);
+    private DirectoryChangeListener changeListener;
+
+    @AfterEach
+    void tearDown() {
+        if (changeListener != null) {
+            changeListener.close();
+        }
+    }
+
+    @Test
+    void shouldPollForChangesWhenServerSupportsNeitherContentSynchronizationNorPersistentSearch() throws Exception {
+        when(connection.isControlSupported(anyString())).thenReturn(false);
+        final String changedAt = new GeneralizedTime(Date.from(Instant.now().plusSeconds(60))).toGeneralizedTimeWithoutFraction();
+        final String changedLater = new GeneralizedTime(Date.from(Instant.now().plusSeconds(61))).toGeneralizedTimeWithoutFraction();
+        final SearchCursor firstPoll = cursor(entry("uid=bford", changedAt));
+        final SearchCursor secondPoll = cursor(entry("uid=bford", changedAt), entry("uid=sbanks", changedAt));
+        final SearchCursor thirdPoll = cursor(entry("uid=sbanks", changedAt), entry("uid=pbanks", changedLater));
+        final SearchCursor noChanges = cursor();
+        when(connection.search(any(SearchRequest.class))).thenReturn(firstPoll, secondPoll, thirdPoll, noChanges);
+
+        changeListener = new DirectoryChangeListener(List.of(mock(ConnectionConfiguration.class)), "(uid=*)", new String[]{"uid"}, Duration.ofSeconds(1), listener(), server -> connection);
+        changeListener.start(List.of("ou=users,ou=system"));
+
+        assertThat(changedEntries.poll(5, TimeUnit.SECONDS).getDn().getName()).isEqualTo("uid=bford");
+        assertThat(changedEntries.poll(5, TimeUnit.SECONDS).getDn().getName()).isEqualTo("uid=sbanks");
+        assertThat(changedEntries.poll(5, TimeUnit.SECONDS).getDn().getName()).isEqualTo("uid=pbanks");
+        assertThat(changesMissed.get()).isEqualTo(1);
+
+        final ArgumentCaptor<SearchRequest> searchRequests = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(connection, atLeast(3)).search(searchRequests.capture());
+        assertThat(searchRequests.getAllValues().get(1).getFilter().toString())
+                .isEqualTo(String.format("(|(modifyTimestamp>=%s)(createTimestamp>=%s))", changedAt, changedAt));
+        assertThat(searchRequests.getAllValues().get(1).getAttributes()).contains("uid", "modifyTimestamp", "createTimestamp");
+    }
+
+    @Test
+    void shouldListenAgainUsingAnotherServerWhenConnectionIsLost() throws Exception {
+        when(connection.isControlSupported(anyString())).thenReturn(false);
+        final SearchCursor poll = cursor(entry("uid=bford", "20220101000000Z"));
+        when(connection.search(any(SearchRequest.class))).thenReturn(poll);
+        final AtomicInteger attempts = new AtomicInteger();
+
+        changeListener = new DirectoryChangeListener(List.of(mock(ConnectionConfiguration.class), mock(ConnectionConfiguration.class)), "(uid=*)", new String[]{"uid"},
+                Duration.ofSeconds(1), listener(), server -> {
+            if (attempts.incrementAndGet() == 1) {
+                throw new cd.go.authentication.ldap.exception.LdapException("Connection refused");
+            }
+            return connection;
+        });
+        changeListener.start(List.of("ou=users,ou=system"));
+
+        assertThat(changedEntries.poll(5, TimeUnit.SECONDS).getDn().getName()).isEqualTo("uid=bford");
+        assertThat(attempts.get()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldSynchronizeChangesFromCookieWhichOutlivesTheListener() throws Exception {
+        final List<ConnectionConfiguration> servers = List.of(mock(ConnectionConfiguration.class));
+        when(connection.isControlSupported(anyString())).thenReturn(false);
+        when(connection.isControlSupported(SyncRequestValue.OID)).thenReturn(true);
+        final SearchCursor refresh = syncCursor(null, syncDone("first"));
+        final SearchCursor changes = syncCursor(syncEntry("uid=bford", "second"), null);
+        final SearchCursor noChanges = syncCursor(null, null);
+        when(connection.search(any(SearchRequest.class))).thenReturn(refresh, changes, noChanges);
+
+        changeListener = new DirectoryChangeListener(servers, "(uid=*)", new String[]{"uid"}, Duration.ofSeconds(1), listener(), server -> connection);
+        changeListener.start(List.of("ou=sync,ou=system"));
+
+        assertThat(changedEntries.poll(5, TimeUnit.SECONDS).getDn().getName()).isEqualTo("uid=bford");
+        assertThat(changesMissed.get()).isEqualTo(1);
+        changeListener.close();
+
+        final ArgumentCaptor<SearchRequest> searchRequests = ArgumentCaptor.forClass(SearchRequest.class);
+        verify(connection, atLeast(2)).search(searchRequests.capture());
+        final SearchRequest refreshRequest = searchRequests.getAllValues().get(0);
+        assertThat(refreshRequest.getFilter().toString()).isEqualTo("(uid=*)");
+        assertThat(refreshRequest.getAttributes()).containsExactly("1.1");
+        assertThat(syncRequest(refreshRequest).getMode()).isEqualTo(SynchronizationModeEnum.REFRESH_ONLY);
+        assertThat(syncRequest(refreshRequest).getCookie()).isNull();
+        final SearchRequest changesRequest = searchRequests.getAllValues().get(1);
+        assertThat(changesRequest.getAttributes()).containsExactly("uid");
+        assertThat(syncRequest(changesRequest).getMode()).isEqualTo(SynchronizationModeEnum.REFRESH_AND_PERSIST);
+        assertThat(syncRequest(changesRequest).getCookie()).isEqualTo("first".getBytes());
+
+        final LdapConnection nextConnection = mock(LdapConnection.class);
+        final SearchCursor nextChanges = syncCursor(null, null);
+        when(nextConnection.isControlSupported(SyncRequestValue.OID)).thenReturn(true);
+        when(nextConnection.search(any(SearchRequest.class))).thenReturn(nextChanges);
+        changeListener = new DirectoryChangeListener(servers, "(uid=*)", new String[]{"uid"}, Duration.ofSeconds(1), listener(), server -> nextConnection);
+        changeListener.start(List.of("ou=sync,ou=system"));
+
+        verify(nextConnection, timeout(5000)).search(searchRequests.capture());
+        assertThat(syncRequest(searchRequests.getValue()).getMode()).isEqualTo(SynchronizationModeEnum.REFRESH_AND_PERSIST);
+        assertThat(syncRequest(searchRequests.getValue()).getCookie()).isEqualTo("second".getBytes());
+        assertThat(changesMissed.get()).isEqualTo(1);
+    }
+
+    private DirectoryChangeListener.Listener listener() {
+        return new DirectoryChangeListener.Listener() {
+            @Override
+            public void entryChanged(Entry entry) {
+                changedEntries.add(entry);
+            }
+
+            @Override
+            public void changesMissed() {
+                changesMissed.incrementAndGet();
+            }
+        };
+    }
+
+    private static Entry entry(String dn, String modifyTimestamp) throws Exception {
+        return new DefaultEntry(dn, "uid: " + dn.substring(4), "modifyTimestamp: " + modifyTimestamp);
+    }
+
+    private static SyncRequestValue syncRequest(SearchRequest searchRequest) {
+        return (SyncRequestValue) searchRequest.getControl(SyncRequestValue.OID);
+    }
+
+    private static SearchResultEntry syncEntry(String dn, String cookie) throws Exception {
+        final SyncStateValue syncState = new SyncStateValueImpl();
+        syncState.setSyncStateType(SyncStateTypeEnum.ADD);
+        syncState.setCookie(cookie.getBytes());
+        final SearchResultEntry searchResultEntry = new SearchResultEntryImpl();
+        searchResultEntry.setEntry(new DefaultEntry(dn, "uid: " + dn.substring(4)));
+        searchResultEntry.addControl(syncState);
+        return searchResultEntry;
+    }
+
+    private static SearchResultDone syncDone(String cookie) {
+        final SyncDoneValue syncDone = new SyncDoneValueImpl();
+        syncDone.setCookie(cookie.getBytes());
+        final SearchResultDone searchResultDone = new SearchResultDoneImpl();
+        searchResultDone.getLdapResult().setResultCode(ResultCodeEnum.SUCCESS);
+        searchResultDone.addControl(syncDone);
+        return searchResultDone;
+    }
+
+    private static SearchCursor syncCursor(Response response, SearchResultDone done) throws Exception {
+        final SearchCursor cursor = mock(SearchCursor.class);
+        final AtomicInteger position = new AtomicInteger(-1);
+        when(cursor.next()).thenAnswer(invocation -> response != null && position.incrementAndGet() < 1);
+        when(cursor.get()).thenReturn(response);
+        when(cursor.getSearchResultDone()).thenReturn(done);
+        return cursor;
+    }
+
+    private static SearchCursor cursor(Entry... entries) throws Exception {
+        final SearchCursor cursor = mock(SearchCursor.class);
+        final AtomicInteger position = new AtomicInteger(-1);
+        when(cursor.next()).thenAnswer(invocation -> position.incrementAndGet() < entries.length);
+        when(cursor.isEntry()).thenReturn(true);
+        when(cursor.getEntry()).thenAnswer(invocation -> entries[position.get()]);
+        return cursor;
+    }
+}
@@ -54,6 +54,16 @@ public class LdapConfigurationBuilder {
         return this;
     }
 
+    public LdapConfigurationBuilder withUserValidationFilter(String userValidationFilter) {
+        this.configuration.put("UserValidationFilter", userValidationFilter);
+        return this;
+    }
+
+    public LdapConfigurationBuilder withUserMirrorFilter(String userMirrorFilter) {
+        this.configuration.put("UserMirrorFilter", userMirrorFilter);
+        return this;
+    }
+
     public LdapConfigurationBuilder withUserSearchFilter(String userSearchFilter) {
         this.configuration.put("UserSearchFilter", userSearchFilter);
         return this;
@@ -74,6 +84,51 @@ public class LdapConfigurationBuilder {
         return this;
     }
 
+    public LdapConfigurationBuilder withConnectTimeout(String connectTimeout) {
+        this.configuration.put("ConnectTimeout", connectTimeout);
+        return this;
+    }
+
+    public LdapConfigurationBuilder withResponseTimeout(String responseTimeout) {
+        this.configuration.put("ResponseTimeout", responseTimeout);
+        return this;
+    }
+
+    public LdapConfigurationBuilder withBindTimeout(String bindTimeout) {
+        this.configuration.put("BindTimeout", bindTimeout);
+        return this;
+    }
+
+    public LdapConfigurationBuilder withPoolMaxTotal(String poolMaxTotal) {
+        this.configuration.put("PoolMaxTotal", poolMaxTotal);
+        return this;
+    }
+
+    public LdapConfigurationBuilder withPoolMaxIdle(String poolMaxIdle) {
+        this.configuration.put("PoolMaxIdle", poolMaxIdle);
+        return this;
+    }
+
+    public LdapConfigurationBuilder withPoolMinIdle(String poolMinIdle) {
+        this.configuration.put("PoolMinIdle", poolMinIdle);
+        return this;
+    }
+
+    public LdapConfigurationBuilder withPoolMaxWait(String poolMaxWait) {
+        this.configuration.put("PoolMaxWait", poolMaxWait);
+        return this;
+    }
+
+    public LdapConfigurationBuilder withPoolMaxConnectionLifetime(String poolMaxConnectionLifetime) {
+        this.configuration.put("PoolMaxConnectionLifetime", poolMaxConnectionLifetime);
+        return this;
+    }
+
+    public LdapConfigurationBuilder withPoolEvictionInterval(String poolEvictionInterval) {
+        this.configuration.put("PoolEvictionInterval", poolEvictionInterval);
+        return this;
+    }
+
     public final LdapConfiguration build() {
         return LdapConfiguration.fromJSON(new Gson().toJson(configuration));
     }
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import cd.go.authentication.ldap.exception.ConnectionPoolExhaustedException;
+import org.apache.commons.pool2.PooledObjectFactory;
+import org.apache.commons.pool2.impl.DefaultPooledObject;
+import org.apache.commons.pool2.impl.GenericObjectPoolConfig;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BoundedLdapConnectionPoolTest {
+    private BoundedLdapConnectionPool pool;
+    private PooledObjectFactory<LdapConnection> factory;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() throws Exception {
+        factory = mock(PooledObjectFactory.class);
+        when(factory.makeObject()).thenAnswer(invocation -> new DefaultPooledObject<>(mock(LdapConnection.class)));
+        when(factory.validateObject(any())).thenReturn(true);
+    }
+
+    @AfterEach
+    void tearDown() {
+        pool.close();
+    }
+
+    @Test
+    void shouldFailWithDistinctExceptionAfterWaitingForMaxWait() throws Exception {
+        pool = new BoundedLdapConnectionPool("ldap://foo:389", factory, poolConfig(true, Duration.ofMillis(50)));
+        pool.getConnection();
+
+        assertThatCode(() -> pool.getConnection())
+                .isInstanceOf(ConnectionPoolExhaustedException.class)
+                .hasMessageContaining("All 1 connections to ldap://foo:389 are in use");
+        assertThat(pool.getExhaustedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldFailRightAwayWhenNotBlocking() throws Exception {
+        pool = new BoundedLdapConnectionPool("ldap://foo:389", factory, poolConfig(false, Duration.ZERO));
+        pool.getConnection();
+
+        assertThatCode(() -> pool.getConnection()).isInstanceOf(ConnectionPoolExhaustedException.class);
+        assertThatCode(() -> pool.getConnection()).isInstanceOf(ConnectionPoolExhaustedException.class);
+        assertThat(pool.getExhaustedCount()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldNotCountFailuresToConnectAsExhaustion() throws Exception {
+        when(factory.validateObject(any())).thenReturn(false);
+        pool = new BoundedLdapConnectionPool("ldap://foo:389", factory, poolConfig(true, Duration.ofMillis(50)));
+
+        assertThatCode(() -> pool.getConnection())
+                .isInstanceOf(RuntimeException.class)
+                .isNotInstanceOf(ConnectionPoolExhaustedException.class);
+        assertThat(pool.getExhaustedCount()).isEqualTo(0);
+    }
+
+    private GenericObjectPoolConfig<LdapConnection> poolConfig(boolean blockWhenExhausted, Duration maxWait) {
+        final GenericObjectPoolConfig<LdapConnection> poolConfig = new GenericObjectPoolConfig<>();
+        poolConfig.setMaxTotal(1);
+        poolConfig.setTestOnBorrow(true);
+        poolConfig.setBlockWhenExhausted(blockWhenExhausted);
+        poolConfig.setMaxWait(maxWait);
+        return poolConfig;
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import cd.go.authentication.ldap.exception.CircuitBreakerOpenException;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatCode;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CircuitBreakerTest {
+    private Clock clock;
+    private CircuitBreaker circuitBreaker;
+
+    @BeforeEach
+    void setUp() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(0L);
+        circuitBreaker = new CircuitBreaker("ldap://localhost", 3, Duration.ofSeconds(30), clock);
+    }
+
+    @Test
+    void shouldOpenAfterConsecutiveFailures() {
+        failTimes(2);
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+
+        failTimes(1);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.getTransitionCount(CircuitBreaker.State.OPEN)).isEqualTo(1);
+        assertThatCode(circuitBreaker::acquirePermission).isInstanceOf(CircuitBreakerOpenException.class);
+        assertThat(circuitBreaker.getRejectedCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotCountFailuresInterruptedBySuccess() {
+        failTimes(2);
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onSuccess();
+        failTimes(2);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    void shouldLetASingleProbeThroughOnceOpenDurationHasPassed() {
+        failTimes(3);
+        when(clock.millis()).thenReturn(30_000L);
+
+        circuitBreaker.acquirePermission();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.HALF_OPEN);
+        assertThatCode(circuitBreaker::acquirePermission).isInstanceOf(CircuitBreakerOpenException.class);
+    }
+
+    @Test
+    void shouldCloseWhenProbeSucceeds() {
+        failTimes(3);
+        when(clock.millis()).thenReturn(30_000L);
+
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onSuccess();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+        assertThat(circuitBreaker.getTransitionCount(CircuitBreaker.State.CLOSED)).isEqualTo(1);
+        assertThatCode(circuitBreaker::acquirePermission).doesNotThrowAnyException();
+    }
+
+    @Test
+    void shouldReopenWhenProbeFails() {
+        failTimes(3);
+        when(clock.millis()).thenReturn(30_000L);
+
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onFailure();
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(circuitBreaker.getTransitionCount(CircuitBreaker.State.OPEN)).isEqualTo(2);
+        when(clock.millis()).thenReturn(59_999L);
+        assertThatCode(circuitBreaker::acquirePermission).isInstanceOf(CircuitBreakerOpenException.class);
+    }
+
+    @Test
+    void shouldLetAnotherProbeThroughWhenProbeWasIgnored() {
+        failTimes(3);
+        when(clock.millis()).thenReturn(30_000L);
+
+        circuitBreaker.acquirePermission();
+        circuitBreaker.onIgnored();
+
+        assertThatCode(circuitBreaker::acquirePermission).doesNotThrowAnyException();
+    }
+
+    @Test
+    void shouldNeverOpenWhenThresholdIsNotPositive() {
+        circuitBreaker = new CircuitBreaker("ldap://localhost", 0, Duration.ofSeconds(30), clock);
+
+        failTimes(100);
+
+        assertThat(circuitBreaker.getState()).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    private void failTimes(int times) {
+        for (int i = 0; i < times; i++) {
+            circuitBreaker.acquirePermission();
+            circuitBreaker.onFailure();
+        }
+    }
+}
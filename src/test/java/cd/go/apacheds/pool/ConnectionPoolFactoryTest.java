@@ -23,7 +23,11 @@ import org.apache.directory.ldap.client.api.LdapConnectionPool;
 import org.junit.jupiter.api.Test;
 
 import java.time.Duration;
+import java.util.List;
 
+import static cd.go.apacheds.pool.ConnectionPoolFactory.acquire;
+import static cd.go.apacheds.pool.ConnectionPoolFactory.evictIdleConnectionPools;
+import static cd.go.apacheds.pool.ConnectionPoolFactory.getBindConnectionPool;
 import static cd.go.apacheds.pool.ConnectionPoolFactory.getLdapConnectionPool;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.junit.jupiter.api.Assertions.assertNotEquals;
@@ -50,14 +54,24 @@ class ConnectionPoolFactoryTest extends BaseTest {
         assertThat(ldapConnectionPool.getMaxTotal()).isEqualTo(250);
         assertThat(ldapConnectionPool.getMaxIdle()).isEqualTo(50);
         assertThat(ldapConnectionPool.getMinIdle()).isEqualTo(0);
-        assertThat(ldapConnectionPool.getNumTestsPerEvictionRun()).isEqualTo(3);
-        assertThat(ldapConnectionPool.getSoftMinEvictableIdleDuration()).isEqualTo(Duration.ofMillis(-1L));
-        assertThat(ldapConnectionPool.getDurationBetweenEvictionRuns()).isEqualTo(Duration.ofMillis(-1L));
+        assertThat(ldapConnectionPool.getNumTestsPerEvictionRun()).isEqualTo(-1);
+        assertThat(ldapConnectionPool.getSoftMinEvictableIdleDuration()).isEqualTo(Duration.ofMinutes(10));
+        assertThat(ldapConnectionPool.getDurationBetweenEvictionRuns()).isEqualTo(Duration.ofMinutes(1));
         assertThat(ldapConnectionPool.getMinEvictableIdleDuration()).isEqualTo(Duration.ofMinutes(30));
-        assertThat(ldapConnectionPool.getTestOnBorrow()).isEqualTo(false);
+        assertThat(ldapConnectionPool.getTestOnBorrow()).isEqualTo(true);
         assertThat(ldapConnectionPool.getTestOnReturn()).isEqualTo(false);
-        assertThat(ldapConnectionPool.getTestWhileIdle()).isEqualTo(false);
+        assertThat(ldapConnectionPool.getTestWhileIdle()).isEqualTo(true);
         assertThat(ldapConnectionPool.getBlockWhenExhausted()).isEqualTo(true);
+        assertThat(ldapConnectionPool.getMaxWaitDuration()).isEqualTo(Duration.ofSeconds(10));
+        assertThat(ldapConnectionPool).isInstanceOf(BoundedLdapConnectionPool.class);
+    }
+
+    @Test
+    void shouldNotWaitForConnectionsWhenMaxWaitIsZero() {
+        final ConnectionConfiguration connectionConfiguration = new ConnectionConfiguration(new LdapConfigurationBuilder().withURL("ldap://impatient").withPoolMaxWait("0").build());
+
+        assertThat(getLdapConnectionPool(connectionConfiguration).getBlockWhenExhausted()).isFalse();
+        assertThat(getBindConnectionPool(connectionConfiguration).getBlockWhenExhausted()).isFalse();
     }
 
     @Test
@@ -84,4 +98,95 @@ class ConnectionPoolFactoryTest extends BaseTest {
         assertThat(ldapConnectionPoolOne).isNotNull();
         assertNotEquals(ldapConnectionPoolOne, ldapConnectionPoolTwo);
     }
+
+    @Test
+    void shouldCacheBindConnectionPoolSeparatelyFromSearchConnectionPool() {
+        final ConnectionConfiguration connectionConfiguration = new ConnectionConfiguration(new LdapConfigurationBuilder().build());
+
+        final LdapConnectionPool bindConnectionPool = getBindConnectionPool(connectionConfiguration);
+
+        assertThat(bindConnectionPool).isNotNull();
+        assertThat(bindConnectionPool).isSameAs(getBindConnectionPool(connectionConfiguration));
+        assertThat(bindConnectionPool).isNotSameAs(getLdapConnectionPool(connectionConfiguration));
+    }
+
+    @Test
+    void shouldShareConnectionPoolsBetweenAcquirersOfSameConnectionConfiguration() {
+        final ConnectionConfiguration connectionConfiguration = new ConnectionConfiguration(new LdapConfigurationBuilder().withURL("ldap://shared").build());
+
+        final ConnectionPools connectionPools = acquire(connectionConfiguration);
+        final ConnectionPools sameConnectionPools = acquire(connectionConfiguration);
+
+        assertThat(sameConnectionPools).isSameAs(connectionPools);
+        assertThat(connectionPools.references()).isEqualTo(2);
+        assertThat(connectionPools.ldapConnectionPool()).isSameAs(getLdapConnectionPool(connectionConfiguration));
+        assertThat(connectionPools.bindConnectionPool()).isSameAs(getBindConnectionPool(connectionConfiguration));
+
+        connectionPools.release();
+        sameConnectionPools.release();
+        assertThat(connectionPools.references()).isEqualTo(0);
+    }
+
+    @Test
+    void shouldCloseIdleConnectionPoolsWhichAreNoLongerReferenced() {
+        final ConnectionConfiguration connectionConfiguration = new ConnectionConfiguration(new LdapConfigurationBuilder().withURL("ldap://edited").build());
+        final ConnectionPools connectionPools = acquire(connectionConfiguration);
+        connectionPools.release();
+
+        evictIdleConnectionPools(Duration.ZERO);
+
+        assertThat(connectionPools.ldapConnectionPool().isClosed()).isTrue();
+        assertThat(connectionPools.bindConnectionPool().isClosed()).isTrue();
+        assertThat(getLdapConnectionPool(connectionConfiguration)).isNotSameAs(connectionPools.ldapConnectionPool());
+        assertThat(getLdapConnectionPool(connectionConfiguration).isClosed()).isFalse();
+    }
+
+    @Test
+    void shouldNotCloseConnectionPoolsWhichAreStillReferenced() {
+        final ConnectionConfiguration connectionConfiguration = new ConnectionConfiguration(new LdapConfigurationBuilder().withURL("ldap://in-use").build());
+        final ConnectionPools connectionPools = acquire(connectionConfiguration);
+
+        evictIdleConnectionPools(Duration.ZERO);
+
+        assertThat(connectionPools.ldapConnectionPool().isClosed()).isFalse();
+        assertThat(acquire(connectionConfiguration)).isSameAs(connectionPools);
+    }
+
+    @Test
+    void shouldNotCloseUnreferencedConnectionPoolsBeforeTheyHaveBeenIdleForMaximumIdleTime() {
+        final ConnectionConfiguration connectionConfiguration = new ConnectionConfiguration(new LdapConfigurationBuilder().withURL("ldap://recently-used").build());
+        acquire(connectionConfiguration).release();
+
+        evictIdleConnectionPools(Duration.ofMinutes(10));
+
+        assertThat(getLdapConnectionPool(connectionConfiguration).isClosed()).isFalse();
+    }
+
+    @Test
+    void shouldCreateConnectionPoolsWithConfiguredPoolSettings() {
+        final ConnectionConfiguration connectionConfiguration = new ConnectionConfiguration(new LdapConfigurationBuilder()
+                .withURL("ldap://tuned")
+                .withPoolMaxTotal("20")
+                .withPoolMaxIdle("10")
+                .withPoolMinIdle("2")
+                .withPoolMaxWait("3")
+                .withPoolEvictionInterval("30")
+                .build());
+
+        for (LdapConnectionPool pool : List.of(getLdapConnectionPool(connectionConfiguration), getBindConnectionPool(connectionConfiguration))) {
+            assertThat(pool.getMaxTotal()).isEqualTo(20);
+            assertThat(pool.getMaxIdle()).isEqualTo(10);
+            assertThat(pool.getMinIdle()).isEqualTo(2);
+            assertThat(pool.getMaxWaitDuration()).isEqualTo(Duration.ofSeconds(3));
+            assertThat(pool.getDurationBetweenEvictionRuns()).isEqualTo(Duration.ofSeconds(30));
+        }
+    }
+
+    @Test
+    void shouldNotShareConnectionPoolsBetweenConfigurationsWithDifferentPoolSettings() {
+        final ConnectionConfiguration configuration = new ConnectionConfiguration(new LdapConfigurationBuilder().withPoolMaxTotal("10").build());
+        final ConnectionConfiguration differentConfiguration = new ConnectionConfiguration(new LdapConfigurationBuilder().withPoolMaxTotal("20").build());
+
+        assertThat(getLdapConnectionPool(configuration)).isNotSameAs(getLdapConnectionPool(differentConfiguration));
+    }
 }
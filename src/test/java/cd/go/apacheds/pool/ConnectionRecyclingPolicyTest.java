@@ -0,0 +1,90 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import org.apache.commons.pool2.PooledObject;
+import org.apache.commons.pool2.PooledObjectState;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.function.Predicate;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.*;
+
+class ConnectionRecyclingPolicyTest {
+    @SuppressWarnings("unchecked")
+    private final Predicate<PooledObject<LdapConnection>> validation = mock(Predicate.class);
+
+    @Test
+    void shouldNotValidateConnectionsBorrowedShortlyAfterTheyWereLastUsed() {
+        final PooledObject<LdapConnection> pooledObject = pooledObject(PooledObjectState.ALLOCATED, Duration.ofMinutes(5), Duration.ofSeconds(1));
+
+        assertThat(new ConnectionRecyclingPolicy(null).isUsable(pooledObject, validation)).isTrue();
+        verify(validation, never()).test(any());
+    }
+
+    @Test
+    void shouldRecycleConnectionsWhoseSocketWasClosedEvenIfRecentlyUsed() {
+        final PooledObject<LdapConnection> pooledObject = pooledObject(PooledObjectState.ALLOCATED, Duration.ofMinutes(5), Duration.ofSeconds(1));
+        when(pooledObject.getObject().isConnected()).thenReturn(false);
+
+        assertThat(new ConnectionRecyclingPolicy(null).isUsable(pooledObject, validation)).isFalse();
+        verify(validation, never()).test(any());
+    }
+
+    @Test
+    void shouldValidateConnectionsBorrowedAfterBeingIdleForAWhile() {
+        final PooledObject<LdapConnection> pooledObject = pooledObject(PooledObjectState.ALLOCATED, Duration.ofMinutes(5), Duration.ofMinutes(1));
+        when(validation.test(pooledObject)).thenReturn(false);
+
+        assertThat(new ConnectionRecyclingPolicy(null).isUsable(pooledObject, validation)).isFalse();
+        verify(validation).test(pooledObject);
+    }
+
+    @Test
+    void shouldAlwaysValidateConnectionsUnderEviction() {
+        final PooledObject<LdapConnection> pooledObject = pooledObject(PooledObjectState.EVICTION, Duration.ofMinutes(5), Duration.ofSeconds(1));
+        when(validation.test(pooledObject)).thenReturn(true);
+
+        assertThat(new ConnectionRecyclingPolicy(null).isUsable(pooledObject, validation)).isTrue();
+        verify(validation).test(pooledObject);
+    }
+
+    @Test
+    void shouldRecycleConnectionsOlderThanMaxLifetime() {
+        final PooledObject<LdapConnection> pooledObject = pooledObject(PooledObjectState.ALLOCATED, Duration.ofMinutes(11), Duration.ofSeconds(1));
+
+        assertThat(new ConnectionRecyclingPolicy(Duration.ofMinutes(10)).isUsable(pooledObject, validation)).isFalse();
+        verify(validation, never()).test(any());
+    }
+
+    @SuppressWarnings("unchecked")
+    private PooledObject<LdapConnection> pooledObject(PooledObjectState state, Duration age, Duration idle) {
+        final PooledObject<LdapConnection> pooledObject = mock(PooledObject.class);
+        final LdapConnection connection = mock(LdapConnection.class);
+        when(connection.isConnected()).thenReturn(true);
+        when(pooledObject.getObject()).thenReturn(connection);
+        when(pooledObject.getState()).thenReturn(state);
+        when(pooledObject.getCreateInstant()).thenReturn(Instant.now().minus(age));
+        when(pooledObject.getIdleDuration()).thenReturn(idle);
+        return pooledObject;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import org.apache.directory.api.ldap.model.entry.DefaultEntry;
+import org.apache.directory.api.ldap.model.exception.LdapException;
+import org.apache.directory.api.ldap.model.name.Dn;
+import org.apache.directory.ldap.client.api.LdapConnection;
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class RootDseConnectionValidatorTest {
+    private final LdapConnection connection = mock(LdapConnection.class);
+    private final RootDseConnectionValidator validator = new RootDseConnectionValidator();
+
+    @Test
+    void shouldBeValidWhenRootDseCanBeRead() throws Exception {
+        when(connection.isConnected()).thenReturn(true);
+        when(connection.lookup(Dn.ROOT_DSE, "1.1")).thenReturn(new DefaultEntry());
+
+        assertThat(validator.validate(connection)).isTrue();
+    }
+
+    @Test
+    void shouldBeInvalidWhenDisconnected() {
+        when(connection.isConnected()).thenReturn(false);
+
+        assertThat(validator.validate(connection)).isFalse();
+    }
+
+    @Test
+    void shouldBeInvalidWhenRootDseCannotBeRead() throws Exception {
+        when(connection.isConnected()).thenReturn(true);
+        when(connection.lookup(Dn.ROOT_DSE, "1.1")).thenThrow(new LdapException("connection reset"));
+
+        assertThat(validator.validate(connection)).isFalse();
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.apacheds.pool;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ServerHealthTest {
+    @Test
+    void shouldTakeServerOutOfRotationAfterConsecutiveFailures() {
+        final ServerHealth health = new ServerHealth();
+
+        for (int i = 1; i < ServerHealth.FAILURES_BEFORE_DOWN; i++) {
+            health.recordFailure();
+        }
+        assertThat(health.isAvailable()).isTrue();
+        assertThat(health.needsProbe()).isTrue();
+
+        health.recordFailure();
+        assertThat(health.isAvailable()).isFalse();
+    }
+
+    @Test
+    void shouldReadmitServerOnSuccess() {
+        final ServerHealth health = new ServerHealth();
+        for (int i = 0; i < ServerHealth.FAILURES_BEFORE_DOWN; i++) {
+            health.recordFailure();
+        }
+
+        health.recordSuccess(Duration.ofMillis(5));
+
+        assertThat(health.isAvailable()).isTrue();
+        assertThat(health.needsProbe()).isFalse();
+    }
+
+    @Test
+    void shouldRankFailingAndSlowServersBehindHealthyOnes() {
+        final ServerHealth healthy = new ServerHealth();
+        final ServerHealth slow = new ServerHealth();
+        final ServerHealth failing = new ServerHealth();
+        final ServerHealth down = new ServerHealth();
+
+        healthy.recordSuccess(Duration.ofMillis(2));
+        slow.recordSuccess(Duration.ofMillis(200));
+        failing.recordSuccess(Duration.ofMillis(2));
+        failing.recordFailure();
+        for (int i = 0; i < ServerHealth.FAILURES_BEFORE_DOWN; i++) {
+            down.recordFailure();
+        }
+
+        assertThat(healthy.rank()).isLessThan(slow.rank());
+        assertThat(slow.rank()).isLessThan(failing.rank());
+        assertThat(failing.rank()).isLessThan(down.rank());
+    }
+}
@@ -16,6 +16,11 @@
 
 package cd.go.authentication.ldap;
 
+import cd.go.authentication.ldap.cache.AuthConfigAffinity;
+import cd.go.authentication.ldap.cache.CredentialCache;
+import cd.go.authentication.ldap.cache.UnknownUserCache;
+import cd.go.authentication.ldap.exception.ConnectionPoolExhaustedException;
+import cd.go.authentication.ldap.exception.UserNotFoundException;
 import cd.go.authentication.ldap.mapper.*;
 import cd.go.authentication.ldap.model.*;
 import org.junit.jupiter.api.BeforeEach;
@@ -23,8 +28,12 @@ import org.junit.jupiter.api.Test;
 
 import javax.naming.directory.Attributes;
 import javax.naming.directory.BasicAttributes;
+import java.time.Duration;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.*;
@@ -53,7 +62,8 @@ class LdapAuthenticatorTest {
         when(authConfig.getId()).thenReturn("id");
         when(authConfig.getConfiguration()).thenReturn(ldapConfiguration);
         when(ldapFactory.ldapForConfiguration(ldapConfiguration)).thenReturn(ldapClient);
-        when(ldapMapperFactory.attributeOrEntryMapper()).thenReturn(mock(Mapper.class));
+        when(ldapMapperFactory.attributeOrEntryMapper(any())).thenReturn(mock(Mapper.class));
+        when(ldapConfiguration.getUserMapper(any())).thenReturn(mock(UserMapper.class));
     }
 
     @Test
@@ -110,4 +120,240 @@ class LdapAuthenticatorTest {
 
         assertThat(authenticationResponse.getConfigUsedForAuthentication()).isEqualTo(authConfig);
     }
-}
\ No newline at end of file
+
+    @Test
+    void authenticate_shouldFallThroughToNextAuthConfigWhenConnectionPoolIsExhausted() {
+        final AuthConfig nextAuthConfig = mock(AuthConfig.class);
+        final LdapConfiguration nextLdapConfiguration = mock(LdapConfiguration.class);
+        final LdapClient nextLdapClient = mock(LdapClient.class);
+        final UserMapper userMapper = mock(UserMapper.class);
+        final User user = new User("username", "User", "user@example.com");
+        Attributes attributes = new BasicAttributes();
+
+        when(ldapClient.authenticate(eq(credentials.getUsername()), eq(credentials.getPassword()), any(Mapper.class))).thenThrow(new ConnectionPoolExhaustedException("exhausted"));
+        when(nextAuthConfig.getConfiguration()).thenReturn(nextLdapConfiguration);
+        when(ldapFactory.ldapForConfiguration(nextLdapConfiguration)).thenReturn(nextLdapClient);
+        when(nextLdapClient.authenticate(eq(credentials.getUsername()), eq(credentials.getPassword()), any(Mapper.class))).thenReturn(attributes);
+        when(nextLdapConfiguration.getUserMapper(new UsernameResolver(credentials.getUsername()))).thenReturn(userMapper);
+        when(userMapper.mapObject(new ResultWrapper(attributes))).thenReturn(user);
+
+        final AuthenticationResponse authenticationResponse = ldapAuthenticator.authenticate(credentials, Arrays.asList(authConfig, nextAuthConfig));
+
+        assertThat(authenticationResponse.getUser()).isEqualTo(user);
+        assertThat(authenticationResponse.getConfigUsedForAuthentication()).isEqualTo(nextAuthConfig);
+    }
+
+    @Test
+    void authenticate_shouldAnswerRepeatedAuthenticationFromCredentialCache() {
+        final CredentialCache credentialCache = new CredentialCache(Duration.ofMinutes(5));
+        final UserMapper userMapper = mock(UserMapper.class);
+        final User user = new User("username", "User", "user@example.com");
+        Attributes attributes = new BasicAttributes();
+        ldapAuthenticator = new LdapAuthenticator(ldapFactory, ldapMapperFactory, credentialCache);
+
+        when(ldapClient.authenticate(eq(credentials.getUsername()), eq(credentials.getPassword()), any(Mapper.class))).thenReturn(attributes);
+        when(ldapConfiguration.getUserMapper(new UsernameResolver(credentials.getUsername()))).thenReturn(userMapper);
+        when(userMapper.mapObject(new ResultWrapper(attributes))).thenReturn(user);
+
+        ldapAuthenticator.authenticate(credentials, Collections.singletonList(authConfig));
+        final AuthenticationResponse authenticationResponse = ldapAuthenticator.authenticate(credentials, Collections.singletonList(authConfig));
+
+        assertThat(authenticationResponse.getUser()).isEqualTo(user);
+        assertThat(authenticationResponse.getConfigUsedForAuthentication()).isEqualTo(authConfig);
+        assertThat(credentialCache.hitCount()).isEqualTo(1);
+        verify(ldapClient, times(1)).authenticate(any(), any(), any(Mapper.class));
+    }
+
+    @Test
+    void authenticate_shouldFallThroughToLdapWhenCachedPasswordDoesNotMatch() {
+        final CredentialCache credentialCache = new CredentialCache(Duration.ofMinutes(5));
+        final Credentials otherCredentials = new Credentials("username", "other-password");
+        ldapAuthenticator = new LdapAuthenticator(ldapFactory, ldapMapperFactory, credentialCache);
+        credentialCache.put(authConfig, credentials, new User("username", "User", "user@example.com"));
+
+        when(ldapClient.authenticate(eq(otherCredentials.getUsername()), eq(otherCredentials.getPassword()), any(Mapper.class))).thenThrow(new RuntimeException());
+
+        final AuthenticationResponse authenticationResponse = ldapAuthenticator.authenticate(otherCredentials, Collections.singletonList(authConfig));
+
+        assertThat(authenticationResponse).isNull();
+        verify(ldapClient).authenticate(eq("username"), eq("other-password"), any(Mapper.class));
+        assertThat(credentialCache.verify(authConfig, credentials)).isNull();
+    }
+
+    @Test
+    void authenticate_shouldNotAskLdapAgainForUnknownUser() {
+        final UnknownUserCache unknownUsers = new UnknownUserCache(Duration.ofMinutes(1));
+        ldapAuthenticator = new LdapAuthenticator(ldapFactory, ldapMapperFactory, CredentialCache.disabled(), unknownUsers);
+
+        when(ldapClient.authenticate(eq(credentials.getUsername()), eq(credentials.getPassword()), any(Mapper.class))).thenThrow(new UserNotFoundException("username", "ldap://localhost"));
+
+        assertThat(ldapAuthenticator.authenticate(credentials, Collections.singletonList(authConfig))).isNull();
+        assertThat(ldapAuthenticator.authenticate(new Credentials("USERNAME", "password"), Collections.singletonList(authConfig))).isNull();
+
+        verify(ldapClient, times(1)).authenticate(any(), any(), any(Mapper.class));
+        assertThat(unknownUsers.hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void authenticate_shouldNotRememberUserAsUnknownWhenLdapFails() {
+        final UnknownUserCache unknownUsers = new UnknownUserCache(Duration.ofMinutes(1));
+        ldapAuthenticator = new LdapAuthenticator(ldapFactory, ldapMapperFactory, CredentialCache.disabled(), unknownUsers);
+
+        when(ldapClient.authenticate(eq(credentials.getUsername()), eq(credentials.getPassword()), any(Mapper.class))).thenThrow(new RuntimeException());
+
+        ldapAuthenticator.authenticate(credentials, Collections.singletonList(authConfig));
+
+        assertThat(unknownUsers.isUnknown(authConfig, credentials.getUsername())).isFalse();
+    }
+
+    @Test
+    void authenticate_shouldOnlyBindWithAuthConfigWhoseParallelLookupFoundTheUser() {
+        final AuthConfig nextAuthConfig = mock(AuthConfig.class);
+        final LdapConfiguration nextLdapConfiguration = mock(LdapConfiguration.class);
+        final LdapClient nextLdapClient = mock(LdapClient.class);
+        final UserMapper userMapper = mock(UserMapper.class);
+        final User user = new User("username", "User", "user@example.com");
+        Attributes attributes = new BasicAttributes();
+        ldapAuthenticator = new LdapAuthenticator(ldapFactory, ldapMapperFactory, CredentialCache.disabled(), UnknownUserCache.disabled(), AuthConfigAffinity.disabled(), true);
+
+        doThrow(new UserNotFoundException("username", "ldap://first")).when(ldapClient).findUser(eq(credentials.getUsername()), any(Mapper.class));
+        when(nextAuthConfig.getConfiguration()).thenReturn(nextLdapConfiguration);
+        when(ldapFactory.ldapForConfiguration(nextLdapConfiguration)).thenReturn(nextLdapClient);
+        when(nextLdapConfiguration.getUserMapper(any())).thenReturn(userMapper);
+        when(nextLdapClient.authenticate(eq(credentials.getUsername()), eq(credentials.getPassword()), any(Mapper.class))).thenReturn(attributes);
+        when(userMapper.mapObject(new ResultWrapper(attributes))).thenReturn(user);
+
+        final AuthenticationResponse authenticationResponse = ldapAuthenticator.authenticate(credentials, Arrays.asList(authConfig, nextAuthConfig));
+
+        assertThat(authenticationResponse.getConfigUsedForAuthentication()).isEqualTo(nextAuthConfig);
+        verify(nextLdapClient).findUser(eq(credentials.getUsername()), any(Mapper.class));
+        verify(ldapClient, never()).authenticate(any(), any(), any(Mapper.class));
+    }
+
+    @Test
+    void authenticate_shouldPreferFirstAuthConfigEvenWhenItsParallelLookupFinishesLast() {
+        final AuthConfig nextAuthConfig = mock(AuthConfig.class);
+        final LdapConfiguration nextLdapConfiguration = mock(LdapConfiguration.class);
+        final LdapClient nextLdapClient = mock(LdapClient.class);
+        final UserMapper userMapper = mock(UserMapper.class);
+        final CountDownLatch nextLookupFinished = new CountDownLatch(1);
+        Attributes attributes = new BasicAttributes();
+        ldapAuthenticator = new LdapAuthenticator(ldapFactory, ldapMapperFactory, CredentialCache.disabled(), UnknownUserCache.disabled(), AuthConfigAffinity.disabled(), true);
+
+        doAnswer(invocation -> nextLookupFinished.await(5, TimeUnit.SECONDS)).when(ldapClient).findUser(eq(credentials.getUsername()), any(Mapper.class));
+        doAnswer(invocation -> {
+            nextLookupFinished.countDown();
+            return null;
+        }).when(nextLdapClient).findUser(eq(credentials.getUsername()), any(Mapper.class));
+        when(nextAuthConfig.getConfiguration()).thenReturn(nextLdapConfiguration);
+        when(ldapFactory.ldapForConfiguration(nextLdapConfiguration)).thenReturn(nextLdapClient);
+        when(nextLdapConfiguration.getUserMapper(any())).thenReturn(userMapper);
+        when(ldapConfiguration.getUserMapper(any())).thenReturn(userMapper);
+        when(ldapClient.authenticate(eq(credentials.getUsername()), eq(credentials.getPassword()), any(Mapper.class))).thenReturn(attributes);
+        when(userMapper.mapObject(new ResultWrapper(attributes))).thenReturn(mock(User.class));
+
+        final AuthenticationResponse authenticationResponse = ldapAuthenticator.authenticate(credentials, Arrays.asList(authConfig, nextAuthConfig));
+
+        assertThat(authenticationResponse.getConfigUsedForAuthentication()).isEqualTo(authConfig);
+        verify(nextLdapClient, never()).authenticate(any(), any(), any(Mapper.class));
+    }
+
+    @Test
+    void authenticate_shouldNotInterruptParallelLookupsStillRunningOnceUserIsAuthenticated() throws Exception {
+        final AuthConfig nextAuthConfig = mock(AuthConfig.class);
+        final LdapConfiguration nextLdapConfiguration = mock(LdapConfiguration.class);
+        final LdapClient nextLdapClient = mock(LdapClient.class);
+        final UserMapper userMapper = mock(UserMapper.class);
+        final CountDownLatch nextLookupStarted = new CountDownLatch(1);
+        final CountDownLatch userAuthenticated = new CountDownLatch(1);
+        final CountDownLatch nextLookupFinished = new CountDownLatch(1);
+        final AtomicBoolean nextLookupInterrupted = new AtomicBoolean();
+        Attributes attributes = new BasicAttributes();
+        ldapAuthenticator = new LdapAuthenticator(ldapFactory, ldapMapperFactory, CredentialCache.disabled(), UnknownUserCache.disabled(), AuthConfigAffinity.disabled(), true);
+
+        doAnswer(invocation -> nextLookupStarted.await(5, TimeUnit.SECONDS)).when(ldapClient).findUser(eq(credentials.getUsername()), any(Mapper.class));
+        doAnswer(invocation -> {
+            nextLookupStarted.countDown();
+            try {
+                userAuthenticated.await();
+            } catch (InterruptedException e) {
+                nextLookupInterrupted.set(true);
+            }
+            nextLookupFinished.countDown();
+            return null;
+        }).when(nextLdapClient).findUser(eq(credentials.getUsername()), any(Mapper.class));
+        when(nextAuthConfig.getConfiguration()).thenReturn(nextLdapConfiguration);
+        when(ldapFactory.ldapForConfiguration(nextLdapConfiguration)).thenReturn(nextLdapClient);
+        when(nextLdapConfiguration.getUserMapper(any())).thenReturn(userMapper);
+        when(ldapConfiguration.getUserMapper(any())).thenReturn(userMapper);
+        when(ldapClient.authenticate(eq(credentials.getUsername()), eq(credentials.getPassword()), any(Mapper.class))).thenReturn(attributes);
+        when(userMapper.mapObject(new ResultWrapper(attributes))).thenReturn(mock(User.class));
+
+        final AuthenticationResponse authenticationResponse = ldapAuthenticator.authenticate(credentials, Arrays.asList(authConfig, nextAuthConfig));
+        userAuthenticated.countDown();
+
+        assertThat(authenticationResponse.getConfigUsedForAuthentication()).isEqualTo(authConfig);
+        assertThat(nextLookupFinished.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(nextLookupInterrupted).isFalse();
+    }
+
+    @Test
+    void authenticate_shouldFirstTryAuthConfigWhichAuthenticatedUserBeforeWhenAuthConfigsBeforeItHadNoSuchUser() {
+        final AuthConfig nextAuthConfig = nextAuthConfigAuthenticating(credentials);
+        final LdapClient nextLdapClient = ldapFactory.ldapForConfiguration(nextAuthConfig.getConfiguration());
+        ldapAuthenticator = new LdapAuthenticator(ldapFactory, ldapMapperFactory, CredentialCache.disabled(), UnknownUserCache.disabled(), new AuthConfigAffinity(Duration.ofMinutes(5)), false);
+
+        when(ldapClient.authenticate(eq(credentials.getUsername()), eq(credentials.getPassword()), any(Mapper.class))).thenThrow(new UserNotFoundException("username", "ldap://first"));
+
+        ldapAuthenticator.authenticate(credentials, Arrays.asList(authConfig, nextAuthConfig));
+        final AuthenticationResponse authenticationResponse = ldapAuthenticator.authenticate(credentials, Arrays.asList(authConfig, nextAuthConfig));
+
+        assertThat(authenticationResponse.getConfigUsedForAuthentication()).isEqualTo(nextAuthConfig);
+        verify(ldapClient, times(1)).authenticate(any(), any(), any(Mapper.class));
+        verify(nextLdapClient, times(2)).authenticate(any(), any(), any(Mapper.class));
+    }
+
+    @Test
+    void authenticate_shouldFollowUsualOrderWithoutAuthenticatingAgainWhenPreferredAuthConfigFails() {
+        final AuthConfig nextAuthConfig = nextAuthConfigAuthenticating(credentials);
+        final LdapClient nextLdapClient = ldapFactory.ldapForConfiguration(nextAuthConfig.getConfiguration());
+        ldapAuthenticator = new LdapAuthenticator(ldapFactory, ldapMapperFactory, CredentialCache.disabled(), UnknownUserCache.disabled(), new AuthConfigAffinity(Duration.ofMinutes(5)), false);
+
+        when(ldapClient.authenticate(eq(credentials.getUsername()), eq(credentials.getPassword()), any(Mapper.class))).thenThrow(new UserNotFoundException("username", "ldap://first"));
+        ldapAuthenticator.authenticate(credentials, Arrays.asList(authConfig, nextAuthConfig));
+        when(nextLdapClient.authenticate(eq(credentials.getUsername()), eq(credentials.getPassword()), any(Mapper.class))).thenThrow(new RuntimeException("wrong password"));
+
+        assertThat(ldapAuthenticator.authenticate(credentials, Arrays.asList(authConfig, nextAuthConfig))).isNull();
+
+        verify(ldapClient, times(2)).authenticate(any(), any(), any(Mapper.class));
+        verify(nextLdapClient, times(2)).authenticate(any(), any(), any(Mapper.class));
+    }
+
+    @Test
+    void authenticate_shouldNotPreferAuthConfigWhenAuthConfigBeforeItDidNotAnswer() {
+        final AuthConfig nextAuthConfig = nextAuthConfigAuthenticating(credentials);
+        ldapAuthenticator = new LdapAuthenticator(ldapFactory, ldapMapperFactory, CredentialCache.disabled(), UnknownUserCache.disabled(), new AuthConfigAffinity(Duration.ofMinutes(5)), false);
+
+        when(ldapClient.authenticate(eq(credentials.getUsername()), eq(credentials.getPassword()), any(Mapper.class))).thenThrow(new ConnectionPoolExhaustedException("exhausted"));
+
+        ldapAuthenticator.authenticate(credentials, Arrays.asList(authConfig, nextAuthConfig));
+        ldapAuthenticator.authenticate(credentials, Arrays.asList(authConfig, nextAuthConfig));
+
+        verify(ldapClient, times(2)).authenticate(any(), any(), any(Mapper.class));
+    }
+
+    private AuthConfig nextAuthConfigAuthenticating(Credentials credentials) {
+        final AuthConfig nextAuthConfig = mock(AuthConfig.class);
+        final LdapConfiguration nextLdapConfiguration = mock(LdapConfiguration.class);
+        final LdapClient nextLdapClient = mock(LdapClient.class);
+        final UserMapper userMapper = mock(UserMapper.class);
+        Attributes attributes = new BasicAttributes();
+
+        when(nextAuthConfig.getConfiguration()).thenReturn(nextLdapConfiguration);
+        when(ldapFactory.ldapForConfiguration(nextLdapConfiguration)).thenReturn(nextLdapClient);
+        when(nextLdapConfiguration.getUserMapper(any())).thenReturn(userMapper);
+        when(nextLdapClient.authenticate(eq(credentials.getUsername()), eq(credentials.getPassword()), any(Mapper.class))).thenReturn(attributes);
+        when(userMapper.mapObject(new ResultWrapper(attributes))).thenReturn(new User("username", "User", "user@example.com"));
+        return nextAuthConfig;
+    }
+}
@@ -28,6 +28,8 @@ import uk.org.webcompere.systemstubs.jupiter.SystemStub;
 import uk.org.webcompere.systemstubs.jupiter.SystemStubsExtension;
 import uk.org.webcompere.systemstubs.properties.SystemProperties;
 
+import java.util.List;
+
 import static cd.go.authentication.ldap.PluginSystemProperty.USE_JNDI_LDAP_CLIENT;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.mockito.Mockito.when;
@@ -51,6 +53,7 @@ class LdapFactoryTest {
         ldapFactory = new LdapFactory();
 
         when(ldapConfiguration.getLdapUrl()).thenReturn(new LdapUrl());
+        when(ldapConfiguration.getLdapUrls()).thenReturn(List.of(new LdapUrl()));
     }
 
     @Test
@@ -79,4 +82,20 @@ class LdapFactoryTest {
         assertThat(ldapFactory.ldapForConfiguration(ldapConfiguration))
                 .isInstanceOf(APACHE_DS_CLIENT_CLASS);
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldReuseClientForSameConfiguration() {
+        final LdapClient client = ldapFactory.ldapForConfiguration(ldapConfiguration);
+
+        assertThat(ldapFactory.ldapForConfiguration(ldapConfiguration)).isSameAs(client);
+    }
+
+    @Test
+    void shouldNotReuseApacheDsClientAfterSwitchingToJndiClient() {
+        final LdapClient apacheDsClient = ldapFactory.ldapForConfiguration(ldapConfiguration);
+        systemProperties.set(USE_JNDI_LDAP_CLIENT, "true");
+
+        assertThat(apacheDsClient).isInstanceOf(APACHE_DS_CLIENT_CLASS);
+        assertThat(ldapFactory.ldapForConfiguration(ldapConfiguration)).isInstanceOf(JNDI_CLIENT_CLASS);
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class SearchCancellationTest {
+
+    @Test
+    void shouldAbandonTheSearchesRegisteredWhileRunning() throws Exception {
+        final SearchCancellation cancellation = new SearchCancellation();
+        final AtomicInteger abandoned = new AtomicInteger();
+
+        cancellation.run(() -> {
+            SearchCancellation.onCancel(abandoned::incrementAndGet);
+            SearchCancellation.onCancel(abandoned::incrementAndGet);
+            return null;
+        });
+        assertThat(abandoned.get()).isZero();
+
+        cancellation.cancel();
+        assertThat(abandoned.get()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldAbandonSearchesRightAwayOnceCancelled() throws Exception {
+        final SearchCancellation cancellation = new SearchCancellation();
+        final AtomicInteger abandoned = new AtomicInteger();
+
+        cancellation.cancel();
+        cancellation.run(() -> {
+            SearchCancellation.onCancel(abandoned::incrementAndGet);
+            return null;
+        });
+
+        assertThat(abandoned.get()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldIgnoreSearchesSentOutsideOfACancellation() throws Exception {
+        final SearchCancellation cancellation = new SearchCancellation();
+        final AtomicInteger abandoned = new AtomicInteger();
+
+        cancellation.run(() -> null);
+        SearchCancellation.onCancel(abandoned::incrementAndGet);
+        cancellation.cancel();
+
+        assertThat(abandoned.get()).isZero();
+    }
+}
@@ -66,4 +66,12 @@ class UserMapperTest {
                 .isInstanceOf(InvalidUsernameException.class)
                 .hasMessage("Username can not be blank. Failed to resolve username using the attributes `sAMAccountName` and `uid`.");
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldRequireUsernameDisplayNameAndEmailAttributes() {
+        assertThat(new UserMapper(new UsernameResolver(), "displayName", "mail").requiredAttributes())
+                .containsExactly("sAMAccountName", "uid", "displayName", "mail");
+        assertThat(new UserMapper(new UsernameResolver("J Dude"), "cn", "cn").requiredAttributes())
+                .containsExactly("cn");
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cd.go.authentication.ldap.cache;
+
+import cd.go.apacheds.LdapConfigurationBuilder;
+import cd.go.authentication.ldap.model.AuthConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class AuthConfigAffinityTest {
+    private Clock clock;
+    private Instant now;
+    private List<AuthConfig> authConfigs;
+    private AuthConfigAffinity affinity;
+
+    @BeforeEach
+    void setUp() {
+        clock = mock(Clock.class);
+        now = Instant.parse("2022-01-01T00:00:00Z");
+        when(clock.instant()).thenReturn(now);
+        authConfigs = Arrays.asList(authConfig("first"), authConfig("second"), authConfig("third"));
+        affinity = new AuthConfigAffinity(Duration.ofMinutes(5), clock);
+    }
+
+    @Test
+    void shouldPreferAuthConfigWhichLastAuthenticatedUserUntilItExpires() {
+        affinity.put("bford", authConfigs, 2);
+
+        assertThat(affinity.preferredAuthConfig(" BFord ", authConfigs)).isEqualTo(authConfigs.get(2));
+
+        when(clock.instant()).thenReturn(now.plusSeconds(300));
+        assertThat(affinity.preferredAuthConfig("bford", authConfigs)).isNull();
+    }
+
+    @Test
+    void shouldNotPreferAuthConfigWhenAuthConfigsBeforeItChanged() {
+        affinity.put("bford", authConfigs, 1);
+
+        assertThat(affinity.preferredAuthConfig("bford", Arrays.asList(authConfig("new"), authConfigs.get(0), authConfigs.get(1)))).isNull();
+        assertThat(affinity.preferredAuthConfig("bford", Arrays.asList(authConfigs.get(1), authConfigs.get(0)))).isNull();
+        assertThat(affinity.preferredAuthConfig("bford", Arrays.asList(authConfigs.get(0), authConfigs.get(2)))).isNull();
+    }
+
+    @Test
+    void shouldNotRememberFirstAuthConfig() {
+        affinity.put("bford", authConfigs, 0);
+
+        assertThat(affinity.preferredAuthConfig("bford", authConfigs)).isNull();
+    }
+
+    @Test
+    void shouldNeverRememberAnythingWhenDisabled() {
+        affinity = AuthConfigAffinity.disabled();
+
+        affinity.put("bford", authConfigs, 2);
+
+        assertThat(affinity.preferredAuthConfig("bford", authConfigs)).isNull();
+    }
+
+    private static AuthConfig authConfig(String id) {
+        return new AuthConfig(id, new LdapConfigurationBuilder().withSearchBases("ou=" + id).build());
+    }
+}
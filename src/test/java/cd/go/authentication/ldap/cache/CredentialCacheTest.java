@@ -0,0 +1,118 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.cache;
+
+import cd.go.apacheds.LdapConfigurationBuilder;
+import cd.go.authentication.ldap.model.AuthConfig;
+import cd.go.authentication.ldap.model.Credentials;
+import cd.go.authentication.ldap.model.User;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class CredentialCacheTest {
+    private final AuthConfig authConfig = new AuthConfig("ldap", new LdapConfigurationBuilder().build());
+    private final User user = new User("bford", "Bob Ford", "bford@example.com");
+
+    @Test
+    void shouldReturnCachedUserForSameCredentials() {
+        final CredentialCache cache = new CredentialCache(Duration.ofMinutes(5));
+        cache.put(authConfig, new Credentials("bford", "bob"), user);
+
+        assertThat(cache.verify(authConfig, new Credentials("bford", "bob"))).isEqualTo(user);
+        assertThat(cache.hitCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldEvictEntryWhenPasswordDoesNotMatch() {
+        final CredentialCache cache = new CredentialCache(Duration.ofMinutes(5));
+        cache.put(authConfig, new Credentials("bford", "bob"), user);
+
+        assertThat(cache.verify(authConfig, new Credentials("bford", "wrong-password"))).isNull();
+        assertThat(cache.verify(authConfig, new Credentials("bford", "bob"))).isNull();
+        assertThat(cache.missCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotReturnUserCachedForAnotherAuthConfigOrConfiguration() {
+        final CredentialCache cache = new CredentialCache(Duration.ofMinutes(5));
+        cache.put(authConfig, new Credentials("bford", "bob"), user);
+
+        final AuthConfig otherAuthConfig = new AuthConfig("other", authConfig.getConfiguration());
+        final AuthConfig editedAuthConfig = new AuthConfig("ldap", new LdapConfigurationBuilder().withURL("ldap://other").build());
+
+        assertThat(cache.verify(otherAuthConfig, new Credentials("bford", "bob"))).isNull();
+        assertThat(cache.verify(editedAuthConfig, new Credentials("bford", "bob"))).isNull();
+    }
+
+    @Test
+    void shouldExpireEntriesAfterTimeToLive() {
+        final Clock clock = mock(Clock.class);
+        final Instant now = Instant.parse("2022-01-01T00:00:00Z");
+        when(clock.instant()).thenReturn(now);
+        final CredentialCache cache = new CredentialCache(Duration.ofMinutes(5), clock);
+        cache.put(authConfig, new Credentials("bford", "bob"), user);
+
+        when(clock.instant()).thenReturn(now.plus(Duration.ofMinutes(5)));
+
+        assertThat(cache.verify(authConfig, new Credentials("bford", "bob"))).isNull();
+    }
+
+    @Test
+    void shouldNotCacheAnythingWhenDisabled() {
+        final CredentialCache cache = CredentialCache.disabled();
+        cache.put(authConfig, new Credentials("bford", "bob"), user);
+
+        assertThat(cache.isEnabled()).isFalse();
+        assertThat(cache.verify(authConfig, new Credentials("bford", "bob"))).isNull();
+    }
+
+    @Test
+    void shouldNotCacheBlankPasswords() {
+        final CredentialCache cache = new CredentialCache(Duration.ofMinutes(5));
+        cache.put(authConfig, new Credentials("bford", ""), user);
+
+        assertThat(cache.verify(authConfig, new Credentials("bford", ""))).isNull();
+    }
+
+    @Test
+    void shouldForgetCredentialsOfChangedUsersOfAConfiguration() {
+        final CredentialCache cache = new CredentialCache(Duration.ofMinutes(5));
+        final AuthConfig otherAuthConfig = new AuthConfig("other", new LdapConfigurationBuilder().withURL("ldap://other").build());
+        cache.put(authConfig, new Credentials("bford", "bob"), user);
+        cache.put(authConfig, new Credentials("sbanks", "sam"), user);
+        cache.put(otherAuthConfig, new Credentials("bford", "bob"), user);
+
+        cache.invalidate(authConfig.getConfiguration(), List.of("BFord"));
+
+        assertThat(cache.verify(authConfig, new Credentials("bford", "bob"))).isNull();
+        assertThat(cache.verify(authConfig, new Credentials("sbanks", "sam"))).isEqualTo(user);
+        assertThat(cache.verify(otherAuthConfig, new Credentials("bford", "bob"))).isEqualTo(user);
+
+        cache.invalidate(authConfig.getConfiguration(), null);
+
+        assertThat(cache.verify(authConfig, new Credentials("sbanks", "sam"))).isNull();
+        assertThat(cache.verify(otherAuthConfig, new Credentials("bford", "bob"))).isEqualTo(user);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.cache;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class ExpiringCacheTest {
+    private Clock clock;
+    private Instant now;
+
+    @BeforeEach
+    void setUp() {
+        clock = mock(Clock.class);
+        now = Instant.parse("2022-01-01T00:00:00Z");
+        when(clock.instant()).thenReturn(now);
+    }
+
+    @Test
+    void shouldReturnCachedValueUntilItExpires() {
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(10, Duration.ofMinutes(1), clock);
+        cache.put("bob", "value");
+
+        when(clock.instant()).thenReturn(now.plusSeconds(59));
+        assertThat(cache.get("bob")).isEqualTo("value");
+
+        when(clock.instant()).thenReturn(now.plusSeconds(60));
+        assertThat(cache.get("bob")).isNull();
+        assertThat(cache.size()).isEqualTo(0);
+        assertThat(cache.evictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldEvictLeastRecentlyUsedEntryWhenFull() {
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(2, Duration.ofMinutes(1), clock);
+        cache.put("bob", "1");
+        cache.put("alice", "2");
+        cache.get("bob");
+        cache.put("jdoe", "3");
+
+        assertThat(cache.get("alice")).isNull();
+        assertThat(cache.get("bob")).isEqualTo("1");
+        assertThat(cache.get("jdoe")).isEqualTo("3");
+        assertThat(cache.evictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldCountHitsAndMisses() {
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(10, Duration.ofMinutes(1), clock);
+        cache.put("bob", "value");
+
+        cache.get("bob");
+        cache.get("bob");
+        cache.get("alice");
+
+        assertThat(cache.hitCount()).isEqualTo(2);
+        assertThat(cache.missCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldInvalidateMatchingEntriesAndReturnTheirKeys() {
+        final ExpiringCache<String, String> cache = new ExpiringCache<>(10, Duration.ofMinutes(1), clock);
+        cache.put("bob", "ou=users");
+        cache.put("alice", "ou=admins");
+        cache.put("jdoe", "ou=users");
+
+        assertThat(cache.invalidateIf((key, value) -> value.equals("ou=users"))).containsExactly("bob", "jdoe");
+        assertThat(cache.get("bob")).isNull();
+        assertThat(cache.get("alice")).isEqualTo("ou=admins");
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.cache;
+
+import cd.go.apacheds.LdapConfigurationBuilder;
+import cd.go.authentication.ldap.LdapClient;
+import cd.go.authentication.ldap.model.LdapConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.*;
+
+class LdapClientCacheTest {
+    private Clock clock;
+
+    @BeforeEach
+    void setUp() {
+        clock = mock(Clock.class);
+        when(clock.millis()).thenReturn(0L);
+    }
+
+    @Test
+    void shouldReuseClientForEqualConfigurations() {
+        final LdapClientCache cache = new LdapClientCache(10, Duration.ofMinutes(30), clock);
+
+        final LdapClient client = cache.get(new LdapConfigurationBuilder().build(), c -> mock(LdapClient.class));
+        final LdapClient sameClient = cache.get(new LdapConfigurationBuilder().build(), c -> mock(LdapClient.class));
+        final LdapClient otherClient = cache.get(new LdapConfigurationBuilder().withURL("ldap://other").build(), c -> mock(LdapClient.class));
+
+        assertThat(sameClient).isSameAs(client);
+        assertThat(otherClient).isNotSameAs(client);
+        assertThat(cache.size()).isEqualTo(2);
+    }
+
+    @Test
+    void shouldEvictAndCloseLeastRecentlyUsedClientWhenFull() {
+        final LdapClientCache cache = new LdapClientCache(2, Duration.ofMinutes(30), clock);
+        final LdapConfiguration first = new LdapConfigurationBuilder().withURL("ldap://first").build();
+        final LdapClient firstClient = mock(LdapClient.class);
+        final LdapClient secondClient = mock(LdapClient.class);
+
+        cache.get(first, c -> firstClient);
+        when(clock.millis()).thenReturn(1L);
+        cache.get(new LdapConfigurationBuilder().withURL("ldap://second").build(), c -> secondClient);
+        when(clock.millis()).thenReturn(2L);
+        cache.get(first, c -> mock(LdapClient.class));
+        when(clock.millis()).thenReturn(3L);
+        cache.get(new LdapConfigurationBuilder().withURL("ldap://third").build(), c -> mock(LdapClient.class));
+
+        assertThat(cache.size()).isEqualTo(2);
+        verify(secondClient).close();
+        verify(firstClient, never()).close();
+    }
+
+    @Test
+    void shouldEvictAndCloseClientsWhichHaveNotBeenUsedForMaximumIdleTime() {
+        final LdapClientCache cache = new LdapClientCache(10, Duration.ofMinutes(30), clock);
+        final LdapClient editedClient = mock(LdapClient.class);
+        cache.get(new LdapConfigurationBuilder().withURL("ldap://before-edit").build(), c -> editedClient);
+
+        when(clock.millis()).thenReturn(Duration.ofMinutes(30).toMillis());
+        cache.get(new LdapConfigurationBuilder().withURL("ldap://after-edit").build(), c -> mock(LdapClient.class));
+
+        assertThat(cache.size()).isEqualTo(1);
+        verify(editedClient).close();
+    }
+
+    @Test
+    void shouldNotCacheClientWithoutConfiguration() {
+        final LdapClientCache cache = new LdapClientCache(10, Duration.ofMinutes(30), clock);
+
+        cache.get(null, c -> mock(LdapClient.class));
+
+        assertThat(cache.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package cd.go.authentication.ldap.cache;
+
+import cd.go.apacheds.LdapConfigurationBuilder;
+import cd.go.authentication.ldap.exception.LdapException;
+import cd.go.authentication.ldap.model.AuthConfig;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class LookupCoalescerTest {
+    private AuthConfig authConfig;
+    private LookupCoalescer<String> coalescer;
+    private ExecutorService executor;
+
+    @BeforeEach
+    void setUp() {
+        authConfig = new AuthConfig("ldap", new LdapConfigurationBuilder().build());
+        coalescer = new LookupCoalescer<>();
+        executor = Executors.newCachedThreadPool();
+    }
+
+    @AfterEach
+    void tearDown() {
+        executor.shutdownNow();
+    }
+
+    @Test
+    void shouldLetIdenticalLookupsRunningAtTheSameTimeShareOneSearch() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger searches = new AtomicInteger();
+
+        final Future<String> first = executor.submit(() -> coalescer.lookup("is-valid-user", authConfig, "bford", () -> {
+            searches.incrementAndGet();
+            await(release);
+            return "found";
+        }));
+        waitUntilSearchStarted(searches);
+        final Future<String> second = executor.submit(() -> coalescer.lookup("is-valid-user", authConfig, " BFord ", () -> {
+            searches.incrementAndGet();
+            return "searched again";
+        }));
+        waitUntilCoalesced(1);
+        release.countDown();
+
+        assertThat(first.get(5, TimeUnit.SECONDS)).isEqualTo("found");
+        assertThat(second.get(5, TimeUnit.SECONDS)).isEqualTo("found");
+        assertThat(searches.get()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldNotShareSearchesOfDifferentOperationsOrAuthConfigs() {
+        final AuthConfig otherAuthConfig = new AuthConfig("other", authConfig.getConfiguration());
+        final AtomicInteger searches = new AtomicInteger();
+
+        coalescer.lookup("is-valid-user", authConfig, "bford", () -> coalescer.lookup("search-users", authConfig, "bford",
+                () -> coalescer.lookup("is-valid-user", otherAuthConfig, "bford", () -> String.valueOf(searches.incrementAndGet()))));
+
+        assertThat(searches.get()).isEqualTo(1);
+        assertThat(coalescer.coalescedCount()).isZero();
+    }
+
+    @Test
+    void shouldSearchAgainOnceTheSearchIsDone() {
+        assertThatThrownBy(() -> coalescer.lookup("is-valid-user", authConfig, "bford", () -> {
+            throw new LdapException("server down");
+        })).hasMessage("server down");
+
+        assertThat(coalescer.lookup("is-valid-user", authConfig, "bford", () -> "found")).isEqualTo("found");
+    }
+
+    @Test
+    void shouldSearchItselfWhenTheCallerItWaitedForWasCancelled() throws Exception {
+        final AtomicInteger searches = new AtomicInteger();
+
+        final Future<String> cancelled = executor.submit(() -> coalescer.lookup("search-users", authConfig, "b", () -> {
+            searches.incrementAndGet();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new LdapException("Interrupted", e);
+            }
+            return "never";
+        }));
+        waitUntilSearchStarted(searches);
+        final Future<String> waiting = executor.submit(() -> coalescer.lookup("search-users", authConfig, "b", () -> "found"));
+        waitUntilCoalesced(1);
+        cancelled.cancel(true);
+
+        assertThat(waiting.get(5, TimeUnit.SECONDS)).isEqualTo("found");
+    }
+
+    @Test
+    void shouldSearchItselfWhenTheSearchItWaitedForWasAbandoned() throws Exception {
+        final AtomicInteger searches = new AtomicInteger();
+        final CountDownLatch abandon = new CountDownLatch(1);
+
+        final Future<String> abandoned = executor.submit(() -> coalescer.lookup("search-users", authConfig, "b", () -> {
+            searches.incrementAndGet();
+            await(abandon);
+            throw new CancellationException("Search was cancelled.");
+        }));
+        waitUntilSearchStarted(searches);
+        final Future<String> waiting = executor.submit(() -> coalescer.lookup("search-users", authConfig, "b", () -> "found"));
+        waitUntilCoalesced(1);
+        abandon.countDown();
+
+        assertThat(waiting.get(5, TimeUnit.SECONDS)).isEqualTo("found");
+        assertThatThrownBy(() -> abandoned.get(5, TimeUnit.SECONDS)).hasCauseInstanceOf(CancellationException.class);
+    }
+
+    private void waitUntilSearchStarted(AtomicInteger searches) throws InterruptedException {
+        while (searches.get() == 0) {
+            Thread.sleep(5);
+        }
+    }
+
+    private void waitUntilCoalesced(long count) throws InterruptedException {
+        while (coalescer.coalescedCount() < count) {
+            Thread.sleep(5);
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
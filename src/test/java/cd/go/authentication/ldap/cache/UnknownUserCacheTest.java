@@ -0,0 +1,98 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.cache;
+
+import cd.go.apacheds.LdapConfigurationBuilder;
+import cd.go.authentication.ldap.model.AuthConfig;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UnknownUserCacheTest {
+    private Clock clock;
+    private Instant now;
+    private AuthConfig authConfig;
+    private UnknownUserCache cache;
+
+    @BeforeEach
+    void setUp() {
+        clock = mock(Clock.class);
+        now = Instant.parse("2022-01-01T00:00:00Z");
+        when(clock.instant()).thenReturn(now);
+        authConfig = new AuthConfig("ldap", new LdapConfigurationBuilder().build());
+        cache = new UnknownUserCache(Duration.ofSeconds(30), clock);
+    }
+
+    @Test
+    void shouldRememberUnknownUserIgnoringCaseUntilItExpires() {
+        cache.put(authConfig, "bford");
+
+        assertThat(cache.isUnknown(authConfig, " BFord ")).isTrue();
+
+        when(clock.instant()).thenReturn(now.plusSeconds(30));
+        assertThat(cache.isUnknown(authConfig, "bford")).isFalse();
+        assertThat(cache.hitCount()).isEqualTo(1);
+        assertThat(cache.missCount()).isEqualTo(1);
+        assertThat(cache.evictionCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldForgetUnknownUsersOfEditedAuthConfig() {
+        cache.put(authConfig, "bford");
+
+        final AuthConfig edited = new AuthConfig("ldap", new LdapConfigurationBuilder().withSearchBases("ou=other").build());
+
+        assertThat(cache.isUnknown(edited, "bford")).isFalse();
+        assertThat(cache.isUnknown(new AuthConfig("other", authConfig.getConfiguration()), "bford")).isFalse();
+    }
+
+    @Test
+    void shouldNeverRememberAnythingWhenDisabled() {
+        cache = UnknownUserCache.disabled();
+
+        cache.put(authConfig, "bford");
+
+        assertThat(cache.isUnknown(authConfig, "bford")).isFalse();
+    }
+
+    @Test
+    void shouldForgetChangedUsersOfAConfiguration() {
+        final AuthConfig other = new AuthConfig("other", new LdapConfigurationBuilder().withSearchBases("ou=other").build());
+        cache.put(authConfig, "bford");
+        cache.put(authConfig, "sbanks");
+        cache.put(other, "bford");
+
+        cache.invalidate(authConfig.getConfiguration(), List.of(" BFord"));
+
+        assertThat(cache.isUnknown(authConfig, "bford")).isFalse();
+        assertThat(cache.isUnknown(authConfig, "sbanks")).isTrue();
+        assertThat(cache.isUnknown(other, "bford")).isTrue();
+
+        cache.invalidate(authConfig.getConfiguration(), null);
+
+        assertThat(cache.isUnknown(authConfig, "sbanks")).isFalse();
+        assertThat(cache.isUnknown(other, "bford")).isTrue();
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.cache;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class UserEntryCacheTest {
+    @Test
+    void shouldRememberEntryUntilItExpires() {
+        final Clock clock = mock(Clock.class);
+        when(clock.instant()).thenReturn(Instant.ofEpochSecond(0));
+        final UserEntryCache<String> cache = new UserEntryCache<>(Duration.ofMinutes(5), clock);
+
+        cache.put("bford", "uid=bford,ou=system");
+        assertThat(cache.get("bford")).isEqualTo("uid=bford,ou=system");
+
+        when(clock.instant()).thenReturn(Instant.ofEpochSecond(300));
+        assertThat(cache.get("bford")).isNull();
+        assertThat(cache.hitCount()).isEqualTo(1);
+        assertThat(cache.missCount()).isEqualTo(1);
+    }
+
+    @Test
+    void shouldForgetInvalidatedEntry() {
+        final UserEntryCache<String> cache = new UserEntryCache<>(Duration.ofMinutes(5));
+
+        cache.put("bford", "uid=bford,ou=system");
+        cache.invalidate("bford");
+
+        assertThat(cache.get("bford")).isNull();
+    }
+
+    @Test
+    void shouldNeverRememberAnythingWhenDisabled() {
+        final UserEntryCache<String> cache = UserEntryCache.disabled();
+
+        cache.put("bford", "uid=bford,ou=system");
+
+        assertThat(cache.get("bford")).isNull();
+    }
+}
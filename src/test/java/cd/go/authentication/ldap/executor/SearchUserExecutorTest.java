@@ -19,7 +19,9 @@ package cd.go.authentication.ldap.executor;
 import cd.go.authentication.ldap.LdapClient;
 import cd.go.authentication.ldap.LdapFactory;
 import cd.go.authentication.ldap.RequestBodyMother;
+import cd.go.authentication.ldap.SearchCancellation;
 import cd.go.authentication.ldap.mapper.UserMapper;
+import cd.go.authentication.ldap.model.AuthConfig;
 import cd.go.authentication.ldap.model.LdapConfiguration;
 import cd.go.authentication.ldap.model.User;
 import com.thoughtworks.go.plugin.api.request.GoPluginApiRequest;
@@ -29,7 +31,17 @@ import org.junit.jupiter.api.Test;
 import org.mockito.ArgumentCaptor;
 import org.skyscreamer.jsonassert.JSONAssert;
 
+import java.time.Duration;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import static cd.go.authentication.ldap.RequestBodyMother.forSearchWithMultipleAuthConfigs;
 import static cd.go.authentication.ldap.RequestBodyMother.forSearchWithSearchFilter;
@@ -154,4 +166,87 @@ class SearchUserExecutorTest {
         assertThat(response.responseCode()).isEqualTo(200);
         JSONAssert.assertEquals(expectedJSON, response.responseBody(), true);
     }
-}
\ No newline at end of file
+
+    @Test
+    void shouldReturnUsersFoundBeforeTheSearchDeadline() throws Exception {
+        final LdapClient slowLdapClient = mock(LdapClient.class);
+        final CountDownLatch neverAnswers = new CountDownLatch(1);
+        final User user = new User("username", "displayName", "mail");
+
+        when(ldapFactory.ldapForConfiguration(any(LdapConfiguration.class))).thenReturn(slowLdapClient).thenReturn(ldapClient);
+        when(slowLdapClient.search(any(String.class), eq(new String[]{"some-text"}), any(UserMapper.class), anyInt())).thenAnswer(invocation -> {
+            neverAnswers.await();
+            return Collections.emptyList();
+        });
+        when(ldapClient.search(any(String.class), eq(new String[]{"some-text"}), any(UserMapper.class), anyInt())).thenReturn(Collections.singletonList(user));
+        when(request.requestBody()).thenReturn(forSearchWithMultipleAuthConfigs("some-text"));
+
+        final GoPluginApiResponse response = new SearchUserExecutor(ldapFactory, Duration.ofMillis(500)).execute(request);
+        neverAnswers.countDown();
+
+        assertThat(response.responseCode()).isEqualTo(200);
+        JSONAssert.assertEquals("[{\"username\": \"username\", \"display_name\": \"displayName\", \"email\": \"mail\"}]", response.responseBody(), true);
+    }
+
+    @Test
+    void shouldAbandonSearchesStillRunningAtTheSearchDeadline() throws Exception {
+        final LdapClient slowLdapClient = mock(LdapClient.class);
+        final CountDownLatch abandoned = new CountDownLatch(1);
+        final AtomicBoolean slowSearchInterrupted = new AtomicBoolean();
+        final User user = new User("username", "displayName", "mail");
+
+        when(ldapFactory.ldapForConfiguration(any(LdapConfiguration.class))).thenReturn(slowLdapClient).thenReturn(ldapClient);
+        when(slowLdapClient.search(any(String.class), eq(new String[]{"some-text"}), any(UserMapper.class), anyInt())).thenAnswer(invocation -> {
+            SearchCancellation.onCancel(abandoned::countDown);
+            try {
+                abandoned.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                slowSearchInterrupted.set(true);
+            }
+            throw new CancellationException("Search was cancelled.");
+        });
+        when(ldapClient.search(any(String.class), eq(new String[]{"some-text"}), any(UserMapper.class), anyInt())).thenReturn(Collections.singletonList(user));
+
+        final Set<User> foundUsers = new SearchUserExecutor(ldapFactory, Duration.ofMillis(500))
+                .searchUsers("some-text", AuthConfig.fromJSONList(forSearchWithMultipleAuthConfigs("some-text")));
+
+        assertThat(foundUsers).containsExactly(user);
+        assertThat(abandoned.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(slowSearchInterrupted).isFalse();
+    }
+
+    @Test
+    void shouldNotWaitForOutstandingSearchesOnceEnoughUsersAreFound() throws Exception {
+        final LdapClient slowLdapClient = mock(LdapClient.class);
+        final CountDownLatch slowSearchStarted = new CountDownLatch(1);
+        final CountDownLatch usersFound = new CountDownLatch(1);
+        final AtomicBoolean slowSearchInterrupted = new AtomicBoolean();
+        final CountDownLatch slowSearchFinished = new CountDownLatch(1);
+        final List<User> users = IntStream.range(0, 150).mapToObj(i -> new User("user-" + i, "User " + i, "user-" + i + "@example.com")).collect(Collectors.toList());
+
+        when(ldapFactory.ldapForConfiguration(any(LdapConfiguration.class))).thenReturn(slowLdapClient).thenReturn(ldapClient);
+        when(slowLdapClient.search(any(String.class), eq(new String[]{"some-text"}), any(UserMapper.class), anyInt())).thenAnswer(invocation -> {
+            slowSearchStarted.countDown();
+            try {
+                usersFound.await();
+            } catch (InterruptedException e) {
+                slowSearchInterrupted.set(true);
+            }
+            slowSearchFinished.countDown();
+            return Collections.emptyList();
+        });
+        when(ldapClient.search(any(String.class), eq(new String[]{"some-text"}), any(UserMapper.class), anyInt())).thenAnswer(invocation -> {
+            slowSearchStarted.await(5, TimeUnit.SECONDS);
+            return users;
+        });
+
+        final Set<User> foundUsers = new SearchUserExecutor(ldapFactory, Duration.ofMinutes(1))
+                .searchUsers("some-text", AuthConfig.fromJSONList(forSearchWithMultipleAuthConfigs("some-text")));
+
+        usersFound.countDown();
+
+        assertThat(foundUsers).hasSize(100);
+        assertThat(slowSearchFinished.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(slowSearchInterrupted).isFalse();
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.mirror;
+
+import cd.go.apacheds.LdapConfigurationBuilder;
+import cd.go.authentication.ldap.model.AuthConfig;
+import cd.go.authentication.ldap.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Arrays;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MirrorSnapshotFileTest {
+    @TempDir
+    Path directory;
+    private AuthConfig authConfig;
+    private MirrorSnapshot snapshot;
+    private Instant loadedAt;
+    private Instant lastFullReload;
+
+    @BeforeEach
+    void setUp() {
+        authConfig = new AuthConfig("ldap", new LdapConfigurationBuilder()
+                .withManagerDN("uid=admin,ou=system")
+                .withPassword("secret-password")
+                .withUserMirrorFilter("objectClass=person")
+                .build());
+        loadedAt = Instant.parse("2022-01-01T00:15:00Z");
+        lastFullReload = Instant.parse("2022-01-01T00:00:00Z");
+        snapshot = new MirrorSnapshot(Arrays.asList(
+                new MirroredUser("uid=bford,ou=users,ou=system", new User("bford", "Bob Ford", "bford@example.com"), 11L, "20220101000000.0Z"),
+                new MirroredUser("uid=jdoe,ou=users,ou=system", new User("jdoe", "Jöhn Dœ", null)),
+                new MirroredUser("uid=sbanks,ou=users,ou=system", new User("sbanks", "Sarah Banks", "sbanks@example.com"), null, "20211231000000Z")), loadedAt, "ldap://first");
+    }
+
+    @Test
+    void shouldReadUsersWrittenBefore() throws Exception {
+        final MirrorSnapshotFile file = MirrorSnapshotFile.of(directory, authConfig);
+        file.write(snapshot, lastFullReload);
+
+        final MirrorSnapshotFile.Contents contents = MirrorSnapshotFile.of(directory, authConfig).read();
+
+        assertThat(contents.getSnapshot().getUsers()).containsExactlyElementsOf(snapshot.getUsers());
+        assertThat(contents.getSnapshot().getLoadedAt()).isEqualTo(loadedAt);
+        assertThat(contents.getLastFullReload()).isEqualTo(lastFullReload);
+        assertThat(contents.getSnapshot().getHighWaterMark().changedSinceFilter()).isEqualTo("(uSNChanged>=11)");
+        assertThat(contents.getSnapshot().getServer()).isEqualTo("ldap://first");
+        assertThat(contents.getSnapshot().getHighWaterMark().holdsOn("ldap://first")).isTrue();
+    }
+
+    @Test
+    void shouldNeverWriteCredentialsOfAuthConfig() throws Exception {
+        final MirrorSnapshotFile file = MirrorSnapshotFile.of(directory, authConfig);
+        file.write(snapshot, lastFullReload);
+
+        final String contents = new String(Files.readAllBytes(file.getPath()), StandardCharsets.ISO_8859_1);
+        assertThat(contents).doesNotContain("secret-password").doesNotContain("uid=admin");
+        assertThat(file.getPath().getFileName().toString()).doesNotContain("secret-password").doesNotContain("admin");
+    }
+
+    @Test
+    void shouldUseAnotherFileForEditedAuthConfig() {
+        final AuthConfig edited = new AuthConfig("ldap", new LdapConfigurationBuilder()
+                .withManagerDN("uid=admin,ou=system")
+                .withPassword("secret-password")
+                .withUserMirrorFilter("objectClass=inetOrgPerson")
+                .build());
+        final AuthConfig withOtherPassword = new AuthConfig("ldap", new LdapConfigurationBuilder()
+                .withManagerDN("uid=admin,ou=system")
+                .withPassword("other-password")
+                .withUserMirrorFilter("objectClass=person")
+                .build());
+
+        assertThat(MirrorSnapshotFile.of(directory, edited).getPath()).isNotEqualTo(MirrorSnapshotFile.of(directory, authConfig).getPath());
+        assertThat(MirrorSnapshotFile.of(directory, withOtherPassword).getPath()).isEqualTo(MirrorSnapshotFile.of(directory, authConfig).getPath());
+    }
+
+    @Test
+    void shouldDiscardCorruptFile() throws Exception {
+        final MirrorSnapshotFile file = MirrorSnapshotFile.of(directory, authConfig);
+        file.write(snapshot, lastFullReload);
+        final byte[] contents = Files.readAllBytes(file.getPath());
+        contents[contents.length / 2] ^= 0x01;
+        Files.write(file.getPath(), contents);
+
+        assertThat(file.read()).isNull();
+        assertThat(file.getPath()).doesNotExist();
+    }
+
+    @Test
+    void shouldDiscardTruncatedFile() throws Exception {
+        final MirrorSnapshotFile file = MirrorSnapshotFile.of(directory, authConfig);
+        file.write(snapshot, lastFullReload);
+        final byte[] contents = Files.readAllBytes(file.getPath());
+        Files.write(file.getPath(), Arrays.copyOf(contents, contents.length - 10));
+
+        assertThat(file.read()).isNull();
+        assertThat(file.getPath()).doesNotExist();
+    }
+
+    @Test
+    void shouldIgnoreFileOfAnotherVersion() throws Exception {
+        final MirrorSnapshotFile file = MirrorSnapshotFile.of(directory, authConfig);
+        final byte[] contents = MirrorSnapshotFile.encode(snapshot, lastFullReload);
+        ByteBuffer.wrap(contents).putInt(4, MirrorSnapshotFile.VERSION + 1);
+        Files.write(file.getPath(), contents);
+
+        assertThat(file.read()).isNull();
+    }
+
+    @Test
+    void shouldReturnNothingWhenFileDoesNotExist() {
+        assertThat(MirrorSnapshotFile.of(directory, authConfig).read()).isNull();
+    }
+
+    @Test
+    void shouldReplaceUsersWrittenBefore() throws Exception {
+        final MirrorSnapshotFile file = MirrorSnapshotFile.of(directory, authConfig);
+        file.write(snapshot, lastFullReload);
+        file.write(new MirrorSnapshot(snapshot.getUsers().subList(0, 1), loadedAt.plusSeconds(900)), lastFullReload);
+
+        assertThat(file.read().getSnapshot().getUsers()).containsExactly(snapshot.getUsers().get(0));
+        try (var files = Files.list(directory)) {
+            assertThat(files).containsExactly(file.getPath());
+        }
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.mirror;
+
+import cd.go.authentication.ldap.model.User;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MirrorSnapshotTest {
+    private final MirrorSnapshot snapshot = new MirrorSnapshot(Arrays.asList(
+            new MirroredUser("uid=bford,ou=users,ou=system", new User("bford", "Bob Ford", "bford@example.com")),
+            new MirroredUser("uid=sbanks,ou=users,ou=system", new User("sbanks", "Sarah Banks", "sbanks@example.com")),
+            new MirroredUser("uid=nousername,ou=users,ou=system", new User(null, "No Username", null))
+    ), Instant.parse("2022-01-01T00:00:00Z"));
+
+    @Test
+    void shouldSearchUsernameDisplayNameAndEmailIgnoringCase() {
+        assertThat(snapshot.search("BFORD", 100)).containsExactly(new User("bford", "Bob Ford", "bford@example.com"));
+        assertThat(snapshot.search("sarah", 100)).containsExactly(new User("sbanks", "Sarah Banks", "sbanks@example.com"));
+        assertThat(snapshot.search("example.com", 100)).hasSize(2);
+        assertThat(snapshot.search("example.com", 1)).hasSize(1);
+        assertThat(snapshot.search("nobody", 100)).isEmpty();
+    }
+
+    @Test
+    void shouldFindTheSameUsersWithSearchIndexAsByLookingAtEveryUser() {
+        final Random random = new Random(42);
+        final String[] names = {"Ford", "Banks", "Parker", "Doe", "Müller", "O'Brien", "Nguyễn"};
+        final List<MirroredUser> users = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            final String name = names[random.nextInt(names.length)] + " " + names[random.nextInt(names.length)];
+            final String username = name.toLowerCase(Locale.ROOT).replaceAll("[^a-z]", "") + i;
+            users.add(new MirroredUser("uid=" + username, new User(username, name, random.nextBoolean() ? username + "@example.com" : null)));
+        }
+        final MirrorSnapshot snapshot = new MirrorSnapshot(users, Instant.parse("2022-01-01T00:00:00Z"));
+
+        for (String term : new String[]{"ford", "FORD ban", "rd b", "üll", "@example.com", "ker1", "17", "nguy", "xyz", "ford banks1"}) {
+            final String normalized = term.trim().toLowerCase(Locale.ROOT);
+            final List<User> expected = new ArrayList<>();
+            for (MirroredUser user : users) {
+                if (user.getUser().getUsername().contains(normalized) || user.getUser().getDisplayName().toLowerCase(Locale.ROOT).contains(normalized) ||
+                        (user.getUser().getEmailId() != null && user.getUser().getEmailId().contains(normalized))) {
+                    expected.add(user.getUser());
+                }
+            }
+
+            assertThat(snapshot.search(term, 1000)).as(term).containsExactlyElementsOf(expected);
+            assertThat(snapshot.search(term, 10)).as(term).containsExactlyElementsOf(expected.subList(0, Math.min(10, expected.size())));
+        }
+    }
+
+    @Test
+    void shouldTellWhetherUserExistsIgnoringCase() {
+        assertThat(snapshot.contains(" BFord ")).isTrue();
+        assertThat(snapshot.contains("bob")).isFalse();
+        assertThat(snapshot.contains(null)).isFalse();
+    }
+
+    @Test
+    void shouldReplaceChangedUsersWhenMerging() {
+        final MirrorSnapshot merged = snapshot.merge(Arrays.asList(
+                new MirroredUser("uid=sbanks,ou=users,ou=system", new User("sparker", "Sarah Parker", "sparker@example.com")),
+                new MirroredUser("uid=pbanks,ou=users,ou=system", new User("pbanks", "Phillip Banks", "pbanks@example.com"))
+        ), Instant.parse("2022-01-01T00:15:00Z"));
+
+        assertThat(merged.getUsers()).extracting(user -> user.getUser().getUsername()).containsExactly("bford", "sparker", "pbanks");
+        assertThat(merged.contains("sbanks")).isFalse();
+        assertThat(merged.getLoadedAt()).isEqualTo(Instant.parse("2022-01-01T00:15:00Z"));
+        assertThat(snapshot.contains("sbanks")).isTrue();
+    }
+
+    @Test
+    void shouldSkipUsersWithoutUsername() {
+        assertThat(snapshot.size()).isEqualTo(2);
+        assertThat(snapshot.search("No Username", 100)).isEmpty();
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.mirror;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PrimitiveIterator;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TrigramIndexTest {
+    private final TrigramIndex index = TrigramIndex.of(Arrays.asList(
+            new String[]{"bford", "bob ford", "bford@example.com"},
+            new String[]{"sbanks", "sarah banks", "sbanks@example.com"},
+            new String[]{"pbanks", "phillip banks", null},
+            new String[]{"jdoe", "jdoe", "jdoe@example.org"}));
+
+    @Test
+    void shouldFindDocumentsContainingAllTrigramsOfTerm() {
+        assertThat(candidates("banks")).containsExactly(1, 2);
+        assertThat(candidates("example.com")).containsExactly(0, 1);
+        assertThat(candidates("example")).containsExactly(0, 1, 3);
+        assertThat(candidates("doe")).containsExactly(3);
+    }
+
+    @Test
+    void shouldFindNothingWhenATrigramOfTermIsUnknown() {
+        assertThat(candidates("banksy")).isEmpty();
+        assertThat(candidates("nobody")).isEmpty();
+    }
+
+    @Test
+    void shouldLeaveTermsShorterThanATrigramToCaller() {
+        assertThat(index.candidates("bf")).isNull();
+        assertThat(index.candidates("")).isNull();
+    }
+
+    @Test
+    void shouldFindDocumentsWhoseValuesTogetherContainTheTrigramsSoCallersNeedToCheckThem() {
+        final TrigramIndex index = TrigramIndex.of(Arrays.asList(new String[]{"abcd", "xbcde"}, new String[]{"abcdx", null}));
+
+        assertThat(candidates(index, "abcde")).containsExactly(0);
+    }
+
+    @Test
+    void shouldKeepEachTrigramOfADocumentOnce() {
+        final TrigramIndex index = TrigramIndex.of(Arrays.asList(new String[]{"aaaa", "aaa"}, new String[]{"aaab", null}));
+
+        assertThat(index.trigramCount()).isEqualTo(2);
+        assertThat(index.postingCount()).isEqualTo(3);
+        assertThat(candidates(index, "aaa")).containsExactly(0, 1);
+    }
+
+    private List<Integer> candidates(String term) {
+        return candidates(index, term);
+    }
+
+    private static List<Integer> candidates(TrigramIndex index, String term) {
+        final List<Integer> documents = new ArrayList<>();
+        final PrimitiveIterator.OfInt candidates = index.candidates(term);
+        candidates.forEachRemaining((int document) -> documents.add(document));
+        return documents;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.mirror;
+
+import cd.go.apacheds.LdapConfigurationBuilder;
+import cd.go.authentication.ldap.LdapClient;
+import cd.go.authentication.ldap.LdapFactory;
+import cd.go.authentication.ldap.model.AuthConfig;
+import cd.go.authentication.ldap.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.stubbing.Answer;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class UserMirrorTest {
+    private LdapClient ldapClient;
+    private Clock clock;
+    private Instant now;
+    private UserMirror mirror;
+
+    @BeforeEach
+    void setUp() {
+        final LdapFactory ldapFactory = mock(LdapFactory.class);
+        ldapClient = mock(LdapClient.class);
+        clock = mock(Clock.class);
+        now = Instant.parse("2022-01-01T00:00:00Z");
+        when(clock.instant()).thenReturn(now);
+
+        final AuthConfig authConfig = new AuthConfig("ldap", new LdapConfigurationBuilder().withUserMirrorFilter("objectClass=person").build());
+        when(ldapFactory.ldapForConfiguration(authConfig.getConfiguration())).thenReturn(ldapClient);
+        mirror = new UserMirror(authConfig, ldapFactory, Duration.ofHours(6), 500, clock);
+    }
+
+    @Test
+    void shouldOnlyLoadUsersChangedSinceLatestUsnChanged() {
+        when(ldapClient.searchAll(eq("(objectClass=person)"), any(), eq(500), any())).thenAnswer(answeredBy("ldap://first", Arrays.asList(
+                new MirroredUser("uid=bford", new User("bford", "Bob Ford", null), 11L, "20220101000000.0Z"),
+                new MirroredUser("uid=sbanks", new User("sbanks", "Sarah Banks", null), 12L, "20211231000000.0Z"))));
+        when(ldapClient.searchAll(eq("(&(objectClass=person)(uSNChanged>=12))"), any(), eq(500), any())).thenAnswer(answeredBy("ldap://first", Arrays.asList(
+                new MirroredUser("uid=sbanks", new User("sbanks", "Sarah Parker", null), 13L, "20220101010000.0Z"),
+                new MirroredUser("uid=pbanks", new User("pbanks", "Phillip Banks", null), 14L, "20220101010000.0Z"))));
+
+        mirror.refresh();
+        when(clock.instant()).thenReturn(now.plus(Duration.ofMinutes(15)));
+        mirror.refresh();
+
+        final MirrorSnapshot snapshot = mirror.snapshot();
+        assertThat(snapshot.getLoadedAt()).isEqualTo(now.plus(Duration.ofMinutes(15)));
+        assertThat(snapshot.getUsers()).extracting(user -> user.getUser().getDisplayName())
+                .containsExactly("Bob Ford", "Sarah Parker", "Phillip Banks");
+        assertThat(snapshot.getHighWaterMark().changedSinceFilter()).isEqualTo("(uSNChanged>=14)");
+    }
+
+    @Test
+    void shouldOnlyLoadUsersChangedSinceLatestModifyTimestampWhenServerHasNoUsn() {
+        when(ldapClient.searchAll(eq("(objectClass=person)"), any(), eq(500), any())).thenAnswer(answeredBy("ldap://first", Arrays.asList(
+                new MirroredUser("uid=bford", new User("bford", "Bob Ford", null), null, "20220101000000.5Z"),
+                new MirroredUser("uid=sbanks", new User("sbanks", "Sarah Banks", null), null, "20220101000000Z"))));
+
+        mirror.refresh();
+        mirror.refresh();
+
+        verify(ldapClient).searchAll(eq("(&(objectClass=person)(|(modifyTimestamp>=20220101000000.5Z)(createTimestamp>=20220101000000.5Z)))"), any(), eq(500), any());
+    }
+
+    @Test
+    void shouldReloadAllUsersWhenServerDoesNotTellWhenUsersChanged() {
+        when(ldapClient.searchAll(any(), any(), anyInt(), any())).thenAnswer(answeredBy("ldap://first", Collections.singletonList(
+                new MirroredUser("uid=bford", new User("bford", "Bob Ford", null)))));
+
+        mirror.refresh();
+        mirror.refresh();
+
+        verify(ldapClient, times(2)).searchAll(eq("(objectClass=person)"), any(), eq(500), any());
+    }
+
+    @Test
+    void shouldReloadAllUsersEveryFullReloadIntervalToDropRemovedUsers() {
+        when(ldapClient.searchAll(eq("(objectClass=person)"), any(), eq(500), any()))
+                .thenAnswer(answeredBy("ldap://first", Arrays.asList(
+                        new MirroredUser("uid=bford", new User("bford", "Bob Ford", null), 11L, null),
+                        new MirroredUser("uid=sbanks", new User("sbanks", "Sarah Banks", null), 12L, null))))
+                .thenAnswer(answeredBy("ldap://first", Collections.singletonList(new MirroredUser("uid=bford", new User("bford", "Bob Ford", null), 11L, null))));
+        when(ldapClient.searchAll(eq("(&(objectClass=person)(uSNChanged>=12))"), any(), eq(500), any())).thenAnswer(answeredBy("ldap://first", Collections.emptyList()));
+
+        mirror.refresh();
+        when(clock.instant()).thenReturn(now.plus(Duration.ofHours(5)));
+        mirror.refresh();
+        assertThat(mirror.snapshot().contains("sbanks")).isTrue();
+
+        when(clock.instant()).thenReturn(now.plus(Duration.ofHours(6)));
+        mirror.refresh();
+
+        assertThat(mirror.snapshot().contains("sbanks")).isFalse();
+        verify(ldapClient, times(2)).searchAll(eq("(objectClass=person)"), any(), eq(500), any());
+    }
+
+    @Test
+    void shouldReloadAllUsersWhenChangesSinceUsnChangedAreLoadedFromAnotherServer() {
+        when(ldapClient.searchAll(eq("(objectClass=person)"), any(), eq(500), any()))
+                .thenAnswer(answeredBy("ldap://first", Arrays.asList(
+                        new MirroredUser("uid=bford", new User("bford", "Bob Ford", null), 11L, null),
+                        new MirroredUser("uid=sbanks", new User("sbanks", "Sarah Banks", null), 12L, null))))
+                .thenAnswer(answeredBy("ldap://second", Collections.singletonList(new MirroredUser("uid=bford", new User("bford", "Bob Ford", null), 7L, null))));
+        when(ldapClient.searchAll(eq("(&(objectClass=person)(uSNChanged>=12))"), any(), eq(500), any()))
+                .thenAnswer(answeredBy("ldap://second", Collections.emptyList()));
+
+        mirror.refresh();
+        mirror.refresh();
+
+        assertThat(mirror.snapshot().contains("sbanks")).isFalse();
+        assertThat(mirror.snapshot().getServer()).isEqualTo("ldap://second");
+        assertThat(mirror.snapshot().getHighWaterMark().holdsOn("ldap://second")).isTrue();
+        verify(ldapClient, times(2)).searchAll(eq("(objectClass=person)"), any(), eq(500), any());
+    }
+
+    private static Answer<List<MirroredUser>> answeredBy(String server, List<MirroredUser> users) {
+        return invocation -> {
+            invocation.<Consumer<String>>getArgument(3).accept(server);
+            return users;
+        };
+    }
+}
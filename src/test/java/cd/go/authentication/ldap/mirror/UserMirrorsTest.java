@@ -0,0 +1,168 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.mirror;
+
+import cd.go.apacheds.LdapConfigurationBuilder;
+import cd.go.authentication.ldap.LdapClient;
+import cd.go.authentication.ldap.LdapFactory;
+import cd.go.authentication.ldap.model.AuthConfig;
+import cd.go.authentication.ldap.model.User;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.mockito.ArgumentCaptor;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collections;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.*;
+import static org.mockito.Mockito.*;
+
+class UserMirrorsTest {
+    private LdapFactory ldapFactory;
+    private LdapClient ldapClient;
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> scheduledRefresh;
+    private Clock clock;
+    private Instant now;
+    private AuthConfig authConfig;
+    private UserMirrors userMirrors;
+
+    @BeforeEach
+    void setUp() {
+        ldapFactory = mock(LdapFactory.class);
+        ldapClient = mock(LdapClient.class);
+        scheduler = mock(ScheduledExecutorService.class);
+        scheduledRefresh = mock(ScheduledFuture.class);
+        clock = mock(Clock.class);
+        now = Instant.parse("2022-01-01T00:00:00Z");
+        when(clock.instant()).thenReturn(now);
+        doReturn(scheduledRefresh).when(scheduler).scheduleWithFixedDelay(any(), anyLong(), anyLong(), any());
+
+        authConfig = new AuthConfig("ldap", new LdapConfigurationBuilder().withUserMirrorFilter("objectClass=inetOrgPerson").build());
+        when(ldapFactory.ldapForConfiguration(authConfig.getConfiguration())).thenReturn(ldapClient);
+        when(ldapClient.searchAll(eq("(objectClass=inetOrgPerson)"), any(), eq(500), any()))
+                .thenReturn(Collections.singletonList(new MirroredUser("uid=bford,ou=users,ou=system", new User("bford", "Bob Ford", "bford@example.com"))));
+
+        userMirrors = new UserMirrors(ldapFactory, Duration.ofMinutes(15), Duration.ofHours(6), 500, scheduler, clock);
+    }
+
+    @Test
+    void shouldNotMirrorUsersOfAuthConfigWithoutUserMirrorFilter() {
+        final AuthConfig withoutFilter = new AuthConfig("ldap", new LdapConfigurationBuilder().build());
+
+        assertThat(userMirrors.snapshotFor(withoutFilter)).isNull();
+        assertThat(UserMirrors.disabled().snapshotFor(authConfig)).isNull();
+        verifyNoInteractions(scheduler);
+    }
+
+    @Test
+    void shouldServeUsersOnceLoadedInBackground() {
+        assertThat(userMirrors.snapshotFor(authConfig)).isNull();
+
+        refresh().run();
+
+        final MirrorSnapshot snapshot = userMirrors.snapshotFor(authConfig);
+        assertThat(snapshot.contains("bford")).isTrue();
+        verify(scheduler).scheduleWithFixedDelay(any(), eq(0L), eq(Duration.ofMinutes(15).toMillis()), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void shouldStartMirrorOnlyOnce() {
+        userMirrors.snapshotFor(authConfig);
+        userMirrors.snapshotFor(authConfig);
+
+        verify(scheduler, times(1)).scheduleWithFixedDelay(any(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void shouldKeepUsersLoadedBeforeWhenLoadingFailsUntilTheyAreTooOld() {
+        userMirrors.snapshotFor(authConfig);
+        final Runnable refresh = refresh();
+        refresh.run();
+
+        when(ldapClient.searchAll(any(), any(), anyInt(), any())).thenThrow(new RuntimeException("Connection refused"));
+        when(clock.instant()).thenReturn(now.plus(Duration.ofMinutes(15)));
+        refresh.run();
+        assertThat(userMirrors.snapshotFor(authConfig)).isNotNull();
+
+        when(clock.instant()).thenReturn(now.plus(Duration.ofMinutes(46)));
+        assertThat(userMirrors.snapshotFor(authConfig)).isNull();
+    }
+
+    @Test
+    void shouldStopMirrorWhichIsNotUsed() {
+        userMirrors.snapshotFor(authConfig);
+        final Runnable refresh = refresh();
+
+        when(clock.instant()).thenReturn(now.plus(Duration.ofMinutes(31)));
+        refresh.run();
+
+        verify(scheduledRefresh).cancel(false);
+        verify(ldapClient, never()).searchAll(any(), any(), anyInt(), any());
+
+        userMirrors.snapshotFor(authConfig);
+        verify(scheduler, times(2)).scheduleWithFixedDelay(any(), anyLong(), anyLong(), any());
+    }
+
+    @Test
+    void shouldServeUsersWrittenToDiskRightAwayAfterRestart(@TempDir Path snapshotDirectory) {
+        userMirrors = new UserMirrors(ldapFactory, Duration.ofMinutes(15), Duration.ofHours(6), 500, snapshotDirectory, scheduler, clock);
+        userMirrors.snapshotFor(authConfig);
+        refresh().run();
+
+        when(ldapClient.searchAll(any(), any(), anyInt(), any())).thenThrow(new RuntimeException("Connection refused"));
+        when(clock.instant()).thenReturn(now.plus(Duration.ofMinutes(5)));
+        final UserMirrors restarted = new UserMirrors(ldapFactory, Duration.ofMinutes(15), Duration.ofHours(6), 500, snapshotDirectory, scheduler, clock);
+
+        final MirrorSnapshot snapshot = restarted.snapshotFor(authConfig);
+        assertThat(snapshot.contains("bford")).isTrue();
+        assertThat(snapshot.getLoadedAt()).isEqualTo(now);
+    }
+
+    @Test
+    void shouldDeleteUsersWrittenToDiskWhenMirrorIsStopped(@TempDir Path snapshotDirectory) throws Exception {
+        userMirrors = new UserMirrors(ldapFactory, Duration.ofMinutes(15), Duration.ofHours(6), 500, snapshotDirectory, scheduler, clock);
+        userMirrors.snapshotFor(authConfig);
+        final Runnable refresh = refresh();
+        refresh.run();
+        try (var files = Files.list(snapshotDirectory)) {
+            assertThat(files).hasSize(1);
+        }
+
+        when(clock.instant()).thenReturn(now.plus(Duration.ofMinutes(31)));
+        refresh.run();
+
+        try (var files = Files.list(snapshotDirectory)) {
+            assertThat(files).isEmpty();
+        }
+    }
+
+    private Runnable refresh() {
+        final ArgumentCaptor<Runnable> refresh = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, atLeastOnce()).scheduleWithFixedDelay(refresh.capture(), anyLong(), anyLong(), any());
+        return refresh.getValue();
+    }
+}
@@ -17,9 +17,13 @@
 package cd.go.authentication.ldap.model;
 
 import cd.go.apacheds.LdapConfigurationBuilder;
+import org.apache.directory.api.ldap.model.url.LdapUrl;
 import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 
+import java.time.Duration;
+
+import static cd.go.authentication.ldap.utils.Util.GSON;
 import static org.assertj.core.api.Assertions.assertThat;
 
 class LdapConfigurationTest {
@@ -50,6 +54,92 @@ class LdapConfigurationTest {
         assertThat(ldapConfiguration.getUserSearchFilter()).isEqualTo("(cn={0})");
     }
 
+    @Test
+    void shouldUseDefaultConnectionPoolSettingsWhenNotConfigured() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().build();
+
+        assertThat(ldapConfiguration.getPoolMaxTotal()).isEqualTo(250);
+        assertThat(ldapConfiguration.getPoolMaxIdle()).isEqualTo(50);
+        assertThat(ldapConfiguration.getPoolMinIdle()).isEqualTo(0);
+        assertThat(ldapConfiguration.getPoolMaxWait()).isNull();
+        assertThat(ldapConfiguration.getPoolMaxConnectionLifetime()).isNull();
+        assertThat(ldapConfiguration.getPoolEvictionInterval()).isNull();
+    }
+
+    @Test
+    void shouldReadConnectionPoolSettings() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withPoolMaxTotal("20")
+                .withPoolMaxIdle("10")
+                .withPoolMinIdle("2")
+                .withPoolMaxWait("3")
+                .withPoolMaxConnectionLifetime(" 600 ")
+                .withPoolEvictionInterval("30")
+                .build();
+
+        assertThat(ldapConfiguration.getPoolMaxTotal()).isEqualTo(20);
+        assertThat(ldapConfiguration.getPoolMaxIdle()).isEqualTo(10);
+        assertThat(ldapConfiguration.getPoolMinIdle()).isEqualTo(2);
+        assertThat(ldapConfiguration.getPoolMaxWait()).isEqualTo(Duration.ofSeconds(3));
+        assertThat(ldapConfiguration.getPoolMaxConnectionLifetime()).isEqualTo(Duration.ofMinutes(10));
+        assertThat(ldapConfiguration.getPoolEvictionInterval()).isEqualTo(Duration.ofSeconds(30));
+    }
+
+    @Test
+    void shouldFallBackToDefaultForInvalidConnectionPoolSettings() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withPoolMaxTotal("many")
+                .withPoolMaxWait("soon")
+                .build();
+
+        assertThat(ldapConfiguration.getPoolMaxTotal()).isEqualTo(250);
+        assertThat(ldapConfiguration.getPoolMaxWait()).isNull();
+    }
+
+    @Test
+    void shouldReadMultipleUrlsInOrder() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withURL("ldap://primary:389\n  ldaps://replica:636 ldap://backup")
+                .build();
+
+        assertThat(ldapConfiguration.getLdapUrls()).extracting(LdapUrl::getHost).containsExactly("primary", "replica", "backup");
+        assertThat(ldapConfiguration.getLdapUrl().getHost()).isEqualTo("primary");
+        assertThat(ldapConfiguration.getLdapUrlAsString()).isEqualTo("ldap://primary:389 ldaps://replica:636 ldap://backup");
+    }
+
+    @Test
+    void shouldReadTimeoutsFallingBackToDefaults() {
+        assertThat(new LdapConfigurationBuilder().build().getConnectTimeout()).isEqualTo(Duration.ofSeconds(10));
+        assertThat(new LdapConfigurationBuilder().build().getResponseTimeout()).isEqualTo(Duration.ofSeconds(30));
+        assertThat(new LdapConfigurationBuilder().build().getBindTimeout()).isEqualTo(Duration.ofSeconds(10));
+
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withConnectTimeout("2")
+                .withResponseTimeout("15")
+                .withBindTimeout("later")
+                .build();
+
+        assertThat(ldapConfiguration.getConnectTimeout()).isEqualTo(Duration.ofSeconds(2));
+        assertThat(ldapConfiguration.getResponseTimeout()).isEqualTo(Duration.ofSeconds(15));
+        assertThat(ldapConfiguration.getBindTimeout()).isEqualTo(Duration.ofSeconds(10));
+    }
+
+    @Test
+    void shouldHashEqualConfigurationsAlike() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().withURL("ldap://primary").build();
+
+        assertThat(ldapConfiguration.hashCode()).isEqualTo(ldapConfiguration.hashCode());
+        assertThat(ldapConfiguration.hashCode()).isEqualTo(new LdapConfigurationBuilder().withURL("ldap://primary").build().hashCode());
+        assertThat(ldapConfiguration).isNotEqualTo(new LdapConfigurationBuilder().withURL("ldap://replica").build());
+        assertThat(LdapConfiguration.fromJSON(GSON.toJson(ldapConfiguration))).isEqualTo(ldapConfiguration).hasSameHashCodeAs(ldapConfiguration);
+    }
+
+    @Test
+    void shouldDefaultUserValidationFilterToUserLoginFilter() {
+        assertThat(new LdapConfigurationBuilder().withUserLoginFilter("sAMAccountName={0}").build().getUserValidationFilter()).isEqualTo("(sAMAccountName={0})");
+        assertThat(new LdapConfigurationBuilder().withUserValidationFilter("uid={0}").build().getUserValidationFilter()).isEqualTo("(uid={0})");
+    }
+
     @Nested
     class EncloseInCurlyBraces {
         @Test
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.validators;
+
+import cd.go.plugin.base.validation.ValidationResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ConnectionPoolValidatorTest {
+    private final ConnectionPoolValidator validator = new ConnectionPoolValidator();
+
+    @Test
+    void shouldBeValidWhenNoPoolSettingsAreProvided() {
+        assertThat(validator.validate(Map.of("Url", "ldap://localhost"))).isEmpty();
+    }
+
+    @Test
+    void shouldBeValidForSensiblePoolSettings() {
+        final ValidationResult result = validator.validate(Map.of(
+                "PoolMaxTotal", "20",
+                "PoolMaxIdle", "10",
+                "PoolMinIdle", "2",
+                "PoolMaxWait", "0",
+                "PoolMaxConnectionLifetime", "600",
+                "PoolEvictionInterval", "30"));
+
+        assertThat(result).isEmpty();
+    }
+
+    @Test
+    void shouldRejectValuesWhichAreNotWholeNumbersOrAreTooSmall() {
+        final ValidationResult result = validator.validate(Map.of(
+                "PoolMaxTotal", "0",
+                "PoolMaxWait", "1.5",
+                "PoolMaxConnectionLifetime", "-1",
+                "PoolEvictionInterval", "often"));
+
+        assertThat(result.hasKey("PoolMaxTotal")).isTrue();
+        assertThat(result.hasKey("PoolMaxWait")).isTrue();
+        assertThat(result.hasKey("PoolMaxConnectionLifetime")).isTrue();
+        assertThat(result.hasKey("PoolEvictionInterval")).isTrue();
+        assertThat(result.find("PoolMaxTotal").get().getMessage()).isEqualTo("PoolMaxTotal must be a whole number greater than or equal to 1.");
+    }
+
+    @Test
+    void shouldRejectMaxIdleGreaterThanMaxTotal() {
+        final ValidationResult result = validator.validate(Map.of("PoolMaxTotal", "10", "PoolMaxIdle", "20"));
+
+        assertThat(result.hasKey("PoolMaxIdle")).isTrue();
+    }
+
+    @Test
+    void shouldLimitDefaultMaxIdleToMaxTotal() {
+        assertThat(validator.validate(Map.of("PoolMaxTotal", "10"))).isEmpty();
+    }
+
+    @Test
+    void shouldRejectMinIdleGreaterThanMaxIdle() {
+        final ValidationResult result = validator.validate(Map.of("PoolMaxIdle", "5", "PoolMinIdle", "6"));
+
+        assertThat(result.hasKey("PoolMinIdle")).isTrue();
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.authentication.ldap.validators;
+
+import cd.go.plugin.base.validation.ValidationResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class TimeoutValidatorTest {
+    private final TimeoutValidator validator = new TimeoutValidator();
+
+    @Test
+    void shouldBeValidWhenNoTimeoutsAreProvided() {
+        assertThat(validator.validate(Map.of("Url", "ldap://localhost"))).isEmpty();
+    }
+
+    @Test
+    void shouldBeValidForPositiveWholeNumbersOfSeconds() {
+        assertThat(validator.validate(Map.of("ConnectTimeout", "5", "ResponseTimeout", " 20 ", "BindTimeout", "3"))).isEmpty();
+    }
+
+    @Test
+    void shouldRejectTimeoutsWhichAreNotPositiveWholeNumbers() {
+        final ValidationResult result = validator.validate(Map.of("ConnectTimeout", "0", "ResponseTimeout", "1.5", "BindTimeout", "soon"));
+
+        assertThat(result.hasKey("ConnectTimeout")).isTrue();
+        assertThat(result.hasKey("ResponseTimeout")).isTrue();
+        assertThat(result.hasKey("BindTimeout")).isTrue();
+        assertThat(result.find("ConnectTimeout").get().getMessage()).isEqualTo("ConnectTimeout must be a whole number of seconds greater than 0.");
+    }
+}
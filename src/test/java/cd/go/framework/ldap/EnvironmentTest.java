@@ -0,0 +1,57 @@
+/*
+ * Copyright 2022 Thoughtworks, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package cd.go.framework.ldap;
+
+import cd.go.apacheds.LdapConfigurationBuilder;
+import cd.go.authentication.ldap.model.LdapConfiguration;
+import org.junit.jupiter.api.Test;
+
+import java.util.Hashtable;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EnvironmentTest {
+    @Test
+    void shouldSetConnectAndReadTimeouts() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withConnectTimeout("3")
+                .withResponseTimeout("20")
+                .build();
+
+        final Hashtable<String, Object> environments = new Environment(ldapConfiguration).getEnvironments();
+
+        assertThat(environments.get(Environment.CONNECT_TIMEOUT)).isEqualTo("3000");
+        assertThat(environments.get(Environment.READ_TIMEOUT)).isEqualTo("20000");
+    }
+
+    @Test
+    void shouldNotTimeOutReadsBeforeSearchTimeLimit() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder()
+                .withResponseTimeout("20")
+                .withSearchTimeout(60)
+                .build();
+
+        assertThat(new Environment(ldapConfiguration).getEnvironments().get(Environment.READ_TIMEOUT)).isEqualTo("60000");
+    }
+
+    @Test
+    void shouldUseBindTimeoutAsReadTimeoutForBinds() {
+        final LdapConfiguration ldapConfiguration = new LdapConfigurationBuilder().withBindTimeout("4").build();
+
+        assertThat(new Environment(ldapConfiguration).getBindEnvironments().get(Environment.READ_TIMEOUT)).isEqualTo("4000");
+    }
+}